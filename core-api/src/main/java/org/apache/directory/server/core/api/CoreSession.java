@@ -35,8 +35,10 @@ import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.CompareRequest;
 import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.LdapResult;
 import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.Request;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.UnbindRequest;
@@ -45,6 +47,7 @@ import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.changelog.LogChange;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
 
 
 /**
@@ -474,6 +477,20 @@ public interface CoreSession
     void modify( ModifyRequest modifyRequest, LogChange log ) throws LdapException;
 
 
+    /**
+     * Applies a batch of add, modify and delete requests. The requests are processed
+     * in order, as if they were sent one by one, but the server takes its write lock
+     * once, and flushes the partitions once, at the end of the batch.
+     *
+     * @param requests the AddRequest, ModifyRequest and DeleteRequest to apply
+     * @param atomic if true, the batch stops on the first failure, and the changes already
+     * applied are reverted. Otherwise, every request is tried.
+     * @return the result of each request, in the same order as the requests
+     * @throws LdapException if the batch contains other requests, or can't be processed at all
+     */
+    List<LdapResult> batch( List<? extends Request> requests, boolean atomic ) throws LdapException;
+
+
     /**
      * Moves an entry or a branch of entries at a specified distinguished name
      * to a position under a new parent.
@@ -768,6 +785,17 @@ public interface CoreSession
     Cursor<Entry> search( SearchRequest searchRequest ) throws LdapException;
 
 
+    /**
+     * Searches the directory, filling an execution trace while the search is processed.
+     *
+     * @param searchRequest The search request
+     * @param trace The execution trace, or null if the search is not traced
+     * @return A cursor on the found entries
+     * @throws LdapException If the search failed
+     */
+    Cursor<Entry> search( SearchRequest searchRequest, SearchTrace trace ) throws LdapException;
+
+
     /**
      * Unbind from the current LdapSession.
      * 
@@ -41,6 +41,7 @@ import org.apache.directory.server.core.api.entry.ServerEntryFactory;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -614,4 +615,10 @@ public interface DirectoryService extends ServerEntryFactory
      * @param cacheService the cache service
      */
     void setCacheService( CacheService cacheService );
+
+
+    /**
+     * @return The registry holding the metrics collected by this service
+     */
+    MetricsRegistry getMetricsRegistry();
 }
@@ -75,6 +75,7 @@ import org.apache.directory.api.ldap.model.message.ModifyRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
 import org.apache.directory.api.ldap.model.message.ModifyResponse;
 import org.apache.directory.api.ldap.model.message.ModifyResponseImpl;
+import org.apache.directory.api.ldap.model.message.Request;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
@@ -372,6 +373,33 @@ public class LdapCoreSessionConnection extends AbstractLdapConnection
     }
 
 
+    /**
+     * Applies a batch of add, modify and delete requests, in order, in a single call
+     * to the server. See {@link CoreSession#batch(List, boolean)}.
+     *
+     * @param requests the AddRequest, ModifyRequest and DeleteRequest to apply
+     * @param atomic if true, the changes are reverted as soon as one request fails
+     * @return the result of each request, in the same order as the requests
+     * @throws LdapException if the batch contains other requests, or can't be processed at all
+     */
+    public List<LdapResult> batch( List<? extends Request> requests, boolean atomic ) throws LdapException
+    {
+        if ( requests == null )
+        {
+            String msg = "Cannot process a null batch";
+            LOG.debug( msg );
+            throw new IllegalArgumentException( msg );
+        }
+
+        for ( Request request : requests )
+        {
+            request.setMessageId( messageId.incrementAndGet() );
+        }
+
+        return session.batch( requests, atomic );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -20,10 +20,12 @@
 package org.apache.directory.server.core.api;
 
 
+import java.util.List;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.LdapResult;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
@@ -35,6 +37,7 @@ import org.apache.directory.server.core.api.interceptor.context.LookupOperationC
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
@@ -133,6 +136,22 @@ public interface OperationManager
     void unbind( UnbindOperationContext unbindContext ) throws LdapException;
 
 
+    /**
+     * Applies a batch of add, modify and delete operations. The write lock is taken
+     * once for the whole batch, and the partitions are flushed once, when the batch
+     * is completed. Each operation still goes through the interceptor chain.
+     * 
+     * @param contexts The Add, Modify and Delete contexts to process, in order
+     * @param atomic If true, the batch stops on the first failure and the operations
+     * already applied are reverted. Otherwise, all the operations are tried. If an
+     * operation can't be reverted, its result and the ones of the operations before
+     * it tell they are still applied.
+     * @return The result of each operation, in the same order as the contexts
+     * @throws LdapException If the batch can't be processed at all
+     */
+    List<LdapResult> batch( List<? extends OperationContext> contexts, boolean atomic ) throws LdapException;
+
+
     /**
      * Acquires a WriteLock
      */
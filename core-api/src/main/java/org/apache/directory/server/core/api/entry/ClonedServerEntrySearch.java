@@ -0,0 +1,362 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+
+
+/**
+ * A copy-on-write {@link ClonedServerEntry} used for search results.
+ * <br>
+ * The entry is created as a shallow copy of the original entry : both entries share
+ * the same Attribute instances. Removing attributes, which is what the selection of
+ * the requested attributes mostly does, does not require any copy. An attribute is
+ * cloned only when it is handed out, either to be read or to be modified, so that
+ * the original entry, which may be held by the partition's cache, is never modified.
+ * The attributes which are not requested are never cloned.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ClonedServerEntrySearch extends ClonedServerEntry
+{
+    /** Tells if all the attributes have already been copied */
+    private boolean allCopied;
+
+    /** The attributes added with putShared(), which are shared with other entries */
+    private Set<Attribute> sharedAttributes;
+
+
+    /**
+     * Creates a new instance of ClonedServerEntrySearch.
+     *
+     * @param originalEntry The original entry, which will not be modified
+     */
+    public ClonedServerEntrySearch( Entry originalEntry )
+    {
+        this.originalEntry = originalEntry;
+        this.clonedEntry = originalEntry.shallowClone();
+    }
+
+
+    /**
+     * Adds an attribute which is shared with other entries, without copying it. Like the
+     * attributes of the original entry, it will only be copied if it's handed out.
+     *
+     * @param attribute The shared attribute, which will not be modified
+     * @throws LdapException If the attribute can't be added
+     */
+    public void putShared( Attribute attribute ) throws LdapException
+    {
+        if ( sharedAttributes == null )
+        {
+            sharedAttributes = Collections.newSetFromMap( new IdentityHashMap<Attribute, Boolean>() );
+        }
+
+        sharedAttributes.add( attribute );
+        clonedEntry.put( attribute );
+        allCopied = false;
+    }
+
+
+    /**
+     * Tells if an attribute is still shared with the original entry, or with other entries
+     */
+    private boolean isShared( Attribute attribute )
+    {
+        if ( ( sharedAttributes != null ) && sharedAttributes.contains( attribute ) )
+        {
+            return true;
+        }
+
+        AttributeType attributeType = attribute.getAttributeType();
+
+        if ( attributeType != null )
+        {
+            return originalEntry.get( attributeType ) == attribute;
+        }
+        else
+        {
+            return originalEntry.get( attribute.getId() ) == attribute;
+        }
+    }
+
+
+    /**
+     * Replaces an attribute shared with the original entry by a copy, and returns
+     * this copy
+     */
+    private Attribute copy( Attribute attribute )
+    {
+        if ( allCopied || ( attribute == null ) || !isShared( attribute ) )
+        {
+            return attribute;
+        }
+
+        Attribute copy = attribute.clone();
+
+        try
+        {
+            clonedEntry.put( copy );
+        }
+        catch ( LdapException le )
+        {
+            // Can't happen, the attribute is already in the entry
+            throw new IllegalStateException( le.getMessage(), le );
+        }
+
+        return copy;
+    }
+
+
+    /**
+     * Replaces all the attributes shared with the original entry by a copy
+     */
+    private void copyAll()
+    {
+        if ( allCopied )
+        {
+            return;
+        }
+
+        Attribute[] attributes = clonedEntry.getAttributes().toArray( new Attribute[0] );
+
+        for ( Attribute attribute : attributes )
+        {
+            copy( attribute );
+        }
+
+        allCopied = true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry getClonedEntry()
+    {
+        copyAll();
+
+        return clonedEntry;
+    }
+
+
+    @Override
+    public Entry add( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        copy( clonedEntry.get( attributeType ) );
+
+        return clonedEntry.add( attributeType, values );
+    }
+
+
+    @Override
+    public Entry add( AttributeType attributeType, String... values ) throws LdapException
+    {
+        copy( clonedEntry.get( attributeType ) );
+
+        return clonedEntry.add( attributeType, values );
+    }
+
+
+    @Override
+    public Entry add( AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        copy( clonedEntry.get( attributeType ) );
+
+        return clonedEntry.add( attributeType, values );
+    }
+
+
+    @Override
+    public Entry add( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        return add( attributeType, values );
+    }
+
+
+    @Override
+    public Entry add( String upId, AttributeType attributeType, String... values ) throws LdapException
+    {
+        return add( attributeType, values );
+    }
+
+
+    @Override
+    public Entry add( String upId, AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        return add( attributeType, values );
+    }
+
+
+    @Override
+    public Entry add( String upId, String... values ) throws LdapException
+    {
+        copy( clonedEntry.get( upId ) );
+
+        return clonedEntry.add( upId, values );
+    }
+
+
+    @Override
+    public Entry add( String upId, byte[]... values ) throws LdapException
+    {
+        copy( clonedEntry.get( upId ) );
+
+        return clonedEntry.add( upId, values );
+    }
+
+
+    @Override
+    public Entry add( String upId, Value<?>... values ) throws LdapException
+    {
+        copy( clonedEntry.get( upId ) );
+
+        return clonedEntry.add( upId, values );
+    }
+
+
+    @Override
+    public Entry add( Attribute... attributes ) throws LdapException
+    {
+        for ( Attribute attribute : attributes )
+        {
+            if ( attribute.getAttributeType() != null )
+            {
+                copy( clonedEntry.get( attribute.getAttributeType() ) );
+            }
+            else
+            {
+                copy( clonedEntry.get( attribute.getId() ) );
+            }
+        }
+
+        return clonedEntry.add( attributes );
+    }
+
+
+    @Override
+    public Attribute get( AttributeType attributeType )
+    {
+        return copy( clonedEntry.get( attributeType ) );
+    }
+
+
+    @Override
+    public Attribute get( String alias )
+    {
+        return copy( clonedEntry.get( alias ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Collection<Attribute> getAttributes()
+    {
+        copyAll();
+
+        return clonedEntry.getAttributes();
+    }
+
+
+    @Override
+    public Iterator<Attribute> iterator()
+    {
+        copyAll();
+
+        return clonedEntry.iterator();
+    }
+
+
+    @Override
+    public boolean remove( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        copy( clonedEntry.get( attributeType ) );
+
+        return clonedEntry.remove( attributeType, values );
+    }
+
+
+    @Override
+    public boolean remove( AttributeType attributeType, String... values ) throws LdapException
+    {
+        copy( clonedEntry.get( attributeType ) );
+
+        return clonedEntry.remove( attributeType, values );
+    }
+
+
+    @Override
+    public boolean remove( AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        copy( clonedEntry.get( attributeType ) );
+
+        return clonedEntry.remove( attributeType, values );
+    }
+
+
+    @Override
+    public boolean remove( String upId, byte[]... values ) throws LdapException
+    {
+        copy( clonedEntry.get( upId ) );
+
+        return clonedEntry.remove( upId, values );
+    }
+
+
+    @Override
+    public boolean remove( String upId, String... values ) throws LdapException
+    {
+        copy( clonedEntry.get( upId ) );
+
+        return clonedEntry.remove( upId, values );
+    }
+
+
+    @Override
+    public boolean remove( String upId, Value<?>... values ) throws LdapException
+    {
+        copy( clonedEntry.get( upId ) );
+
+        return clonedEntry.remove( upId, values );
+    }
+
+
+    @Override
+    public Entry shallowClone()
+    {
+        copyAll();
+
+        return clonedEntry.shallowClone();
+    }
+}
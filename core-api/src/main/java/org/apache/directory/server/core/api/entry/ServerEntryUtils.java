@@ -760,8 +760,7 @@ public class ServerEntryUtils
         {
             for ( Attribute attribute : originalEntry )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-                entry.remove( entry.get( attributeType ) );
+                entry.removeAttributes( attribute.getAttributeType() );
             }
 
             entry.removeAttributes( entryDnType );
@@ -35,8 +35,10 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.OperationAbandonedException;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.entry.ClonedServerEntrySearch;
 import org.apache.directory.server.core.api.entry.ServerEntryUtils;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -372,7 +374,7 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
 
         Entry tempResult = null;
 
-        outer: while ( wrapped.next() )
+        while ( wrapped.next() )
         {
             Entry tempEntry = wrapped.get();
 
@@ -388,7 +390,7 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
             }
             else
             {
-                tempResult = new ClonedServerEntry( tempEntry );
+                tempResult = new ClonedServerEntrySearch( tempEntry );
             }
 
             /*
@@ -409,24 +411,10 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
                 return true;
             }
 
-            if ( ( filters.size() == 1 ) && filters.get( 0 ).accept( operationContext, tempResult ) )
-            {
-                prefetched = tempResult;
-                ServerEntryUtils.filterContents(
-                    schemaManager,
-                    operationContext, prefetched );
-
-                return true;
-            }
-
             /* E N D   O P T I M I Z A T I O N */
-            for ( EntryFilter filter : filters )
+            if ( !accept( tempResult ) )
             {
-                // if a filter rejects then short and continue with outer loop
-                if ( !filter.accept( operationContext, tempResult ) )
-                {
-                    continue outer;
-                }
+                continue;
             }
 
             /*
@@ -434,6 +422,13 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
              */
             prefetched = tempResult;
 
+            if ( filters.size() == 1 )
+            {
+                ServerEntryUtils.filterContents(
+                    schemaManager,
+                    operationContext, prefetched );
+            }
+
             return true;
         }
 
@@ -443,6 +438,41 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
     }
 
 
+    /**
+     * Applies the filters on an entry, adding the time spent to the search trace if any
+     *
+     * @param entry The entry to check
+     * @return true if all the filters accept the entry
+     * @throws LdapException If one of the filters failed
+     */
+    private boolean accept( Entry entry ) throws LdapException
+    {
+        SearchTrace trace = operationContext.getTrace();
+        long start = ( trace != null ) ? System.nanoTime() : 0L;
+
+        try
+        {
+            for ( EntryFilter filter : filters )
+            {
+                // if a filter rejects then short and stop
+                if ( !filter.accept( operationContext, entry ) )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+        finally
+        {
+            if ( trace != null )
+            {
+                trace.addStageTime( SearchTrace.FILTER_STAGE, start );
+            }
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -466,7 +496,14 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
                 continue;
             }
 
-            tempResult = new ClonedServerEntry/*Search*/( entry );
+            if ( entry instanceof ClonedServerEntry )
+            {
+                tempResult = entry;
+            }
+            else
+            {
+                tempResult = new ClonedServerEntrySearch( entry );
+            }
 
             /*
              * O P T I M I Z A T I O N
@@ -32,6 +32,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
@@ -47,6 +48,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 
 
@@ -397,6 +399,22 @@ public abstract class BaseInterceptor implements Interceptor
     }
 
 
+    /**
+     * Records the time spent in the next interceptor, including the time spent
+     * in the interceptors it calls.
+     */
+    private void recordLatency( Interceptor interceptor, OperationEnum operation, long start )
+    {
+        MetricsRegistry metricsRegistry = ( directoryService == null ) ? null : directoryService.getMetricsRegistry();
+
+        if ( metricsRegistry != null )
+        {
+            metricsRegistry.getHistograms( MetricsRegistry.INTERCEPTORS, interceptor.getName() ).record( operation,
+                start );
+        }
+    }
+
+
     // ------------------------------------------------------------------------
     // Interceptor's Invoke Method
     // ------------------------------------------------------------------------
@@ -418,8 +436,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( AddOperationContext addContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( addContext );
+        long start = System.nanoTime();
 
-        interceptor.add( addContext );
+        try
+        {
+            interceptor.add( addContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.ADD, start );
+        }
     }
 
 
@@ -441,8 +467,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( BindOperationContext bindContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( bindContext );
+        long start = System.nanoTime();
 
-        interceptor.bind( bindContext );
+        try
+        {
+            interceptor.bind( bindContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.BIND, start );
+        }
     }
 
 
@@ -463,8 +497,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final boolean next( CompareOperationContext compareContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( compareContext );
+        long start = System.nanoTime();
 
-        return interceptor.compare( compareContext );
+        try
+        {
+            return interceptor.compare( compareContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.COMPARE, start );
+        }
     }
 
 
@@ -486,8 +528,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( DeleteOperationContext deleteContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( deleteContext );
+        long start = System.nanoTime();
 
-        interceptor.delete( deleteContext );
+        try
+        {
+            interceptor.delete( deleteContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.DELETE, start );
+        }
     }
 
 
@@ -511,8 +561,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final Entry next( GetRootDseOperationContext getRootDseContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( getRootDseContext );
+        long start = System.nanoTime();
 
-        return interceptor.getRootDse( getRootDseContext );
+        try
+        {
+            return interceptor.getRootDse( getRootDseContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.GET_ROOT_DSE, start );
+        }
     }
 
 
@@ -536,8 +594,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final boolean next( HasEntryOperationContext hasEntryContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( hasEntryContext );
+        long start = System.nanoTime();
 
-        return interceptor.hasEntry( hasEntryContext );
+        try
+        {
+            return interceptor.hasEntry( hasEntryContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.HAS_ENTRY, start );
+        }
     }
 
 
@@ -560,8 +626,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final Entry next( LookupOperationContext lookupContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( lookupContext );
+        long start = System.nanoTime();
 
-        return interceptor.lookup( lookupContext );
+        try
+        {
+            return interceptor.lookup( lookupContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.LOOKUP, start );
+        }
     }
 
 
@@ -583,8 +657,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( ModifyOperationContext modifyContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( modifyContext );
+        long start = System.nanoTime();
 
-        interceptor.modify( modifyContext );
+        try
+        {
+            interceptor.modify( modifyContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.MODIFY, start );
+        }
     }
 
 
@@ -606,8 +688,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( MoveOperationContext moveContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( moveContext );
+        long start = System.nanoTime();
 
-        interceptor.move( moveContext );
+        try
+        {
+            interceptor.move( moveContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.MOVE, start );
+        }
     }
 
 
@@ -626,8 +716,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( moveAndRenameContext );
+        long start = System.nanoTime();
 
-        interceptor.moveAndRename( moveAndRenameContext );
+        try
+        {
+            interceptor.moveAndRename( moveAndRenameContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.MOVE_AND_RENAME, start );
+        }
     }
 
 
@@ -649,8 +747,16 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( RenameOperationContext renameContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( renameContext );
+        long start = System.nanoTime();
 
-        interceptor.rename( renameContext );
+        try
+        {
+            interceptor.rename( renameContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.RENAME, start );
+        }
     }
 
 
@@ -673,8 +779,21 @@ public abstract class BaseInterceptor implements Interceptor
     protected final EntryFilteringCursor next( SearchOperationContext searchContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( searchContext );
+        long start = System.nanoTime();
 
-        return interceptor.search( searchContext );
+        try
+        {
+            return interceptor.search( searchContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.SEARCH, start );
+
+            if ( searchContext.getTrace() != null )
+            {
+                searchContext.getTrace().addInterceptorTime( interceptor.getName(), start );
+            }
+        }
     }
 
 
@@ -696,7 +815,15 @@ public abstract class BaseInterceptor implements Interceptor
     protected final void next( UnbindOperationContext unbindContext ) throws LdapException
     {
         Interceptor interceptor = getNextInterceptor( unbindContext );
+        long start = System.nanoTime();
 
-        interceptor.unbind( unbindContext );
+        try
+        {
+            interceptor.unbind( unbindContext );
+        }
+        finally
+        {
+            recordLatency( interceptor, OperationEnum.UNBIND, start );
+        }
     }
 }
@@ -62,6 +62,12 @@ public class BindOperationContext extends AbstractOperationContext
     /** The IoSession if any */
     private IoSession ioSession;
 
+    /** Tells if the caller can delay the failed bind response itself */
+    private boolean failureDelayDeferred;
+
+    /** The delay to apply before answering a failed bind, in milliseconds */
+    private long failureDelay;
+
 
     /**
      * Creates a new instance of BindOperationContext.
@@ -274,4 +280,42 @@ public class BindOperationContext extends AbstractOperationContext
     {
         this.ioSession = ioSession;
     }
+
+
+    /**
+     * @return true if the caller delays the failed bind response itself, instead of
+     * letting the server block the current thread
+     */
+    public boolean isFailureDelayDeferred()
+    {
+        return failureDelayDeferred;
+    }
+
+
+    /**
+     * @param failureDelayDeferred Tells if the caller delays the failed bind response itself
+     */
+    public void setFailureDelayDeferred( boolean failureDelayDeferred )
+    {
+        this.failureDelayDeferred = failureDelayDeferred;
+    }
+
+
+    /**
+     * @return The delay to apply before answering a failed bind, in milliseconds. It's
+     * only set when the failure delay is deferred.
+     */
+    public long getFailureDelay()
+    {
+        return failureDelay;
+    }
+
+
+    /**
+     * @param failureDelay The delay to apply before answering a failed bind, in milliseconds
+     */
+    public void setFailureDelay( long failureDelay )
+    {
+        this.failureDelay = failureDelay;
+    }
 }
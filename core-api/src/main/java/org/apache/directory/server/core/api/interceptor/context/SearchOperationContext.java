@@ -35,6 +35,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.util.StringConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
 
 
 /**
@@ -66,7 +67,10 @@ public class SearchOperationContext extends FilteringOperationContext
 
     /** flag to indicate if this search is done for replication */
     private boolean syncreplSearch;
-    
+
+    /** The execution trace, if the search has to be traced */
+    private SearchTrace trace;
+
     /**
      * Creates a new instance of SearchOperationContext.
      */
@@ -217,6 +221,26 @@ public class SearchOperationContext extends FilteringOperationContext
     }
 
 
+    /**
+     * @return The execution trace, or null if the search is not traced
+     */
+    public SearchTrace getTrace()
+    {
+        return trace;
+    }
+
+
+    /**
+     * Sets the execution trace this search will fill
+     *
+     * @param trace The execution trace
+     */
+    public void setTrace( SearchTrace trace )
+    {
+        this.trace = trace;
+    }
+
+
     /**
      * @return The alias dereferencing mode
      */
@@ -0,0 +1,92 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+/**
+ * The hits and misses of a cache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class HitRatio
+{
+    /** The number of hits */
+    private final StripedCounter hits = new StripedCounter();
+
+    /** The number of misses */
+    private final StripedCounter misses = new StripedCounter();
+
+
+    /**
+     * Records a cache hit
+     */
+    public void hit()
+    {
+        hits.increment();
+    }
+
+
+    /**
+     * Records a cache miss
+     */
+    public void miss()
+    {
+        misses.increment();
+    }
+
+
+    /**
+     * @return The number of hits
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+
+    /**
+     * @return The number of misses
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+
+    /**
+     * @return The percentage of hits, between 0 and 100
+     */
+    public int getRatio()
+    {
+        long nbHits = hits.get();
+        long total = nbHits + misses.get();
+
+        return total == 0 ? 0 : ( int ) ( ( nbHits * 100 ) / total );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "hits=" + getHits() + ", misses=" + getMisses() + ", ratio=" + getRatio() + "%";
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A latency histogram, with a fixed relative precision (HDR style). The recorded
+ * durations are stored in microseconds, in log-linear buckets : each power of 2 is
+ * split in 8 sub-buckets, so the value given for a percentile is at most 12.5% above
+ * the real value. Durations up to 2^40 microseconds (12 days) are supported, above
+ * that they are counted in the last bucket.
+ * <br>
+ * Recording a value does not take any lock : the buckets are striped, so that threads
+ * don't compete for the same cells.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogram
+{
+    /** The number of bits used for the sub-buckets */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** The number of sub-buckets per power of 2 */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** The highest power of 2 we track */
+    private static final int MAX_EXPONENT = 40;
+
+    /** The largest value we can store in a bucket */
+    private static final long MAX_VALUE = ( 1L << MAX_EXPONENT ) - 1;
+
+    /** The number of buckets */
+    static final int NB_BUCKETS = SUB_BUCKETS + ( MAX_EXPONENT - SUB_BUCKET_BITS ) * SUB_BUCKETS;
+
+    /** The number of stripes. We use less than for the counters, as a histogram is bigger */
+    private static final int NB_STRIPES = StripedCounter.computeStripes( 4 );
+
+    /** The buckets, for all the stripes */
+    private final AtomicLongArray buckets = new AtomicLongArray( NB_STRIPES * NB_BUCKETS );
+
+    /** The number of recorded values */
+    private final StripedCounter count = new StripedCounter();
+
+    /** The sum of the recorded values, in microseconds */
+    private final StripedCounter total = new StripedCounter();
+
+    /** The largest recorded value, in microseconds */
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration, in nanoseconds
+     */
+    public void record( long nanos )
+    {
+        long micros = nanos < 0 ? 0 : nanos / 1000L;
+
+        buckets.getAndIncrement( StripedCounter.stripe( NB_STRIPES ) * NB_BUCKETS + getBucket( micros ) );
+        count.increment();
+        total.add( micros );
+
+        long currentMax = max.get();
+
+        while ( ( micros > currentMax ) && !max.compareAndSet( currentMax, micros ) )
+        {
+            currentMax = max.get();
+        }
+    }
+
+
+    /**
+     * @return The bucket index for a value
+     */
+    static int getBucket( long value )
+    {
+        if ( value > MAX_VALUE )
+        {
+            value = MAX_VALUE;
+        }
+
+        if ( value < SUB_BUCKETS )
+        {
+            return ( int ) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros( value );
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = ( int ) ( value >>> shift ) & ( SUB_BUCKETS - 1 );
+
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+
+    /**
+     * @return The highest value which can be stored in a bucket
+     */
+    static long getBucketUpperBound( int bucket )
+    {
+        if ( bucket < SUB_BUCKETS )
+        {
+            return bucket;
+        }
+
+        int shift = ( bucket - SUB_BUCKETS ) / SUB_BUCKETS;
+        int subBucket = ( bucket - SUB_BUCKETS ) % SUB_BUCKETS;
+        long lowerBound = ( long ) ( SUB_BUCKETS + subBucket ) << shift;
+
+        return lowerBound + ( 1L << shift ) - 1;
+    }
+
+
+    /**
+     * @return The number of recorded durations
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+
+    /**
+     * @return The mean duration, in microseconds
+     */
+    public long getMean()
+    {
+        long nb = count.get();
+
+        return nb == 0 ? 0L : total.get() / nb;
+    }
+
+
+    /**
+     * @return The largest recorded duration, in microseconds
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+
+    /**
+     * Gives the duration under which a given percentage of the recorded durations are.
+     *
+     * @param percentile The percentage, between 0 and 100
+     * @return The duration, in microseconds
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        long[] merged = new long[NB_BUCKETS];
+        long nb = 0L;
+
+        for ( int stripe = 0; stripe < NB_STRIPES; stripe++ )
+        {
+            for ( int i = 0; i < NB_BUCKETS; i++ )
+            {
+                long value = buckets.get( stripe * NB_BUCKETS + i );
+                merged[i] += value;
+                nb += value;
+            }
+        }
+
+        if ( nb == 0 )
+        {
+            return 0L;
+        }
+
+        long target = ( long ) Math.ceil( ( Math.min( percentile, 100d ) / 100d ) * nb );
+
+        if ( target < 1 )
+        {
+            target = 1;
+        }
+
+        long seen = 0L;
+
+        for ( int i = 0; i < NB_BUCKETS; i++ )
+        {
+            seen += merged[i];
+
+            if ( seen >= target )
+            {
+                return Math.min( getBucketUpperBound( i ), max.get() );
+            }
+        }
+
+        return max.get();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "count=" + getCount() + ", mean=" + getMean() + "us, p50=" + getValueAtPercentile( 50 )
+            + "us, p90=" + getValueAtPercentile( 90 ) + "us, p99=" + getValueAtPercentile( 99 ) + "us, max="
+            + getMax() + "us";
+    }
+}
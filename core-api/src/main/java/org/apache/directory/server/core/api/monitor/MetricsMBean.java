@@ -0,0 +1,259 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.directory.server.core.api.OperationEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Exposes the content of a MetricsRegistry through JMX, as a read-only MBean. Each
+ * metric is an attribute, which name is built from the metric group, the component
+ * and the operation, like <code>interceptors.aciAuthorizationInterceptor.search.p99</code>.
+ * The durations are in microseconds.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsMBean implements DynamicMBean
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( MetricsMBean.class );
+
+    /** The exposed registry */
+    private final MetricsRegistry registry;
+
+    /** The name this MBean is registered under, if any */
+    private ObjectName objectName;
+
+
+    /**
+     * Creates a new instance of MetricsMBean.
+     *
+     * @param registry The exposed registry
+     */
+    public MetricsMBean( MetricsRegistry registry )
+    {
+        this.registry = registry;
+    }
+
+
+    /**
+     * Registers this MBean in the platform MBeanServer. A failure is logged, it does not
+     * prevent the server from running.
+     *
+     * @param instanceId The DirectoryService instance ID
+     */
+    public void register( String instanceId )
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName( "org.apache.directory.server:type=Metrics,instance="
+                + ObjectName.quote( instanceId ) );
+
+            if ( server.isRegistered( name ) )
+            {
+                server.unregisterMBean( name );
+            }
+
+            server.registerMBean( this, name );
+            objectName = name;
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot register the metrics MBean : {}", e.getMessage() );
+        }
+    }
+
+
+    /**
+     * Removes this MBean from the platform MBeanServer
+     */
+    public void unregister()
+    {
+        if ( objectName == null )
+        {
+            return;
+        }
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot unregister the metrics MBean : {}", e.getMessage() );
+        }
+
+        objectName = null;
+    }
+
+
+    /**
+     * @return A snapshot of all the metrics values, keyed by their attribute name
+     */
+    public Map<String, Long> snapshot()
+    {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+
+        for ( Map.Entry<String, Map<String, OperationHistograms>> group : registry.getHistograms().entrySet() )
+        {
+            for ( OperationHistograms histograms : group.getValue().values() )
+            {
+                for ( OperationEnum operation : OperationEnum.values() )
+                {
+                    LatencyHistogram histogram = histograms.peekHistogram( operation );
+
+                    if ( histogram != null )
+                    {
+                        String prefix = group.getKey() + '.' + histograms.getName() + '.'
+                            + operation.getMethodName() + '.';
+                        values.put( prefix + "count", histogram.getCount() );
+                        values.put( prefix + "mean", histogram.getMean() );
+                        values.put( prefix + "p50", histogram.getValueAtPercentile( 50 ) );
+                        values.put( prefix + "p99", histogram.getValueAtPercentile( 99 ) );
+                        values.put( prefix + "max", histogram.getMax() );
+                    }
+                }
+            }
+        }
+
+        for ( Map.Entry<String, HitRatio> hitRatio : registry.getHitRatios().entrySet() )
+        {
+            String prefix = "caches." + hitRatio.getKey() + '.';
+            values.put( prefix + "hits", hitRatio.getValue().getHits() );
+            values.put( prefix + "misses", hitRatio.getValue().getMisses() );
+            values.put( prefix + "ratio", ( long ) hitRatio.getValue().getRatio() );
+        }
+
+        for ( Map.Entry<String, StripedCounter> counter : registry.getCounters().entrySet() )
+        {
+            values.put( "counters." + counter.getKey(), counter.getValue().get() );
+        }
+
+        for ( Map.Entry<String, Gauge> gauge : registry.getGauges().entrySet() )
+        {
+            values.put( "gauges." + gauge.getKey(), gauge.getValue().getValue() );
+        }
+
+        return values;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getAttribute( String attribute ) throws AttributeNotFoundException
+    {
+        Long value = snapshot().get( attribute );
+
+        if ( value == null )
+        {
+            throw new AttributeNotFoundException( attribute );
+        }
+
+        return value;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public AttributeList getAttributes( String[] attributes )
+    {
+        Map<String, Long> values = snapshot();
+        AttributeList list = new AttributeList();
+
+        for ( String attribute : attributes )
+        {
+            Long value = values.get( attribute );
+
+            if ( value != null )
+            {
+                list.add( new Attribute( attribute, value ) );
+            }
+        }
+
+        return list;
+    }
+
+
+    /**
+     * The metrics are read-only
+     */
+    public void setAttribute( Attribute attribute ) throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException( attribute.getName() );
+    }
+
+
+    /**
+     * The metrics are read-only
+     */
+    public AttributeList setAttributes( AttributeList attributes )
+    {
+        return new AttributeList();
+    }
+
+
+    /**
+     * No operation is exposed
+     */
+    public Object invoke( String actionName, Object[] params, String[] signature ) throws MBeanException
+    {
+        throw new MBeanException( new UnsupportedOperationException( actionName ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public MBeanInfo getMBeanInfo()
+    {
+        Map<String, Long> values = snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int pos = 0;
+
+        for ( String name : values.keySet() )
+        {
+            attributes[pos++] = new MBeanAttributeInfo( name, Long.class.getName(), name, true, false, false );
+        }
+
+        return new MBeanInfo( getClass().getName(), "ApacheDS metrics", attributes, null,
+            new MBeanOperationInfo[0], null );
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * The metrics collected by a DirectoryService. There are four kinds of metrics :
+ * <ul>
+ * <li>latency histograms, per operation, grouped by kind of component (the whole server,
+ * the interceptors, the partitions)</li>
+ * <li>cache hit ratios</li>
+ * <li>counters</li>
+ * <li>gauges, which are computed when they are read</li>
+ * </ul>
+ * All the metrics are created on demand, and never removed. Updating them does not
+ * take any lock.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsRegistry
+{
+    /** The group for the operations as seen by the OperationManager */
+    public static final String OPERATIONS = "operations";
+
+    /** The group for the interceptors */
+    public static final String INTERCEPTORS = "interceptors";
+
+    /** The group for the partitions */
+    public static final String PARTITIONS = "partitions";
+
+    /** The name used for the server operations, in the OPERATIONS group */
+    public static final String SERVER = "server";
+
+    /** The histograms, per group and per component */
+    private final ConcurrentMap<String, ConcurrentMap<String, OperationHistograms>> histograms = new ConcurrentHashMap<String, ConcurrentMap<String, OperationHistograms>>();
+
+    /** The caches hit ratios */
+    private final ConcurrentMap<String, HitRatio> hitRatios = new ConcurrentHashMap<String, HitRatio>();
+
+    /** The counters */
+    private final ConcurrentMap<String, StripedCounter> counters = new ConcurrentHashMap<String, StripedCounter>();
+
+    /** The gauges */
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+
+    /**
+     * Gets the histograms of a component, creating them if needed
+     *
+     * @param group The component group (one of OPERATIONS, INTERCEPTORS, PARTITIONS)
+     * @param name The component name
+     * @return The component histograms
+     */
+    public OperationHistograms getHistograms( String group, String name )
+    {
+        ConcurrentMap<String, OperationHistograms> groupHistograms = histograms.get( group );
+
+        if ( groupHistograms == null )
+        {
+            histograms.putIfAbsent( group, new ConcurrentHashMap<String, OperationHistograms>() );
+            groupHistograms = histograms.get( group );
+        }
+
+        OperationHistograms componentHistograms = groupHistograms.get( name );
+
+        if ( componentHistograms == null )
+        {
+            groupHistograms.putIfAbsent( name, new OperationHistograms( name ) );
+            componentHistograms = groupHistograms.get( name );
+        }
+
+        return componentHistograms;
+    }
+
+
+    /**
+     * Gets the hit ratio of a cache, creating it if needed
+     *
+     * @param name The cache name
+     * @return The cache hit ratio
+     */
+    public HitRatio getHitRatio( String name )
+    {
+        HitRatio hitRatio = hitRatios.get( name );
+
+        if ( hitRatio == null )
+        {
+            hitRatios.putIfAbsent( name, new HitRatio() );
+            hitRatio = hitRatios.get( name );
+        }
+
+        return hitRatio;
+    }
+
+
+    /**
+     * Gets a counter, creating it if needed
+     *
+     * @param name The counter name
+     * @return The counter
+     */
+    public StripedCounter getCounter( String name )
+    {
+        StripedCounter counter = counters.get( name );
+
+        if ( counter == null )
+        {
+            counters.putIfAbsent( name, new StripedCounter() );
+            counter = counters.get( name );
+        }
+
+        return counter;
+    }
+
+
+    /**
+     * Registers a gauge. An existing gauge with the same name is replaced.
+     *
+     * @param name The gauge name
+     * @param gauge The gauge
+     */
+    public void registerGauge( String name, Gauge gauge )
+    {
+        gauges.put( name, gauge );
+    }
+
+
+    /**
+     * Removes a gauge
+     *
+     * @param name The gauge name
+     */
+    public void unregisterGauge( String name )
+    {
+        gauges.remove( name );
+    }
+
+
+    /**
+     * @return The groups of histograms, sorted by name
+     */
+    public Map<String, Map<String, OperationHistograms>> getHistograms()
+    {
+        Map<String, Map<String, OperationHistograms>> result = new TreeMap<String, Map<String, OperationHistograms>>();
+
+        for ( Map.Entry<String, ConcurrentMap<String, OperationHistograms>> group : histograms.entrySet() )
+        {
+            result.put( group.getKey(), new TreeMap<String, OperationHistograms>( group.getValue() ) );
+        }
+
+        return result;
+    }
+
+
+    /**
+     * @return The caches hit ratios, sorted by name
+     */
+    public Map<String, HitRatio> getHitRatios()
+    {
+        return new TreeMap<String, HitRatio>( hitRatios );
+    }
+
+
+    /**
+     * @return The counters, sorted by name
+     */
+    public Map<String, StripedCounter> getCounters()
+    {
+        return new TreeMap<String, StripedCounter>( counters );
+    }
+
+
+    /**
+     * @return The gauges, sorted by name
+     */
+    public Map<String, Gauge> getGauges()
+    {
+        return new TreeMap<String, Gauge>( gauges );
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.directory.server.core.api.OperationEnum;
+
+
+/**
+ * The latency histograms of a component (the whole server, an interceptor or a
+ * partition), one per operation. A histogram is only created when the first
+ * duration for its operation is recorded.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OperationHistograms
+{
+    /** The component name */
+    private final String name;
+
+    /** The histograms, indexed by the operation ordinal */
+    private final AtomicReferenceArray<LatencyHistogram> histograms = new AtomicReferenceArray<LatencyHistogram>(
+        OperationEnum.values().length );
+
+
+    /**
+     * Creates a new instance of OperationHistograms.
+     *
+     * @param name The component name
+     */
+    public OperationHistograms( String name )
+    {
+        this.name = name;
+    }
+
+
+    /**
+     * Records the duration of an operation
+     *
+     * @param operation The operation
+     * @param start The operation start, as given by System.nanoTime()
+     */
+    public void record( OperationEnum operation, long start )
+    {
+        getHistogram( operation ).record( System.nanoTime() - start );
+    }
+
+
+    /**
+     * Gets the histogram of an operation, creating it if needed
+     *
+     * @param operation The operation
+     * @return The histogram
+     */
+    public LatencyHistogram getHistogram( OperationEnum operation )
+    {
+        int index = operation.ordinal();
+        LatencyHistogram histogram = histograms.get( index );
+
+        if ( histogram == null )
+        {
+            histograms.compareAndSet( index, null, new LatencyHistogram() );
+            histogram = histograms.get( index );
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * Gets the histogram of an operation
+     *
+     * @param operation The operation
+     * @return The histogram, or null if no duration has been recorded for this operation
+     */
+    public LatencyHistogram peekHistogram( OperationEnum operation )
+    {
+        return histograms.get( operation.ordinal() );
+    }
+
+
+    /**
+     * @return The component name
+     */
+    public String getName()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The execution trace of a single search. It is created by the protocol handler when
+ * the search has to be traced (slow-search log enabled, or explain control present),
+ * and it is filled by the layers the search goes through :
+ * <ul>
+ * <li>the search engine, which sets the annotated filter, the driving index and the
+ * number of candidates</li>
+ * <li>the partition, which counts the entries fetched from its cache and from the
+ * master table</li>
+ * <li>the interceptors, which add the time they have spent creating the cursor</li>
+ * <li>the protocol handler, which counts the returned entries and the time spent
+ * writing them</li>
+ * </ul>
+ * A trace is only used by the thread processing the search, it's not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchTrace
+{
+    /** The OID of the control asking for the plan of a search, without fetching the entries */
+    public static final String EXPLAIN_CONTROL_OID = "1.3.6.1.4.1.18060.0.0.1.10";
+
+    /** The stage where the filter is annotated by the optimizer */
+    public static final String ANNOTATE_STAGE = "annotate";
+
+    /** The stage where the candidates are computed by the CursorBuilder */
+    public static final String CANDIDATES_STAGE = "candidates";
+
+    /** The stage where the candidates are fetched and evaluated */
+    public static final String FETCH_STAGE = "fetch";
+
+    /** The stage where the entries are filtered (ACI, collective attributes...) */
+    public static final String FILTER_STAGE = "filter";
+
+    /** The stage where the entries are written to the client */
+    public static final String WRITE_STAGE = "write";
+
+    /** Tells if we just want the plan */
+    private final boolean explainOnly;
+
+    /** The search base */
+    private String base;
+
+    /** The search scope */
+    private String scope;
+
+    /** The filter, as sent by the client */
+    private String filter;
+
+    /** The filter, annotated with the optimizer counts */
+    private String plan;
+
+    /** The node used to drive the search */
+    private String drivingIndex;
+
+    /** The number of candidates, -1 if unknown */
+    private long candidates = -1L;
+
+    /** The number of entries returned to the client */
+    private long returned;
+
+    /** The number of entries fetched from the partition cache */
+    private long cacheFetches;
+
+    /** The number of entries read from the master table */
+    private long diskFetches;
+
+    /** The time spent in each stage, in nanoseconds */
+    private final Map<String, Long> stages = new LinkedHashMap<String, Long>();
+
+    /** The time spent in each interceptor, in nanoseconds */
+    private final Map<String, Long> interceptors = new LinkedHashMap<String, Long>();
+
+    /** The trace creation */
+    private final long start = System.nanoTime();
+
+    /** The total duration, in nanoseconds, or -1 if the search is not done */
+    private long duration = -1L;
+
+
+    /**
+     * Creates a new instance of SearchTrace.
+     *
+     * @param explainOnly Tells if the search must stop once the plan is known
+     */
+    public SearchTrace( boolean explainOnly )
+    {
+        this.explainOnly = explainOnly;
+    }
+
+
+    /**
+     * @return true if the search must stop once the plan is known
+     */
+    public boolean isExplainOnly()
+    {
+        return explainOnly;
+    }
+
+
+    /**
+     * Stores the search request parameters
+     *
+     * @param base The search base
+     * @param scope The search scope
+     * @param filter The filter
+     */
+    public void setRequest( String base, String scope, String filter )
+    {
+        this.base = base;
+        this.scope = scope;
+        this.filter = filter;
+    }
+
+
+    /**
+     * @return The filter annotated with the optimizer counts
+     */
+    public String getPlan()
+    {
+        return plan;
+    }
+
+
+    /**
+     * @param plan The filter annotated with the optimizer counts
+     */
+    public void setPlan( String plan )
+    {
+        this.plan = plan;
+    }
+
+
+    /**
+     * @return The node used to drive the search
+     */
+    public String getDrivingIndex()
+    {
+        return drivingIndex;
+    }
+
+
+    /**
+     * @param drivingIndex The node used to drive the search
+     */
+    public void setDrivingIndex( String drivingIndex )
+    {
+        this.drivingIndex = drivingIndex;
+    }
+
+
+    /**
+     * @return The number of candidates, -1 if unknown
+     */
+    public long getCandidates()
+    {
+        return candidates;
+    }
+
+
+    /**
+     * @param candidates The number of candidates
+     */
+    public void setCandidates( long candidates )
+    {
+        this.candidates = candidates;
+    }
+
+
+    /**
+     * Counts an entry returned to the client
+     */
+    public void incrementReturned()
+    {
+        returned++;
+    }
+
+
+    /**
+     * @return The number of entries returned to the client
+     */
+    public long getReturned()
+    {
+        return returned;
+    }
+
+
+    /**
+     * Counts an entry fetched by the partition
+     *
+     * @param fromCache true if the entry was found in the partition cache
+     */
+    public void recordFetch( boolean fromCache )
+    {
+        if ( fromCache )
+        {
+            cacheFetches++;
+        }
+        else
+        {
+            diskFetches++;
+        }
+    }
+
+
+    /**
+     * @return The number of entries fetched from the partition cache
+     */
+    public long getCacheFetches()
+    {
+        return cacheFetches;
+    }
+
+
+    /**
+     * @return The number of entries read from the master table
+     */
+    public long getDiskFetches()
+    {
+        return diskFetches;
+    }
+
+
+    /**
+     * Adds some time to a stage. A stage can be executed many times, the durations
+     * are summed.
+     *
+     * @param stage The stage
+     * @param start The stage start, as given by System.nanoTime()
+     */
+    public void addStageTime( String stage, long start )
+    {
+        add( stages, stage, System.nanoTime() - start );
+    }
+
+
+    /**
+     * Adds some time to an interceptor. The time is inclusive : it contains the time
+     * spent in the next interceptors.
+     *
+     * @param interceptor The interceptor name
+     * @param start The interceptor start, as given by System.nanoTime()
+     */
+    public void addInterceptorTime( String interceptor, long start )
+    {
+        add( interceptors, interceptor, System.nanoTime() - start );
+    }
+
+
+    /**
+     * @return The time spent in each stage, in nanoseconds
+     */
+    public Map<String, Long> getStages()
+    {
+        return stages;
+    }
+
+
+    /**
+     * @return The time spent in each interceptor, in nanoseconds
+     */
+    public Map<String, Long> getInterceptors()
+    {
+        return interceptors;
+    }
+
+
+    /**
+     * Marks the search as done
+     */
+    public void done()
+    {
+        duration = System.nanoTime() - start;
+    }
+
+
+    /**
+     * @return The search duration, in nanoseconds, up to now if the search is not done
+     */
+    public long getDuration()
+    {
+        return duration >= 0 ? duration : System.nanoTime() - start;
+    }
+
+
+    private static void add( Map<String, Long> durations, String key, long duration )
+    {
+        Long current = durations.get( key );
+
+        durations.put( key, current == null ? duration : current + duration );
+    }
+
+
+    /**
+     * @return The trace, as a JSON object written on a single line. Durations are in microseconds.
+     */
+    public String toJson()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( '{' );
+        appendString( sb, "base", base ).append( ',' );
+        appendString( sb, "scope", scope ).append( ',' );
+        appendString( sb, "filter", filter ).append( ',' );
+        appendString( sb, "plan", plan ).append( ',' );
+        appendString( sb, "drivingIndex", drivingIndex ).append( ',' );
+        sb.append( "\"explain\":" ).append( explainOnly ).append( ',' );
+        sb.append( "\"candidates\":" ).append( candidates ).append( ',' );
+        sb.append( "\"returned\":" ).append( returned ).append( ',' );
+        sb.append( "\"cacheFetches\":" ).append( cacheFetches ).append( ',' );
+        sb.append( "\"diskFetches\":" ).append( diskFetches ).append( ',' );
+        sb.append( "\"durationUs\":" ).append( getDuration() / 1000L ).append( ',' );
+        appendDurations( sb, "stagesUs", stages ).append( ',' );
+        appendDurations( sb, "interceptorsUs", interceptors );
+        sb.append( '}' );
+
+        return sb.toString();
+    }
+
+
+    private static StringBuilder appendDurations( StringBuilder sb, String name, Map<String, Long> durations )
+    {
+        sb.append( '"' ).append( name ).append( "\":{" );
+        boolean isFirst = true;
+
+        for ( Map.Entry<String, Long> duration : durations.entrySet() )
+        {
+            if ( isFirst )
+            {
+                isFirst = false;
+            }
+            else
+            {
+                sb.append( ',' );
+            }
+
+            appendEscaped( sb, duration.getKey() );
+            sb.append( ':' ).append( duration.getValue() / 1000L );
+        }
+
+        return sb.append( '}' );
+    }
+
+
+    private static StringBuilder appendString( StringBuilder sb, String name, String value )
+    {
+        sb.append( '"' ).append( name ).append( "\":" );
+
+        if ( value == null )
+        {
+            return sb.append( "null" );
+        }
+
+        return appendEscaped( sb, value );
+    }
+
+
+    private static StringBuilder appendEscaped( StringBuilder sb, String value )
+    {
+        sb.append( '"' );
+
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+
+            switch ( c )
+            {
+                case '"':
+                    sb.append( "\\\"" );
+                    break;
+
+                case '\\':
+                    sb.append( "\\\\" );
+                    break;
+
+                case '\n':
+                    sb.append( "\\n" );
+                    break;
+
+                case '\r':
+                    sb.append( "\\r" );
+                    break;
+
+                case '\t':
+                    sb.append( "\\t" );
+                    break;
+
+                default:
+                    if ( c < 0x20 )
+                    {
+                        sb.append( String.format( "\\u%04x", ( int ) c ) );
+                    }
+                    else
+                    {
+                        sb.append( c );
+                    }
+            }
+        }
+
+        return sb.append( '"' );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toJson();
+    }
+}
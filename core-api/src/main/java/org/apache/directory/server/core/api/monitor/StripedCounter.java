@@ -0,0 +1,122 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A counter which can be incremented concurrently by many threads without
+ * contention : each thread updates one of several cells, depending on its ID,
+ * and the value is the sum of all the cells. Each cell is on its own cache line.
+ * <br>
+ * Reading the value is more expensive than updating it, which is what we want
+ * for statistics.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StripedCounter
+{
+    /** The number of longs between two cells, to avoid false sharing */
+    private static final int PADDING = 8;
+
+    /** The maximum number of stripes */
+    private static final int MAX_STRIPES = 16;
+
+    /** The number of stripes, a power of 2 */
+    static final int NB_STRIPES = computeStripes( MAX_STRIPES );
+
+    /** The cells */
+    private final AtomicLongArray cells = new AtomicLongArray( NB_STRIPES * PADDING );
+
+
+    /**
+     * Computes the number of stripes : the smallest power of 2 above the number
+     * of processors, up to a limit
+     */
+    static int computeStripes( int max )
+    {
+        int nbProcessors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+
+        while ( ( stripes < nbProcessors ) && ( stripes < max ) )
+        {
+            stripes <<= 1;
+        }
+
+        return stripes;
+    }
+
+
+    /**
+     * @return The stripe the current thread uses, between 0 and nbStripes - 1 (which
+     * must be a power of 2)
+     */
+    static int stripe( int nbStripes )
+    {
+        return ( int ) ( Thread.currentThread().getId() & ( nbStripes - 1 ) );
+    }
+
+
+    /**
+     * Adds one to the counter
+     */
+    public void increment()
+    {
+        cells.getAndIncrement( stripe( NB_STRIPES ) * PADDING );
+    }
+
+
+    /**
+     * Adds a value to the counter
+     *
+     * @param delta The value to add
+     */
+    public void add( long delta )
+    {
+        cells.getAndAdd( stripe( NB_STRIPES ) * PADDING, delta );
+    }
+
+
+    /**
+     * @return The counter value
+     */
+    public long get()
+    {
+        long sum = 0L;
+
+        for ( int i = 0; i < NB_STRIPES; i++ )
+        {
+            sum += cells.get( i * PADDING );
+        }
+
+        return sum;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return Long.toString( get() );
+    }
+}
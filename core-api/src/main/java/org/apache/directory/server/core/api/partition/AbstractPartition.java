@@ -34,6 +34,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.CacheService;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 import org.apache.directory.server.i18n.I18n;
 
 
@@ -67,6 +68,9 @@ public abstract class AbstractPartition implements Partition
     /** the cache service */
     protected CacheService cacheService;
 
+    /** The registry the metrics are recorded in, if any */
+    protected MetricsRegistry metricsRegistry;
+
     /** the value of last successful add/update operation's CSN */
     private String contextCsn;
     
@@ -249,6 +253,27 @@ public abstract class AbstractPartition implements Partition
     }
 
 
+    /**
+     * {@inheritDoc}
+     * 
+     * This default implementation does nothing : the partitions flushing their
+     * changes on each write have to override it.
+     */
+    @Override
+    public void beginBatch()
+    {
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void endBatch() throws Exception
+    {
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -258,6 +283,16 @@ public abstract class AbstractPartition implements Partition
         this.cacheService = cacheService;
     }
 
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMetricsRegistry( MetricsRegistry metricsRegistry )
+    {
+        this.metricsRegistry = metricsRegistry;
+    }
+
     
     /**
      * {@inheritDoc}
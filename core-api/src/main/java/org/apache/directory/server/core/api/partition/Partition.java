@@ -41,6 +41,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 
 
 /**
@@ -149,6 +150,25 @@ public interface Partition
     void sync() throws Exception;
 
 
+    /**
+     * Tells the partition that a batch of write operations is starting. Until the
+     * matching {@link #endBatch()} call, the partition does not have to flush its
+     * changes on disk after each operation of the calling thread : the operations
+     * done by the other threads are flushed as usual. Batches may be nested.
+     */
+    void beginBatch();
+
+
+    /**
+     * Ends a batch of write operations started with {@link #beginBatch()} by the
+     * same thread. When the outermost batch ends, the changes are flushed as if the operations had been
+     * applied one by one.
+     *
+     * @throws Exception if buffers cannot be flushed to disk
+     */
+    void endBatch() throws Exception;
+
+
     /**
      * Deletes a leaf entry from this ContextPartition: non-leaf entries cannot be
      * deleted until this operation has been applied to their children.
@@ -290,6 +310,15 @@ public interface Partition
      */
     void setCacheService( CacheService cacheService );
 
+
+    /**
+     * Sets the registry in which the partition records its metrics, like its
+     * caches hit ratios. May be null, in which case nothing is recorded.
+     *
+     * @param metricsRegistry The metrics registry
+     */
+    void setMetricsRegistry( MetricsRegistry metricsRegistry );
+
     
     /**
      * @return the current highest committed CSN value
@@ -58,6 +58,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.schema.registries.synchronizers.RegistrySynchronizerAdaptor;
@@ -199,6 +200,24 @@ public final class SchemaPartition extends AbstractPartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public void beginBatch()
+    {
+        wrapped.beginBatch();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void endBatch() throws Exception
+    {
+        wrapped.endBatch();
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -535,6 +554,14 @@ public final class SchemaPartition extends AbstractPartition
     }
 
 
+    @Override
+    public void setMetricsRegistry( MetricsRegistry metricsRegistry )
+    {
+        super.setMetricsRegistry( metricsRegistry );
+        wrapped.setMetricsRegistry( metricsRegistry );
+    }
+
+
     /**
      * @see Object#toString()
      */
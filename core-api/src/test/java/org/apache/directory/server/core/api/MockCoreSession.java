@@ -38,6 +38,7 @@ import org.apache.directory.api.ldap.model.entry.StringValue;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidSearchFilterException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.FilterParser;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
@@ -46,8 +47,11 @@ import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.CompareRequest;
 import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.LdapResult;
 import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.Request;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.UnbindRequest;
@@ -75,6 +79,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
 import org.apache.directory.server.i18n.I18n;
 
 
@@ -858,6 +863,40 @@ public class MockCoreSession implements CoreSession
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public List<LdapResult> batch( List<? extends Request> requests, boolean atomic ) throws LdapException
+    {
+        List<OperationContext> contexts = new ArrayList<OperationContext>( requests.size() );
+
+        for ( Request request : requests )
+        {
+            if ( request instanceof AddRequest )
+            {
+                contexts.add( new AddOperationContext( this, ( AddRequest ) request ) );
+            }
+            else if ( request instanceof ModifyRequest )
+            {
+                contexts.add( new ModifyOperationContext( this, ( ModifyRequest ) request ) );
+            }
+            else if ( request instanceof DeleteRequest )
+            {
+                contexts.add( new DeleteOperationContext( this, ( DeleteRequest ) request ) );
+            }
+            else
+            {
+                throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+                    "Only Add, Modify and Delete requests can be batched : " + request.getType() );
+            }
+        }
+
+        OperationManager operationManager = directoryService.getOperationManager();
+
+        return operationManager.batch( contexts, atomic );
+    }
+
+
     /**
      * {@inheritDoc} 
      */
@@ -931,8 +970,15 @@ public class MockCoreSession implements CoreSession
 
 
     public Cursor<Entry> search( SearchRequest searchRequest ) throws LdapException
+    {
+        return search( searchRequest, null );
+    }
+
+
+    public Cursor<Entry> search( SearchRequest searchRequest, SearchTrace trace ) throws LdapException
     {
         SearchOperationContext searchContext = new SearchOperationContext( this, searchRequest );
+        searchContext.setTrace( trace );
         OperationManager operationManager = directoryService.getOperationManager();
         EntryFilteringCursor cursor = operationManager.search( searchContext );
         searchRequest.getResultResponse().addAllControls( searchContext.getResponseControls() );
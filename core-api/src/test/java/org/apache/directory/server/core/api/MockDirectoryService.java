@@ -44,6 +44,7 @@ import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -621,4 +622,13 @@ public class MockDirectoryService implements DirectoryService
     {
         // nothing
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return null;
+    }
 }
@@ -0,0 +1,163 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests class ClonedServerEntrySearch.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ClonedServerEntrySearchTest
+{
+    private Entry original;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        original = new DefaultEntry( "cn=test,dc=example,dc=com" );
+        original.add( "objectClass", "top", "person" );
+        original.add( "cn", "test" );
+        original.add( "sn", "test" );
+        original.add( "description", "a", "b" );
+    }
+
+
+    @Test
+    public void testRemoveDoesNotCopy() throws Exception
+    {
+        ClonedServerEntrySearch entry = new ClonedServerEntrySearch( original );
+        Attribute description = original.get( "description" );
+
+        entry.removeAttributes( "sn", "cn" );
+
+        assertEquals( 2, entry.size() );
+        assertEquals( 4, original.size() );
+        assertTrue( original.containsAttribute( "sn" ) );
+        assertTrue( entry.contains( "objectClass", "person" ) );
+
+        // Nothing has been copied yet
+        assertSame( description, entry.getOriginalEntry().get( "description" ) );
+        assertSame( original, entry.getOriginalEntry() );
+    }
+
+
+    @Test
+    public void testModifiedAttributeIsCopied() throws Exception
+    {
+        ClonedServerEntrySearch entry = new ClonedServerEntrySearch( original );
+
+        Attribute description = entry.get( "description" );
+        assertNotSame( original.get( "description" ), description );
+
+        description.clear();
+        description.add( "c" );
+        entry.add( "cn", "other" );
+        entry.remove( "objectClass", "person" );
+
+        assertTrue( entry.contains( "description", "c" ) );
+        assertFalse( entry.contains( "description", "a" ) );
+        assertTrue( entry.contains( "cn", "test", "other" ) );
+        assertFalse( entry.contains( "objectClass", "person" ) );
+
+        assertTrue( original.contains( "description", "a", "b" ) );
+        assertFalse( original.contains( "description", "c" ) );
+        assertFalse( original.contains( "cn", "other" ) );
+        assertTrue( original.contains( "objectClass", "top", "person" ) );
+
+        // Getting the attribute again does not copy it again
+        assertSame( description, entry.get( "description" ) );
+    }
+
+
+    @Test
+    public void testIteratedAttributesAreCopied() throws Exception
+    {
+        ClonedServerEntrySearch entry = new ClonedServerEntrySearch( original );
+        entry.removeAttributes( "sn" );
+
+        for ( Attribute attribute : entry )
+        {
+            assertNotSame( original.get( attribute.getId() ), attribute );
+            attribute.clear();
+        }
+
+        assertEquals( 3, entry.size() );
+        assertEquals( 4, original.size() );
+        assertTrue( original.contains( "cn", "test" ) );
+        assertTrue( original.contains( "description", "a", "b" ) );
+        assertNull( entry.get( "sn" ) );
+        assertEquals( 0, entry.get( "cn" ).size() );
+    }
+
+
+    @Test
+    public void testClonedEntry() throws Exception
+    {
+        ClonedServerEntrySearch entry = new ClonedServerEntrySearch( original );
+
+        Entry cloned = entry.getClonedEntry();
+        cloned.get( "cn" ).add( "other" );
+
+        assertTrue( entry.contains( "cn", "other" ) );
+        assertFalse( original.contains( "cn", "other" ) );
+        assertEquals( original.getDn(), entry.getDn() );
+    }
+
+
+    @Test
+    public void testSharedAttributeIsCopiedOnWrite() throws Exception
+    {
+        Attribute shared = new DefaultAttribute( "ou", "shared" );
+        ClonedServerEntrySearch entry1 = new ClonedServerEntrySearch( original );
+        ClonedServerEntrySearch entry2 = new ClonedServerEntrySearch( original );
+
+        entry1.putShared( shared );
+        entry2.putShared( shared );
+
+        // Modifying the attribute in one entry does not modify the shared instance
+        entry1.add( "ou", "other" );
+
+        assertTrue( entry1.contains( "ou", "shared", "other" ) );
+        assertFalse( entry2.contains( "ou", "other" ) );
+        assertEquals( 1, shared.size() );
+
+        // Nor does getting it
+        assertNotSame( shared, entry2.get( "ou" ) );
+        entry2.get( "ou" ).clear();
+        assertEquals( 1, shared.size() );
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for the LatencyHistogram and StripedCounter classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testBuckets()
+    {
+        int previous = -1;
+
+        // The buckets must be increasing, and each value must be in its bucket bounds
+        for ( long value = 0; value < 100000; value++ )
+        {
+            int bucket = LatencyHistogram.getBucket( value );
+
+            assertTrue( bucket >= previous );
+            assertTrue( value <= LatencyHistogram.getBucketUpperBound( bucket ) );
+
+            if ( bucket > 0 )
+            {
+                assertTrue( value > LatencyHistogram.getBucketUpperBound( bucket - 1 ) );
+            }
+
+            previous = bucket;
+        }
+
+        // Huge values go in the last bucket
+        assertEquals( LatencyHistogram.NB_BUCKETS - 1, LatencyHistogram.getBucket( Long.MAX_VALUE ) );
+    }
+
+
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals( 0L, histogram.getValueAtPercentile( 99 ) );
+
+        // 1 to 1000 microseconds
+        for ( int i = 1; i <= 1000; i++ )
+        {
+            histogram.record( i * 1000L );
+        }
+
+        assertEquals( 1000L, histogram.getCount() );
+        assertEquals( 500L, histogram.getMean() );
+        assertEquals( 1000L, histogram.getMax() );
+
+        long p50 = histogram.getValueAtPercentile( 50 );
+        long p99 = histogram.getValueAtPercentile( 99 );
+
+        // The precision is 12.5%
+        assertTrue( ( p50 >= 500L ) && ( p50 <= 563L ) );
+        assertTrue( ( p99 >= 990L ) && ( p99 <= 1000L ) );
+        assertEquals( 1000L, histogram.getValueAtPercentile( 100 ) );
+    }
+
+
+    @Test
+    public void testConcurrentUpdates() throws Exception
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    for ( int j = 0; j < 10000; j++ )
+                    {
+                        histogram.record( 5000L );
+                        counter.increment();
+                    }
+                }
+            };
+
+            threads[i].start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 80000L, histogram.getCount() );
+        assertEquals( 80000L, counter.get() );
+        assertEquals( 5L, histogram.getMean() );
+        assertEquals( 5L, histogram.getValueAtPercentile( 50 ) );
+    }
+}
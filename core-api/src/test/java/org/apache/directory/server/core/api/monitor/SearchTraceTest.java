@@ -0,0 +1,92 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.monitor;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for the SearchTrace class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchTraceTest
+{
+    @Test
+    public void testCounters()
+    {
+        SearchTrace trace = new SearchTrace( false );
+
+        assertFalse( trace.isExplainOnly() );
+        assertEquals( -1L, trace.getCandidates() );
+
+        trace.recordFetch( true );
+        trace.recordFetch( false );
+        trace.recordFetch( false );
+        trace.incrementReturned();
+
+        assertEquals( 1L, trace.getCacheFetches() );
+        assertEquals( 2L, trace.getDiskFetches() );
+        assertEquals( 1L, trace.getReturned() );
+    }
+
+
+    @Test
+    public void testDurationsAreSummed()
+    {
+        SearchTrace trace = new SearchTrace( false );
+        long start = System.nanoTime();
+
+        trace.addStageTime( SearchTrace.FETCH_STAGE, start );
+        long first = trace.getStages().get( SearchTrace.FETCH_STAGE );
+        trace.addStageTime( SearchTrace.FETCH_STAGE, start );
+
+        assertEquals( 1, trace.getStages().size() );
+        assertTrue( trace.getStages().get( SearchTrace.FETCH_STAGE ) >= 2 * first );
+    }
+
+
+    @Test
+    public void testToJson()
+    {
+        SearchTrace trace = new SearchTrace( true );
+        trace.setRequest( "ou=system", "SUBTREE", "(cn=a\"b\\c)" );
+        trace.setPlan( "(&(cn=a)(ou=b))" );
+        trace.setCandidates( 12L );
+        trace.getStages().put( SearchTrace.ANNOTATE_STAGE, 3000L );
+        trace.getInterceptors().put( "aciAuthorizationInterceptor", 5000L );
+
+        String json = trace.toJson();
+
+        assertTrue( json.startsWith( "{\"base\":\"ou=system\",\"scope\":\"SUBTREE\"," ) );
+        assertTrue( json.contains( "\"filter\":\"(cn=a\\\"b\\\\c)\"" ) );
+        assertTrue( json.contains( "\"drivingIndex\":null" ) );
+        assertTrue( json.contains( "\"explain\":true" ) );
+        assertTrue( json.contains( "\"candidates\":12" ) );
+        assertTrue( json.contains( "\"stagesUs\":{\"annotate\":3}" ) );
+        assertTrue( json.contains( "\"interceptorsUs\":{\"aciAuthorizationInterceptor\":5}" ) );
+        assertTrue( json.endsWith( "}}" ) );
+    }
+}
@@ -565,4 +565,50 @@ public class CollectiveAttributeServiceIT extends AbstractLdapTestUnit
 
         connection.close();
     }
+
+
+    @Test
+    public void testModifiedSubentryIsInjected() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        addAdministrativeRole( connection, "collectiveAttributeSpecificArea" );
+        connection.add( getTestSubentry( "cn=testsubentry,ou=system" ) );
+
+        // Many entries share the same subentry
+        Map<String, Entry> entries = getAllEntriesCollectiveAttributesOnly( connection );
+        assertTrue( entries.get( "ou=services,ou=configuration,ou=system" ).contains( "c-ou", "configuration" ) );
+        assertTrue( entries.get( "ou=interceptors,ou=configuration,ou=system" ).contains( "c-ou", "configuration" ) );
+
+        // Modify the subentry : the new value must be injected
+        connection.modify( "cn=testsubentry,ou=system", new DefaultModification(
+            ModificationOperation.REPLACE_ATTRIBUTE, new DefaultAttribute( "c-ou", "modified" ) ) );
+
+        entries = getAllEntriesCollectiveAttributesOnly( connection );
+        Attribute c_ou = entries.get( "ou=services,ou=configuration,ou=system" ).get( "c-ou" );
+        assertEquals( 1, c_ou.size() );
+        assertTrue( c_ou.contains( "modified" ) );
+
+        Entry entry = connection.lookup( "ou=interceptors,ou=configuration,ou=system" );
+        c_ou = entry.get( "c-ou" );
+        assertEquals( 1, c_ou.size() );
+        assertTrue( c_ou.contains( "modified" ) );
+
+        // Two subentries providing the same attribute : the values are merged, without
+        // modifying the first subentry attribute
+        connection.add( getTestSubentry2( "cn=testsubentry2,ou=system" ) );
+
+        entry = connection.lookup( "ou=interceptors,ou=configuration,ou=system" );
+        c_ou = entry.get( "c-ou" );
+        assertEquals( 2, c_ou.size() );
+
+        connection.delete( "cn=testsubentry2,ou=system" );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        c_ou = entry.get( "c-ou" );
+        assertEquals( 1, c_ou.size() );
+        assertTrue( c_ou.contains( "modified" ) );
+
+        connection.close();
+    }
 }
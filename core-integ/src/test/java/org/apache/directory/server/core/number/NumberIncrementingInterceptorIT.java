@@ -0,0 +1,177 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.number;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests that the NumberIncrementingInterceptor assigns distinct values to the
+ * entries added concurrently.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "NumberIncrementingInterceptorIT", additionalInterceptors =
+    { NumberIncrementingInterceptor.class })
+public class NumberIncrementingInterceptorIT extends AbstractLdapTestUnit
+{
+    private static final int NB_THREADS = 8;
+    private static final int NB_PER_THREAD = 50;
+    private static final long FIRST_VALUE = 1000L;
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        try
+        {
+            // The uidNumber attribute is defined in the nis schema
+            Entry nisEntry = connection.lookup( "cn=nis,ou=schema" );
+
+            if ( nisEntry.contains( "m-disabled", "TRUE" ) )
+            {
+                connection.modify( "cn=nis,ou=schema", new DefaultModification(
+                    ModificationOperation.REMOVE_ATTRIBUTE, "m-disabled", "TRUE" ) );
+            }
+
+            connection.modify( "ou=autoIncDataHolder,ou=system", new DefaultModification(
+                ModificationOperation.REPLACE_ATTRIBUTE, "uidNumber", String.valueOf( FIRST_VALUE ) ) );
+        }
+        finally
+        {
+            connection.close();
+        }
+
+        // The incremented attributes are read from the holder entry when the interceptor is initialized
+        getService().getInterceptor( NumberIncrementingInterceptor.class.getSimpleName() ).init( getService() );
+    }
+
+
+    @Test
+    public void testConcurrentAddsGetUniqueNumbers() throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( NB_THREADS );
+        final AtomicInteger nbErrors = new AtomicInteger();
+
+        for ( int i = 0; i < NB_THREADS; i++ )
+        {
+            final int thread = i;
+
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+                        try
+                        {
+                            start.await();
+
+                            for ( int j = 0; j < NB_PER_THREAD; j++ )
+                            {
+                                String cn = "user" + thread + "-" + j;
+
+                                connection.add( new DefaultEntry( getService().getSchemaManager(),
+                                    "cn=" + cn + ",ou=system",
+                                    "objectClass: top",
+                                    "objectClass: person",
+                                    "objectClass: extensibleObject",
+                                    "cn", cn,
+                                    "sn: user",
+                                    "uidNumber: 0" ) );
+                            }
+                        }
+                        finally
+                        {
+                            connection.close();
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        e.printStackTrace();
+                        nbErrors.incrementAndGet();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        done.await();
+
+        assertEquals( 0, nbErrors.get() );
+
+        Set<Long> values = Collections.newSetFromMap( new ConcurrentHashMap<Long, Boolean>() );
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        try
+        {
+            for ( int i = 0; i < NB_THREADS; i++ )
+            {
+                for ( int j = 0; j < NB_PER_THREAD; j++ )
+                {
+                    Entry entry = connection.lookup( "cn=user" + i + "-" + j + ",ou=system", "uidNumber" );
+                    assertNotNull( entry );
+
+                    long value = Long.parseLong( entry.get( "uidNumber" ).getString() );
+                    assertTrue( value > FIRST_VALUE );
+                    assertTrue( "The value " + value + " has been assigned twice", values.add( value ) );
+                }
+            }
+        }
+        finally
+        {
+            connection.close();
+        }
+
+        assertEquals( NB_THREADS * NB_PER_THREAD, values.size() );
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.batch;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.message.AddRequest;
+import org.apache.directory.api.ldap.model.message.AddRequestImpl;
+import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.DeleteRequestImpl;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.message.Request;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the batch operation on the CoreSession
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "BatchIT")
+public class BatchIT extends AbstractLdapTestUnit
+{
+    private AddRequest add( String cn ) throws Exception
+    {
+        AddRequest addRequest = new AddRequestImpl();
+        addRequest.setEntry( new DefaultEntry( getService().getSchemaManager(),
+            "cn=" + cn + ",ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn", cn,
+            "sn", cn ) );
+
+        return addRequest;
+    }
+
+
+    private ModifyRequest modify( String cn, String description ) throws Exception
+    {
+        ModifyRequest modifyRequest = new ModifyRequestImpl();
+        modifyRequest.setName( new Dn( "cn=" + cn + ",ou=system" ) );
+        modifyRequest.addModification( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            "description", description ) );
+
+        return modifyRequest;
+    }
+
+
+    private DeleteRequest delete( String cn ) throws Exception
+    {
+        DeleteRequest deleteRequest = new DeleteRequestImpl();
+        deleteRequest.setName( new Dn( "cn=" + cn + ",ou=system" ) );
+
+        return deleteRequest;
+    }
+
+
+    private boolean exists( CoreSession session, String cn ) throws Exception
+    {
+        return session.exists( new Dn( "cn=" + cn + ",ou=system" ) );
+    }
+
+
+    @Test
+    public void testBestEffortBatch() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+
+        List<Request> requests = new ArrayList<Request>();
+        requests.add( add( "batch1" ) );
+        requests.add( add( "batch2" ) );
+        requests.add( modify( "batch1", "modified" ) );
+        requests.add( modify( "unknown", "modified" ) );
+        requests.add( delete( "batch2" ) );
+
+        List<LdapResult> results = session.batch( requests, false );
+
+        assertEquals( 5, results.size() );
+        assertEquals( ResultCodeEnum.SUCCESS, results.get( 0 ).getResultCode() );
+        assertEquals( ResultCodeEnum.SUCCESS, results.get( 1 ).getResultCode() );
+        assertEquals( ResultCodeEnum.SUCCESS, results.get( 2 ).getResultCode() );
+        assertEquals( ResultCodeEnum.NO_SUCH_OBJECT, results.get( 3 ).getResultCode() );
+        assertEquals( ResultCodeEnum.SUCCESS, results.get( 4 ).getResultCode() );
+
+        assertTrue( exists( session, "batch1" ) );
+        assertFalse( exists( session, "batch2" ) );
+        assertEquals( "modified", session.lookup( new Dn( "cn=batch1,ou=system" ) )
+            .get( "description" ).getString() );
+    }
+
+
+    @Test
+    public void testAtomicBatch() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        session.add( add( "atomic0" ).getEntry() );
+
+        List<Request> requests = new ArrayList<Request>();
+        requests.add( add( "atomic1" ) );
+        requests.add( modify( "atomic0", "modified" ) );
+        requests.add( delete( "atomic0" ) );
+        requests.add( add( "atomic1" ) );
+        requests.add( add( "atomic2" ) );
+
+        List<LdapResult> results = session.batch( requests, true );
+
+        assertEquals( 5, results.size() );
+        assertEquals( ResultCodeEnum.CANCELED, results.get( 0 ).getResultCode() );
+        assertEquals( ResultCodeEnum.CANCELED, results.get( 1 ).getResultCode() );
+        assertEquals( ResultCodeEnum.CANCELED, results.get( 2 ).getResultCode() );
+        assertEquals( ResultCodeEnum.ENTRY_ALREADY_EXISTS, results.get( 3 ).getResultCode() );
+        assertEquals( ResultCodeEnum.CANCELED, results.get( 4 ).getResultCode() );
+
+        // Everything has been reverted
+        assertFalse( exists( session, "atomic1" ) );
+        assertFalse( exists( session, "atomic2" ) );
+        assertTrue( exists( session, "atomic0" ) );
+        assertEquals( null, session.lookup( new Dn( "cn=atomic0,ou=system" ) ).get( "description" ) );
+    }
+}
@@ -45,6 +45,7 @@ import org.apache.directory.api.ldap.model.entry.StringValue;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidSearchFilterException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.FilterParser;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
@@ -56,6 +57,7 @@ import org.apache.directory.api.ldap.model.message.DeleteRequest;
 import org.apache.directory.api.ldap.model.message.LdapResult;
 import org.apache.directory.api.ldap.model.message.ModifyDnRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.Request;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.ResultResponse;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
@@ -91,6 +93,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.mina.core.session.IoSession;
 
@@ -982,6 +985,40 @@ public class DefaultCoreSession implements CoreSession
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public List<LdapResult> batch( List<? extends Request> requests, boolean atomic ) throws LdapException
+    {
+        List<OperationContext> contexts = new ArrayList<OperationContext>( requests.size() );
+
+        for ( Request request : requests )
+        {
+            if ( request instanceof AddRequest )
+            {
+                contexts.add( new AddOperationContext( this, ( AddRequest ) request ) );
+            }
+            else if ( request instanceof ModifyRequest )
+            {
+                contexts.add( new ModifyOperationContext( this, ( ModifyRequest ) request ) );
+            }
+            else if ( request instanceof DeleteRequest )
+            {
+                contexts.add( new DeleteOperationContext( this, ( DeleteRequest ) request ) );
+            }
+            else
+            {
+                throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+                    "Only Add, Modify and Delete requests can be batched : " + request.getType() );
+            }
+        }
+
+        OperationManager operationManager = directoryService.getOperationManager();
+
+        return operationManager.batch( contexts, atomic );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -1085,9 +1122,19 @@ public class DefaultCoreSession implements CoreSession
 
 
     public Cursor<Entry> search( SearchRequest searchRequest ) throws LdapException
+    {
+        return search( searchRequest, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<Entry> search( SearchRequest searchRequest, SearchTrace trace ) throws LdapException
     {
         SearchOperationContext searchContext = new SearchOperationContext( this, searchRequest );
         searchContext.setSyncreplSearch( searchRequest.getControls().containsKey( SyncRequestValue.OID ) );
+        searchContext.setTrace( trace );
 
         OperationManager operationManager = directoryService.getOperationManager();
 
@@ -28,6 +28,7 @@ import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.monitor.HitRatio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +55,9 @@ public class DefaultDnFactory implements DnFactory
     private int hitCount = 0;
     private int missCount = 0;
 
+    /** The cache hit ratio, if metrics are collected */
+    private HitRatio hitRatio;
+
 
     /**
      * Instantiates a new default Dn factory.
@@ -111,6 +115,11 @@ public class DefaultDnFactory implements DnFactory
             {
                 missCount++;
             }
+
+            if ( hitRatio != null )
+            {
+                hitRatio.miss();
+            }
         }
         else
         {
@@ -118,6 +127,11 @@ public class DefaultDnFactory implements DnFactory
             {
                 hitCount++;
             }
+
+            if ( hitRatio != null )
+            {
+                hitRatio.hit();
+            }
         }
 
         LOG.debug( "Dn {} found in the cache", dn );
@@ -147,4 +161,15 @@ public class DefaultDnFactory implements DnFactory
         return create( dn );
     }
 
+
+    /**
+     * Sets the HitRatio in which the cache hits and misses are recorded
+     *
+     * @param hitRatio The DN cache hit ratio
+     */
+    public void setHitRatio( HitRatio hitRatio )
+    {
+        this.hitRatio = hitRatio;
+    }
+
 }
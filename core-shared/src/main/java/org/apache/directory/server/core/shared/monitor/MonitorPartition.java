@@ -0,0 +1,520 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared.monitor;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.Gauge;
+import org.apache.directory.server.core.api.monitor.HitRatio;
+import org.apache.directory.server.core.api.monitor.LatencyHistogram;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
+import org.apache.directory.server.core.api.monitor.OperationHistograms;
+import org.apache.directory.server.core.api.monitor.StripedCounter;
+import org.apache.directory.server.core.api.partition.AbstractPartition;
+
+
+/**
+ * A read-only partition exposing the content of a MetricsRegistry under cn=monitor.
+ * The entries are built from the registry, and kept for a short interval, so that
+ * the operations reading them don't have to build them all again, with this layout :
+ * <pre>
+ * cn=monitor
+ *   ou=operations     : the server operations latencies
+ *   ou=interceptors   : the latencies of each interceptor (including the interceptors it calls)
+ *   ou=partitions     : the latencies of each partition
+ *   ou=caches         : the caches hit ratios
+ *   ou=counters       : the counters, like the number of candidates read from the indexes
+ *   ou=gauges         : the gauges, like the number of opened sessions
+ * </pre>
+ * Each metric is an applicationProcess entry, the values being stored in its description
+ * attribute, one value per operation for the latencies. The durations are in microseconds.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorPartition extends AbstractPartition
+{
+    /** The partition suffix */
+    public static final String SUFFIX = "cn=monitor";
+
+    /** The partition ID */
+    public static final String ID = "monitor";
+
+    /** The ObjectClass used for the metric entries */
+    private static final String APPLICATION_PROCESS_OC = "applicationProcess";
+
+    /** The description attribute, holding the metric values */
+    private static final String DESCRIPTION_AT = "description";
+
+    /** The containers for the metrics which are not histograms */
+    private static final String CACHES = "caches";
+    private static final String COUNTERS = "counters";
+    private static final String GAUGES = "gauges";
+
+    /** The default interval between two refreshes of the entries, in milliseconds */
+    public static final long DEFAULT_REFRESH_INTERVAL = 1000L;
+
+    /** The evaluator used to filter the entries */
+    private ExpressionEvaluator evaluator;
+
+    /** The interval between two refreshes of the entries, in milliseconds */
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    /** The last built entries */
+    private volatile Snapshot snapshot;
+
+
+    /**
+     * The entries built from the registry at a given time
+     */
+    private static final class Snapshot
+    {
+        /** The entries, parents first */
+        private final List<Entry> entries;
+
+        /** The entries, by Dn */
+        private final Map<Dn, Entry> entriesByDn;
+
+        /** The time the entries have been built at */
+        private final long time;
+
+
+        private Snapshot( List<Entry> entries, long time )
+        {
+            this.entries = Collections.unmodifiableList( entries );
+            this.time = time;
+
+            Map<Dn, Entry> map = new HashMap<Dn, Entry>();
+
+            for ( Entry entry : entries )
+            {
+                map.put( entry.getDn(), entry );
+            }
+
+            entriesByDn = map;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of MonitorPartition.
+     *
+     * @param schemaManager The SchemaManager
+     * @param metricsRegistry The registry to expose
+     */
+    public MonitorPartition( SchemaManager schemaManager, MetricsRegistry metricsRegistry )
+    {
+        this.schemaManager = schemaManager;
+        this.metricsRegistry = metricsRegistry;
+        id = ID;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doInit() throws Exception
+    {
+        if ( suffixDn == null )
+        {
+            suffixDn = new Dn( schemaManager, SUFFIX );
+        }
+
+        evaluator = new ExpressionEvaluator( schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doDestroy() throws Exception
+    {
+        evaluator = null;
+        snapshot = null;
+    }
+
+
+    /**
+     * @return The interval between two refreshes of the entries, in milliseconds
+     */
+    public long getRefreshInterval()
+    {
+        return refreshInterval;
+    }
+
+
+    /**
+     * @param refreshInterval The interval between two refreshes of the entries, in
+     * milliseconds. 0 builds the entries each time they are read
+     */
+    public void setRefreshInterval( long refreshInterval )
+    {
+        this.refreshInterval = refreshInterval;
+    }
+
+
+    /**
+     * @return The current entries, built again if they are older than the refresh interval
+     */
+    private Snapshot getSnapshot() throws LdapException
+    {
+        Snapshot current = snapshot;
+        long now = System.currentTimeMillis();
+
+        if ( ( current != null ) && ( now - current.time < refreshInterval ) )
+        {
+            return current;
+        }
+
+        synchronized ( this )
+        {
+            // Another thread may have refreshed the entries in the meantime
+            current = snapshot;
+
+            if ( ( current == null ) || ( now - current.time >= refreshInterval ) )
+            {
+                current = new Snapshot( buildEntries(), System.currentTimeMillis() );
+                snapshot = current;
+            }
+
+            return current;
+        }
+    }
+
+
+    /**
+     * Builds all the entries from the current content of the registry, parents first.
+     */
+    private List<Entry> buildEntries() throws LdapException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        Entry root = new DefaultEntry( schemaManager, suffixDn );
+        root.add( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC, APPLICATION_PROCESS_OC );
+        root.add( SchemaConstants.CN_AT, ID );
+        root.add( DESCRIPTION_AT, "ApacheDS metrics" );
+        entries.add( root );
+
+        if ( metricsRegistry == null )
+        {
+            return entries;
+        }
+
+        for ( Map.Entry<String, Map<String, OperationHistograms>> group : metricsRegistry.getHistograms().entrySet() )
+        {
+            Dn groupDn = addContainer( entries, group.getKey() );
+
+            for ( OperationHistograms histograms : group.getValue().values() )
+            {
+                List<String> values = new ArrayList<String>();
+
+                for ( OperationEnum operation : OperationEnum.values() )
+                {
+                    LatencyHistogram histogram = histograms.peekHistogram( operation );
+
+                    if ( histogram != null )
+                    {
+                        values.add( operation.getMethodName() + ": " + histogram );
+                    }
+                }
+
+                addMetric( entries, groupDn, histograms.getName(), values );
+            }
+        }
+
+        Dn cachesDn = addContainer( entries, CACHES );
+
+        for ( Map.Entry<String, HitRatio> hitRatio : metricsRegistry.getHitRatios().entrySet() )
+        {
+            addMetric( entries, cachesDn, hitRatio.getKey(), hitRatio.getValue().toString() );
+        }
+
+        Dn countersDn = addContainer( entries, COUNTERS );
+
+        for ( Map.Entry<String, StripedCounter> counter : metricsRegistry.getCounters().entrySet() )
+        {
+            addMetric( entries, countersDn, counter.getKey(), "value=" + counter.getValue().get() );
+        }
+
+        Dn gaugesDn = addContainer( entries, GAUGES );
+
+        for ( Map.Entry<String, Gauge> gauge : metricsRegistry.getGauges().entrySet() )
+        {
+            addMetric( entries, gaugesDn, gauge.getKey(), "value=" + gauge.getValue().getValue() );
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * Adds an organizationalUnit container under the suffix
+     */
+    private Dn addContainer( List<Entry> entries, String name ) throws LdapException
+    {
+        Dn dn = suffixDn.add( new Rdn( SchemaConstants.OU_AT, name ) ).apply( schemaManager );
+
+        Entry container = new DefaultEntry( schemaManager, dn );
+        container.add( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC,
+            SchemaConstants.ORGANIZATIONAL_UNIT_OC );
+        container.add( SchemaConstants.OU_AT, name );
+        entries.add( container );
+
+        return dn;
+    }
+
+
+    /**
+     * Adds a metric entry
+     */
+    private void addMetric( List<Entry> entries, Dn parentDn, String name, String... values ) throws LdapException
+    {
+        List<String> list = new ArrayList<String>( values.length );
+
+        for ( String value : values )
+        {
+            list.add( value );
+        }
+
+        addMetric( entries, parentDn, name, list );
+    }
+
+
+    /**
+     * Adds a metric entry
+     */
+    private void addMetric( List<Entry> entries, Dn parentDn, String name, List<String> values )
+        throws LdapException
+    {
+        Dn dn = parentDn.add( new Rdn( SchemaConstants.CN_AT, name ) ).apply( schemaManager );
+
+        Entry metric = new DefaultEntry( schemaManager, dn );
+        metric.add( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC, APPLICATION_PROCESS_OC );
+        metric.add( SchemaConstants.CN_AT, name );
+
+        if ( !values.isEmpty() )
+        {
+            metric.add( DESCRIPTION_AT, values.toArray( new String[values.size()] ) );
+        }
+
+        entries.add( metric );
+    }
+
+
+    /**
+     * Finds an entry in the current snapshot
+     */
+    private Entry findEntry( Dn dn ) throws LdapException
+    {
+        return getSnapshot().entriesByDn.get( dn );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+    {
+        Dn baseDn = searchContext.getDn();
+        SearchScope scope = searchContext.getScope();
+        List<Entry> entries = getSnapshot().entries;
+        List<Entry> selected = new ArrayList<Entry>();
+        boolean baseFound = false;
+
+        for ( Entry entry : entries )
+        {
+            Dn dn = entry.getDn();
+            boolean inScope;
+
+            if ( dn.equals( baseDn ) )
+            {
+                baseFound = true;
+                inScope = ( scope != SearchScope.ONELEVEL );
+            }
+            else if ( scope == SearchScope.ONELEVEL )
+            {
+                inScope = dn.getParent().equals( baseDn );
+            }
+            else
+            {
+                inScope = ( scope == SearchScope.SUBTREE ) && dn.isDescendantOf( baseDn );
+            }
+
+            if ( inScope && evaluator.evaluate( searchContext.getFilter(), dn, entry ) )
+            {
+                selected.add( entry );
+            }
+        }
+
+        if ( !baseFound )
+        {
+            throw new LdapNoSuchObjectException( baseDn.getName() );
+        }
+
+        return new EntryFilteringCursorImpl( new ListCursor<Entry>( selected ), searchContext, schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        Entry entry = findEntry( lookupContext.getDn() );
+
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        return new ClonedServerEntry( entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
+    {
+        return findEntry( hasEntryContext.getDn() ) != null;
+    }
+
+
+    /**
+     * The monitor partition is read-only
+     */
+    private LdapUnwillingToPerformException readOnly()
+    {
+        return new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+            "The " + SUFFIX + " partition is read-only" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unbind( UnbindOperationContext unbindContext ) throws LdapException
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync() throws Exception
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void saveContextCsn() throws Exception
+    {
+        // Nothing to do
+    }
+}
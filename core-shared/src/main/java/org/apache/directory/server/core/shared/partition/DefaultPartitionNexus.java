@@ -62,6 +62,7 @@ import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.CursorList;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -78,6 +79,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
@@ -340,6 +342,54 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     }
 
 
+    /**
+     * Starts a batch on all the partitions
+     */
+    @Override
+    public void beginBatch()
+    {
+        for ( Partition partition : this.partitions.values() )
+        {
+            partition.beginBatch();
+        }
+    }
+
+
+    /**
+     * Ends the batch on all the partitions, flushing them if needed
+     */
+    @Override
+    public void endBatch() throws Exception
+    {
+        MultiException error = null;
+
+        for ( Partition partition : this.partitions.values() )
+        {
+            try
+            {
+                partition.endBatch();
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to flush partition data out.", e );
+
+                if ( error == null )
+                {
+                    //noinspection ThrowableInstanceNeverThrown
+                    error = new MultiException( I18n.err( I18n.ERR_265 ) );
+                }
+
+                error.addThrowable( e );
+            }
+        }
+
+        if ( error != null )
+        {
+            throw error;
+        }
+    }
+
+
     // ------------------------------------------------------------------------
     // DirectoryPartition Interface Method Implementations
     // ------------------------------------------------------------------------
@@ -349,7 +399,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void add( AddOperationContext addContext ) throws LdapException
     {
         Partition partition = getPartition( addContext.getDn() );
-        partition.add( addContext );
+        long start = System.nanoTime();
+
+        try
+        {
+            partition.add( addContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.ADD, start );
+        }
     }
 
 
@@ -402,9 +461,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
     {
         Partition partition = getPartition( deleteContext.getDn() );
-        Entry deletedEntry = partition.delete( deleteContext );
+        long start = System.nanoTime();
 
-        return deletedEntry;
+        try
+        {
+            return partition.delete( deleteContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.DELETE, start );
+        }
     }
 
 
@@ -426,8 +492,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
+        long start = System.nanoTime();
 
-        return partition.hasEntry( hasEntryContext );
+        try
+        {
+            return partition.hasEntry( hasEntryContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.HAS_ENTRY, start );
+        }
     }
 
 
@@ -452,7 +526,17 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
-        Entry entry = partition.lookup( lookupContext );
+        long start = System.nanoTime();
+        Entry entry = null;
+
+        try
+        {
+            entry = partition.lookup( lookupContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.LOOKUP, start );
+        }
 
         if ( entry == null )
         {
@@ -478,8 +562,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( modifyContext.getDn() );
+        long start = System.nanoTime();
 
-        partition.modify( modifyContext );
+        try
+        {
+            partition.modify( modifyContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.MODIFY, start );
+        }
 
         if ( modifyContext.isPushToEvtInterceptor() )
         {
@@ -495,8 +587,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         // Get the current partition
         Partition partition = getPartition( moveContext.getDn() );
+        long start = System.nanoTime();
 
-        partition.move( moveContext );
+        try
+        {
+            partition.move( moveContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.MOVE, start );
+        }
     }
 
 
@@ -506,7 +606,16 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Partition partition = getPartition( moveAndRenameContext.getDn() );
-        partition.moveAndRename( moveAndRenameContext );
+        long start = System.nanoTime();
+
+        try
+        {
+            partition.moveAndRename( moveAndRenameContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.MOVE_AND_RENAME, start );
+        }
     }
 
 
@@ -516,7 +625,30 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
         Partition partition = getPartition( renameContext.getDn() );
-        partition.rename( renameContext );
+        long start = System.nanoTime();
+
+        try
+        {
+            partition.rename( renameContext );
+        }
+        finally
+        {
+            record( partition, OperationEnum.RENAME, start );
+        }
+    }
+
+
+    /**
+     * Records the duration of an operation in a partition, if we have a metrics registry
+     */
+    private void record( Partition partition, OperationEnum operation, long start )
+    {
+        MetricsRegistry metricsRegistry = ( directoryService == null ) ? null : directoryService.getMetricsRegistry();
+
+        if ( metricsRegistry != null )
+        {
+            metricsRegistry.getHistograms( MetricsRegistry.PARTITIONS, partition.getId() ).record( operation, start );
+        }
     }
 
 
@@ -620,8 +752,17 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
         // Normal case : do a search on the specific partition
         Partition backend = getPartition( base );
+        long start = System.nanoTime();
 
-        return backend.search( searchContext );
+        try
+        {
+            return backend.search( searchContext );
+        }
+        finally
+        {
+            // Only the cursor creation is measured, the entries are read later
+            record( backend, OperationEnum.SEARCH, start );
+        }
     }
 
 
@@ -794,6 +935,8 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             throw new LdapOtherException( I18n.err( I18n.ERR_263, key ) );
         }
 
+        partition.setMetricsRegistry( directoryService.getMetricsRegistry() );
+
         if ( !partition.isInitialized() )
         {
             partition.setCacheService( directoryService.getCacheService() );
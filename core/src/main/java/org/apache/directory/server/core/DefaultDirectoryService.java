@@ -99,6 +99,8 @@ import org.apache.directory.server.core.api.interceptor.context.HasEntryOperatio
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.monitor.MetricsMBean;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -122,6 +124,7 @@ import org.apache.directory.server.core.schema.SchemaInterceptor;
 import org.apache.directory.server.core.security.TlsKeyGenerator;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.core.shared.monitor.MonitorPartition;
 import org.apache.directory.server.core.shared.partition.DefaultPartitionNexus;
 import org.apache.directory.server.core.subtree.SubentryInterceptor;
 import org.apache.directory.server.core.trigger.TriggerInterceptor;
@@ -292,6 +295,21 @@ public class DefaultDirectoryService implements DirectoryService
     /** The Subtree evaluator instance */
     private SubtreeEvaluator evaluator;
 
+    /** The metrics collected by this service. They are always collected */
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    /** A flag set to true if the metrics are exposed in the cn=monitor partition */
+    private boolean monitoringEnabled = false;
+
+    /** The partition exposing the metrics, if enabled */
+    private MonitorPartition monitorPartition;
+
+    /** A flag set to true if the metrics are exposed through JMX */
+    private boolean jmxEnabled = false;
+
+    /** The MBean exposing the metrics, if enabled */
+    private MetricsMBean metricsMBean;
+
 
     // ------------------------------------------------------------------------
     // Constructor
@@ -1274,6 +1292,18 @@ public class DefaultDirectoryService implements DirectoryService
             return;
         }
 
+        // --------------------------------------------------------------------
+        // Write the pending password policy state
+        // --------------------------------------------------------------------
+        AuthenticationInterceptor authenticationInterceptor = ( AuthenticationInterceptor ) getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR
+            .getName() );
+
+        if ( authenticationInterceptor != null )
+        {
+            LOG.debug( "--- Writing the pending password policy state " );
+            authenticationInterceptor.shutdownPwdStateCheckpointer();
+        }
+
         // --------------------------------------------------------------------
         // Shutdown the sync thread
         // --------------------------------------------------------------------
@@ -1306,6 +1336,13 @@ public class DefaultDirectoryService implements DirectoryService
 
         LOG.debug( "--- Destroying the nexus" );
         partitionNexus.destroy();
+
+        if ( metricsMBean != null )
+        {
+            LOG.debug( "--- Unregistering the metrics MBean" );
+            metricsMBean.unregister();
+            metricsMBean = null;
+        }
         
         // --------------------------------------------------------------------
         // And shutdown the server
@@ -1790,6 +1827,17 @@ public class DefaultDirectoryService implements DirectoryService
             dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
         }
 
+        if ( dnFactory instanceof DefaultDnFactory )
+        {
+            ( ( DefaultDnFactory ) dnFactory ).setHitRatio( metricsRegistry.getHitRatio( "dnCache" ) );
+        }
+
+        if ( monitoringEnabled && ( monitorPartition == null ) )
+        {
+            monitorPartition = new MonitorPartition( schemaManager, metricsRegistry );
+            partitions.add( monitorPartition );
+        }
+
         // triggers partition to load schema fully from schema partition
         schemaPartition.setCacheService( cacheService );
         schemaPartition.initialize();
@@ -1841,6 +1889,15 @@ public class DefaultDirectoryService implements DirectoryService
             journal.init( this );
         }
 
+        // --------------------------------------------------------------------
+        // Expose the metrics through JMX if it's enabled
+        // --------------------------------------------------------------------
+        if ( jmxEnabled )
+        {
+            metricsMBean = new MetricsMBean( metricsRegistry );
+            metricsMBean.register( instanceId == null ? "default" : instanceId );
+        }
+
         if ( LOG.isDebugEnabled() )
         {
             LOG.debug( "<--- DefaultDirectoryService initialized" );
@@ -1975,6 +2032,57 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return metricsRegistry;
+    }
+
+
+    /**
+     * @return true if the metrics are exposed in the cn=monitor partition
+     */
+    public boolean isMonitoringEnabled()
+    {
+        return monitoringEnabled;
+    }
+
+
+    /**
+     * Exposes the metrics in a read-only cn=monitor partition. Must be called
+     * before the service is started.
+     *
+     * @param monitoringEnabled true to expose the metrics in cn=monitor
+     */
+    public void setMonitoringEnabled( boolean monitoringEnabled )
+    {
+        this.monitoringEnabled = monitoringEnabled;
+    }
+
+
+    /**
+     * @return true if the metrics are exposed through JMX
+     */
+    public boolean isJmxEnabled()
+    {
+        return jmxEnabled;
+    }
+
+
+    /**
+     * Exposes the metrics through JMX, in the platform MBeanServer. Must be called
+     * before the service is started.
+     *
+     * @param jmxEnabled true to register the metrics MBean
+     */
+    public void setJmxEnabled( boolean jmxEnabled )
+    {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+
     /**
      * @return The maximum allowed size for an incoming PDU
      */
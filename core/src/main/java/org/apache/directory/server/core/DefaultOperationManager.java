@@ -28,6 +28,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapAffectMultipleDsaException;
@@ -38,12 +39,19 @@ import org.apache.directory.api.ldap.model.exception.LdapPartialResultException;
 import org.apache.directory.api.ldap.model.exception.LdapReferralException;
 import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
 import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifRevertor;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.LdapResultImpl;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -62,6 +70,8 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -341,12 +351,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> AddOperation : {}", addContext );
         }
 
-        long addStart = 0L;
-
-        if ( IS_TIME )
-        {
-            addStart = System.nanoTime();
-        }
+        long addStart = System.nanoTime();
 
         ensureStarted();
 
@@ -396,6 +401,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            recordLatency( OperationEnum.ADD, addStart );
         }
 
         if ( IS_DEBUG )
@@ -420,12 +426,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> BindOperation : {}", bindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -441,6 +442,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockRead();
+            recordLatency( OperationEnum.BIND, opStart );
         }
 
         if ( IS_DEBUG )
@@ -465,12 +467,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> CompareOperation : {}", compareContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
         // Normalize the compareContext Dn
@@ -541,6 +538,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockRead();
+            recordLatency( OperationEnum.COMPARE, opStart );
         }
 
         if ( IS_DEBUG )
@@ -567,12 +565,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> DeleteOperation : {}", deleteContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -643,6 +636,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            recordLatency( OperationEnum.DELETE, opStart );
         }
 
         if ( IS_DEBUG )
@@ -667,18 +661,22 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> GetRootDseOperation : {}", getRootDseContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
         Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
 
-        Entry root = head.getRootDse( getRootDseContext );
+        Entry root = null;
+
+        try
+        {
+            root = head.getRootDse( getRootDseContext );
+        }
+        finally
+        {
+            recordLatency( OperationEnum.GET_ROOT_DSE, opStart );
+        }
 
         if ( IS_DEBUG )
         {
@@ -704,12 +702,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> hasEntryOperation : {}", hasEntryContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -726,6 +719,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockRead();
+            recordLatency( OperationEnum.HAS_ENTRY, opStart );
         }
 
         if ( IS_DEBUG )
@@ -752,12 +746,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> LookupOperation : {}", lookupContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -774,6 +763,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockRead();
+            recordLatency( OperationEnum.LOOKUP, opStart );
         }
 
         if ( IS_DEBUG )
@@ -800,12 +790,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> ModifyOperation : {}", modifyContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -885,6 +870,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            recordLatency( OperationEnum.MODIFY, opStart );
         }
 
         if ( IS_DEBUG )
@@ -909,12 +895,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveOperation : {}", moveContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1004,6 +985,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            recordLatency( OperationEnum.MOVE, opStart );
         }
 
         if ( IS_DEBUG )
@@ -1028,12 +1010,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveAndRenameOperation : {}", moveAndRenameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1123,6 +1100,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            recordLatency( OperationEnum.MOVE_AND_RENAME, opStart );
         }
 
         if ( IS_DEBUG )
@@ -1147,12 +1125,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> RenameOperation : {}", renameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1238,6 +1211,7 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockWrite();
+            recordLatency( OperationEnum.RENAME, opStart );
         }
 
         if ( IS_DEBUG )
@@ -1262,12 +1236,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> SearchOperation : {}", searchContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1333,6 +1302,7 @@ public class DefaultOperationManager implements OperationManager
         EntryFilteringCursor cursor = null;
 
         lockRead();
+        long headStart = System.nanoTime();
 
         try
         {
@@ -1341,6 +1311,12 @@ public class DefaultOperationManager implements OperationManager
         finally
         {
             unlockRead();
+            recordLatency( OperationEnum.SEARCH, opStart );
+
+            if ( searchContext.getTrace() != null )
+            {
+                searchContext.getTrace().addInterceptorTime( head.getName(), headStart );
+            }
         }
 
         if ( IS_DEBUG )
@@ -1367,12 +1343,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> UnbindOperation : {}", unbindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1385,6 +1356,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
+            recordLatency( OperationEnum.UNBIND, opStart );
         }
 
         if ( IS_DEBUG )
@@ -1399,6 +1371,229 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public List<LdapResult> batch( List<? extends OperationContext> contexts, boolean atomic ) throws LdapException
+    {
+        if ( IS_DEBUG )
+        {
+            OPERATION_LOG.debug( ">> BatchOperation : {} operations, atomic = {}", contexts.size(), atomic );
+        }
+
+        long opStart = System.nanoTime();
+
+        ensureStarted();
+
+        List<LdapResult> results = new ArrayList<LdapResult>( contexts.size() );
+
+        // The reverse of the operations already applied, used to revert an atomic batch
+        List<LdifEntry> reverses = new ArrayList<LdifEntry>();
+        PartitionNexus nexus = directoryService.getPartitionNexus();
+
+        // The lock is reentrant : each operation will take it again, for free
+        lockWrite();
+
+        try
+        {
+            nexus.beginBatch();
+
+            try
+            {
+                for ( OperationContext context : contexts )
+                {
+                    LdapResult result = new LdapResultImpl();
+                    results.add( result );
+
+                    try
+                    {
+                        LdifEntry reverse = applyBatchOperation( context, atomic );
+                        result.setResultCode( ResultCodeEnum.SUCCESS );
+
+                        if ( reverse != null )
+                        {
+                            reverses.add( reverse );
+                        }
+                    }
+                    catch ( LdapException le )
+                    {
+                        result.setResultCode( ResultCodeEnum.getResultCode( le ) );
+                        result.setDiagnosticMessage( le.getMessage() );
+
+                        if ( atomic )
+                        {
+                            revertBatch( reverses, results );
+
+                            break;
+                        }
+                    }
+                }
+
+                // The operations we didn't even try, after a failure in an atomic batch
+                for ( int i = results.size(); i < contexts.size(); i++ )
+                {
+                    LdapResult result = new LdapResultImpl();
+                    result.setResultCode( ResultCodeEnum.CANCELED );
+                    result.setDiagnosticMessage( "Not processed, as a previous operation of the batch has failed" );
+                    results.add( result );
+                }
+            }
+            finally
+            {
+                try
+                {
+                    nexus.endBatch();
+                }
+                catch ( Exception e )
+                {
+                    throw new LdapOperationErrorException( e.getMessage(), e );
+                }
+            }
+        }
+        finally
+        {
+            unlockWrite();
+        }
+
+        if ( IS_DEBUG )
+        {
+            OPERATION_LOG.debug( "<< BatchOperation successful" );
+        }
+
+        if ( IS_TIME )
+        {
+            OPERATION_TIME.debug( "Batch operation took " + ( System.nanoTime() - opStart ) + " ns" );
+        }
+
+        return results;
+    }
+
+
+    /**
+     * Applies one operation of a batch. When the batch is atomic, we return the
+     * LDIF reverting the operation.
+     */
+    private LdifEntry applyBatchOperation( OperationContext context, boolean atomic ) throws LdapException
+    {
+        if ( context instanceof AddOperationContext )
+        {
+            add( ( AddOperationContext ) context );
+
+            return atomic ? LdifRevertor.reverseAdd( context.getDn() ) : null;
+        }
+        else if ( context instanceof ModifyOperationContext )
+        {
+            ModifyOperationContext modifyContext = ( ModifyOperationContext ) context;
+            Entry original = atomic ? getBatchOriginalEntry( modifyContext ) : null;
+
+            modify( modifyContext );
+
+            return atomic ? LdifRevertor.reverseModify( modifyContext.getDn(), modifyContext.getModItems(),
+                original ) : null;
+        }
+        else if ( context instanceof DeleteOperationContext )
+        {
+            DeleteOperationContext deleteContext = ( DeleteOperationContext ) context;
+            Entry original = atomic ? getBatchOriginalEntry( deleteContext ) : null;
+
+            delete( deleteContext );
+
+            return atomic ? LdifRevertor.reverseDel( deleteContext.getDn(), original ) : null;
+        }
+        else
+        {
+            throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+                "Only Add, Modify and Delete operations can be batched : " + context.getName() );
+        }
+    }
+
+
+    /**
+     * Reads the entry before it's modified or deleted, so that the operation can be
+     * reverted. The entry is also stored in the context, sparing the operation a lookup.
+     */
+    private Entry getBatchOriginalEntry( OperationContext context ) throws LdapException
+    {
+        context.getDn().apply( directoryService.getSchemaManager() );
+        eagerlyPopulateFields( context );
+
+        return context.getEntry().clone();
+    }
+
+
+    /**
+     * Records the duration of an operation, from its start to the moment the
+     * interceptor chain returns.
+     */
+    private void recordLatency( OperationEnum operation, long start )
+    {
+        MetricsRegistry metricsRegistry = directoryService.getMetricsRegistry();
+
+        if ( metricsRegistry != null )
+        {
+            metricsRegistry.getHistograms( MetricsRegistry.OPERATIONS, MetricsRegistry.SERVER ).record( operation,
+                start );
+        }
+    }
+
+
+    /**
+     * Reverts the operations of a failed atomic batch, the last one first. The
+     * result of each operation tells if it has been reverted : if a revert fails,
+     * we stop there, and the operations which are still applied are reported as such.
+     */
+    private void revertBatch( List<LdifEntry> reverses, List<LdapResult> results )
+    {
+        CoreSession adminSession = directoryService.getAdminSession();
+        int failed = results.size() - 1;
+
+        for ( int i = reverses.size() - 1; i >= 0; i-- )
+        {
+            LdifEntry reverse = reverses.get( i );
+
+            try
+            {
+                switch ( reverse.getChangeType().getChangeType() )
+                {
+                    case ChangeType.ADD_ORDINAL:
+                        adminSession.add( new DefaultEntry( directoryService.getSchemaManager(), reverse.getEntry() ),
+                            true );
+                        break;
+
+                    case ChangeType.DELETE_ORDINAL:
+                        adminSession.delete( reverse.getDn(), true );
+                        break;
+
+                    case ChangeType.MODIFY_ORDINAL:
+                        adminSession.modify( reverse.getDn(), reverse.getModifications(), true );
+                        break;
+
+                    default:
+                        throw new LdapOperationErrorException( I18n.err( I18n.ERR_76, reverse.getChangeType() ) );
+                }
+            }
+            catch ( LdapException le )
+            {
+                OPERATION_LOG.error( "Cannot revert the operation {} of a failed atomic batch : {}", i,
+                    le.getMessage() );
+
+                for ( int j = i; j >= 0; j-- )
+                {
+                    results.get( j ).setResultCode( ResultCodeEnum.OTHER );
+                    results.get( j ).setDiagnosticMessage( "Applied, as operation " + failed
+                        + " of the batch has failed but operation " + i + " could not be reverted : "
+                        + le.getMessage() );
+                }
+
+                return;
+            }
+
+            results.get( i ).setResultCode( ResultCodeEnum.CANCELED );
+            results.get( i ).setDiagnosticMessage( "Reverted, as operation " + failed + " of the batch has failed" );
+        }
+    }
+
+
     private void ensureStarted() throws LdapServiceUnavailableException
     {
         if ( !directoryService.isStarted() )
@@ -208,6 +208,7 @@ public abstract class AbstractAuthenticator implements Authenticator
                         modContext.setModItems( Collections.singletonList( pwdAccountLockMod ) );
 
                         directoryService.getPartitionNexus().modify( modContext );
+                        authenticationInterceptor.invalidateAuthenticatorCaches( userEntry.getDn() );
                     }
                 }
             }
@@ -244,8 +245,10 @@ public abstract class AbstractAuthenticator implements Authenticator
         {
             Attribute pwdLastSuccessTimeAttr = userEntry.get( PWD_LAST_SUCCESS_AT );
 
-            // Let's be sure that the user has already logged in
-            if ( pwdLastSuccessTimeAttr != null )
+            // Let's be sure that the user has already logged in. If a successful bind
+            // has not been written yet, the user is not idle
+            if ( ( pwdLastSuccessTimeAttr != null )
+                && !authenticationInterceptor.hasPendingLastSuccess( userEntry.getDn() ) )
             {
                 long time = pPolicyConfig.getPwdMaxIdle() * 1000L;
                 time += DateUtils.getDate( pwdLastSuccessTimeAttr.getString() ).getTime();
@@ -151,6 +151,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
     /** the pwdPolicySubentry AT */
     private AttributeType pwdPolicySubentryAT;
 
+    /** The background writer of the pwdLastSuccess values, started on the first successful bind */
+    private volatile PwdPolicyStateCheckpointer pwdStateCheckpointer;
+
+    /** The delay between two writes of the pwdLastSuccess values, in milliseconds */
+    private long pwdStateCheckpointInterval = PwdPolicyStateCheckpointer.DEFAULT_CHECKPOINT_INTERVAL;
+
 
     /**
      * Creates an authentication service interceptor.
@@ -258,6 +264,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
      */
     public void destroy()
     {
+        shutdownPwdStateCheckpointer();
         authenticatorsMapByType.clear();
         Set<Authenticator> copy = new HashSet<Authenticator>( authenticators );
         authenticators = new HashSet<Authenticator>();
@@ -592,15 +599,23 @@ public class AuthenticationInterceptor extends BaseInterceptor
                         numDelay = maxDelay;
                     }
 
-                    try
+                    if ( bindContext.isFailureDelayDeferred() )
                     {
-                        Thread.sleep( numDelay * 1000L );
+                        // The caller will delay the response without blocking a thread
+                        bindContext.setFailureDelay( numDelay * 1000L );
                     }
-                    catch ( InterruptedException e )
+                    else
                     {
-                        LOG.warn(
-                            "Interrupted while delaying to send the failed authentication response for the user {}",
-                            dn, e );
+                        try
+                        {
+                            Thread.sleep( numDelay * 1000L );
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            LOG.warn(
+                                "Interrupted while delaying to send the failed authentication response for the user {}",
+                                dn, e );
+                        }
                     }
                 }
 
@@ -617,6 +632,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
                     bindModCtx.setPushToEvtInterceptor( true );
 
                     directoryService.getPartitionNexus().modify( bindModCtx );
+                    invalidateAuthenticatorCaches( dn );
                 }
             }
 
@@ -626,13 +642,11 @@ public class AuthenticationInterceptor extends BaseInterceptor
         else if ( policyConfig != null )
         {
             List<Modification> mods = new ArrayList<Modification>();
+            String lastSuccessTime = null;
 
             if ( policyConfig.getPwdMaxIdle() > 0 )
             {
-                Attribute pwdLastSuccesTimeAt = new DefaultAttribute( AT_PWD_LAST_SUCCESS );
-                pwdLastSuccesTimeAt.add( DateUtils.getGeneralizedTime() );
-                Modification pwdLastSuccesTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccesTimeAt );
-                mods.add( pwdLastSuccesTimeMod );
+                lastSuccessTime = DateUtils.getGeneralizedTime();
             }
 
             Attribute pwdFailTimeAt = userEntry.get( AT_PWD_FAILURE_TIME );
@@ -687,6 +701,16 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
             if ( !mods.isEmpty() )
             {
+                // The entry has to be written anyway : the last success time is written with
+                // the other changes, replacing any older pending value
+                if ( lastSuccessTime != null )
+                {
+                    Attribute pwdLastSuccesTimeAt = new DefaultAttribute( AT_PWD_LAST_SUCCESS );
+                    pwdLastSuccesTimeAt.add( lastSuccessTime );
+                    mods.add( new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccesTimeAt ) );
+                    discardPendingPwdState( dn );
+                }
+
                 String csnVal = directoryService.getCSN().toString();
                 Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, ENTRY_CSN_AT, csnVal );
                 mods.add( csnMod );
@@ -698,6 +722,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
                 bindModCtx.setPushToEvtInterceptor( true );
 
                 directoryService.getPartitionNexus().modify( bindModCtx );
+                invalidateAuthenticatorCaches( dn );
+            }
+            else if ( lastSuccessTime != null )
+            {
+                // Only the last success time has changed : it will be written in the background
+                getPwdStateCheckpointer().recordSuccess( dn, lastSuccessTime );
             }
 
             if ( isPPolicyReqCtrlPresent )
@@ -753,6 +783,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( deleteContext );
         next( deleteContext );
         invalidateAuthenticatorCaches( deleteContext.getDn() );
+        discardPendingPwdState( deleteContext.getDn() );
     }
 
 
@@ -807,7 +838,14 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
 
-    private void invalidateAuthenticatorCaches( Dn principalDn )
+    /**
+     * Removes a user from the authenticators caches. With a password policy, the cached
+     * entries are also used to check the policy state, so this must be done each time the
+     * entry is modified.
+     *
+     * @param principalDn The user Dn
+     */
+    void invalidateAuthenticatorCaches( Dn principalDn )
     {
         for ( AuthenticationLevel authMech : authenticatorsMapByType.keySet() )
         {
@@ -838,6 +876,14 @@ public class AuthenticationInterceptor extends BaseInterceptor
         {
             next( modifyContext );
 
+            if ( directoryService.isPwdPolicyEnabled() )
+            {
+                // A replicated change may have modified the password policy state
+                invalidateAuthenticatorCaches( modifyContext.getDn() );
+
+                return;
+            }
+
             List<Modification> modifications = modifyContext.getModItems();
 
             for ( Modification modification : modifications )
@@ -1126,6 +1172,85 @@ public class AuthenticationInterceptor extends BaseInterceptor
         {
             next( modifyContext );
         }
+
+        // The cached entry is used to check the password policy state
+        invalidateAuthenticatorCaches( modifyContext.getDn() );
+    }
+
+
+    /**
+     * Gets the background writer of the pwdLastSuccess values, starting it if needed
+     */
+    private synchronized PwdPolicyStateCheckpointer getPwdStateCheckpointer()
+    {
+        if ( pwdStateCheckpointer == null )
+        {
+            pwdStateCheckpointer = new PwdPolicyStateCheckpointer( this, directoryService, AT_PWD_LAST_SUCCESS,
+                pwdStateCheckpointInterval );
+            pwdStateCheckpointer.start();
+        }
+
+        return pwdStateCheckpointer;
+    }
+
+
+    /**
+     * Writes the pending pwdLastSuccess values, and stops the background writer. It will be
+     * restarted on the next successful bind.
+     */
+    public synchronized void shutdownPwdStateCheckpointer()
+    {
+        if ( pwdStateCheckpointer != null )
+        {
+            pwdStateCheckpointer.shutdown();
+            pwdStateCheckpointer = null;
+        }
+    }
+
+
+    /**
+     * Tells if a successful bind of a user has not been written yet in its entry
+     *
+     * @param dn The user Dn
+     * @return true if the user entry does not contain the last success time yet
+     */
+    public boolean hasPendingLastSuccess( Dn dn )
+    {
+        PwdPolicyStateCheckpointer checkpointer = pwdStateCheckpointer;
+
+        return ( checkpointer != null ) && checkpointer.hasPendingSuccess( dn );
+    }
+
+
+    private void discardPendingPwdState( Dn dn )
+    {
+        PwdPolicyStateCheckpointer checkpointer = pwdStateCheckpointer;
+
+        if ( checkpointer != null )
+        {
+            checkpointer.discard( dn );
+        }
+    }
+
+
+    /**
+     * @return The delay between two writes of the pwdLastSuccess values, in milliseconds
+     */
+    public long getPwdStateCheckpointInterval()
+    {
+        return pwdStateCheckpointInterval;
+    }
+
+
+    /**
+     * Sets the delay between two writes of the pwdLastSuccess values. It's taken into
+     * account the next time the background writer is started.
+     *
+     * @param pwdStateCheckpointInterval The delay, in milliseconds
+     */
+    public void setPwdStateCheckpointInterval( long pwdStateCheckpointInterval )
+    {
+        this.pwdStateCheckpointInterval = pwdStateCheckpointInterval;
     }
 
 
@@ -1143,6 +1268,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( moveContext );
         next( moveContext );
         invalidateAuthenticatorCaches( moveContext.getDn() );
+        discardPendingPwdState( moveContext.getDn() );
     }
 
 
@@ -1160,6 +1286,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( moveAndRenameContext );
         next( moveAndRenameContext );
         invalidateAuthenticatorCaches( moveAndRenameContext.getDn() );
+        discardPendingPwdState( moveAndRenameContext.getDn() );
     }
 
 
@@ -1177,6 +1304,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( renameContext );
         next( renameContext );
         invalidateAuthenticatorCaches( renameContext.getDn() );
+        discardPendingPwdState( renameContext.getDn() );
     }
 
 
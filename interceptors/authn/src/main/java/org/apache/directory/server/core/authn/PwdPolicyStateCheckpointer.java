@@ -0,0 +1,311 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import static org.apache.directory.api.ldap.model.entry.ModificationOperation.REPLACE_ATTRIBUTE;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps the password policy bookkeeping done on each successful bind (the pwdLastSuccess
+ * attribute) in memory, and writes it in the background. The updates are coalesced per
+ * user : if a user binds many times between two checkpoints, only the last time is written.
+ * All the pending updates are written in a single partition batch.
+ * <br>
+ * The state which is used to lock an account (failure times, locked time, grace logins)
+ * is not handled here : it's still written synchronously by the bind operation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PwdPolicyStateCheckpointer extends Thread
+{
+    private static final Logger LOG = LoggerFactory.getLogger( PwdPolicyStateCheckpointer.class );
+
+    /** The default delay between two checkpoints, in milliseconds */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 1000L;
+
+    /** The pending last success times, per user normalized Dn */
+    private final ConcurrentMap<String, PendingSuccess> pending = new ConcurrentHashMap<String, PendingSuccess>();
+
+    /** The interceptor whose caches must be invalidated once an entry has been updated */
+    private final AuthenticationInterceptor authenticationInterceptor;
+
+    /** The directory service */
+    private final DirectoryService directoryService;
+
+    /** The pwdLastSuccess AT */
+    private final AttributeType pwdLastSuccessAT;
+
+    /** The entryCSN AT */
+    private final AttributeType entryCsnAT;
+
+    /** The delay between two checkpoints */
+    private final long interval;
+
+    private volatile boolean stop = false;
+
+    /** A lock used to wait */
+    private final Object lock = new Object();
+
+    /** A pending update */
+    private static final class PendingSuccess
+    {
+        private final Dn dn;
+        private final String time;
+
+
+        private PendingSuccess( Dn dn, String time )
+        {
+            this.dn = dn;
+            this.time = time;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of PwdPolicyStateCheckpointer.
+     *
+     * @param authenticationInterceptor The interceptor using this checkpointer
+     * @param directoryService The directory service
+     * @param pwdLastSuccessAT The pwdLastSuccess AttributeType
+     * @param interval The delay between two checkpoints, in milliseconds
+     */
+    public PwdPolicyStateCheckpointer( AuthenticationInterceptor authenticationInterceptor,
+        DirectoryService directoryService, AttributeType pwdLastSuccessAT, long interval )
+    {
+        super( "PwdPolicyStateCheckpointer" );
+        this.authenticationInterceptor = authenticationInterceptor;
+        this.directoryService = directoryService;
+        this.pwdLastSuccessAT = pwdLastSuccessAT;
+        this.entryCsnAT = directoryService.getSchemaManager().getAttributeType( SchemaConstants.ENTRY_CSN_AT );
+        this.interval = interval > 0 ? interval : DEFAULT_CHECKPOINT_INTERVAL;
+        setDaemon( true );
+    }
+
+
+    /**
+     * Records a successful bind. It replaces any pending update for the same user.
+     *
+     * @param dn The user Dn
+     * @param time The bind time, as a generalized time
+     */
+    public void recordSuccess( Dn dn, String time )
+    {
+        pending.put( dn.getNormName(), new PendingSuccess( dn, time ) );
+    }
+
+
+    /**
+     * Tells if a successful bind has been recorded for a user, and not yet written
+     *
+     * @param dn The user Dn
+     * @return true if there is a pending update for this user
+     */
+    public boolean hasPendingSuccess( Dn dn )
+    {
+        return pending.containsKey( dn.getNormName() );
+    }
+
+
+    /**
+     * Drops the pending update of a user, when its entry is deleted or renamed.
+     *
+     * @param dn The user Dn
+     */
+    public void discard( Dn dn )
+    {
+        pending.remove( dn.getNormName() );
+    }
+
+
+    @Override
+    public void run()
+    {
+        while ( !stop )
+        {
+            try
+            {
+                synchronized ( lock )
+                {
+                    lock.wait( interval );
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                LOG.warn( "PwdPolicyStateCheckpointer thread was interrupted, writing the pending updates", e );
+            }
+
+            checkpoint();
+        }
+    }
+
+
+    /**
+     * Writes all the pending updates.
+     */
+    public void checkpoint()
+    {
+        if ( pending.isEmpty() )
+        {
+            return;
+        }
+
+        List<PendingSuccess> updates = new ArrayList<PendingSuccess>( pending.size() );
+        Iterator<Map.Entry<String, PendingSuccess>> iterator = pending.entrySet().iterator();
+
+        while ( iterator.hasNext() )
+        {
+            Map.Entry<String, PendingSuccess> entry = iterator.next();
+
+            // A bind done after we have read the value will be written in the next checkpoint
+            if ( pending.remove( entry.getKey(), entry.getValue() ) )
+            {
+                updates.add( entry.getValue() );
+            }
+        }
+
+        OperationManager operationManager = directoryService.getOperationManager();
+        PartitionNexus nexus = directoryService.getPartitionNexus();
+
+        // Same lock as the one held by the bind operation which used to do these writes
+        operationManager.lockRead();
+
+        try
+        {
+            // The batch is held per thread : only the sync of our own writes is deferred,
+            // the operations done meanwhile by the other threads are flushed as usual
+            nexus.beginBatch();
+
+            try
+            {
+                for ( PendingSuccess update : updates )
+                {
+                    write( nexus, update );
+                }
+            }
+            finally
+            {
+                nexus.endBatch();
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to write the password policy state of {} users", updates.size(), e );
+        }
+        finally
+        {
+            operationManager.unlockRead();
+        }
+    }
+
+
+    private void write( PartitionNexus nexus, PendingSuccess update )
+    {
+        CoreSession adminSession = directoryService.getAdminSession();
+
+        try
+        {
+            // The event interceptor needs the original entry
+            LookupOperationContext lookupContext = new LookupOperationContext( adminSession, update.dn,
+                SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+            Entry userEntry = nexus.lookup( lookupContext );
+
+            if ( userEntry == null )
+            {
+                return;
+            }
+
+            List<Modification> mods = new ArrayList<Modification>( 2 );
+            mods.add( new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccessAT, update.time ) );
+            mods.add( new DefaultModification( REPLACE_ATTRIBUTE, entryCsnAT, directoryService.getCSN()
+                .toString() ) );
+
+            ModifyOperationContext modifyContext = new ModifyOperationContext( adminSession );
+            modifyContext.setDn( update.dn );
+            modifyContext.setEntry( userEntry );
+            modifyContext.setModItems( mods );
+            modifyContext.setPushToEvtInterceptor( true );
+
+            nexus.modify( modifyContext );
+        }
+        catch ( LdapNoSuchObjectException lnsoe )
+        {
+            LOG.debug( "The entry {} has been removed before its password policy state was written", update.dn );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to write the password policy state of {}", update.dn, e );
+        }
+        finally
+        {
+            // The cached entries now have an outdated pwdLastSuccess
+            authenticationInterceptor.invalidateAuthenticatorCaches( update.dn );
+        }
+    }
+
+
+    /**
+     * Stops the thread, after having written the pending updates.
+     */
+    public void shutdown()
+    {
+        stop = true;
+
+        synchronized ( lock )
+        {
+            lock.notifyAll();
+        }
+
+        try
+        {
+            join( interval * 2 );
+        }
+        catch ( InterruptedException e )
+        {
+            LOG.warn( "Interrupted while waiting for the PwdPolicyStateCheckpointer thread to stop", e );
+        }
+
+        // The thread may have been blocked : make sure nothing is lost
+        checkpoint();
+    }
+}
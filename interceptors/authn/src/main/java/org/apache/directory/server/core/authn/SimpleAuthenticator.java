@@ -48,6 +48,8 @@ import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfigur
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.monitor.HitRatio;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.mina.core.session.IoSession;
 
@@ -112,6 +114,28 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     }
 
 
+    /**
+     * What we keep in the credential cache. When the password policy is enabled, we also
+     * keep the user entry, to be able to check the policy state without reading it again,
+     * and the policy which was applied to it : if it's not the same anymore, the cached
+     * credentials can't be used.
+     */
+    private static final class CachedCredentials
+    {
+        private final LdapPrincipal principal;
+        private final Entry entry;
+        private final PasswordPolicyConfiguration policyConfig;
+
+
+        private CachedCredentials( LdapPrincipal principal, Entry entry, PasswordPolicyConfiguration policyConfig )
+        {
+            this.principal = principal;
+            this.entry = entry;
+            this.policyConfig = policyConfig;
+        }
+    }
+
+
     /**
      * Get the password either from cache or from backend.
      * @param principalDN The Dn from which we want the password
@@ -120,48 +144,95 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      */
     private LdapPrincipal getStoredPassword( BindOperationContext bindContext ) throws LdapException
     {
-        LdapPrincipal principal = null;
+        DirectoryService directoryService = getDirectoryService();
+        boolean isPwdPolicyEnabled = directoryService.isPwdPolicyEnabled();
+        AuthenticationInterceptor authenticationInterceptor = null;
+        CachedCredentials cached = null;
 
-        // use cache only if pwdpolicy is not enabled
-        if ( !getDirectoryService().isPwdPolicyEnabled() )
+        synchronized ( credentialCache )
         {
-            synchronized ( credentialCache )
+            cached = ( CachedCredentials ) credentialCache.get( bindContext.getDn().getNormName() );
+        }
+
+        if ( ( cached != null ) && isPwdPolicyEnabled )
+        {
+            // The cached entry is invalidated each time the entry is modified, but the
+            // policy itself may have changed.
+            authenticationInterceptor = ( AuthenticationInterceptor ) directoryService.getInterceptor(
+                InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+
+            if ( ( cached.entry == null )
+                || ( authenticationInterceptor.getPwdPolicy( cached.entry ) != cached.policyConfig ) )
             {
-                principal = ( LdapPrincipal ) credentialCache.get( bindContext.getDn().getNormName() );
+                cached = null;
+            }
+            else
+            {
+                checkPwdPolicy( cached.entry );
+                bindContext.setEntry( new ClonedServerEntry( cached.entry ) );
             }
         }
 
-        byte[][] storedPasswords;
+        MetricsRegistry metricsRegistry = directoryService.getMetricsRegistry();
 
-        if ( principal == null )
+        if ( metricsRegistry != null )
         {
-            // Not found in the cache
-            // Get the user password from the backend
-            storedPasswords = lookupUserPassword( bindContext );
-
-            // Deal with the special case where the user didn't enter a password
-            // We will compare the empty array with the credentials. Sometime,
-            // a user does not set a password. This is bad, but there is nothing
-            // we can do against that, except education ...
-            if ( storedPasswords == null )
+            HitRatio hitRatio = metricsRegistry.getHitRatio( "credentialCache" );
+
+            if ( cached != null )
             {
-                storedPasswords = new byte[][]
-                    {};
+                hitRatio.hit();
             }
+            else
+            {
+                hitRatio.miss();
+            }
+        }
 
-            // Create the new principal before storing it in the cache
-            principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
-                AuthenticationLevel.SIMPLE );
-            principal.setUserPassword( storedPasswords );
+        if ( cached != null )
+        {
+            return cached.principal;
+        }
+
+        // Not found in the cache
+        // Get the user password from the backend
+        byte[][] storedPasswords = lookupUserPassword( bindContext );
+
+        // Deal with the special case where the user didn't enter a password
+        // We will compare the empty array with the credentials. Sometime,
+        // a user does not set a password. This is bad, but there is nothing
+        // we can do against that, except education ...
+        if ( storedPasswords == null )
+        {
+            storedPasswords = new byte[][]
+                {};
+        }
 
-            // Now, update the local cache ONLY if pwdpolicy is not enabled.
-            if ( !getDirectoryService().isPwdPolicyEnabled() )
+        // Create the new principal before storing it in the cache
+        LdapPrincipal principal = new LdapPrincipal( directoryService.getSchemaManager(), bindContext.getDn(),
+            AuthenticationLevel.SIMPLE );
+        principal.setUserPassword( storedPasswords );
+
+        Entry entry = null;
+        PasswordPolicyConfiguration policyConfig = null;
+
+        if ( isPwdPolicyEnabled && ( bindContext.getEntry() != null ) )
+        {
+            if ( authenticationInterceptor == null )
             {
-                synchronized ( credentialCache )
-                {
-                    credentialCache.put( bindContext.getDn().getNormName(), principal );
-                }
+                authenticationInterceptor = ( AuthenticationInterceptor ) directoryService.getInterceptor(
+                    InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
             }
+
+            entry = new ClonedServerEntry( bindContext.getEntry() );
+            policyConfig = authenticationInterceptor.getPwdPolicy( entry );
+        }
+
+        // Now, update the local cache.
+        synchronized ( credentialCache )
+        {
+            credentialCache.put( bindContext.getDn().getNormName(), new CachedCredentials( principal, entry,
+                policyConfig ) );
         }
 
         return principal;
@@ -399,7 +470,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
 
     /**
      * Remove the principal form the cache. This is used when the user changes
-     * his password.
+     * his password, or when its password policy state is modified.
      */
     public void invalidateCache( Dn bindDn )
     {
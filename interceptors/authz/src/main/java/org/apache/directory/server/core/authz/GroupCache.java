@@ -51,6 +51,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.monitor.Gauge;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
@@ -119,6 +120,18 @@ public class GroupCache
 
         this.ehCache = dirService.getCacheService().getCache( "groupCache" );
 
+        // The cache holds all the groups, there is no miss to count : we expose its size
+        if ( dirService.getMetricsRegistry() != null )
+        {
+            dirService.getMetricsRegistry().registerGauge( "groupCache.size", new Gauge()
+            {
+                public long getValue()
+                {
+                    return ehCache.getSize();
+                }
+            } );
+        }
+
         initialize( dirService.getAdminSession() );
     }
 
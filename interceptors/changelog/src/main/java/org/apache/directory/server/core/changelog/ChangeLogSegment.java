@@ -0,0 +1,423 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * A single append-only file of a {@link FileChangeLogStore}. A segment holds a
+ * contiguous run of revisions, starting at the revision its file is named after.
+ * Each record is laid out as :
+ * <pre>
+ * [int length][long revision][UTF dn][UTF zuluTime][serialized ChangeLogEvent]
+ * </pre>
+ * where the length covers everything but itself. The offsets of the records are
+ * kept in memory, so that a revision can be located without reading the file.
+ * Once a segment is sealed, no record is appended anymore and its file is closed :
+ * the reads are done through a read-only mapping of the whole file, created on
+ * demand, and released by the store when the segment is not read anymore. The
+ * active segment is read through its channel, so that it does not have to be
+ * mapped again each time it grows.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class ChangeLogSegment
+{
+    /** The segment files extension */
+    static final String EXTENSION = ".log";
+
+    /** The file containing the records */
+    private final File file;
+
+    /** The first revision stored in this segment */
+    private final long firstRevision;
+
+    /** The file and its channel, opened for append until the segment is sealed */
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /** The record offsets, indexed by revision - firstRevision */
+    private int[] offsets = new int[256];
+
+    /** The number of records in this segment */
+    private int count;
+
+    /** The number of bytes written so far */
+    private long size;
+
+    /** The time of the last record, in milliseconds */
+    private long lastTime;
+
+    /** Tells if no record will be appended to this segment anymore */
+    private boolean sealed;
+
+    /** The mapping of the file, once the segment is sealed */
+    private MappedByteBuffer mapped;
+
+
+    /**
+     * A callback used when the headers of the records are scanned on startup.
+     */
+    interface HeaderVisitor
+    {
+        void visit( long revision, String dn, String zuluTime );
+    }
+
+
+    /**
+     * Opens, or creates, the segment starting at the given revision.
+     */
+    ChangeLogSegment( File directory, long firstRevision ) throws IOException
+    {
+        this.file = new File( directory, getFileName( firstRevision ) );
+        this.firstRevision = firstRevision;
+        raf = new RandomAccessFile( file, "rw" );
+        channel = raf.getChannel();
+    }
+
+
+    /**
+     * @return the name of the file containing the segment starting at the given revision
+     */
+    static String getFileName( long firstRevision )
+    {
+        return String.format( "%020d%s", firstRevision, EXTENSION );
+    }
+
+
+    /**
+     * @return the first revision of a segment, given its file name, or -1 if the
+     * file is not a segment
+     */
+    static long getFirstRevision( String fileName )
+    {
+        if ( !fileName.endsWith( EXTENSION ) )
+        {
+            return -1L;
+        }
+
+        try
+        {
+            return Long.parseLong( fileName.substring( 0, fileName.length() - EXTENSION.length() ) );
+        }
+        catch ( NumberFormatException nfe )
+        {
+            return -1L;
+        }
+    }
+
+
+    /**
+     * Reads all the record headers, rebuilding the offsets. A partially written
+     * record at the end of the file is truncated.
+     */
+    void recover( HeaderVisitor visitor ) throws IOException
+    {
+        long fileSize = channel.size();
+        long position = 0;
+        count = 0;
+
+        ByteBuffer lengthBuffer = ByteBuffer.allocate( 4 );
+
+        while ( position + 4 <= fileSize )
+        {
+            lengthBuffer.clear();
+            channel.read( lengthBuffer, position );
+            lengthBuffer.flip();
+            int length = lengthBuffer.getInt();
+
+            if ( ( length <= 0 ) || ( position + 4 + length > fileSize ) )
+            {
+                break;
+            }
+
+            byte[] record = new byte[length];
+            channel.read( ByteBuffer.wrap( record ), position + 4 );
+
+            DataInputStream in = new DataInputStream( new ByteArrayInputStream( record ) );
+            long revision = in.readLong();
+
+            if ( revision != firstRevision + count )
+            {
+                throw new IOException( I18n.err( I18n.ERR_240 ) + " : " + revision + " in " + file );
+            }
+
+            String dn = in.readUTF();
+            String zuluTime = in.readUTF();
+
+            addOffset( ( int ) position );
+            lastTime = FileChangeLogStore.toMillis( zuluTime );
+
+            if ( visitor != null )
+            {
+                visitor.visit( revision, dn, zuluTime );
+            }
+
+            position += 4 + length;
+        }
+
+        if ( position < fileSize )
+        {
+            // A torn write : drop it
+            channel.truncate( position );
+        }
+
+        size = position;
+        mapped = null;
+    }
+
+
+    /**
+     * Appends a record at the end of the segment.
+     */
+    void append( long revision, String dn, String zuluTime, byte[] event ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( event.length + 128 );
+        DataOutputStream out = new DataOutputStream( baos );
+        out.writeInt( 0 );
+        out.writeLong( revision );
+        out.writeUTF( dn );
+        out.writeUTF( zuluTime );
+        out.write( event );
+        out.flush();
+
+        ByteBuffer buffer = ByteBuffer.wrap( baos.toByteArray() );
+        buffer.putInt( 0, buffer.remaining() - 4 );
+
+        long position = size;
+
+        while ( buffer.hasRemaining() )
+        {
+            position += channel.write( buffer, position );
+        }
+
+        addOffset( ( int ) size );
+        size = position;
+        lastTime = FileChangeLogStore.toMillis( zuluTime );
+    }
+
+
+    private void addOffset( int offset )
+    {
+        if ( count == offsets.length )
+        {
+            offsets = Arrays.copyOf( offsets, count * 2 );
+        }
+
+        offsets[count++] = offset;
+    }
+
+
+    /**
+     * Reads the header and the event bytes of a record. The returned stream is
+     * positioned on the DN.
+     */
+    DataInputStream read( long revision ) throws IOException
+    {
+        int offset = offsets[( int ) ( revision - firstRevision )];
+        int next = ( revision - firstRevision + 1 < count ) ? offsets[( int ) ( revision - firstRevision + 1 )]
+            : ( int ) size;
+        byte[] record = new byte[next - offset - 4];
+        ByteBuffer mapping = getMapping();
+
+        if ( mapping != null )
+        {
+            ByteBuffer view = mapping.duplicate();
+            view.position( offset + 4 );
+            view.get( record );
+        }
+        else
+        {
+            ByteBuffer buffer = ByteBuffer.wrap( record );
+            long position = offset + 4;
+
+            while ( buffer.hasRemaining() )
+            {
+                int read = channel.read( buffer, position );
+
+                if ( read < 0 )
+                {
+                    throw new IOException( I18n.err( I18n.ERR_240 ) + " : " + revision + " in " + file );
+                }
+
+                position += read;
+            }
+        }
+
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( record ) );
+        in.readLong();
+
+        return in;
+    }
+
+
+    /**
+     * @return a read-only mapping of the whole file, or null if the segment is
+     * not sealed yet. The file is only open while it's mapped.
+     */
+    private ByteBuffer getMapping() throws IOException
+    {
+        if ( sealed && ( mapped == null ) && ( size > 0 ) )
+        {
+            RandomAccessFile readFile = new RandomAccessFile( file, "r" );
+
+            try
+            {
+                mapped = readFile.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, size );
+            }
+            finally
+            {
+                readFile.close();
+            }
+        }
+
+        return mapped;
+    }
+
+
+    /**
+     * @return true if the file is currently mapped
+     */
+    boolean isMapped()
+    {
+        return mapped != null;
+    }
+
+
+    /**
+     * Drops the mapping of a sealed segment. It will be mapped again when it's read.
+     */
+    void release()
+    {
+        mapped = null;
+    }
+
+
+    /**
+     * Marks the segment as complete and closes its file : the records will be read
+     * through a mapping of the file from now on.
+     */
+    void seal() throws IOException
+    {
+        sealed = true;
+        closeFile();
+    }
+
+
+    private void closeFile() throws IOException
+    {
+        if ( channel != null )
+        {
+            channel.close();
+            raf.close();
+            channel = null;
+            raf = null;
+        }
+    }
+
+
+    boolean contains( long revision )
+    {
+        return ( revision >= firstRevision ) && ( revision < firstRevision + count );
+    }
+
+
+    long getFirstRevision()
+    {
+        return firstRevision;
+    }
+
+
+    /**
+     * @return the last revision of this segment, or firstRevision - 1 if it is empty
+     */
+    long getLastRevision()
+    {
+        return firstRevision + count - 1;
+    }
+
+
+    int getCount()
+    {
+        return count;
+    }
+
+
+    long getSize()
+    {
+        return size;
+    }
+
+
+    long getLastTime()
+    {
+        return lastTime;
+    }
+
+
+    void sync() throws IOException
+    {
+        if ( channel != null )
+        {
+            channel.force( false );
+        }
+    }
+
+
+    void close() throws IOException
+    {
+        mapped = null;
+        closeFile();
+    }
+
+
+    /**
+     * Closes and removes the segment file
+     */
+    void delete() throws IOException
+    {
+        close();
+
+        if ( file.exists() && !file.delete() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_726_FILE_UNDELETABLE, file.getAbsolutePath() ) );
+        }
+    }
+
+
+    public String toString()
+    {
+        return "ChangeLogSegment[" + file.getName() + ", " + count + " revisions, " + size + " bytes]";
+    }
+}
@@ -339,9 +339,14 @@ public class DefaultChangeLog implements ChangeLog
                 tmp.createPartition( partitionSuffix, revContainerName, tagContainerName );
 
                 Partition partition = tmp.getPartition();
-                partition.initialize();
 
-                service.addPartition( partition );
+                // Some stores don't expose their content as a partition
+                if ( partition != null )
+                {
+                    partition.initialize();
+
+                    service.addPartition( partition );
+                }
             }
         }
 
@@ -0,0 +1,409 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.ObjectClass;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogSearchEngine;
+import org.apache.directory.server.core.api.changelog.RevisionOrder;
+import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.event.LeafEvaluator;
+import org.apache.directory.server.core.api.event.SubstringEvaluator;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * The {@link ChangeLogSearchEngine} of the {@link FileChangeLogStore}. The revision
+ * and Dn based searches use the store indexes. The other searches have to read
+ * and check every event still present in the store.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class FileChangeLogSearchEngine implements ChangeLogSearchEngine
+{
+    /** The store we are searching into */
+    private final FileChangeLogStore store;
+
+
+    /**
+     * A test applied on each event when no index can be used
+     */
+    private interface EventMatcher
+    {
+        boolean matches( ChangeLogEvent event ) throws LdapException;
+    }
+
+
+    FileChangeLogSearchEngine( FileChangeLogStore store )
+    {
+        this.store = store;
+    }
+
+
+    private void checkRevision( long revision )
+    {
+        if ( revision < 0 )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_239 ) );
+        }
+
+        if ( revision > store.getCurrentRevision() )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_240 ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long lookup( String generalizedTime ) throws Exception
+    {
+        return store.findRevision( FileChangeLogStore.toMillis( generalizedTime ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ChangeLogEvent lookup( long revision ) throws Exception
+    {
+        checkRevision( revision );
+
+        return store.read( revision );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find( RevisionOrder order ) throws Exception
+    {
+        return store.cursor( 0L, Long.MAX_VALUE, order.isAscending() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> findBefore( long revision, RevisionOrder order ) throws Exception
+    {
+        checkRevision( revision );
+
+        return store.cursor( 0L, revision, order.isAscending() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> findAfter( long revision, RevisionOrder order ) throws Exception
+    {
+        checkRevision( revision );
+
+        return store.cursor( revision, Long.MAX_VALUE, order.isAscending() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find( long startRevision, long endRevision, RevisionOrder order )
+        throws Exception
+    {
+        checkRevision( startRevision );
+        checkRevision( endRevision );
+
+        return store.cursor( startRevision, endRevision, order.isAscending() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find( Dn dn, RevisionOrder order ) throws Exception
+    {
+        return store.cursor( order( store.getRevisions( dn.getNormName() ), order ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find( Dn base, SearchScope scope, RevisionOrder order ) throws Exception
+    {
+        if ( scope == SearchScope.OBJECT )
+        {
+            return find( base, order );
+        }
+
+        Dn normBase = new Dn( base.getNormName() );
+        List<long[]> matches = new ArrayList<long[]>();
+        int total = 0;
+
+        for ( String normDn : store.getDns() )
+        {
+            Dn dn = new Dn( normDn );
+            boolean inScope;
+
+            if ( scope == SearchScope.ONELEVEL )
+            {
+                inScope = ( dn.size() == normBase.size() + 1 ) && dn.isDescendantOf( normBase );
+            }
+            else
+            {
+                inScope = dn.isDescendantOf( normBase );
+            }
+
+            if ( inScope )
+            {
+                long[] revisions = store.getRevisions( normDn );
+                matches.add( revisions );
+                total += revisions.length;
+            }
+        }
+
+        long[] revisions = new long[total];
+        int pos = 0;
+
+        for ( long[] match : matches )
+        {
+            System.arraycopy( match, 0, revisions, pos, match.length );
+            pos += match.length;
+        }
+
+        Arrays.sort( revisions );
+
+        return store.cursor( order( revisions, order ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find( final LdapPrincipal principal, RevisionOrder order ) throws Exception
+    {
+        return scan( new EventMatcher()
+        {
+            public boolean matches( ChangeLogEvent event )
+            {
+                LdapPrincipal committer = event.getCommitterPrincipal();
+
+                return ( committer != null ) && committer.getDn().equals( principal.getDn() );
+            }
+        }, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find( final ChangeType changeType, RevisionOrder order ) throws Exception
+    {
+        return scan( new EventMatcher()
+        {
+            public boolean matches( ChangeLogEvent event )
+            {
+                return event.getForwardLdif().getChangeType() == changeType;
+            }
+        }, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find( final AttributeType attributeType, RevisionOrder order ) throws Exception
+    {
+        return scan( new EventMatcher()
+        {
+            public boolean matches( ChangeLogEvent event )
+            {
+                LdifEntry forward = event.getForwardLdif();
+
+                if ( forward.isChangeAdd() )
+                {
+                    for ( Attribute attribute : forward.getEntry() )
+                    {
+                        if ( isAttributeType( attribute, attributeType ) )
+                        {
+                            return true;
+                        }
+                    }
+                }
+                else if ( forward.isChangeModify() )
+                {
+                    for ( Modification modification : forward.getModifications() )
+                    {
+                        if ( isAttributeType( modification.getAttribute(), attributeType ) )
+                        {
+                            return true;
+                        }
+                    }
+                }
+
+                return false;
+            }
+        }, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find( final ObjectClass objectClass, RevisionOrder order ) throws Exception
+    {
+        return scan( new EventMatcher()
+        {
+            public boolean matches( ChangeLogEvent event )
+            {
+                LdifEntry forward = event.getForwardLdif();
+
+                if ( !forward.isChangeAdd() )
+                {
+                    return false;
+                }
+
+                for ( String name : objectClass.getNames() )
+                {
+                    if ( forward.getEntry().hasObjectClass( name ) )
+                    {
+                        return true;
+                    }
+                }
+
+                return forward.getEntry().hasObjectClass( objectClass.getOid() );
+            }
+        }, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * The filter is evaluated against the entry of the forward LDIF of each event :
+     * only the added entries have attributes, the other events can only be selected
+     * by their Dn, using a scope node.
+     */
+    public Cursor<ChangeLogEvent> find( final ExprNode filter, RevisionOrder order ) throws Exception
+    {
+        final Evaluator evaluator = new ExpressionEvaluator( new LeafEvaluator( new SubstringEvaluator() ) );
+
+        return scan( new EventMatcher()
+        {
+            public boolean matches( ChangeLogEvent event ) throws LdapException
+            {
+                LdifEntry forward = event.getForwardLdif();
+
+                return evaluator.evaluate( filter, forward.getDn(), forward.getEntry() );
+            }
+        }, order );
+    }
+
+
+    private static boolean isAttributeType( Attribute attribute, AttributeType attributeType )
+    {
+        if ( attribute.getAttributeType() != null )
+        {
+            return attributeType.equals( attribute.getAttributeType() );
+        }
+
+        String id = attribute.getId();
+
+        if ( attributeType.getOid().equals( id ) )
+        {
+            return true;
+        }
+
+        for ( String name : attributeType.getNames() )
+        {
+            if ( name.equalsIgnoreCase( id ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Reads all the events, keeping the revisions of those matching
+     */
+    private Cursor<ChangeLogEvent> scan( EventMatcher matcher, RevisionOrder order ) throws Exception
+    {
+        long first = store.getFirstRevision();
+        long last = store.getCurrentRevision();
+        long[] revisions = new long[16];
+        int count = 0;
+
+        for ( long revision = first; revision <= last; revision++ )
+        {
+            ChangeLogEvent event = store.read( revision );
+
+            if ( ( event != null ) && matcher.matches( event ) )
+            {
+                if ( count == revisions.length )
+                {
+                    revisions = Arrays.copyOf( revisions, count * 2 );
+                }
+
+                revisions[count++] = revision;
+            }
+        }
+
+        return store.cursor( order( Arrays.copyOf( revisions, count ), order ) );
+    }
+
+
+    /**
+     * Reverses the ascending revisions if a descending order is requested
+     */
+    private static long[] order( long[] revisions, RevisionOrder order )
+    {
+        if ( !order.isAscending() )
+        {
+            for ( int i = 0, j = revisions.length - 1; i < j; i++, j-- )
+            {
+                long tmp = revisions[i];
+                revisions[i] = revisions[j];
+                revisions[j] = tmp;
+            }
+        }
+
+        return revisions;
+    }
+}
@@ -0,0 +1,1161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.ChangeLogEventSerializer;
+import org.apache.directory.server.core.api.changelog.ChangeLogSearchEngine;
+import org.apache.directory.server.core.api.changelog.Tag;
+import org.apache.directory.server.core.api.changelog.TagSearchEngine;
+import org.apache.directory.server.core.api.changelog.TaggableChangeLogStore;
+import org.apache.directory.server.core.api.changelog.TaggableSearchableChangeLogStore;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A change log store that keeps its events on disk, in a set of append-only
+ * segment files stored in the <em>changelog</em> sub-directory of the instance
+ * log directory. Unlike the {@link MemoryChangeLogStore}, the events are not
+ * kept in memory : only the revision to offset and the Dn to revisions indexes
+ * are, and they are rebuilt from the record headers when the store is started.
+ * <br>
+ * Old segments can be dropped, either when they are older than a given age, or
+ * when the store grows above a given size. The segment being written is never
+ * removed.
+ * <br>
+ * The cursors returned by this store are built over the revisions that exist
+ * when they are created : events logged afterward are not seen. The events are
+ * read lazily, when the cursor reaches them : reading an event which has been
+ * removed by the retention in the meantime fails.
+ * <br>
+ * Only the active segment keeps its file open. The sealed segments are mapped when
+ * they are read, and only the most recently read ones stay mapped.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FileChangeLogStore implements TaggableSearchableChangeLogStore
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( FileChangeLogStore.class );
+
+    private static final String CHANGELOG_DIR = "changelog";
+    private static final String TAG_FILE = "tags";
+
+    /** The default maximum size of a segment : 16Mb */
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 16L * 1024L * 1024L;
+
+    /** The maximum number of sealed segments kept mapped */
+    private static final int MAX_MAPPED_SEGMENTS = 8;
+
+    /** The maximum size of a segment before we roll to a new one */
+    private long maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+
+    /** The maximum age of the events we keep, in milliseconds. 0 means forever */
+    private long maxAge;
+
+    /** The maximum size of all the segments. 0 means unbounded */
+    private long maxTotalSize;
+
+    /** Tells if the segment is forced on disk after each write */
+    private boolean syncOnWrite;
+
+    /** The last revision written */
+    private long currentRevision;
+
+    /** The latest tag */
+    private Tag latest;
+
+    /** The tags, sorted by revision */
+    private final TreeMap<Long, Tag> tags = new TreeMap<Long, Tag>();
+
+    /** The segments, oldest first. The last one is the one we append to */
+    private final List<ChangeLogSegment> segments = new ArrayList<ChangeLogSegment>();
+
+    /** The sealed segments which are mapped, the least recently read first */
+    private final Map<ChangeLogSegment, Boolean> mappedSegments = new LinkedHashMap<ChangeLogSegment, Boolean>( 16,
+        0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+
+        protected boolean removeEldestEntry( Map.Entry<ChangeLogSegment, Boolean> eldest )
+        {
+            if ( size() > MAX_MAPPED_SEGMENTS )
+            {
+                eldest.getKey().release();
+
+                return true;
+            }
+
+            return false;
+        }
+    };
+
+    /** The normalized Dn to revisions index */
+    private final Map<String, RevisionList> dnIndex = new HashMap<String, RevisionList>();
+
+    /** The directory containing the segments */
+    private File workingDirectory;
+
+    /** The SchemaManager used to deserialize the events */
+    private SchemaManager schemaManager;
+
+    /** The search engines */
+    private final FileChangeLogSearchEngine changeLogSearchEngine = new FileChangeLogSearchEngine( this );
+    private final FileTagSearchEngine tagSearchEngine = new FileTagSearchEngine( this );
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init( DirectoryService service ) throws Exception
+    {
+        init( new File( service.getInstanceLayout().getLogDirectory(), CHANGELOG_DIR ),
+            service.getSchemaManager() );
+    }
+
+
+    /**
+     * Opens the store in the given directory, rebuilding the indexes from the
+     * existing segments.
+     */
+    synchronized void init( File directory, SchemaManager schemaManager ) throws Exception
+    {
+        this.workingDirectory = directory;
+        this.schemaManager = schemaManager;
+
+        if ( !workingDirectory.exists() && !workingDirectory.mkdirs() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECORY, workingDirectory ) );
+        }
+
+        loadSegments();
+        loadTags();
+    }
+
+
+    private void loadSegments() throws IOException
+    {
+        List<Long> firstRevisions = new ArrayList<Long>();
+        String[] names = workingDirectory.list();
+
+        if ( names != null )
+        {
+            for ( String name : names )
+            {
+                long first = ChangeLogSegment.getFirstRevision( name );
+
+                if ( first > 0 )
+                {
+                    firstRevisions.add( first );
+                }
+            }
+        }
+
+        Collections.sort( firstRevisions );
+
+        segments.clear();
+        mappedSegments.clear();
+        dnIndex.clear();
+        currentRevision = 0L;
+
+        ChangeLogSegment.HeaderVisitor visitor = new ChangeLogSegment.HeaderVisitor()
+        {
+            public void visit( long revision, String dn, String zuluTime )
+            {
+                indexDn( dn, revision );
+            }
+        };
+
+        for ( long first : firstRevisions )
+        {
+            if ( !segments.isEmpty() )
+            {
+                segments.get( segments.size() - 1 ).seal();
+            }
+
+            ChangeLogSegment segment = new ChangeLogSegment( workingDirectory, first );
+            segment.recover( visitor );
+            segments.add( segment );
+            currentRevision = Math.max( currentRevision, segment.getLastRevision() );
+        }
+
+        LOG.debug( "Loaded {} changelog segments, current revision is {}", segments.size(), currentRevision );
+    }
+
+
+    private void indexDn( String dn, long revision )
+    {
+        RevisionList revisions = dnIndex.get( dn );
+
+        if ( revisions == null )
+        {
+            revisions = new RevisionList();
+            dnIndex.put( dn, revisions );
+        }
+
+        revisions.add( revision );
+    }
+
+
+    private void loadTags() throws IOException
+    {
+        File tagFile = new File( workingDirectory, TAG_FILE );
+        tags.clear();
+        latest = null;
+
+        if ( !tagFile.exists() )
+        {
+            return;
+        }
+
+        Properties props = new Properties();
+        FileInputStream in = new FileInputStream( tagFile );
+
+        try
+        {
+            props.load( in );
+        }
+        finally
+        {
+            in.close();
+        }
+
+        for ( String key : props.stringPropertyNames() )
+        {
+            long revision = Long.parseLong( key );
+            String desc = props.getProperty( key );
+
+            tags.put( revision, new Tag( revision, "null".equals( desc ) ? null : desc ) );
+        }
+
+        if ( !tags.isEmpty() )
+        {
+            latest = tags.lastEntry().getValue();
+        }
+    }
+
+
+    private void saveTags() throws IOException
+    {
+        Properties props = new Properties();
+
+        for ( Tag tag : tags.values() )
+        {
+            String desc = tag.getDescription();
+            props.setProperty( String.valueOf( tag.getRevision() ), desc == null ? "null" : desc );
+        }
+
+        File tmpFile = new File( workingDirectory, TAG_FILE + ".tmp" );
+        FileOutputStream out = new FileOutputStream( tmpFile );
+
+        try
+        {
+            props.store( out, null );
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        File tagFile = new File( workingDirectory, TAG_FILE );
+
+        if ( tagFile.exists() && !tagFile.delete() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_726_FILE_UNDELETABLE, tagFile.getAbsolutePath() ) );
+        }
+
+        if ( !tmpFile.renameTo( tagFile ) )
+        {
+            throw new IOException( I18n.err( I18n.ERR_726_FILE_UNDELETABLE, tmpFile.getAbsolutePath() ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void sync() throws Exception
+    {
+        if ( !segments.isEmpty() )
+        {
+            segments.get( segments.size() - 1 ).sync();
+        }
+
+        saveTags();
+    }
+
+
+    /**
+     * Flush the active segment and the tags on disk, and close all the segments
+     */
+    public synchronized void destroy() throws Exception
+    {
+        sync();
+
+        for ( ChangeLogSegment segment : segments )
+        {
+            segment.close();
+        }
+
+        segments.clear();
+        mappedSegments.clear();
+        dnIndex.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getCurrentRevision()
+    {
+        return currentRevision;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, LdifEntry reverse ) throws Exception
+    {
+        return log( principal, forward, Collections.singletonList( reverse ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized ChangeLogEvent log( LdapPrincipal principal, LdifEntry forward, List<LdifEntry> reverses )
+        throws Exception
+    {
+        long revision = currentRevision + 1;
+        String zuluTime = DateUtils.getGeneralizedTime();
+        ChangeLogEvent event = new ChangeLogEvent( revision, zuluTime, principal, forward, reverses );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+        ChangeLogEventSerializer.serialize( event, out );
+        out.flush();
+
+        String dn = forward.getDn().getNormName();
+
+        getActiveSegment( revision ).append( revision, dn, zuluTime, baos.toByteArray() );
+        currentRevision = revision;
+        indexDn( dn, revision );
+
+        if ( syncOnWrite )
+        {
+            segments.get( segments.size() - 1 ).sync();
+        }
+
+        applyRetention();
+
+        return event;
+    }
+
+
+    /**
+     * @return the segment the given revision has to be appended to, rolling to
+     * a new segment if the current one is full
+     */
+    private ChangeLogSegment getActiveSegment( long revision ) throws IOException
+    {
+        if ( !segments.isEmpty() )
+        {
+            ChangeLogSegment active = segments.get( segments.size() - 1 );
+
+            if ( ( active.getCount() == 0 ) || ( active.getSize() < maxSegmentSize ) )
+            {
+                return active;
+            }
+
+            active.sync();
+            active.seal();
+        }
+
+        ChangeLogSegment segment = new ChangeLogSegment( workingDirectory, revision );
+        segments.add( segment );
+        LOG.debug( "Rolled to a new changelog segment {}", segment );
+
+        return segment;
+    }
+
+
+    /**
+     * Drops the oldest segments, if they are too old or if the store is too big.
+     */
+    private void applyRetention() throws IOException
+    {
+        if ( ( maxAge <= 0 ) && ( maxTotalSize <= 0 ) )
+        {
+            return;
+        }
+
+        long totalSize = 0L;
+
+        for ( ChangeLogSegment segment : segments )
+        {
+            totalSize += segment.getSize();
+        }
+
+        long oldest = System.currentTimeMillis() - maxAge;
+        long dropped = 0L;
+
+        while ( segments.size() > 1 )
+        {
+            ChangeLogSegment segment = segments.get( 0 );
+            boolean tooOld = ( maxAge > 0 ) && ( segment.getLastTime() < oldest );
+            boolean tooBig = ( maxTotalSize > 0 ) && ( totalSize > maxTotalSize );
+
+            if ( !tooOld && !tooBig )
+            {
+                break;
+            }
+
+            segments.remove( 0 );
+            mappedSegments.remove( segment );
+            totalSize -= segment.getSize();
+            dropped = segment.getLastRevision();
+            segment.delete();
+            LOG.debug( "Removed the changelog segment {}", segment );
+        }
+
+        if ( dropped > 0 )
+        {
+            Iterator<RevisionList> iterator = dnIndex.values().iterator();
+
+            while ( iterator.hasNext() )
+            {
+                RevisionList revisions = iterator.next();
+                revisions.removeUpTo( dropped );
+
+                if ( revisions.size() == 0 )
+                {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return the first revision still present in the store, or currentRevision + 1
+     * if the store is empty
+     */
+    synchronized long getFirstRevision()
+    {
+        for ( ChangeLogSegment segment : segments )
+        {
+            if ( segment.getCount() > 0 )
+            {
+                return segment.getFirstRevision();
+            }
+        }
+
+        return currentRevision + 1;
+    }
+
+
+    private ChangeLogSegment getSegment( long revision )
+    {
+        int low = 0;
+        int high = segments.size() - 1;
+
+        while ( low <= high )
+        {
+            int middle = ( low + high ) >>> 1;
+            ChangeLogSegment segment = segments.get( middle );
+
+            if ( revision < segment.getFirstRevision() )
+            {
+                high = middle - 1;
+            }
+            else if ( revision > segment.getLastRevision() )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                return segment;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Reads an event. Returns null if the revision has been removed from the store.
+     */
+    ChangeLogEvent read( long revision ) throws Exception
+    {
+        DataInputStream in;
+
+        synchronized ( this )
+        {
+            ChangeLogSegment segment = getSegment( revision );
+
+            if ( segment == null )
+            {
+                return null;
+            }
+
+            in = readRecord( segment, revision );
+        }
+
+        // Skip the Dn and the time, and decode the event outside of the lock
+        in.readUTF();
+        in.readUTF();
+
+        ChangeLogEvent event = ChangeLogEventSerializer.deserialize( schemaManager, new ObjectInputStream( in ) );
+        event.getCommitterPrincipal().setSchemaManager( schemaManager );
+
+        return event;
+    }
+
+
+    /**
+     * Reads a record, keeping track of the mapped segments. Only the most recently
+     * read sealed segments stay mapped.
+     */
+    private DataInputStream readRecord( ChangeLogSegment segment, long revision ) throws IOException
+    {
+        DataInputStream in = segment.read( revision );
+
+        if ( segment.isMapped() )
+        {
+            mappedSegments.put( segment, Boolean.TRUE );
+        }
+
+        return in;
+    }
+
+
+    /**
+     * @return the generalized time of a revision
+     */
+    private String readTime( ChangeLogSegment segment, long revision ) throws IOException
+    {
+        DataInputStream in = readRecord( segment, revision );
+        in.readUTF();
+
+        return in.readUTF();
+    }
+
+
+    /**
+     * Finds the last revision logged at or before the given time. If all the
+     * revisions we have are more recent, returns the revision before the first one.
+     */
+    synchronized long findRevision( long time ) throws IOException
+    {
+        long found = getFirstRevision() - 1;
+
+        for ( ChangeLogSegment segment : segments )
+        {
+            if ( segment.getCount() == 0 )
+            {
+                continue;
+            }
+
+            if ( segment.getLastTime() <= time )
+            {
+                found = segment.getLastRevision();
+                continue;
+            }
+
+            // The revision is in this segment : do a binary search on the record headers
+            long low = segment.getFirstRevision();
+            long high = segment.getLastRevision();
+
+            while ( low <= high )
+            {
+                long middle = ( low + high ) >>> 1;
+
+                if ( toMillis( readTime( segment, middle ) ) <= time )
+                {
+                    found = middle;
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle - 1;
+                }
+            }
+
+            break;
+        }
+
+        return found;
+    }
+
+
+    /**
+     * @return the revisions modifying the given normalized Dn, in ascending order
+     */
+    synchronized long[] getRevisions( String normDn )
+    {
+        RevisionList revisions = dnIndex.get( normDn );
+
+        if ( revisions == null )
+        {
+            return new long[0];
+        }
+
+        return revisions.toArray();
+    }
+
+
+    /**
+     * @return a copy of the indexed normalized Dns
+     */
+    synchronized List<String> getDns()
+    {
+        return new ArrayList<String>( dnIndex.keySet() );
+    }
+
+
+    /**
+     * Creates a cursor over the revisions in [start, end], in ascending or
+     * descending order. The revisions are computed, and the events read, when the
+     * cursor reaches them.
+     */
+    Cursor<ChangeLogEvent> cursor( long start, long end, boolean ascending )
+    {
+        start = Math.max( start, getFirstRevision() );
+        end = Math.min( end, getCurrentRevision() );
+
+        if ( start > end )
+        {
+            return new ListCursor<ChangeLogEvent>( Collections.<ChangeLogEvent> emptyList() );
+        }
+
+        // A list can't hold more than Integer.MAX_VALUE elements
+        int size = ( int ) Math.min( end - start + 1, Integer.MAX_VALUE );
+
+        return new ListCursor<ChangeLogEvent>( new RangeEventList( ascending ? start : end, size, ascending ) );
+    }
+
+
+    /**
+     * Creates a cursor over the given revisions
+     */
+    Cursor<ChangeLogEvent> cursor( long[] revisions )
+    {
+        return new ListCursor<ChangeLogEvent>( new ArrayEventList( revisions ) );
+    }
+
+
+    private void checkRevision( long revision )
+    {
+        if ( revision < 0 )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_239 ) );
+        }
+
+        if ( revision > getCurrentRevision() )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_240 ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ChangeLogEvent lookup( long revision ) throws Exception
+    {
+        checkRevision( revision );
+
+        return read( revision );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find() throws Exception
+    {
+        return cursor( 0L, Long.MAX_VALUE, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> findBefore( long revision ) throws Exception
+    {
+        checkRevision( revision );
+
+        return cursor( 0L, revision - 1, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> findAfter( long revision ) throws LdapException
+    {
+        checkRevision( revision );
+
+        return cursor( revision + 1, Long.MAX_VALUE, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<ChangeLogEvent> find( long startRevision, long endRevision ) throws Exception
+    {
+        return cursor( startRevision, endRevision, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Tag tag( long revision ) throws Exception
+    {
+        return tag( revision, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Tag tag() throws Exception
+    {
+        return tag( ( String ) null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Tag tag( String description ) throws Exception
+    {
+        if ( ( latest != null ) && ( latest.getRevision() == currentRevision ) )
+        {
+            return latest;
+        }
+
+        return tag( currentRevision, description );
+    }
+
+
+    /**
+     * @see TaggableChangeLogStore#tag(long, String)
+     */
+    public synchronized Tag tag( long revision, String description ) throws Exception
+    {
+        Tag tag = tags.get( revision );
+
+        if ( tag != null )
+        {
+            return tag;
+        }
+
+        latest = new Tag( revision, description );
+        tags.put( revision, latest );
+        saveTags();
+
+        return latest;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Tag getLatest() throws LdapException
+    {
+        return latest;
+    }
+
+
+    /**
+     * @see TaggableChangeLogStore#removeTag(long)
+     */
+    public synchronized Tag removeTag( long revision ) throws Exception
+    {
+        Tag removed = tags.remove( revision );
+
+        if ( removed != null )
+        {
+            if ( removed == latest )
+            {
+                latest = tags.isEmpty() ? null : tags.lastEntry().getValue();
+            }
+
+            saveTags();
+        }
+
+        return removed;
+    }
+
+
+    /**
+     * @return a copy of the tags in [start, end], in ascending order
+     */
+    synchronized List<Tag> getTags( long start, long end )
+    {
+        if ( start > end )
+        {
+            return new ArrayList<Tag>();
+        }
+
+        return new ArrayList<Tag>( tags.subMap( start, true, end, true ).values() );
+    }
+
+
+    /**
+     * @return the tag for a revision, or null
+     */
+    synchronized Tag getTag( long revision )
+    {
+        return tags.get( revision );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ChangeLogSearchEngine getChangeLogSearchEngine()
+    {
+        return changeLogSearchEngine;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public TagSearchEngine getTagSearchEngine()
+    {
+        return tagSearchEngine;
+    }
+
+
+    /**
+     * The events are not exposed as a partition by this store : this is a no-op.
+     */
+    public void createPartition( String partitionSuffix, String revContainerName, String tagContainerName )
+    {
+        LOG.warn( "The FileChangeLogStore does not expose its content through a partition" );
+    }
+
+
+    /**
+     * @return null, as this store does not expose a partition
+     */
+    public Partition getPartition()
+    {
+        return null;
+    }
+
+
+    /**
+     * @return The maximum size of a segment, in bytes
+     */
+    public long getMaxSegmentSize()
+    {
+        return maxSegmentSize;
+    }
+
+
+    /**
+     * @param maxSegmentSize The maximum size of a segment, in bytes. It can't exceed 2Gb
+     */
+    public void setMaxSegmentSize( long maxSegmentSize )
+    {
+        this.maxSegmentSize = Math.min( maxSegmentSize, Integer.MAX_VALUE / 2 );
+    }
+
+
+    /**
+     * @return The maximum age of the kept events, in milliseconds
+     */
+    public long getMaxAge()
+    {
+        return maxAge;
+    }
+
+
+    /**
+     * @param maxAge The maximum age of the kept events, in milliseconds. 0 keeps them forever
+     */
+    public void setMaxAge( long maxAge )
+    {
+        this.maxAge = maxAge;
+    }
+
+
+    /**
+     * @return The maximum size of all the segments, in bytes
+     */
+    public long getMaxTotalSize()
+    {
+        return maxTotalSize;
+    }
+
+
+    /**
+     * @param maxTotalSize The maximum size of all the segments, in bytes. 0 means no limit
+     */
+    public void setMaxTotalSize( long maxTotalSize )
+    {
+        this.maxTotalSize = maxTotalSize;
+    }
+
+
+    /**
+     * @return true if the active segment is forced on disk after each event
+     */
+    public boolean isSyncOnWrite()
+    {
+        return syncOnWrite;
+    }
+
+
+    /**
+     * @param syncOnWrite Tells if the active segment is forced on disk after each event
+     */
+    public void setSyncOnWrite( boolean syncOnWrite )
+    {
+        this.syncOnWrite = syncOnWrite;
+    }
+
+
+    /**
+     * Converts a generalized time to milliseconds
+     */
+    static long toMillis( String zuluTime ) throws IOException
+    {
+        try
+        {
+            return DateUtils.getDate( zuluTime ).getTime();
+        }
+        catch ( RuntimeException re )
+        {
+            throw new IOException( "Invalid generalized time in the changelog : " + zuluTime, re );
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "FileChangeLog\n" );
+        sb.append( "latest tag : " ).append( latest ).append( '\n' );
+        sb.append( "current revision : " ).append( currentRevision ).append( '\n' );
+
+        for ( ChangeLogSegment segment : segments )
+        {
+            sb.append( "  " ).append( segment ).append( '\n' );
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * A growable array of ascending revisions.
+     */
+    private static final class RevisionList
+    {
+        private long[] revisions = new long[4];
+        private int size;
+
+
+        void add( long revision )
+        {
+            if ( size == revisions.length )
+            {
+                revisions = Arrays.copyOf( revisions, size * 2 );
+            }
+
+            revisions[size++] = revision;
+        }
+
+
+        void removeUpTo( long revision )
+        {
+            int i = 0;
+
+            while ( ( i < size ) && ( revisions[i] <= revision ) )
+            {
+                i++;
+            }
+
+            if ( i > 0 )
+            {
+                System.arraycopy( revisions, i, revisions, 0, size - i );
+                size -= i;
+            }
+        }
+
+
+        int size()
+        {
+            return size;
+        }
+
+
+        long[] toArray()
+        {
+            return Arrays.copyOf( revisions, size );
+        }
+    }
+
+
+    /**
+     * A read-only list reading the events from the store when they are accessed.
+     * Accessing an event which has been removed from the store fails.
+     */
+    private abstract class EventList extends AbstractList<ChangeLogEvent>
+    {
+        /**
+         * @return the revision of the event at the given position
+         */
+        abstract long getRevision( int index );
+
+
+        public ChangeLogEvent get( int index )
+        {
+            long revision = getRevision( index );
+            ChangeLogEvent event;
+
+            try
+            {
+                event = read( revision );
+            }
+            catch ( Exception e )
+            {
+                throw new RuntimeException( new LdapOtherException( e.getMessage(), e ) );
+            }
+
+            if ( event == null )
+            {
+                throw new RuntimeException( new LdapOtherException( "The revision " + revision
+                    + " has been removed from the changelog" ) );
+            }
+
+            return event;
+        }
+    }
+
+
+    /**
+     * The events of a given list of revisions
+     */
+    private final class ArrayEventList extends EventList
+    {
+        private final long[] revisions;
+
+
+        ArrayEventList( long[] revisions )
+        {
+            this.revisions = revisions;
+        }
+
+
+        long getRevision( int index )
+        {
+            return revisions[index];
+        }
+
+
+        public int size()
+        {
+            return revisions.length;
+        }
+    }
+
+
+    /**
+     * The events of a range of consecutive revisions, in ascending or descending order
+     */
+    private final class RangeEventList extends EventList
+    {
+        private final long first;
+        private final int size;
+        private final boolean ascending;
+
+
+        RangeEventList( long first, int size, boolean ascending )
+        {
+            this.first = first;
+            this.size = size;
+            this.ascending = ascending;
+        }
+
+
+        long getRevision( int index )
+        {
+            if ( ( index < 0 ) || ( index >= size ) )
+            {
+                throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+            }
+
+            return ascending ? first + index : first - index;
+        }
+
+
+        public int size()
+        {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.server.core.api.changelog.RevisionOrder;
+import org.apache.directory.server.core.api.changelog.Tag;
+import org.apache.directory.server.core.api.changelog.TagSearchEngine;
+
+
+/**
+ * The {@link TagSearchEngine} of the {@link FileChangeLogStore}. The cursors it
+ * returns are built over a copy of the tags.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class FileTagSearchEngine implements TagSearchEngine
+{
+    /** The store we are searching into */
+    private final FileChangeLogStore store;
+
+
+    FileTagSearchEngine( FileChangeLogStore store )
+    {
+        this.store = store;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Tag lookup( long revision ) throws Exception
+    {
+        return store.getTag( revision );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean has( long revision ) throws Exception
+    {
+        return store.getTag( revision ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<Tag> find( RevisionOrder order ) throws Exception
+    {
+        return find( 0L, Long.MAX_VALUE, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<Tag> findBefore( long revision, RevisionOrder order ) throws Exception
+    {
+        return find( 0L, revision, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<Tag> findAfter( long revision, RevisionOrder order ) throws Exception
+    {
+        return find( revision, Long.MAX_VALUE, order );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<Tag> find( long startRevision, long endRevision, RevisionOrder order ) throws Exception
+    {
+        List<Tag> tags = store.getTags( startRevision, endRevision );
+
+        if ( !order.isAscending() )
+        {
+            Collections.reverse( tags );
+        }
+
+        return new ListCursor<Tag>( tags );
+    }
+}
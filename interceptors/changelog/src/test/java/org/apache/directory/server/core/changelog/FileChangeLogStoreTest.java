@@ -0,0 +1,291 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.changelog;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifRevertor;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
+import org.apache.directory.server.core.api.changelog.RevisionOrder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the FileChangeLogStore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FileChangeLogStoreTest
+{
+    private static SchemaManager schemaManager;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    private FileChangeLogStore store;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = folder.newFolder( "changelog" );
+        store = new FileChangeLogStore();
+        store.init( directory, schemaManager );
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        store.destroy();
+    }
+
+
+    private ChangeLogEvent log( FileChangeLogStore store, String dn ) throws Exception
+    {
+        LdifEntry forward = new LdifEntry();
+        forward.setDn( new Dn( schemaManager, dn ) );
+        forward.setChangeType( ChangeType.Add );
+        forward.putAttribute( "objectClass", "organizationalUnit" );
+        forward.putAttribute( "ou", "test" );
+
+        LdifEntry reverse = LdifRevertor.reverseAdd( forward.getDn() );
+
+        return store.log( new LdapPrincipal( schemaManager ), forward, reverse );
+    }
+
+
+    private int count( Cursor<ChangeLogEvent> cursor ) throws Exception
+    {
+        int count = 0;
+
+        while ( cursor.next() )
+        {
+            assertNotNull( cursor.get() );
+            count++;
+        }
+
+        cursor.close();
+
+        return count;
+    }
+
+
+    @Test
+    public void testLogAndLookup() throws Exception
+    {
+        assertEquals( 0, store.getCurrentRevision() );
+
+        assertEquals( 1, log( store, "ou=system" ).getRevision() );
+        assertEquals( 2, log( store, "ou=users,ou=system" ).getRevision() );
+        assertEquals( 2, store.getCurrentRevision() );
+
+        ChangeLogEvent event = store.lookup( 2 );
+        assertEquals( 2, event.getRevision() );
+        assertEquals( new Dn( schemaManager, "ou=users,ou=system" ), event.getForwardLdif().getDn() );
+
+        assertEquals( 2, count( store.find() ) );
+        assertEquals( 1, count( store.findBefore( 2 ) ) );
+        assertEquals( 1, count( store.findAfter( 1 ) ) );
+        assertEquals( 2, count( store.find( 1, 2 ) ) );
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        store.setMaxSegmentSize( 1024 );
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            log( store, "ou=test" + i + ",ou=system" );
+        }
+
+        store.tag( 25, "middle" );
+        store.destroy();
+
+        assertTrue( directory.list().length > 2 );
+
+        store = new FileChangeLogStore();
+        store.init( directory, schemaManager );
+
+        assertEquals( 50, store.getCurrentRevision() );
+        assertEquals( 37, store.lookup( 37 ).getRevision() );
+        assertEquals( 25, store.getLatest().getRevision() );
+        assertEquals( "middle", store.getTagSearchEngine().lookup( 25 ).getDescription() );
+
+        // Appending after a restart continues the revisions
+        assertEquals( 51, log( store, "ou=system" ).getRevision() );
+    }
+
+
+    @Test
+    public void testDnIndex() throws Exception
+    {
+        log( store, "ou=system" );
+        log( store, "ou=users,ou=system" );
+        log( store, "ou=groups,ou=system" );
+        log( store, "cn=admins,ou=groups,ou=system" );
+        log( store, "ou=users,ou=system" );
+
+        FileChangeLogSearchEngine engine = ( FileChangeLogSearchEngine ) store.getChangeLogSearchEngine();
+
+        Cursor<ChangeLogEvent> cursor = engine.find( new Dn( schemaManager, "ou=users,ou=system" ),
+            RevisionOrder.DescendingOrder );
+        assertTrue( cursor.next() );
+        assertEquals( 5, cursor.get().getRevision() );
+        assertTrue( cursor.next() );
+        assertEquals( 2, cursor.get().getRevision() );
+        assertFalse( cursor.next() );
+        cursor.close();
+
+        Dn system = new Dn( schemaManager, "ou=system" );
+        assertEquals( 3, count( engine.find( system, SearchScope.ONELEVEL, RevisionOrder.AscendingOrder ) ) );
+        assertEquals( 5, count( engine.find( system, SearchScope.SUBTREE, RevisionOrder.AscendingOrder ) ) );
+        assertEquals( 5, count( engine.find( ChangeType.Add, RevisionOrder.AscendingOrder ) ) );
+    }
+
+
+    @Test
+    public void testFilter() throws Exception
+    {
+        store.setMaxSegmentSize( 1024 );
+
+        for ( int i = 0; i < 30; i++ )
+        {
+            log( store, "ou=test" + i + ",ou=system" );
+        }
+
+        // Read from both the sealed segments and the active one
+        FileChangeLogSearchEngine engine = ( FileChangeLogSearchEngine ) store.getChangeLogSearchEngine();
+        assertEquals( 30, count( engine.find( FilterParser.parse( schemaManager, "(ou=test)" ),
+            RevisionOrder.AscendingOrder ) ) );
+        assertEquals( 30, count( engine.find(
+            FilterParser.parse( schemaManager, "(&(objectClass=organizationalUnit)(ou=test))" ),
+            RevisionOrder.DescendingOrder ) ) );
+        assertEquals( 0, count( engine.find( FilterParser.parse( schemaManager, "(ou=other)" ),
+            RevisionOrder.AscendingOrder ) ) );
+        assertEquals( 0, count( engine.find( FilterParser.parse( schemaManager, "(cn=*)" ),
+            RevisionOrder.AscendingOrder ) ) );
+    }
+
+
+    @Test
+    public void testSizeRetention() throws Exception
+    {
+        store.setMaxSegmentSize( 1024 );
+        store.setMaxTotalSize( 4096 );
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            log( store, "ou=test" + i + ",ou=system" );
+        }
+
+        assertEquals( 200, store.getCurrentRevision() );
+
+        long first = store.getFirstRevision();
+        assertTrue( first > 1 );
+        assertNull( store.read( 1 ) );
+        assertEquals( 200, store.lookup( 200 ).getRevision() );
+        assertEquals( 200 - first + 1, count( store.find() ) );
+        assertEquals( 0,
+            count( store.getChangeLogSearchEngine().find( new Dn( schemaManager, "ou=test0,ou=system" ),
+                RevisionOrder.AscendingOrder ) ) );
+    }
+
+
+    @Test
+    public void testRemovedWhileReading() throws Exception
+    {
+        store.setMaxSegmentSize( 1024 );
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            log( store, "ou=test" + i + ",ou=system" );
+        }
+
+        // Read all the sealed segments a few times, more than the mapped ones
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertEquals( 50, count( store.find() ) );
+        }
+
+        Cursor<ChangeLogEvent> cursor = store.find();
+        store.setMaxTotalSize( 2048 );
+        log( store, "ou=system" );
+
+        assertTrue( cursor.next() );
+
+        try
+        {
+            cursor.get();
+            fail( "The first revision has been removed" );
+        }
+        catch ( RuntimeException re )
+        {
+            // Expected
+        }
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testTimeLookup() throws Exception
+    {
+        ChangeLogEvent first = log( store, "ou=system" );
+        log( store, "ou=users,ou=system" );
+
+        assertEquals( 2, store.getChangeLogSearchEngine().lookup( "29991231235959Z" ) );
+        assertEquals( 0, store.getChangeLogSearchEngine().lookup( "19700101000000Z" ) );
+        assertTrue( store.getChangeLogSearchEngine().lookup( first.getZuluTime() ) >= 1 );
+    }
+}
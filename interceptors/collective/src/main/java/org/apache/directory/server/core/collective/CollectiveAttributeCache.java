@@ -0,0 +1,177 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.collective;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+
+
+/**
+ * A cache of the collective attributes of the collectiveAttributeSubentries, keyed by
+ * the subentry Dn. The cached attributes only contain the collective attributes of the
+ * subentry, and are never modified once cached : they can be shared by all the entries
+ * they are injected into.
+ * <br>
+ * The subentries are loaded on demand, and removed from the cache when they are
+ * modified, deleted or renamed, or when one of their ancestors is renamed. A subentry
+ * read while it was being modified is not cached.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CollectiveAttributeCache
+{
+    /** The collective attributes, per subentry normalized Dn */
+    private final ConcurrentMap<String, List<Attribute>> cache = new ConcurrentHashMap<String, List<Attribute>>();
+
+    /** Incremented each time the cache is invalidated */
+    private final AtomicLong generation = new AtomicLong();
+
+
+    /**
+     * Gets the collective attributes of a subentry
+     *
+     * @param subentryDn The subentry Dn
+     * @return The collective attributes, or null if the subentry is not in the cache
+     */
+    public List<Attribute> get( Dn subentryDn )
+    {
+        return cache.get( subentryDn.getNormName() );
+    }
+
+
+    /**
+     * @return The current generation, to be read before the subentry is looked up and
+     * passed to {@link #put(Dn, Entry, long)}
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+
+    /**
+     * Extracts the collective attributes of a subentry, and caches them unless the cache
+     * has been invalidated since the subentry was read.
+     *
+     * @param subentryDn The subentry Dn
+     * @param subentry The subentry
+     * @param readGeneration The generation read before the subentry was looked up
+     * @return The collective attributes of the subentry
+     * @throws LdapException If the attributes can't be copied
+     */
+    public List<Attribute> put( Dn subentryDn, Entry subentry, long readGeneration ) throws LdapException
+    {
+        List<Attribute> attributes = new ArrayList<Attribute>();
+
+        for ( Attribute attribute : subentry.getAttributes() )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            if ( !attributeType.isCollective() )
+            {
+                continue;
+            }
+
+            // A copy, so that the cached values don't depend on the subentry
+            attributes.add( attribute.clone() );
+        }
+
+        attributes = Collections.unmodifiableList( attributes );
+
+        if ( generation.get() == readGeneration )
+        {
+            cache.putIfAbsent( subentryDn.getNormName(), attributes );
+
+            // The subentry may have been modified while we were storing it
+            if ( generation.get() != readGeneration )
+            {
+                cache.remove( subentryDn.getNormName(), attributes );
+            }
+        }
+
+        return attributes;
+    }
+
+
+    /**
+     * Removes a subentry from the cache
+     *
+     * @param subentryDn The subentry Dn
+     */
+    public void invalidate( Dn subentryDn )
+    {
+        generation.incrementAndGet();
+        cache.remove( subentryDn.getNormName() );
+    }
+
+
+    /**
+     * Removes the subentries of a subtree from the cache. Nothing is done if none of
+     * them is cached.
+     *
+     * @param baseDn The subtree base Dn
+     */
+    public void invalidateSubtree( Dn baseDn )
+    {
+        String base = baseDn.getNormName();
+        String suffix = "," + base;
+        List<String> subentryDns = new ArrayList<String>();
+
+        for ( String subentryDn : cache.keySet() )
+        {
+            if ( subentryDn.equals( base ) || subentryDn.endsWith( suffix ) )
+            {
+                subentryDns.add( subentryDn );
+            }
+        }
+
+        if ( subentryDns.isEmpty() )
+        {
+            return;
+        }
+
+        generation.incrementAndGet();
+
+        for ( String subentryDn : subentryDns )
+        {
+            cache.remove( subentryDn );
+        }
+    }
+
+
+    /**
+     * @return The number of cached subentries
+     */
+    public int size()
+    {
+        return cache.size();
+    }
+}
@@ -26,7 +26,6 @@ import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
@@ -42,13 +41,18 @@ import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.entry.ClonedServerEntrySearch;
 import org.apache.directory.server.core.api.filtering.EntryFilter;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.FilteringOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
@@ -69,6 +73,9 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     /** The LoggerFactory used by this Interceptor */
     private static Logger LOG = LoggerFactory.getLogger( CollectiveAttributeInterceptor.class );
 
+    /** The collective attributes of the subentries */
+    private final CollectiveAttributeCache subentryCache = new CollectiveAttributeCache();
+
 
     /**
      * Creates a new instance of a CollectiveAttributeInterceptor.
@@ -132,6 +139,25 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
         checkAdd( addContext.getDn(), addContext.getEntry() );
 
         next( addContext );
+
+        if ( addContext.getEntry().hasObjectClass( SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRY_OC ) )
+        {
+            subentryCache.invalidate( addContext.getDn() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        next( deleteContext );
+
+        if ( isSubentry( deleteContext.getEntry() ) )
+        {
+            subentryCache.invalidate( deleteContext.getDn() );
+        }
     }
 
 
@@ -163,6 +189,46 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
         checkModify( modifyContext );
 
         next( modifyContext );
+
+        if ( isSubentry( modifyContext.getEntry() )
+            || isModified( modifyContext.getModItems(), COLLECTIVE_ATTRIBUTE_SUBENTRIES_AT ) )
+        {
+            subentryCache.invalidate( modifyContext.getDn() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        next( moveContext );
+
+        invalidateRenamed( moveContext.getOriginalEntry(), moveContext.getDn(), moveContext.getNewDn() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        next( moveAndRenameContext );
+
+        invalidateRenamed( moveAndRenameContext.getOriginalEntry(), moveAndRenameContext.getDn(),
+            moveAndRenameContext.getNewDn() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        next( renameContext );
+
+        invalidateRenamed( renameContext.getOriginalEntry(), renameContext.getDn(), renameContext.getNewDn() );
     }
 
 
@@ -379,9 +445,9 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
         }
 
         /*
-         * For each collective subentry referenced by the entry we lookup the
-         * attributes of the subentry and copy collective attributes from the
-         * subentry into the entry.
+         * For each collective subentry referenced by the entry we get the
+         * collective attributes of the subentry from the cache, and add them
+         * to the entry.
          */
         for ( Value<?> value : collectiveAttributeSubentries )
         {
@@ -390,29 +456,16 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
 
             LOG.debug( "Applying subentries {}", subentryDn.getName() );
 
-            /*
-             * TODO - Instead of hitting disk here can't we leverage the
-             * SubentryService to get us cached sub-entries so we're not
-             * wasting time with a lookup here? It is ridiculous to waste
-             * time looking up this sub-entry.
-             */
-
-            LookupOperationContext lookupContext = new LookupOperationContext( session, subentryDn,
-                SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-            Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
+            List<Attribute> subentryAttributes = getCollectiveAttributes( session, subentryDn );
 
-            //LOG.debug( "Fetched the subentry : {}", subentry.getDn().getName() );
-
-            for ( Attribute attribute : subentry.getAttributes() )
+            if ( subentryAttributes == null )
             {
-                AttributeType attributeType = attribute.getAttributeType();
+                continue;
+            }
 
-                // Skip the attributes which are not collective
-                if ( !attributeType.isCollective() )
-                {
-                    //LOG.debug( "The {} subentry attribute is not collective", attributeType.getName() );
-                    continue;
-                }
+            for ( Attribute subentryColAttr : subentryAttributes )
+            {
+                AttributeType attributeType = subentryColAttr.getAttributeType();
 
                 /*
                  * Skip the addition of this collective attribute if it is excluded
@@ -436,16 +489,27 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
                     continue;
                 }
 
-                Attribute subentryColAttr = subentry.get( attributeType );
                 Attribute entryColAttr = entry.get( attributeType );
 
                 /*
-                 * If entry does not have attribute for collective attribute then create it.
+                 * If entry does not have attribute for collective attribute then add the
+                 * cached one. A search result entry shares it and will copy it only if it's
+                 * modified, any other entry gets its own copy.
                  */
                 if ( entryColAttr == null )
                 {
-                    entryColAttr = new DefaultAttribute( attributeType );
-                    entry.put( entryColAttr );
+                    LOG.debug( "Adding the {} collective attribute into the entry", subentryColAttr );
+
+                    if ( entry instanceof ClonedServerEntrySearch )
+                    {
+                        ( ( ClonedServerEntrySearch ) entry ).putShared( subentryColAttr );
+                    }
+                    else
+                    {
+                        entry.put( subentryColAttr.clone() );
+                    }
+
+                    continue;
                 }
 
                 /*
@@ -460,4 +524,82 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
             }
         }
     }
+
+
+    /**
+     * @return true if the entry is a subentry
+     */
+    private boolean isSubentry( Entry entry )
+    {
+        return ( entry != null ) && entry.contains( OBJECT_CLASS_AT, SchemaConstants.SUBENTRY_OC );
+    }
+
+
+    /**
+     * @return true if one of the modifications applies to the given attribute
+     */
+    private boolean isModified( List<Modification> mods, AttributeType attributeType )
+    {
+        for ( Modification mod : mods )
+        {
+            if ( attributeType.equals( mod.getAttribute().getAttributeType() ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Removes from the cache the subentries whose Dn has changed : the entry itself if
+     * it's a subentry, or the subentries below it, under their old and new Dn.
+     */
+    private void invalidateRenamed( Entry entry, Dn oldDn, Dn newDn )
+    {
+        if ( isSubentry( entry ) )
+        {
+            subentryCache.invalidate( oldDn );
+            subentryCache.invalidate( newDn );
+        }
+        else
+        {
+            subentryCache.invalidateSubtree( oldDn );
+            subentryCache.invalidateSubtree( newDn );
+        }
+    }
+
+
+    /**
+     * Gets the collective attributes of a subentry, from the cache or from the backend.
+     *
+     * @param session The session used to read the subentry
+     * @param subentryDn The subentry Dn
+     * @return The collective attributes of the subentry, which must not be modified, or
+     * null if the subentry does not exist
+     * @throws LdapException If the subentry can't be read
+     */
+    private List<Attribute> getCollectiveAttributes( CoreSession session, Dn subentryDn ) throws LdapException
+    {
+        List<Attribute> attributes = subentryCache.get( subentryDn );
+
+        if ( attributes != null )
+        {
+            return attributes;
+        }
+
+        long generation = subentryCache.getGeneration();
+
+        LookupOperationContext lookupContext = new LookupOperationContext( session, subentryDn,
+            SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+        if ( subentry == null )
+        {
+            return null;
+        }
+
+        return subentryCache.put( subentryDn, subentry, generation );
+    }
 }
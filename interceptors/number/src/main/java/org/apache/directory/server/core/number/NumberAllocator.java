@@ -0,0 +1,145 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.number;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+
+
+/**
+ * A hi/lo allocator for the values of a numeric attribute. The numbers are reserved
+ * by blocks : the highest number of the block (the high-water mark) is persisted
+ * before any number of the block is handed out, so a restart never reuses a number.
+ * Within a block, the numbers are handed out with an atomic increment, without any
+ * lock nor write.
+ * <br>
+ * The numbers of a block which have not been handed out when the server stops are
+ * lost, as are the numbers allocated for an operation which fails afterward.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NumberAllocator
+{
+    /**
+     * The storage of the high-water mark
+     */
+    public interface HighWaterMarkStore
+    {
+        /**
+         * Persists the highest number which can be handed out for an attribute.
+         *
+         * @param attributeId The attribute
+         * @param highWaterMark The high-water mark
+         * @throws LdapException If the high-water mark can't be persisted
+         */
+        void store( String attributeId, long highWaterMark ) throws LdapException;
+    }
+
+    /** The attribute which values are allocated */
+    private final String attributeId;
+
+    /** The number of values reserved at once */
+    private final int blockSize;
+
+    /** The high-water mark storage */
+    private final HighWaterMarkStore store;
+
+    /** The next value to hand out */
+    private final AtomicLong next;
+
+    /** The highest value which has been persisted */
+    private volatile long highWaterMark;
+
+
+    /**
+     * Creates a new instance of NumberAllocator.
+     *
+     * @param attributeId The attribute which values are allocated
+     * @param highWaterMark The persisted high-water mark. The first allocated value will be
+     * the next one
+     * @param blockSize The number of values reserved at once
+     * @param store The high-water mark storage
+     */
+    public NumberAllocator( String attributeId, long highWaterMark, int blockSize, HighWaterMarkStore store )
+    {
+        this.attributeId = attributeId;
+        this.highWaterMark = highWaterMark;
+        this.blockSize = blockSize > 0 ? blockSize : 1;
+        this.store = store;
+        next = new AtomicLong( highWaterMark + 1 );
+    }
+
+
+    /**
+     * Hands out a new value. Two calls never return the same value, even across restarts.
+     *
+     * @return The allocated value
+     * @throws LdapException If a new block has to be reserved, and the high-water mark
+     * can't be persisted
+     */
+    public long allocate() throws LdapException
+    {
+        long value = next.getAndIncrement();
+
+        if ( value <= highWaterMark )
+        {
+            return value;
+        }
+
+        synchronized ( this )
+        {
+            // Another thread may have reserved a block containing our value meanwhile
+            if ( value > highWaterMark )
+            {
+                long newHighWaterMark = highWaterMark + blockSize;
+
+                while ( newHighWaterMark < value )
+                {
+                    newHighWaterMark += blockSize;
+                }
+
+                store.store( attributeId, newHighWaterMark );
+                highWaterMark = newHighWaterMark;
+            }
+        }
+
+        return value;
+    }
+
+
+    /**
+     * @return The attribute which values are allocated
+     */
+    public String getAttributeId()
+    {
+        return attributeId;
+    }
+
+
+    /**
+     * @return The highest value which has been persisted
+     */
+    public long getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+}
@@ -21,11 +21,10 @@ package org.apache.directory.server.core.number;
 
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -36,6 +35,7 @@ import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
@@ -49,7 +49,9 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * An interceptor to increment any attribute with integer matching rule
+ * An interceptor to increment any attribute with integer matching rule. The values are
+ * allocated by blocks (see {@link NumberAllocator}) : the holder entry is only modified
+ * when a new block is reserved, not on each add.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -58,11 +60,26 @@ public class NumberIncrementingInterceptor extends BaseInterceptor
     /** A {@link Logger} for this class */
     private static final Logger LOG = LoggerFactory.getLogger( NumberIncrementingInterceptor.class );
 
+    /** The default number of values reserved at once */
+    public static final int DEFAULT_BLOCK_SIZE = 100;
+
     /** the DN of the holder entry */
     private Dn numberHolder;
     
-    /** a map of integer attribute and it's present value */
-    private Map<String, AtomicInteger> incMap = new HashMap<String, AtomicInteger>();
+    /** a map of integer attribute and its allocator */
+    private Map<String, NumberAllocator> incMap = new ConcurrentHashMap<String, NumberAllocator>();
+
+    /** The number of values reserved at once */
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /** Persists the high-water marks in the holder entry */
+    private final NumberAllocator.HighWaterMarkStore highWaterMarkStore = new NumberAllocator.HighWaterMarkStore()
+    {
+        public void store( String attributeId, long highWaterMark ) throws LdapException
+        {
+            storeHighWaterMark( attributeId, highWaterMark );
+        }
+    };
     
     
     @Override
@@ -104,8 +121,9 @@ public class NumberIncrementingInterceptor extends BaseInterceptor
                 {
                     if ( SchemaConstants.INTEGER_MATCH_MR_OID.equals( mr.getOid() ) )
                     {
-                        int t = Integer.parseInt( at.getString() );
-                        incMap.put( at.getId(), new AtomicInteger( t ) );
+                        // The stored value is the highest value which may have been handed out
+                        long t = Long.parseLong( at.getString() );
+                        incMap.put( at.getId(), new NumberAllocator( at.getId(), t, blockSize, highWaterMarkStore ) );
                     }
                 }
             }
@@ -129,55 +147,68 @@ public class NumberIncrementingInterceptor extends BaseInterceptor
 
         Entry entry = addContext.getEntry();
 
-        List<Attribute> lst = new ArrayList<Attribute>();
-        
-        for( String oid : incMap.keySet() )
+        for ( NumberAllocator allocator : incMap.values() )
         {
-            Attribute at = entry.get( oid );
-            if( at != null )
+            Attribute at = entry.get( allocator.getAttributeId() );
+
+            if ( at != null )
             {
-                lst.add( at );
+                long value = allocator.allocate();
+                at.clear();
+                at.add( String.valueOf( value ) );
             }
         }
         
-        if( lst.isEmpty() )
-        {
-            next( addContext );
-            return;
-        }
-
-        for( Attribute at : lst )
-        {
-            int stored = incMap.get( at.getId() ).get();
-            at.clear();
-            at.add( String.valueOf( stored + 1 ) );
-        }
-        
         // Ok, we are golden.
         next( addContext );
+    }
+
+
+    /**
+     * Writes the high-water mark of an attribute in the holder entry
+     */
+    private void storeHighWaterMark( String attributeId, long highWaterMark ) throws LdapException
+    {
+        // The event interceptor needs the original entry
+        LookupOperationContext lookupContext = new LookupOperationContext( directoryService.getAdminSession(),
+            numberHolder, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        Entry holderEntry = directoryService.getPartitionNexus().lookup( lookupContext );
 
         ModifyOperationContext bindModCtx = new ModifyOperationContext( directoryService.getAdminSession() );
         bindModCtx.setDn( numberHolder );
+        bindModCtx.setEntry( holderEntry );
         bindModCtx.setPushToEvtInterceptor( true );
 
+        AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( attributeId );
         List<Modification> mods = new ArrayList<Modification>();
+        mods.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, attributeType, String
+            .valueOf( highWaterMark ) ) );
 
-        for( Attribute at : lst )
-        {
-            AtomicInteger ai = incMap.get( at.getId() );
-            ai.set( ai.get() + 1 );
-            
-            Modification mod = new DefaultModification();
-            mod.setOperation( ModificationOperation.REPLACE_ATTRIBUTE );
-            mod.setAttribute( at );
-            
-            mods.add( mod );
-        }
-        
         bindModCtx.setModItems( mods );
         
         directoryService.getPartitionNexus().modify( bindModCtx );
         
-        LOG.debug( "Successfully updated numeric attribute in {}", numberHolder );
+        LOG.debug( "Reserved the {} values up to {} in {}", attributeId, highWaterMark, numberHolder );
+    }
+
+
+    /**
+     * @return The number of values reserved at once
+     */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+
+    /**
+     * Sets the number of values reserved at once. It must be set before the interceptor
+     * is initialized. A block size of 1 writes the holder entry on each add.
+     *
+     * @param blockSize The number of values reserved at once
+     */
+    public void setBlockSize( int blockSize )
+    {
+        this.blockSize = blockSize;
     }
 }
@@ -0,0 +1,217 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.number;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.junit.Test;
+
+
+/**
+ * Tests for the NumberAllocator.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NumberAllocatorTest
+{
+    private static final int NB_THREADS = 8;
+
+    /**
+     * A store which counts the writes, and takes some time to write, like the
+     * modification of the holder entry
+     */
+    private static class CountingStore implements NumberAllocator.HighWaterMarkStore
+    {
+        private final AtomicInteger nbWrites = new AtomicInteger();
+        private final AtomicLong highWaterMark = new AtomicLong();
+        private final long writeDelay;
+
+
+        private CountingStore( long writeDelay )
+        {
+            this.writeDelay = writeDelay;
+        }
+
+
+        public void store( String attributeId, long highWaterMark ) throws LdapException
+        {
+            try
+            {
+                Thread.sleep( writeDelay );
+            }
+            catch ( InterruptedException e )
+            {
+                throw new LdapException( e );
+            }
+
+            nbWrites.incrementAndGet();
+            this.highWaterMark.set( highWaterMark );
+        }
+    }
+
+
+    private static Set<Long> newValueSet()
+    {
+        return Collections.newSetFromMap( new ConcurrentHashMap<Long, Boolean>() );
+    }
+
+
+    /**
+     * Allocates some values from many threads, and checks they are all different
+     */
+    private void allocate( final NumberAllocator allocator, final int nbPerThread, final Set<Long> values )
+        throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( NB_THREADS );
+        final AtomicInteger nbErrors = new AtomicInteger();
+
+        for ( int i = 0; i < NB_THREADS; i++ )
+        {
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+
+                        for ( int j = 0; j < nbPerThread; j++ )
+                        {
+                            if ( !values.add( allocator.allocate() ) )
+                            {
+                                nbErrors.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        nbErrors.incrementAndGet();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        done.await();
+
+        assertEquals( "Duplicate values have been allocated", 0, nbErrors.get() );
+    }
+
+
+    @Test
+    public void testFirstValue() throws Exception
+    {
+        CountingStore store = new CountingStore( 0L );
+        NumberAllocator allocator = new NumberAllocator( "uidNumber", 1000L, 10, store );
+
+        assertEquals( 1001L, allocator.allocate() );
+        assertEquals( 1010L, store.highWaterMark.get() );
+
+        for ( int i = 0; i < 9; i++ )
+        {
+            allocator.allocate();
+        }
+
+        // The first block is exhausted, but no new block is needed yet
+        assertEquals( 1, store.nbWrites.get() );
+        assertEquals( 1011L, allocator.allocate() );
+        assertEquals( 2, store.nbWrites.get() );
+        assertEquals( 1020L, store.highWaterMark.get() );
+    }
+
+
+    @Test
+    public void testRestartNeverReusesValues() throws Exception
+    {
+        CountingStore store = new CountingStore( 0L );
+        NumberAllocator allocator = new NumberAllocator( "uidNumber", 0L, 10, store );
+
+        long last = 0L;
+
+        for ( int i = 0; i < 15; i++ )
+        {
+            last = allocator.allocate();
+        }
+
+        // Restart from the persisted high-water mark
+        NumberAllocator restarted = new NumberAllocator( "uidNumber", store.highWaterMark.get(), 10, store );
+
+        assertTrue( restarted.allocate() > last );
+    }
+
+
+    @Test
+    public void testConcurrentAllocationsAreUnique() throws Exception
+    {
+        int nbPerThread = 10000;
+        CountingStore store = new CountingStore( 0L );
+        NumberAllocator allocator = new NumberAllocator( "uidNumber", 0L, 100, store );
+        Set<Long> values = newValueSet();
+
+        allocate( allocator, nbPerThread, values );
+
+        // All the values from 1 to the number of allocations have been handed out
+        int nbValues = NB_THREADS * nbPerThread;
+        assertEquals( nbValues, values.size() );
+
+        for ( long i = 1; i <= nbValues; i++ )
+        {
+            assertTrue( values.contains( i ) );
+        }
+
+        // At most one write per block : a thread waiting for a reservation may reserve
+        // many blocks at once
+        assertTrue( store.nbWrites.get() <= nbValues / 100 );
+        assertEquals( nbValues, store.highWaterMark.get() );
+    }
+
+
+    @Test
+    public void testBlocksReduceTheWrites() throws Exception
+    {
+        int nbPerThread = 100;
+
+        CountingStore singleStore = new CountingStore( 1L );
+        NumberAllocator single = new NumberAllocator( "uidNumber", 0L, 1, singleStore );
+        allocate( single, nbPerThread, newValueSet() );
+
+        CountingStore blockStore = new CountingStore( 1L );
+        NumberAllocator block = new NumberAllocator( "uidNumber", 0L, 100, blockStore );
+        allocate( block, nbPerThread, newValueSet() );
+
+        assertTrue( blockStore.nbWrites.get() <= NB_THREADS * nbPerThread / 100 );
+        assertTrue( blockStore.nbWrites.get() < singleStore.nbWrites.get() );
+    }
+}
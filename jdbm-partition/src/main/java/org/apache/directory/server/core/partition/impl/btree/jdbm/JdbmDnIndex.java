@@ -27,7 +27,6 @@ import java.io.IOException;
 
 import javax.naming.NamingException;
 
-import jdbm.helper.MRU;
 import jdbm.recman.BaseRecordManager;
 import jdbm.recman.CacheRecordManager;
 import jdbm.recman.TransactionManager;
@@ -86,7 +85,7 @@ public class JdbmDnIndex extends JdbmIndex<Dn>
         TransactionManager transactionManager = base.getTransactionManager();
         transactionManager.setMaximumTransactionsInLog( 2000 );
 
-        recMan = new CacheRecordManager( base, new MRU( cacheSize ) );
+        recMan = new CacheRecordManager( base, createCachePolicy( cacheSize ) );
 
         try
         {
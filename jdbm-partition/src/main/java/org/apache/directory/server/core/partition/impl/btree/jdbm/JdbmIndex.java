@@ -27,6 +27,7 @@ import java.net.URI;
 
 import jdbm.RecordManager;
 import jdbm.helper.ByteArraySerializer;
+import jdbm.helper.CachePolicy;
 import jdbm.helper.MRU;
 import jdbm.recman.BaseRecordManager;
 import jdbm.recman.CacheRecordManager;
@@ -96,9 +97,18 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
      */
     protected int numDupLimit = DEFAULT_DUPLICATE_LIMIT;
 
+    /**
+     * duplicate limit under which duplicate keys switch back from a btree to an array
+     * for values, -1 meaning half the numDupLimit
+     */
+    protected int numDupDemoteLimit = -1;
+
     /** a custom working directory path when specified in configuration */
     protected File wkDirPath;
 
+    /** the view of the shared record cache used by this index, null to use a private cache */
+    protected JdbmRecordCache.View<?, ?> recordCache;
+
 
     /*
      * NOTE: Duplicate Key Limit
@@ -115,7 +125,8 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
      *
      * This numDupLimit is the threshold at which we switch from using in memory
      * containers for values of the same key to using a btree for those values
-     * instead with indirection.
+     * instead with indirection. The numDupDemoteLimit is the lower threshold at
+     * which we switch back, so that popular keys do not flap between both forms.
      */
 
     // ------------------------------------------------------------------------
@@ -170,9 +181,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         
         int recCacheSize = Integer.parseInt( cacheSizeVal );
         
-        LOG.info( "Setting CacheRecondManager's cache size to {}", recCacheSize );
-
-        recMan = new CacheRecordManager( base, new MRU( recCacheSize ) );
+        recMan = new CacheRecordManager( base, createCachePolicy( recCacheSize ) );
 
         try
         {
@@ -254,8 +263,18 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                 reverse = new JdbmTable<String, K>( schemaManager, attributeType.getOid() + REVERSE_BTREE, numDupLimit,
                     recMan,
                     UuidComparator.INSTANCE, comp, UuidSerializer.INSTANCE, null );
+
+                if ( numDupDemoteLimit >= 0 )
+                {
+                    reverse.setNumDupDemoteLimit( numDupDemoteLimit );
+                }
             }
         }
+
+        if ( numDupDemoteLimit >= 0 )
+        {
+            forward.setNumDupDemoteLimit( numDupDemoteLimit );
+        }
     }
 
 
@@ -287,6 +306,32 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     }
 
 
+    /**
+     * Gets the threshold at which point duplicate keys stored in a btree are moved
+     * back to an in memory container.
+     *
+     * @return the threshold for moving back a keys values from a btree, -1 if it
+     * defaults to half the numDupLimit
+     */
+    public int getNumDupDemoteLimit()
+    {
+        return numDupDemoteLimit;
+    }
+
+
+    /**
+     * Sets the threshold at which point duplicate keys stored in a btree are moved
+     * back to an in memory container. It must not be above the numDupLimit.
+     *
+     * @param numDupDemoteLimit the threshold for moving back a keys values from a btree
+     */
+    public void setNumDupDemoteLimit( int numDupDemoteLimit )
+    {
+        protect( "numDupDemoteLimit" );
+        this.numDupDemoteLimit = numDupDemoteLimit;
+    }
+
+
     /**
      * Sets the working directory path to something other than the default. Sometimes more
      * performance is gained by locating indices on separate disk spindles.
@@ -313,6 +358,41 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     }
 
 
+    /**
+     * Sets the view of the shared record cache used by this index. When none is set,
+     * the index uses a private cache holding a fixed number of records.
+     *
+     * @param recordCache The view of the shared record cache
+     */
+    public void setRecordCache( JdbmRecordCache.View<?, ?> recordCache )
+    {
+        protect( "recordCache" );
+        this.recordCache = recordCache;
+    }
+
+
+    /**
+     * Creates the cache of the index record manager
+     *
+     * @param recCacheSize The number of records of the private cache, used when no
+     * shared record cache has been set
+     * @return The cache
+     */
+    protected CachePolicy createCachePolicy( int recCacheSize )
+    {
+        if ( recordCache != null )
+        {
+            LOG.debug( "Using the shared record cache for the {} index", attributeId );
+
+            return recordCache;
+        }
+
+        LOG.info( "Setting CacheRecondManager's cache size to {}", recCacheSize );
+
+        return new MRU( recCacheSize );
+    }
+
+
     // ------------------------------------------------------------------------
     // Scan Count Methods
     // ------------------------------------------------------------------------
@@ -579,6 +659,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
 
         commit( recMan );
         recMan.close();
+
+        if ( recordCache != null )
+        {
+            recordCache.removeAll();
+        }
     }
 
 
@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
 
@@ -39,12 +40,8 @@ import net.sf.ehcache.Element;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
-import org.apache.directory.api.ldap.model.cursor.Cursor;
-import org.apache.directory.api.ldap.model.cursor.Tuple;
-import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
-import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
@@ -61,9 +58,11 @@ import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOpe
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.monitor.HitRatio;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.CompositeIndex;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
@@ -88,6 +87,20 @@ public class JdbmPartition extends AbstractBTreePartition
 
     private static final String JDBM_DB_FILE_EXTN = ".db";
 
+    private static final String JDBM_LG_FILE_EXTN = ".lg";
+
+    /** The extension of the file present while an index is being built */
+    private static final String INDEX_BUILD_FILE_EXTN = ".building";
+
+    /** The prefix of the directories storing the composite indexes */
+    private static final String COMPOSITE_INDEX_DIR_PREFIX = "composite-";
+
+    /** The default number of bytes this partition adds to the shared JDBM record cache */
+    public static final long DEFAULT_RECORD_CACHE_SIZE = 16L * 1024L * 1024L;
+
+    /** The estimated size of a master table B-tree page, holding several entries */
+    private static final int MASTER_RECORD_SIZE = 16 * 1024;
+
     private static final FilenameFilter DB_FILTER = new FilenameFilter()
     {
 
@@ -104,6 +117,15 @@ public class JdbmPartition extends AbstractBTreePartition
     /** the entry cache */
     private Cache entryCache;
 
+    /** The number of bytes this partition adds to the shared JDBM record cache, 0 to use private caches */
+    private long recordCacheSize = DEFAULT_RECORD_CACHE_SIZE;
+
+    /** The number of bytes this partition has added to the shared JDBM record cache */
+    private long reservedRecordCacheSize;
+
+    /** The view of the shared record cache used by the master table */
+    private JdbmRecordCache.View<?, ?> masterRecordCache;
+
 
     /**
      * Creates a store based on JDBM B+Trees.
@@ -151,6 +173,13 @@ public class JdbmPartition extends AbstractBTreePartition
                 throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECORY, partitionDir ) );
             }
 
+            // The tables of this partition share the record cache of all the partitions
+            if ( recordCacheSize > 0 )
+            {
+                JdbmRecordCache.getSharedCache().reserve( recordCacheSize );
+                reservedRecordCacheSize = recordCacheSize;
+            }
+
             // get all index db files first
             File[] allIndexDbFiles = partitionDir.listFiles( DB_FILTER );
 
@@ -160,8 +189,8 @@ public class JdbmPartition extends AbstractBTreePartition
             // then add all index objects to a list
             List<String> allIndices = new ArrayList<String>();
 
-            List<Index<?, String>> indexToBuild = new ArrayList<Index<?, String>>();
-            
+            List<String> indexToBuild = new ArrayList<String>();
+
             // Iterate on the declared indexes
             for ( Index<?, String> index : getIndexedAttributes() )
             {
@@ -172,17 +201,39 @@ public class JdbmPartition extends AbstractBTreePartition
                 // take the part after removing .db from the
                 String name = oid + JDBM_DB_FILE_EXTN;
                 
-                // if the name doesn't exist in the list of index DB files
-                // this is a new index and we need to build it
-                if ( !indexDbFileNameList.contains( name ) )
+                File buildFile = new File( partitionDir, oid + INDEX_BUILD_FILE_EXTN );
+
+                if ( buildFile.exists() )
                 {
-                    indexToBuild.add( index );
+                    // The build of this index has been interrupted : build it again
+                    LOG.info( "The build of the index {} has not completed, building it again", oid );
+                    deleteIndexFiles( partitionDir, oid );
+                    indexToBuild.add( oid );
+                }
+                else if ( !indexDbFileNameList.contains( name ) )
+                {
+                    // if the name doesn't exist in the list of index DB files
+                    // this is a new index and we need to build it
+                    buildFile.createNewFile();
+                    indexToBuild.add( oid );
                 }
             }
 
             // Initialize the indexes
             super.doInit();
 
+            // The system indexes are not built
+            for ( Iterator<String> oids = indexToBuild.iterator(); oids.hasNext(); )
+            {
+                String oid = oids.next();
+
+                if ( systemIndices.get( oid ) != null )
+                {
+                    new File( partitionDir, oid + INDEX_BUILD_FILE_EXTN ).delete();
+                    oids.remove();
+                }
+            }
+
             // First, check if the file storing the data exists
             String path = partitionDir.getPath() + File.separator + "master";
 
@@ -200,23 +251,32 @@ public class JdbmPartition extends AbstractBTreePartition
                 LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
             }
 
-            // prevent the OOM when more than 50k users are loaded at a stretch
-            // adding this system property to make it configurable till JDBM gets replaced by Mavibot
-            String cacheSizeVal = System.getProperty( "jdbm.recman.cache.size", "100" );
-            
-            int recCacheSize = Integer.parseInt( cacheSizeVal );
-            
-            LOG.info( "Setting CacheRecondManager's cache size to {}", recCacheSize );
-            
-            recMan = new CacheRecordManager( base, new MRU( recCacheSize ) );
+            if ( reservedRecordCacheSize > 0 )
+            {
+                masterRecordCache = createRecordCacheView( "master", MASTER_RECORD_SIZE );
+                recMan = new CacheRecordManager( base, masterRecordCache );
+            }
+            else
+            {
+                // prevent the OOM when more than 50k users are loaded at a stretch
+                // adding this system property to make it configurable till JDBM gets replaced by Mavibot
+                String cacheSizeVal = System.getProperty( "jdbm.recman.cache.size", "100" );
+
+                int recCacheSize = Integer.parseInt( cacheSizeVal );
+
+                LOG.info( "Setting CacheRecondManager's cache size to {}", recCacheSize );
+
+                recMan = new CacheRecordManager( base, new MRU( recCacheSize ) );
+            }
 
             // Create the master table (the table containing all the entries)
             master = new JdbmMasterTable( recMan, schemaManager );
 
-            if ( indexToBuild.size() > 0 )
-            {
-                buildUserIndex( indexToBuild );
-            }
+            // The new composite indexes are built before the partition is used
+            buildCompositeIndexes();
+
+            // The new indexes are built in the background
+            buildUserIndexes( indexToBuild );
 
             deleteUnusedIndexFiles( allIndices, allIndexDbFiles );
 
@@ -328,63 +388,127 @@ public class JdbmPartition extends AbstractBTreePartition
             idx.sync();
         }
 
+        // Sync the composite indexes
+        for ( CompositeIndex compositeIndex : compositeIndices )
+        {
+            compositeIndex.getIndex().sync();
+        }
+
         // Sync the master table
         ( ( JdbmMasterTable ) master ).sync();
     }
 
 
     /**
-     * Builds user defined indexes on a attributes by browsing all the entries present in master db
-     * 
-     * Note: if the given list of indices contains any system index that will be skipped.
-     * 
-     * WARN: MUST be called after calling super.doInit()
-     * 
-     * @param indices then selected indexes that need to be built
-     * @throws Exception in case of any problems while building the index
+     * {@inheritDoc}
      */
-    private void buildUserIndex( List<Index<?, String>> indices ) throws Exception
+    protected void indexBuilt( Index<?, String> index ) throws Exception
     {
-        Cursor<Tuple<String, Entry>> cursor = master.cursor();
-        cursor.beforeFirst();
+        index.sync();
 
-        while ( cursor.next() )
+        File buildFile = new File( new File( getPartitionPath() ), index.getAttribute().getOid()
+            + INDEX_BUILD_FILE_EXTN );
+
+        if ( buildFile.exists() && !buildFile.delete() )
         {
-            for ( Index index : indices )
-            {
-                AttributeType atType = index.getAttribute();
+            LOG.warn( "Failed to delete the file {}, the index will be built again", buildFile );
+        }
+    }
 
-                String attributeOid = index.getAttribute().getOid();
 
-                if( systemIndices.get( attributeOid ) != null )
-                {
-                    // skipping building of the system index
-                    continue;
-                }
-                
-                LOG.info( "building the index for attribute type {}", atType );
+    /**
+     * {@inheritDoc}
+     * The tuples are stored in a JDBM index, in a sub-directory of the partition named
+     * after the composite index. A new index, or an index which build has been
+     * interrupted, is built when the partition is initialized.
+     */
+    protected Index<byte[], String> createCompositeIndex( CompositeIndex compositeIndex ) throws Exception
+    {
+        File indexDir = getCompositeIndexDir( compositeIndex );
 
-                Tuple<String, Entry> tuple = cursor.get();
+        if ( !indexDir.exists() && !indexDir.mkdirs() )
+        {
+            throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECORY, indexDir ) );
+        }
 
-                String id = tuple.getKey();
-                Entry entry = tuple.getValue();
+        String oid = CompositeIndex.KEY_ATTRIBUTE_OID;
+        File buildFile = new File( indexDir, oid + INDEX_BUILD_FILE_EXTN );
 
-                Attribute entryAttr = entry.get( atType );
+        if ( buildFile.exists() )
+        {
+            // The build of this index has been interrupted : build it again
+            LOG.info( "The build of the composite index {} has not completed, building it again",
+                compositeIndex.getName() );
+            deleteIndexFiles( indexDir, oid );
+        }
+        else if ( !new File( indexDir, oid + JDBM_DB_FILE_EXTN ).exists() )
+        {
+            buildFile.createNewFile();
+        }
+        else
+        {
+            compositeIndex.setBuilt( true );
+        }
 
-                if ( entryAttr != null )
-                {
-                    for ( Value<?> value : entryAttr )
-                    {
-                        index.add( value.getNormValue(), id );
-                    }
+        JdbmIndex<byte[]> index = new JdbmIndex<byte[]>( oid, false );
+        index.setNumDupLimit( JdbmIndex.DEFAULT_DUPLICATE_LIMIT );
+        index.setWkDirPath( indexDir.toURI() );
+        index.init( schemaManager, CompositeIndex.createKeyAttributeType( schemaManager ) );
 
-                    // Adds only those attributes that are indexed
-                    presenceIdx.add( attributeOid, id );
-                }
-            }
+        return index;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean hasPersistentCompositeIndexes()
+    {
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void compositeIndexBuilt( CompositeIndex compositeIndex ) throws Exception
+    {
+        compositeIndex.getIndex().sync();
+
+        File buildFile = new File( getCompositeIndexDir( compositeIndex ), CompositeIndex.KEY_ATTRIBUTE_OID
+            + INDEX_BUILD_FILE_EXTN );
+
+        if ( buildFile.exists() && !buildFile.delete() )
+        {
+            LOG.warn( "Failed to delete the file {}, the index will be built again", buildFile );
         }
+    }
 
-        cursor.close();
+
+    /**
+     * @return The directory storing a composite index
+     */
+    private File getCompositeIndexDir( CompositeIndex compositeIndex )
+    {
+        return new File( new File( getPartitionPath() ), COMPOSITE_INDEX_DIR_PREFIX + compositeIndex.getName() );
+    }
+
+
+    /**
+     * Deletes the files of an index which build has been interrupted
+     */
+    private void deleteIndexFiles( File partitionDir, String oid )
+    {
+        for ( String extension : new String[]
+            { JDBM_DB_FILE_EXTN, JDBM_LG_FILE_EXTN } )
+        {
+            File file = new File( partitionDir, oid + extension );
+
+            if ( file.exists() && !file.delete() )
+            {
+                LOG.warn( "Failed to delete the partially built index file {}", file.getAbsolutePath() );
+            }
+        }
     }
 
 
@@ -442,6 +566,48 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * @return The number of bytes this partition adds to the record cache shared by the
+     * JDBM partitions
+     */
+    public long getRecordCacheSize()
+    {
+        return recordCacheSize;
+    }
+
+
+    /**
+     * Sets the number of bytes this partition adds to the record cache shared by the
+     * JDBM partitions. The tables of all the partitions use the same cache, so the
+     * busiest ones can use more memory than the others. If 0, each table uses a
+     * private cache holding a fixed number of records, set by the
+     * <code>jdbm.recman.cache.size</code> system property.
+     *
+     * @param recordCacheSize The number of bytes
+     */
+    public void setRecordCacheSize( long recordCacheSize )
+    {
+        checkInitialized( "record cache size" );
+        this.recordCacheSize = recordCacheSize;
+    }
+
+
+    /**
+     * Creates the view of the shared record cache used by a table of this partition
+     */
+    private JdbmRecordCache.View<?, ?> createRecordCacheView( String tableName, int recordSize )
+    {
+        HitRatio hitRatio = null;
+
+        if ( metricsRegistry != null )
+        {
+            hitRatio = metricsRegistry.getHitRatio( "jdbmCache." + getId() + "." + tableName );
+        }
+
+        return JdbmRecordCache.getSharedCache().createView( getId() + "." + tableName, recordSize, hitRatio );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -476,7 +642,15 @@ public class JdbmPartition extends AbstractBTreePartition
             jdbmIndex.setWkDirPath( index.getWkDirPath() );
         }
 
-        jdbmIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
+        AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() );
+
+        if ( ( reservedRecordCacheSize > 0 ) && ( jdbmIndex.recordCache == null ) )
+        {
+            jdbmIndex.setRecordCache( createRecordCacheView( attributeType.getName(),
+                JdbmRecordCache.DEFAULT_RECORD_SIZE ) );
+        }
+
+        jdbmIndex.init( schemaManager, attributeType );
 
         return jdbmIndex;
     }
@@ -520,6 +694,18 @@ public class JdbmPartition extends AbstractBTreePartition
             {
                 entryCache.removeAll();
             }
+
+            if ( masterRecordCache != null )
+            {
+                masterRecordCache.removeAll();
+                masterRecordCache = null;
+            }
+
+            if ( reservedRecordCacheSize > 0 )
+            {
+                JdbmRecordCache.getSharedCache().release( reservedRecordCacheSize );
+                reservedRecordCacheSize = 0;
+            }
         }
 
         if ( errors.size() > 0 )
@@ -617,6 +803,8 @@ public class JdbmPartition extends AbstractBTreePartition
 
         Element el = entryCache.get( id );
 
+        recordEntryCacheAccess( el != null );
+
         if ( el != null )
         {
             return ( Entry ) el.getValue();
@@ -27,7 +27,6 @@ import java.io.IOException;
 
 import javax.naming.NamingException;
 
-import jdbm.helper.MRU;
 import jdbm.recman.BaseRecordManager;
 import jdbm.recman.CacheRecordManager;
 import jdbm.recman.TransactionManager;
@@ -88,7 +87,7 @@ public class JdbmRdnIndex extends JdbmIndex<ParentIdAndRdn>
         TransactionManager transactionManager = base.getTransactionManager();
         transactionManager.setMaximumTransactionsInLog( 2000 );
 
-        recMan = new CacheRecordManager( base, new MRU( cacheSize ) );
+        recMan = new CacheRecordManager( base, createCachePolicy( cacheSize ) );
 
         try
         {
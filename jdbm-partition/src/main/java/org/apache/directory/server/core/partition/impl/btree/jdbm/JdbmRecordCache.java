@@ -0,0 +1,548 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jdbm.helper.CacheEvictionException;
+import jdbm.helper.CachePolicy;
+import jdbm.helper.CachePolicyListener;
+
+import org.apache.directory.server.core.api.monitor.HitRatio;
+
+
+/**
+ * A record cache shared by the JDBM record managers of all the partitions, bounded by
+ * a number of bytes. Each table (the master table or an index) gets a view of the cache,
+ * used as the CachePolicy of its CacheRecordManager, so that the busiest tables can use
+ * more memory than the others.
+ * <br>
+ * The cache is a segmented LRU : a new record goes into a probation segment, and is
+ * moved to a protected segment when it's read again. The least recently used records
+ * of the probation segment are evicted first, so that a scan, which reads each record
+ * once, does not evict the B-tree pages which are used over and over.
+ * <br>
+ * The cached records are opaque to the cache, so each of them is accounted with the
+ * estimated record size of its table.
+ * <br>
+ * An evicted record may be dirty, and its table writes it when it's notified of the
+ * eviction. This must be done by the record manager owning the table, under its own
+ * lock, and not by the thread which needs some room, under the lock of the cache : the
+ * victims are only marked as evicted, and the view of each table notifies its listeners
+ * of its marked records the next time a record is put in it, outside the cache lock. A
+ * marked record which is read again in the meantime is kept. The marked records are still
+ * accounted in the size of the cache until their table has been notified.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmRecordCache
+{
+    /** The estimated size of an index B-tree page */
+    public static final int DEFAULT_RECORD_SIZE = 2048;
+
+    /** The percentage of the cache used by the protected segment */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** The cache shared by all the partitions */
+    private static final JdbmRecordCache SHARED_CACHE = new JdbmRecordCache( 0L );
+
+    /** The maximum size of the cache, in bytes */
+    private long maxSize;
+
+    /** The current size of the cache, in bytes */
+    private long size;
+
+    /** The size of the protected segment, in bytes */
+    private long protectedSize;
+
+    /** The size of the evicted records which table has not been notified yet, in bytes */
+    private long evictedSize;
+
+    /** The probation segment, from the least recently used record */
+    private final Node probation = new Node( null, null, null, 0 );
+
+    /** The protected segment, from the least recently used record */
+    private final Node protectedSegment = new Node( null, null, null, 0 );
+
+    /**
+     * A cached record
+     */
+    private static class Node
+    {
+        private final View<?, ?> view;
+        private final Object key;
+        private Object value;
+        private final int weight;
+        private boolean isProtected;
+        private boolean isEvicted;
+        private Node previous;
+        private Node next;
+
+
+        private Node( View<?, ?> view, Object key, Object value, int weight )
+        {
+            this.view = view;
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            previous = this;
+            next = this;
+        }
+
+
+        private void unlink()
+        {
+            previous.next = next;
+            next.previous = previous;
+            previous = this;
+            next = this;
+        }
+
+
+        private void linkBefore( Node head )
+        {
+            previous = head.previous;
+            next = head;
+            head.previous.next = this;
+            head.previous = this;
+        }
+    }
+
+    /**
+     * The view of the cache used by a table. The records of the view are keyed
+     * by their record ID.
+     */
+    public class View<K, V> implements CachePolicy<K, V>
+    {
+        /** The table name */
+        private final String name;
+
+        /** The estimated size of a record */
+        private final int recordSize;
+
+        /** The hits and misses of this table */
+        private final HitRatio hitRatio;
+
+        /** The records of this view */
+        private final Map<K, Node> nodes = new HashMap<K, Node>();
+
+        /** The records of this view evicted by the cache, waiting for the listeners to be notified */
+        private final Set<Node> evicted = new LinkedHashSet<Node>();
+
+        /** The listeners notified of the evictions */
+        private final List<CachePolicyListener<V>> listeners = new CopyOnWriteArrayList<CachePolicyListener<V>>();
+
+
+        private View( String name, int recordSize, HitRatio hitRatio )
+        {
+            this.name = name;
+            this.recordSize = recordSize;
+            this.hitRatio = hitRatio;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void put( K key, V value ) throws CacheEvictionException
+        {
+            synchronized ( JdbmRecordCache.this )
+            {
+                Node node = nodes.get( key );
+
+                if ( node != null )
+                {
+                    node.value = value;
+                    touch( node );
+                }
+                else
+                {
+                    makeRoom( recordSize );
+
+                    node = new Node( this, key, value, recordSize );
+                    nodes.put( key, node );
+                    node.linkBefore( probation );
+                    size += recordSize;
+                }
+            }
+
+            // The caller is the record manager owning this view, it can write the evicted records
+            notifyEvicted();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @SuppressWarnings("unchecked")
+        public V get( K key )
+        {
+            synchronized ( JdbmRecordCache.this )
+            {
+                Node node = nodes.get( key );
+
+                if ( node == null )
+                {
+                    hitRatio.miss();
+
+                    return null;
+                }
+
+                hitRatio.hit();
+                touch( node );
+
+                return ( V ) node.value;
+            }
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove( K key )
+        {
+            synchronized ( JdbmRecordCache.this )
+            {
+                Node node = nodes.remove( key );
+
+                if ( node != null )
+                {
+                    discard( node );
+                }
+            }
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void removeAll()
+        {
+            synchronized ( JdbmRecordCache.this )
+            {
+                for ( Node node : nodes.values() )
+                {
+                    discard( node );
+                }
+
+                nodes.clear();
+            }
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @SuppressWarnings("unchecked")
+        public Enumeration<V> elements()
+        {
+            synchronized ( JdbmRecordCache.this )
+            {
+                List<V> values = new ArrayList<V>( nodes.size() );
+
+                for ( Node node : nodes.values() )
+                {
+                    values.add( ( V ) node.value );
+                }
+
+                return Collections.enumeration( values );
+            }
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void addListener( CachePolicyListener<V> listener ) throws IllegalArgumentException
+        {
+            if ( listener == null )
+            {
+                throw new IllegalArgumentException( "Cannot add null listener." );
+            }
+
+            if ( !listeners.contains( listener ) )
+            {
+                listeners.add( listener );
+            }
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public void removeListener( CachePolicyListener<V> listener )
+        {
+            listeners.remove( listener );
+        }
+
+
+        /**
+         * Notifies the listeners of the records of this view evicted by the cache, and
+         * removes them. This is done outside the cache lock, by the record manager owning
+         * this view, as the listeners write the dirty records.
+         */
+        @SuppressWarnings("unchecked")
+        private void notifyEvicted() throws CacheEvictionException
+        {
+            while ( true )
+            {
+                Node victim;
+                V value;
+
+                synchronized ( JdbmRecordCache.this )
+                {
+                    if ( evicted.isEmpty() )
+                    {
+                        return;
+                    }
+
+                    victim = evicted.iterator().next();
+                    value = ( V ) victim.value;
+                }
+
+                // The listeners may write the record, so it's removed once they are done
+                for ( CachePolicyListener<V> listener : listeners )
+                {
+                    listener.cacheObjectEvicted( value );
+                }
+
+                synchronized ( JdbmRecordCache.this )
+                {
+                    // The record can't have been read in the meantime, the owner is the caller
+                    if ( victim.isEvicted )
+                    {
+                        nodes.remove( victim.key );
+                        discard( victim );
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * @return The table name
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+
+        /**
+         * @return The hits and misses of this table
+         */
+        public HitRatio getHitRatio()
+        {
+            return hitRatio;
+        }
+
+
+        /**
+         * @return The number of records of this table in the cache
+         */
+        public int getCount()
+        {
+            synchronized ( JdbmRecordCache.this )
+            {
+                return nodes.size();
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new instance of JdbmRecordCache.
+     *
+     * @param maxSize The maximum size of the cache, in bytes
+     */
+    public JdbmRecordCache( long maxSize )
+    {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * @return The cache shared by all the partitions. Its size is the sum of the
+     * sizes reserved by the partitions.
+     */
+    public static JdbmRecordCache getSharedCache()
+    {
+        return SHARED_CACHE;
+    }
+
+
+    /**
+     * Creates the view of a table
+     *
+     * @param name The table name
+     * @param recordSize The estimated size of a record
+     * @param hitRatio The hits and misses of the table
+     * @return The view, to be used as the CachePolicy of the table record manager
+     */
+    public <K, V> View<K, V> createView( String name, int recordSize, HitRatio hitRatio )
+    {
+        return new View<K, V>( name, recordSize > 0 ? recordSize : DEFAULT_RECORD_SIZE,
+            hitRatio != null ? hitRatio : new HitRatio() );
+    }
+
+
+    /**
+     * Adds some space to the cache
+     *
+     * @param reserved The number of bytes to add
+     */
+    public synchronized void reserve( long reserved )
+    {
+        maxSize += reserved;
+    }
+
+
+    /**
+     * Removes some space from the cache. The records in excess are evicted, and removed
+     * once their table has been notified.
+     *
+     * @param released The number of bytes to remove
+     */
+    public synchronized void release( long released )
+    {
+        maxSize = Math.max( 0L, maxSize - released );
+
+        makeRoom( 0 );
+    }
+
+
+    /**
+     * @return The maximum size of the cache, in bytes
+     */
+    public synchronized long getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    /**
+     * @return The current size of the cache, in bytes
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+
+    /**
+     * Moves a record at the most recently used end of the protected segment. An evicted
+     * record which is used again before its table has been notified is kept.
+     */
+    private void touch( Node node )
+    {
+        if ( node.isEvicted )
+        {
+            node.isEvicted = false;
+            node.view.evicted.remove( node );
+            evictedSize -= node.weight;
+        }
+
+        if ( !node.isProtected )
+        {
+            node.isProtected = true;
+            protectedSize += node.weight;
+        }
+
+        node.unlink();
+        node.linkBefore( protectedSegment );
+
+        // Demote the least recently used protected records
+        long maxProtectedSize = maxSize * PROTECTED_PERCENT / 100;
+
+        while ( ( protectedSize > maxProtectedSize ) && ( protectedSegment.next != node ) )
+        {
+            Node demoted = protectedSegment.next;
+            demoted.unlink();
+            demoted.isProtected = false;
+            protectedSize -= demoted.weight;
+            demoted.linkBefore( probation );
+        }
+    }
+
+
+    /**
+     * Removes a record from its segment
+     */
+    private void unlink( Node node )
+    {
+        node.unlink();
+        size -= node.weight;
+
+        if ( node.isProtected )
+        {
+            protectedSize -= node.weight;
+            node.isProtected = false;
+        }
+    }
+
+
+    /**
+     * Removes a record from the cache, whether it's in a segment or evicted
+     */
+    private void discard( Node node )
+    {
+        if ( node.isEvicted )
+        {
+            node.isEvicted = false;
+            node.view.evicted.remove( node );
+            evictedSize -= node.weight;
+            size -= node.weight;
+        }
+        else
+        {
+            unlink( node );
+        }
+    }
+
+
+    /**
+     * Evicts the least recently used records, from the probation segment first, until
+     * there is enough room for a new record. The evicted records are only removed from
+     * their segment : they are removed from the cache once their table has been notified.
+     */
+    private void makeRoom( int weight )
+    {
+        while ( ( size - evictedSize + weight > maxSize ) && ( size > evictedSize ) )
+        {
+            Node victim = ( probation.next != probation ) ? probation.next : protectedSegment.next;
+
+            // Keep the record in the size of the cache, until it's removed
+            unlink( victim );
+            size += victim.weight;
+            victim.isEvicted = true;
+            victim.view.evicted.add( victim );
+            evictedSize += victim.weight;
+        }
+    }
+}
@@ -75,6 +75,9 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
     /** the limit at which we start using btree redirection for duplicates */
     private int numDupLimit = JdbmIndex.DEFAULT_DUPLICATE_LIMIT;
 
+    /** the limit under which we stop using btree redirection for duplicates */
+    private int numDupDemoteLimit = JdbmIndex.DEFAULT_DUPLICATE_LIMIT / 2;
+
     /** a cache of duplicate BTrees */
     private final Map<Long, BTree<K, V>> duplicateBtrees;
 
@@ -135,6 +138,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
         }
 
         this.numDupLimit = numDupLimit;
+        this.numDupDemoteLimit = numDupLimit / 2;
         this.recMan = manager;
 
         this.keySerializer = keySerializer;
@@ -199,6 +203,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
 
         this.duplicateBtrees = null;
         this.numDupLimit = Integer.MAX_VALUE;
+        this.numDupDemoteLimit = Integer.MAX_VALUE;
         this.recMan = manager;
 
         this.keySerializer = keySerializer;
@@ -753,20 +758,24 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 return;
             }
 
-            // if the number of duplicates falls below the numDupLimit value
+            // if the number of duplicates falls below the numDupDemoteLimit value
             BTree tree = getBTree( values.getBTreeRedirect() );
 
             if ( tree.find( value ) != null && tree.remove( value ) != null )
             {
                 /*
-                 * If we drop below the duplicate limit then we revert from using
-                 * a Jdbm BTree to using an in memory AvlTree.
+                 * If we drop below the demotion limit then we revert from using
+                 * a Jdbm BTree to using an in memory AvlTree. This limit is lower
+                 * than the promotion one, so that a key which size oscillates
+                 * around numDupLimit does not flip from one structure to the
+                 * other on every add and remove.
                  */
-                if ( tree.size() <= numDupLimit )
+                if ( tree.size() <= numDupDemoteLimit )
                 {
                     ArrayTree<V> avlTree = convertToArrayTree( tree );
                     bt.insert( key, ( V ) marshaller.serialize( avlTree ), true );
                     recMan.delete( tree.getRecordId() );
+                    duplicateBtrees.remove( tree.getRecordId() );
                 }
 
                 count--;
@@ -1001,6 +1010,43 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
     }
 
 
+    /**
+     * @return the number of values for a key above which they are stored in a BTree
+     */
+    public int getNumDupLimit()
+    {
+        return numDupLimit;
+    }
+
+
+    /**
+     * @return the number of values for a key under which a BTree is converted back to an ArrayTree
+     */
+    public int getNumDupDemoteLimit()
+    {
+        return numDupDemoteLimit;
+    }
+
+
+    /**
+     * Sets the number of values for a key under which the values stored in a BTree are
+     * moved back in an ArrayTree. It must be lower or equal to the promotion limit, the
+     * gap between both limits avoiding a key to constantly switch from one storage to the
+     * other when its number of values oscillates around the promotion limit.
+     *
+     * @param numDupDemoteLimit the demotion limit
+     */
+    public void setNumDupDemoteLimit( int numDupDemoteLimit )
+    {
+        if ( ( numDupDemoteLimit < 0 ) || ( numDupDemoteLimit > numDupLimit ) )
+        {
+            throw new IllegalArgumentException( "The demotion limit must be between 0 and " + numDupLimit );
+        }
+
+        this.numDupDemoteLimit = numDupDemoteLimit;
+    }
+
+
     // ------------------------------------------------------------------------
     // Private/Package Utility Methods 
     // ------------------------------------------------------------------------
@@ -0,0 +1,188 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * Measures the add throughput of a JdbmPartition with 5, 15 and 30 indexed attributes,
+ * when the indexes are written one after the other, and when they are written
+ * concurrently.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Ignore
+public class JdbmIndexWritePerfTest
+{
+    /** The number of added entries */
+    private static final int NB_ENTRIES = 5000;
+
+    /** The indexed attributes, all present in the added entries */
+    private static final String[] ATTRIBUTES =
+        {
+            "cn", "sn", "givenName", "mail", "telephoneNumber",
+            "description", "title", "l", "st", "street",
+            "postalCode", "uid", "displayName", "employeeNumber", "employeeType",
+            "departmentNumber", "initials", "mobile", "pager", "roomNumber",
+            "homePhone", "facsimileTelephoneNumber", "businessCategory", "carLicense", "destinationIndicator",
+            "physicalDeliveryOfficeName", "postOfficeBox", "preferredLanguage", "ou", "o"
+    };
+
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = JdbmIndexWritePerfTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    /**
+     * Adds the entries in a new partition
+     *
+     * @return The number of added entries per second
+     */
+    private long addEntries( int nbIndexes, int indexWriterThreads ) throws Exception
+    {
+        File wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir.mkdirs();
+
+        JdbmPartition partition = new JdbmPartition( schemaManager, dnFactory );
+        partition.setId( "perf" );
+        partition.setPartitionPath( wkdir.toURI() );
+        partition.setSyncOnWrite( false );
+        partition.setIndexWriterThreads( indexWriterThreads );
+
+        for ( int i = 0; i < nbIndexes; i++ )
+        {
+            String oid = schemaManager.getAttributeTypeRegistry().getOidByName( ATTRIBUTES[i] );
+            JdbmIndex<String> index = new JdbmIndex<String>( oid, false );
+            index.setWkDirPath( wkdir.toURI() );
+            partition.addIndex( index );
+        }
+
+        Dn suffixDn = new Dn( schemaManager, "o=perf" );
+        partition.setSuffixDn( suffixDn );
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        try
+        {
+            StoreUtils.injectEntryInStore( partition, new DefaultEntry( schemaManager, suffixDn,
+                "objectClass: organization",
+                "o: perf" ), 1L );
+
+            long t0 = System.currentTimeMillis();
+
+            for ( int i = 0; i < NB_ENTRIES; i++ )
+            {
+                Entry entry = new DefaultEntry( schemaManager, "uid=user" + i + ",o=perf",
+                    "objectClass: inetOrgPerson",
+                    "objectClass: extensibleObject" );
+
+                for ( String attribute : ATTRIBUTES )
+                {
+                    if ( !entry.containsAttribute( attribute ) )
+                    {
+                        entry.add( attribute, "1" + i );
+                    }
+                }
+
+                entry.put( "uid", "user" + i );
+
+                StoreUtils.injectEntryInStore( partition, entry, i + 2L );
+            }
+
+            long t1 = System.currentTimeMillis();
+
+            return NB_ENTRIES * 1000L / Math.max( 1L, t1 - t0 );
+        }
+        finally
+        {
+            partition.destroy();
+            FileUtils.deleteDirectory( wkdir );
+        }
+    }
+
+
+    @Test
+    public void testAddThroughput() throws Exception
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for ( int nbIndexes : new int[]
+            { 5, 15, 30 } )
+        {
+            long serial = addEntries( nbIndexes, 0 );
+            long parallel = addEntries( nbIndexes, threads );
+
+            System.out.println( nbIndexes + " indexes : " + serial + " adds/s written serially, " + parallel
+                + " adds/s written by " + threads + " threads" );
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jdbm.helper.CacheEvictionException;
+import jdbm.helper.CachePolicyListener;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for the JdbmRecordCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmRecordCacheTest
+{
+    @Test
+    public void testSizeIsBounded() throws Exception
+    {
+        JdbmRecordCache cache = new JdbmRecordCache( 10 * 100L );
+        JdbmRecordCache.View<Long, String> view = cache.createView( "test", 100, null );
+
+        for ( long i = 0; i < 50; i++ )
+        {
+            view.put( i, "record" + i );
+        }
+
+        assertEquals( 10, view.getCount() );
+        assertEquals( 1000L, cache.getSize() );
+
+        // The last records are kept
+        assertNotNull( view.get( 49L ) );
+        assertNull( view.get( 0L ) );
+        assertEquals( 1, view.getHitRatio().getHits() );
+        assertEquals( 1, view.getHitRatio().getMisses() );
+    }
+
+
+    @Test
+    public void testScanDoesNotEvictHotRecords() throws Exception
+    {
+        JdbmRecordCache cache = new JdbmRecordCache( 10 * 100L );
+        JdbmRecordCache.View<Long, String> index = cache.createView( "index", 100, null );
+        JdbmRecordCache.View<Long, String> master = cache.createView( "master", 100, null );
+
+        // Some index pages are read over and over
+        for ( long i = 0; i < 5; i++ )
+        {
+            index.put( i, "page" + i );
+            index.get( i );
+        }
+
+        // A scan reads many master records once
+        for ( long i = 0; i < 100; i++ )
+        {
+            master.put( i, "entry" + i );
+        }
+
+        for ( long i = 0; i < 5; i++ )
+        {
+            assertNotNull( index.get( i ) );
+        }
+
+        assertEquals( 5, master.getCount() );
+    }
+
+
+    @Test
+    public void testEvictionIsNotified() throws Exception
+    {
+        JdbmRecordCache cache = new JdbmRecordCache( 2 * 100L );
+        JdbmRecordCache.View<Long, String> view1 = cache.createView( "view1", 100, null );
+        JdbmRecordCache.View<Long, String> view2 = cache.createView( "view2", 100, null );
+        final List<String> evicted = new ArrayList<String>();
+
+        view1.addListener( new CachePolicyListener<String>()
+        {
+            public void cacheObjectEvicted( String obj ) throws CacheEvictionException
+            {
+                evicted.add( obj );
+            }
+        } );
+
+        view1.put( 1L, "a" );
+        view1.put( 2L, "b" );
+
+        // The records of a view can be evicted by the records of another view, but
+        // only the view owning them notifies its listeners
+        view2.put( 1L, "c" );
+
+        assertEquals( 0, evicted.size() );
+        assertEquals( 300L, cache.getSize() );
+
+        view1.put( 3L, "d" );
+
+        assertEquals( 2, evicted.size() );
+        assertEquals( "a", evicted.get( 0 ) );
+        assertEquals( "b", evicted.get( 1 ) );
+        assertNull( view1.get( 1L ) );
+        assertEquals( "c", view2.get( 1L ) );
+    }
+
+
+    @Test
+    public void testEvictedRecordIsKeptWhenRead() throws Exception
+    {
+        JdbmRecordCache cache = new JdbmRecordCache( 2 * 100L );
+        JdbmRecordCache.View<Long, String> view1 = cache.createView( "view1", 100, null );
+        JdbmRecordCache.View<Long, String> view2 = cache.createView( "view2", 100, null );
+        final List<String> evicted = new ArrayList<String>();
+
+        view1.addListener( new CachePolicyListener<String>()
+        {
+            public void cacheObjectEvicted( String obj ) throws CacheEvictionException
+            {
+                evicted.add( obj );
+            }
+        } );
+
+        view1.put( 1L, "a" );
+        view1.put( 2L, "b" );
+        view2.put( 1L, "c" );
+
+        // The evicted record is read again before view1 has been notified
+        assertEquals( "a", view1.get( 1L ) );
+
+        view1.put( 3L, "d" );
+
+        assertEquals( "a", view1.get( 1L ) );
+        assertTrue( !evicted.contains( "a" ) );
+    }
+
+
+    @Test
+    public void testRelease() throws Exception
+    {
+        JdbmRecordCache cache = new JdbmRecordCache( 0L );
+        cache.reserve( 10 * 100L );
+        JdbmRecordCache.View<Long, String> view = cache.createView( "test", 100, null );
+
+        for ( long i = 0; i < 10; i++ )
+        {
+            view.put( i, "record" + i );
+        }
+
+        cache.release( 5 * 100L );
+
+        // The evicted records are removed the next time the view is written
+        view.put( 10L, "record10" );
+
+        assertEquals( 500L, cache.getMaxSize() );
+        assertTrue( cache.getSize() <= 500L );
+        assertEquals( 5, view.getCount() );
+
+        view.removeAll();
+
+        assertEquals( 0L, cache.getSize() );
+    }
+}
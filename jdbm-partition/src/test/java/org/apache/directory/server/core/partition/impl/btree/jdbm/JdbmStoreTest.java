@@ -818,4 +818,50 @@ public class JdbmStoreTest
         assertFalse( ouIndexDbFile.exists() );
         assertFalse( ouIndexTxtFile.exists() );
     }
+
+
+    @Test
+    public void testBuildNewIndex() throws Exception
+    {
+        File snIndexDbFile = new File( wkdir, SchemaConstants.SN_AT_OID + ".db" );
+        File snIndexBuildFile = new File( wkdir, SchemaConstants.SN_AT_OID + ".building" );
+
+        assertFalse( snIndexDbFile.exists() );
+
+        store.destroy();
+
+        store = new JdbmPartition( schemaManager, dnFactory );
+        store.setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+        store.addIndex( new JdbmIndex( SchemaConstants.OU_AT_OID, false ) );
+        store.addIndex( new JdbmIndex( SchemaConstants.UID_AT_OID, false ) );
+
+        // a new index on existing entries
+        store.addIndex( new JdbmIndex( SchemaConstants.SN_AT_OID, false ) );
+
+        Dn suffixDn = new Dn( schemaManager, "o=Good Times Co." );
+        store.setSuffixDn( suffixDn );
+        store.setCacheService( cacheService );
+        store.initialize();
+
+        // wait for the index to be built in the background
+        for ( int i = 0; ( i < 100 ) && !store.getIndexBuilders().isEmpty(); i++ )
+        {
+            Thread.sleep( 100L );
+        }
+
+        assertTrue( store.getIndexBuilders().isEmpty() );
+        assertTrue( store.hasUserIndexOn( SN_AT ) );
+        assertTrue( snIndexDbFile.exists() );
+        assertFalse( snIndexBuildFile.exists() );
+
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String id = store.getEntryId( dn );
+        Index<String, String> snIndex = ( Index<String, String> ) store.getUserIndex( SN_AT );
+
+        assertTrue( snIndex.forward( "walker", id ) );
+        assertTrue( store.getPresenceIndex().forward( SchemaConstants.SN_AT_OID, id ) );
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.UUID;
+
+import jdbm.RecordManager;
+import jdbm.helper.DefaultSerializer;
+import jdbm.recman.BaseRecordManager;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * Measures the cost of storing a lot of values for a single key in a JdbmTable, like
+ * the objectClass index does for 'person' when loading many entries, and of adding
+ * and removing values around the duplicate limit.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Ignore
+public class JdbmTablePerfTest
+{
+    /** The number of values stored for the key */
+    private static final int NB_VALUES = 1000000;
+
+    /** The number of add/remove cycles around the duplicate limit */
+    private static final int NB_CYCLES = 100000;
+
+    private static final String KEY = "1";
+
+    private static SchemaManager schemaManager;
+
+    private File dbFile;
+    private RecordManager recman;
+    private JdbmTable<String, String> table;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = JdbmTablePerfTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createTable() throws Exception
+    {
+        dbFile = File.createTempFile( getClass().getSimpleName(), "db" );
+        recman = new BaseRecordManager( dbFile.getAbsolutePath() );
+
+        SerializableComparator<String> comparator = new SerializableComparator<String>(
+            SchemaConstants.INTEGER_ORDERING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+
+        table = new JdbmTable<String, String>( schemaManager, "perf", JdbmIndex.DEFAULT_DUPLICATE_LIMIT, recman,
+            comparator, UuidComparator.INSTANCE, new DefaultSerializer(), UuidSerializer.INSTANCE );
+    }
+
+
+    @After
+    public void destroyTable() throws Exception
+    {
+        table.close();
+        recman.close();
+
+        String fileToDelete = dbFile.getAbsolutePath();
+        new File( fileToDelete + ".db" ).delete();
+        new File( fileToDelete + ".lg" ).delete();
+        dbFile.delete();
+    }
+
+
+    @Test
+    public void testLoadDuplicates() throws Exception
+    {
+        long t0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < NB_VALUES; i++ )
+        {
+            table.put( KEY, UUID.randomUUID().toString() );
+
+            if ( ( i % 100000 ) == 0 )
+            {
+                System.out.println( "Loaded " + i + " values in " + ( System.currentTimeMillis() - t0 ) + "ms" );
+            }
+        }
+
+        table.sync();
+        long t1 = System.currentTimeMillis();
+
+        assertEquals( NB_VALUES, table.count( KEY ) );
+        System.out.println( "Loaded " + NB_VALUES + " values for a single key in " + ( t1 - t0 ) + "ms" );
+    }
+
+
+    @Test
+    public void testOscillateAroundLimit() throws Exception
+    {
+        for ( int i = 0; i < JdbmIndex.DEFAULT_DUPLICATE_LIMIT; i++ )
+        {
+            table.put( KEY, UUID.randomUUID().toString() );
+        }
+
+        String value = UUID.randomUUID().toString();
+        long t0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < NB_CYCLES; i++ )
+        {
+            table.put( KEY, value );
+            table.remove( KEY, value );
+        }
+
+        long t1 = System.currentTimeMillis();
+
+        assertEquals( JdbmIndex.DEFAULT_DUPLICATE_LIMIT, table.count( KEY ) );
+        System.out.println( NB_CYCLES + " add/remove cycles around the duplicate limit in " + ( t1 - t0 ) + "ms" );
+    }
+}
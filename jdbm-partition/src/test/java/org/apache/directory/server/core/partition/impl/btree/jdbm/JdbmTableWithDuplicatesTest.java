@@ -493,19 +493,20 @@ public class JdbmTableWithDuplicatesTest
         assertEquals( SIZE + 1, table.count( "1" ) );
         assertTrue( table.isKeyUsingBTree( "1" ) );
 
-        // this switches to AvlTree from B+Trees
+        // going back to the limit does not switch back to AvlTree
         table.remove( "1", SIZE_STR );
         assertFalse( table.has( "1", SIZE_STR ) );
         assertEquals( SIZE, table.count() );
         assertEquals( SIZE, table.count( "1" ) );
         assertEquals( "0", table.get( "1" ) );
-        assertFalse( table.isKeyUsingBTree( "1" ) );
+        assertTrue( table.isKeyUsingBTree( "1" ) );
 
+        // going under the demotion limit switches to AvlTree from B+Trees
         for ( int i = SIZE - 1; i >= 0; i-- )
         {
             String istr = Integer.toString( i );
             table.remove( "1", istr );
-            assertFalse( table.isKeyUsingBTree( "1" ) );
+            assertEquals( i > table.getNumDupDemoteLimit(), table.isKeyUsingBTree( "1" ) );
         }
 
         assertEquals( 0, table.count() );
@@ -528,6 +529,45 @@ public class JdbmTableWithDuplicatesTest
     }
 
 
+    @Test
+    public void testDuplicateLimitHysteresis() throws Exception
+    {
+        assertEquals( SIZE, table.getNumDupLimit() );
+        assertEquals( SIZE / 2, table.getNumDupDemoteLimit() );
+
+        for ( int i = 0; i <= SIZE; i++ )
+        {
+            table.put( "1", Integer.toString( i ) );
+        }
+
+        assertTrue( table.isKeyUsingBTree( "1" ) );
+
+        // Oscillating around the limit keeps the B+Tree
+        for ( int i = 0; i < 10; i++ )
+        {
+            table.remove( "1", SIZE_STR );
+            assertTrue( table.isKeyUsingBTree( "1" ) );
+            table.put( "1", SIZE_STR );
+            assertTrue( table.isKeyUsingBTree( "1" ) );
+        }
+
+        assertEquals( SIZE + 1, table.count( "1" ) );
+
+        // A demotion limit equal to the promotion limit restores the former behavior
+        table.setNumDupDemoteLimit( SIZE );
+        table.remove( "1", SIZE_STR );
+        assertFalse( table.isKeyUsingBTree( "1" ) );
+        assertEquals( SIZE, table.count( "1" ) );
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDemoteLimitAbovePromoteLimit() throws Exception
+    {
+        table.setNumDupDemoteLimit( SIZE + 1 );
+    }
+
+
     /**
      * Let's test keys with a null or lack of any values.
      * @throws Exception on error
@@ -21,7 +21,7 @@ package org.apache.directory.server.kerberos.shared.crypto.checksum;
 
 
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
 
 import org.apache.directory.server.kerberos.shared.crypto.encryption.Aes128CtsSha1Encryption;
@@ -41,18 +41,18 @@ import org.apache.directory.shared.kerberos.exceptions.KerberosException;
  */
 public class ChecksumHandler
 {
-    /** A map of the default encodable class names to the encoder class names. */
-    private static final Map<ChecksumType, Class<?>> DEFAULT_CHECKSUMS;
+    /** A map of the default checksum types to the checksum engines. The engines are stateless and shared */
+    private static final Map<ChecksumType, ChecksumEngine> DEFAULT_CHECKSUMS;
 
     static
     {
-        Map<ChecksumType, Class<?>> map = new HashMap<ChecksumType, Class<?>>();
+        Map<ChecksumType, ChecksumEngine> map = new EnumMap<ChecksumType, ChecksumEngine>( ChecksumType.class );
 
-        map.put( ChecksumType.HMAC_MD5, HmacMd5Checksum.class );
-        map.put( ChecksumType.HMAC_SHA1_96_AES128, Aes128CtsSha1Encryption.class );
-        map.put( ChecksumType.HMAC_SHA1_96_AES256, Aes256CtsSha1Encryption.class );
-        map.put( ChecksumType.HMAC_SHA1_DES3_KD, Des3CbcSha1KdEncryption.class );
-        map.put( ChecksumType.RSA_MD5, RsaMd5Checksum.class );
+        map.put( ChecksumType.HMAC_MD5, new HmacMd5Checksum() );
+        map.put( ChecksumType.HMAC_SHA1_96_AES128, new Aes128CtsSha1Encryption() );
+        map.put( ChecksumType.HMAC_SHA1_96_AES256, new Aes256CtsSha1Encryption() );
+        map.put( ChecksumType.HMAC_SHA1_DES3_KD, new Des3CbcSha1KdEncryption() );
+        map.put( ChecksumType.RSA_MD5, new RsaMd5Checksum() );
 
         DEFAULT_CHECKSUMS = Collections.unmodifiableMap( map );
     }
@@ -115,24 +115,13 @@ public class ChecksumHandler
 
     private ChecksumEngine getEngine( ChecksumType checksumType ) throws KerberosException
     {
-        Class<?> clazz = DEFAULT_CHECKSUMS.get( checksumType );
+        ChecksumEngine engine = DEFAULT_CHECKSUMS.get( checksumType );
 
-        if ( clazz == null )
+        if ( engine == null )
         {
             throw new KerberosException( ErrorType.KDC_ERR_SUMTYPE_NOSUPP );
         }
 
-        try
-        {
-            return ( ChecksumEngine ) clazz.newInstance();
-        }
-        catch ( IllegalAccessException iae )
-        {
-            throw new KerberosException( ErrorType.KDC_ERR_SUMTYPE_NOSUPP, iae );
-        }
-        catch ( InstantiationException ie )
-        {
-            throw new KerberosException( ErrorType.KDC_ERR_SUMTYPE_NOSUPP, ie );
-        }
+        return engine;
     }
 }
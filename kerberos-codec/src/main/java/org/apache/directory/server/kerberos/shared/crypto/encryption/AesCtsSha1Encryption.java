@@ -145,7 +145,15 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
 
     protected byte[] deriveKey( byte[] baseKey, byte[] usage, int n, int k )
     {
-        return deriveRandom( baseKey, usage, n, k );
+        byte[] result = getCachedDerivedKey( baseKey, usage );
+
+        if ( result == null )
+        {
+            result = deriveRandom( baseKey, usage, n, k );
+            cacheDerivedKey( baseKey, usage, result );
+        }
+
+        return result;
     }
 
 
@@ -155,7 +163,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
         {
             SecretKey sk = new SecretKeySpec( key, "AES" );
 
-            Mac mac = Mac.getInstance( "HmacSHA1" );
+            Mac mac = CryptoCache.getMac( "HmacSHA1" );
             mac.init( sk );
 
             return mac.doFinal( data );
@@ -172,7 +180,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "AES/CTS/NoPadding" );
+            Cipher cipher = CryptoCache.getCipher( "AES/CTS/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "AES" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
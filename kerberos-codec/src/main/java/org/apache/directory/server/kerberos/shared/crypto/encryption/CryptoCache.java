@@ -0,0 +1,152 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+
+/**
+ * A per thread cache of the JCE {@link Cipher}, {@link Mac} and {@link MessageDigest}
+ * instances used by the encryption and checksum engines. Looking up a provider
+ * through the getInstance() methods is costly, and those objects are not thread
+ * safe, so each thread keeps its own instance per algorithm. The engines always
+ * initialize (or reset) the instance they get before using it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class CryptoCache
+{
+    /** The Cipher instances, per transformation */
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = new ThreadLocal<Map<String, Cipher>>()
+    {
+        @Override
+        protected Map<String, Cipher> initialValue()
+        {
+            return new HashMap<String, Cipher>();
+        }
+    };
+
+    /** The Mac instances, per algorithm */
+    private static final ThreadLocal<Map<String, Mac>> MACS = new ThreadLocal<Map<String, Mac>>()
+    {
+        @Override
+        protected Map<String, Mac> initialValue()
+        {
+            return new HashMap<String, Mac>();
+        }
+    };
+
+    /** The MessageDigest instances, per algorithm */
+    private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = new ThreadLocal<Map<String, MessageDigest>>()
+    {
+        @Override
+        protected Map<String, MessageDigest> initialValue()
+        {
+            return new HashMap<String, MessageDigest>();
+        }
+    };
+
+
+    private CryptoCache()
+    {
+    }
+
+
+    /**
+     * Gets the current thread's Cipher for the given transformation. The returned
+     * Cipher must be initialized before being used.
+     *
+     * @param transformation The transformation, like "AES/CTS/NoPadding"
+     * @return The Cipher instance
+     * @throws NoSuchAlgorithmException If the transformation is not supported
+     * @throws NoSuchPaddingException If the padding scheme is not supported
+     */
+    public static Cipher getCipher( String transformation ) throws NoSuchAlgorithmException, NoSuchPaddingException
+    {
+        Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get( transformation );
+
+        if ( cipher == null )
+        {
+            cipher = Cipher.getInstance( transformation );
+            ciphers.put( transformation, cipher );
+        }
+
+        return cipher;
+    }
+
+
+    /**
+     * Gets the current thread's Mac for the given algorithm. The returned
+     * Mac must be initialized with a key before being used.
+     *
+     * @param algorithm The algorithm, like "HmacSHA1"
+     * @return The Mac instance
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public static Mac getMac( String algorithm ) throws NoSuchAlgorithmException
+    {
+        Map<String, Mac> macs = MACS.get();
+        Mac mac = macs.get( algorithm );
+
+        if ( mac == null )
+        {
+            mac = Mac.getInstance( algorithm );
+            macs.put( algorithm, mac );
+        }
+
+        return mac;
+    }
+
+
+    /**
+     * Gets the current thread's MessageDigest for the given algorithm. The
+     * returned digest has been reset.
+     *
+     * @param algorithm The algorithm, like "MD5"
+     * @return The MessageDigest instance
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public static MessageDigest getMessageDigest( String algorithm ) throws NoSuchAlgorithmException
+    {
+        Map<String, MessageDigest> digests = DIGESTS.get();
+        MessageDigest digest = digests.get( algorithm );
+
+        if ( digest == null )
+        {
+            digest = MessageDigest.getInstance( algorithm );
+            digests.put( algorithm, digest );
+        }
+        else
+        {
+            digest.reset();
+        }
+
+        return digest;
+    }
+}
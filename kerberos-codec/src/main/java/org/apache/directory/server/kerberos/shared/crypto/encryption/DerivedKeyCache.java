@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+
+
+/**
+ * A bounded cache of the keys derived from a base key and a usage constant
+ * (the Kc, Ke and Ki keys of RFC 3961). The same base keys (the KDC and
+ * services keys) are used over and over, and the derivation costs
+ * a few block encryptions each time.
+ * <br>
+ * The cache is emptied when it reaches its maximum size, which is good
+ * enough given that the working set of base keys is usually small. The returned
+ * arrays are shared and must not be modified.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class DerivedKeyCache
+{
+    /** The default maximum number of derived keys kept */
+    static final int DEFAULT_MAX_SIZE = 4096;
+
+    /** The maximum number of derived keys kept */
+    private final int maxSize;
+
+    /** The derived keys */
+    private final ConcurrentMap<CacheKey, byte[]> derivedKeys = new ConcurrentHashMap<CacheKey, byte[]>();
+
+
+    /**
+     * Creates a new instance of DerivedKeyCache.
+     *
+     * @param maxSize The maximum number of derived keys to keep
+     */
+    DerivedKeyCache( int maxSize )
+    {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Gets a derived key from the cache
+     *
+     * @param encryptionType The encryption type the key is derived for
+     * @param baseKey The base key
+     * @param usage The usage constant
+     * @return The derived key, or null if it's not in the cache
+     */
+    byte[] get( EncryptionType encryptionType, byte[] baseKey, byte[] usage )
+    {
+        return derivedKeys.get( new CacheKey( encryptionType, baseKey, usage ) );
+    }
+
+
+    /**
+     * Stores a derived key into the cache
+     *
+     * @param encryptionType The encryption type the key is derived for
+     * @param baseKey The base key
+     * @param usage The usage constant
+     * @param derivedKey The derived key
+     */
+    void put( EncryptionType encryptionType, byte[] baseKey, byte[] usage, byte[] derivedKey )
+    {
+        if ( derivedKeys.size() >= maxSize )
+        {
+            derivedKeys.clear();
+        }
+
+        derivedKeys.put( new CacheKey( encryptionType, baseKey.clone(), usage.clone() ), derivedKey );
+    }
+
+
+    /**
+     * @return The number of derived keys currently stored
+     */
+    int size()
+    {
+        return derivedKeys.size();
+    }
+
+
+    /**
+     * The key used to store the derived keys : the encryption type, the base key
+     * and the usage constant
+     */
+    private static final class CacheKey
+    {
+        private final EncryptionType encryptionType;
+        private final byte[] baseKey;
+        private final byte[] usage;
+        private final int hashCode;
+
+
+        private CacheKey( EncryptionType encryptionType, byte[] baseKey, byte[] usage )
+        {
+            this.encryptionType = encryptionType;
+            this.baseKey = baseKey;
+            this.usage = usage;
+
+            int h = encryptionType.hashCode();
+            h = h * 31 + Arrays.hashCode( baseKey );
+            h = h * 31 + Arrays.hashCode( usage );
+            hashCode = h;
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( obj == this )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof CacheKey ) )
+            {
+                return false;
+            }
+
+            CacheKey that = ( CacheKey ) obj;
+
+            return ( encryptionType == that.encryptionType ) && Arrays.equals( baseKey, that.baseKey )
+                && Arrays.equals( usage, that.usage );
+        }
+    }
+}
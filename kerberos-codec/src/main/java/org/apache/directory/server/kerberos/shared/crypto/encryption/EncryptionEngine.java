@@ -35,6 +35,9 @@ public abstract class EncryptionEngine
 {
     private static final SecureRandom random = new SecureRandom();
 
+    /** The keys derived from a base key and a usage, shared by all the engines */
+    private static final DerivedKeyCache DERIVED_KEYS = new DerivedKeyCache( DerivedKeyCache.DEFAULT_MAX_SIZE );
+
 
     protected abstract byte[] getDecryptedData( EncryptionKey key, EncryptedData data, KeyUsage usage )
         throws KerberosException;
@@ -92,6 +95,32 @@ public abstract class EncryptionEngine
     }
 
 
+    /**
+     * Gets a previously derived key from the cache. The returned array must not be modified.
+     *
+     * @param baseKey The base key
+     * @param usage The usage constant
+     * @return The derived key, or null if it has not been computed yet
+     */
+    protected byte[] getCachedDerivedKey( byte[] baseKey, byte[] usage )
+    {
+        return DERIVED_KEYS.get( getEncryptionType(), baseKey, usage );
+    }
+
+
+    /**
+     * Stores a derived key in the cache.
+     *
+     * @param baseKey The base key
+     * @param usage The usage constant
+     * @param derivedKey The key derived from the base key and the usage
+     */
+    protected void cacheDerivedKey( byte[] baseKey, byte[] usage, byte[] derivedKey )
+    {
+        DERIVED_KEYS.put( getEncryptionType(), baseKey, usage, derivedKey );
+    }
+
+
     // Encryption
     protected byte[] getRandomBytes( int size )
     {
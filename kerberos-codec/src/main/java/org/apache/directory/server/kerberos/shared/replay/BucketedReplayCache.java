@@ -0,0 +1,433 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.replay;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.kerberos.shared.crypto.encryption.CryptoCache;
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A replay cache which keeps a 64 bits fingerprint of each authenticator (a digest
+ * of the server name, client name, client time and microseconds) in concurrent
+ * sets, one per clock skew wide slice of the client time. An authenticator is only
+ * accepted when its client time is within the clock skew, so a whole slice is
+ * dropped as soon as it's older than the clock skew, without having to look at
+ * its entries.
+ * <p>
+ * The cache is in memory only, unless a file is given : the fingerprints are then
+ * also written in a fixed size memory mapped ring, which is read back when the
+ * cache is created again, so that the replay protection survives a restart. When
+ * the ring is full, the oldest entries are overwritten : they stay in memory, but
+ * they won't be recovered after a restart.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BucketedReplayCache implements ReplayCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger( BucketedReplayCache.class );
+
+    /** The default number of entries in the persistence file */
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    /** The persistence file magic number */
+    private static final int MAGIC = 0x52435631;
+
+    /** The persistence file header : the magic number and the capacity */
+    private static final int HEADER_SIZE = 8;
+
+    /** An entry in the persistence file : the client time and the fingerprint */
+    private static final int RECORD_SIZE = 16;
+
+    /** The clock skew, which is also the width of a bucket */
+    private final long clockSkew;
+
+    /** The fingerprints, by bucket */
+    private final ConcurrentMap<Long, Set<Long>> buckets = new ConcurrentHashMap<Long, Set<Long>>();
+
+    /** The oldest bucket which may still be in use */
+    private final AtomicLong firstBucket = new AtomicLong( Long.MIN_VALUE );
+
+    /** The persistence file channel, or null */
+    private FileChannel channel;
+
+    /** The mapped persistence file, or null */
+    private volatile MappedByteBuffer mapped;
+
+    /** The number of entries in the persistence file */
+    private int capacity;
+
+    /** The number of entries written in the persistence file */
+    private final AtomicLong written = new AtomicLong();
+
+
+    /**
+     * Creates a new in memory instance of BucketedReplayCache.
+     *
+     * @param clockSkew the allowed skew (milliseconds)
+     */
+    public BucketedReplayCache( long clockSkew )
+    {
+        this.clockSkew = Math.max( 1L, clockSkew );
+    }
+
+
+    /**
+     * Creates a new instance of BucketedReplayCache, persisted in a file. The
+     * entries which are still within the clock skew are read from the file if
+     * it exists.
+     *
+     * @param clockSkew the allowed skew (milliseconds)
+     * @param file the persistence file
+     * @param capacity the number of entries in the persistence file
+     * @throws IOException if the file can't be read or written
+     */
+    public BucketedReplayCache( long clockSkew, File file, int capacity ) throws IOException
+    {
+        this( clockSkew );
+
+        if ( capacity <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid replay cache capacity " + capacity );
+        }
+
+        this.capacity = capacity;
+        open( file );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isReplay( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
+        KerberosTime clientTime, int clientMicroSeconds )
+    {
+        long time = clientTime.getTime();
+        Set<Long> bucket = buckets.get( getBucket( time ) );
+
+        if ( bucket == null )
+        {
+            return false;
+        }
+
+        return bucket.contains( fingerprint( serverPrincipal, clientPrincipal, time, clientMicroSeconds ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void save( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal, KerberosTime clientTime,
+        int clientMicroSeconds )
+    {
+        long now = System.currentTimeMillis();
+        long time = clientTime.getTime();
+
+        purge( now );
+
+        if ( time < now - clockSkew )
+        {
+            // Such an authenticator is rejected anyway
+            return;
+        }
+
+        long fingerprint = fingerprint( serverPrincipal, clientPrincipal, time, clientMicroSeconds );
+
+        MappedByteBuffer buffer = mapped;
+
+        if ( add( time, fingerprint ) && ( buffer != null ) )
+        {
+            write( buffer, ( int ) ( written.getAndIncrement() % capacity ), time, fingerprint );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void clear()
+    {
+        LOG.debug( "removing all the elements from cache" );
+        buckets.clear();
+
+        if ( mapped != null )
+        {
+            for ( int i = 0; i < capacity; i++ )
+            {
+                write( mapped, i, 0L, 0L );
+            }
+
+            written.set( 0L );
+        }
+    }
+
+
+    /**
+     * Writes the persistence file on disk and closes it. The in memory entries
+     * are kept.
+     *
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void close() throws IOException
+    {
+        if ( channel != null )
+        {
+            mapped.force();
+            mapped = null;
+            channel.close();
+            channel = null;
+        }
+    }
+
+
+    /**
+     * @return the number of entries in the cache, including the entries which
+     * are not yet purged
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for ( Set<Long> bucket : buckets.values() )
+        {
+            size += bucket.size();
+        }
+
+        return size;
+    }
+
+
+    /**
+     * @return the bucket of a client time
+     */
+    private long getBucket( long time )
+    {
+        return time / clockSkew;
+    }
+
+
+    /**
+     * Adds a fingerprint in its bucket.
+     *
+     * @return true if the fingerprint was not already present
+     */
+    private boolean add( long time, long fingerprint )
+    {
+        Long key = getBucket( time );
+        Set<Long> bucket = buckets.get( key );
+
+        if ( bucket == null )
+        {
+            Set<Long> newBucket = Collections.newSetFromMap( new ConcurrentHashMap<Long, Boolean>() );
+            bucket = buckets.putIfAbsent( key, newBucket );
+
+            if ( bucket == null )
+            {
+                bucket = newBucket;
+            }
+        }
+
+        return bucket.add( fingerprint );
+    }
+
+
+    /**
+     * Drops the buckets which only contain client times older than the clock
+     * skew. This is done once per bucket width, by the first thread which sees
+     * the new bucket.
+     */
+    private void purge( long now )
+    {
+        long first = getBucket( now - clockSkew );
+        long previous = firstBucket.get();
+
+        if ( ( first <= previous ) || !firstBucket.compareAndSet( previous, first ) )
+        {
+            return;
+        }
+
+        for ( Iterator<Long> it = buckets.keySet().iterator(); it.hasNext(); )
+        {
+            if ( it.next() < first )
+            {
+                it.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Computes the fingerprint of an authenticator : the first 8 bytes of the MD5
+     * digest of its server name, client name, client time and microseconds.
+     */
+    private static long fingerprint( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
+        long time, int clientMicroSeconds )
+    {
+        MessageDigest digest;
+
+        try
+        {
+            digest = CryptoCache.getMessageDigest( "MD5" );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            // MD5 is always available
+            throw new IllegalStateException( nsae );
+        }
+
+        digest.reset();
+        digest.update( Strings.getBytesUtf8( ( serverPrincipal == null ) ? "null" : serverPrincipal.getName() ) );
+        digest.update( ( byte ) '#' );
+        digest.update( Strings.getBytesUtf8( ( clientPrincipal == null ) ? "null" : clientPrincipal.getName() ) );
+        digest.update( ( byte ) '#' );
+
+        for ( int i = 56; i >= 0; i -= 8 )
+        {
+            digest.update( ( byte ) ( time >>> i ) );
+        }
+
+        for ( int i = 24; i >= 0; i -= 8 )
+        {
+            digest.update( ( byte ) ( clientMicroSeconds >>> i ) );
+        }
+
+        byte[] bytes = digest.digest();
+        long fingerprint = 0L;
+
+        for ( int i = 0; i < 8; i++ )
+        {
+            fingerprint = ( fingerprint << 8 ) | ( bytes[i] & 0xFFL );
+        }
+
+        return fingerprint;
+    }
+
+
+    /**
+     * Maps the persistence file, loading the entries it contains which are still
+     * within the clock skew. The file is then rewritten with only those entries.
+     */
+    private void open( File file ) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        channel = raf.getChannel();
+
+        long first = getBucket( System.currentTimeMillis() - clockSkew );
+        int loaded = 0;
+
+        if ( channel.size() >= HEADER_SIZE )
+        {
+            MappedByteBuffer previous = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            int previousCapacity = previous.getInt( 4 );
+
+            if ( ( previous.getInt( 0 ) != MAGIC ) || ( previousCapacity < 0 )
+                || ( HEADER_SIZE + ( long ) previousCapacity * RECORD_SIZE > channel.size() ) )
+            {
+                LOG.warn( "Ignoring the invalid replay cache file {}", file );
+            }
+            else
+            {
+                for ( int i = 0; i < previousCapacity; i++ )
+                {
+                    int position = HEADER_SIZE + i * RECORD_SIZE;
+                    long time = previous.getLong( position );
+
+                    if ( ( time != 0L ) && ( getBucket( time ) >= first )
+                        && add( time, previous.getLong( position + 8 ) ) )
+                    {
+                        loaded++;
+                    }
+                }
+            }
+        }
+
+        long size = HEADER_SIZE + ( long ) capacity * RECORD_SIZE;
+
+        if ( channel.size() > size )
+        {
+            channel.truncate( size );
+        }
+
+        MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, size );
+        buffer.putInt( 0, MAGIC );
+        buffer.putInt( 4, capacity );
+
+        // Rewrite the loaded entries from the beginning of the file. The fingerprints
+        // don't keep their client time : the start of their bucket is used instead
+        int slot = 0;
+
+        for ( Map.Entry<Long, Set<Long>> bucket : buckets.entrySet() )
+        {
+            long time = bucket.getKey() * clockSkew;
+
+            for ( Long fingerprint : bucket.getValue() )
+            {
+                if ( slot < capacity )
+                {
+                    write( buffer, slot++, time, fingerprint );
+                }
+            }
+        }
+
+        written.set( slot );
+
+        for ( int i = slot; i < capacity; i++ )
+        {
+            write( buffer, i, 0L, 0L );
+        }
+
+        mapped = buffer;
+
+        LOG.debug( "Loaded {} replay cache entries from {}", loaded, file );
+    }
+
+
+    /**
+     * Writes an entry in the persistence file. The threads write in distinct slots,
+     * with absolute puts, so they don't have to be synchronized.
+     */
+    private static void write( MappedByteBuffer buffer, int slot, long time, long fingerprint )
+    {
+        int position = HEADER_SIZE + slot * RECORD_SIZE;
+
+        buffer.putLong( position + 8, fingerprint );
+        buffer.putLong( position, time );
+    }
+}
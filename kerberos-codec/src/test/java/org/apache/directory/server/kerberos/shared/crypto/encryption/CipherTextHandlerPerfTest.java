@@ -0,0 +1,142 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import static org.junit.Assert.assertArrayEquals;
+
+import javax.security.auth.kerberos.KerberosKey;
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptedData;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * Performance tests for the encryption and the decryption of a ticket sized
+ * block of data, for each of the supported encryption types. 
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CipherTextHandlerPerfTest
+{
+    /** The size of the encrypted data, roughly the size of an encoded EncTicketPart */
+    private static final int TICKET_SIZE = 512;
+
+    /** The number of iterations done before measuring */
+    private static final int NB_WARMUP = 20000;
+
+    /** The number of measured iterations */
+    private static final int NB_ITERATIONS = 200000;
+
+
+    private void testPerf( String algorithm, EncryptionType encryptionType ) throws Exception
+    {
+        CipherTextHandler lockBox = new CipherTextHandler();
+        KerberosPrincipal principal = new KerberosPrincipal( "krbtgt/EXAMPLE.COM@EXAMPLE.COM" );
+        KerberosKey kerberosKey = new KerberosKey( principal, "secret".toCharArray(), algorithm );
+        EncryptionKey key = new EncryptionKey( encryptionType, kerberosKey.getEncoded() );
+
+        byte[] plainText = new byte[TICKET_SIZE];
+
+        for ( int i = 0; i < plainText.length; i++ )
+        {
+            plainText[i] = ( byte ) i;
+        }
+
+        for ( int i = 0; i < NB_WARMUP; i++ )
+        {
+            EncryptedData encrypted = lockBox.encrypt( key, plainText, KeyUsage.AS_OR_TGS_REP_TICKET_WITH_SRVKEY );
+            lockBox.decrypt( key, encrypted, KeyUsage.AS_OR_TGS_REP_TICKET_WITH_SRVKEY );
+        }
+
+        long t0 = System.nanoTime();
+        EncryptedData encrypted = null;
+
+        for ( int i = 0; i < NB_ITERATIONS; i++ )
+        {
+            encrypted = lockBox.encrypt( key, plainText, KeyUsage.AS_OR_TGS_REP_TICKET_WITH_SRVKEY );
+        }
+
+        long t1 = System.nanoTime();
+        byte[] decrypted = null;
+
+        for ( int i = 0; i < NB_ITERATIONS; i++ )
+        {
+            decrypted = lockBox.decrypt( key, encrypted, KeyUsage.AS_OR_TGS_REP_TICKET_WITH_SRVKEY );
+        }
+
+        long t2 = System.nanoTime();
+
+        if ( encryptionType != EncryptionType.DES_CBC_MD5 )
+        {
+            // DES pads the plain text
+            assertArrayEquals( plainText, decrypted );
+        }
+
+        System.out.println( encryptionType + " : encrypt " + ( NB_ITERATIONS * 1000000000L / ( t1 - t0 ) )
+            + " per s, decrypt " + ( NB_ITERATIONS * 1000000000L / ( t2 - t1 ) ) + " per s" );
+    }
+
+
+    @Test
+    @Ignore
+    public void testDesCbcMd5Perf() throws Exception
+    {
+        testPerf( "DES", EncryptionType.DES_CBC_MD5 );
+    }
+
+
+    @Test
+    @Ignore
+    public void testDes3CbcSha1KdPerf() throws Exception
+    {
+        testPerf( "DESede", EncryptionType.DES3_CBC_SHA1_KD );
+    }
+
+
+    @Test
+    @Ignore
+    public void testAes128CtsSha1Perf() throws Exception
+    {
+        if ( !VendorHelper.isCtsSupported() )
+        {
+            return;
+        }
+
+        testPerf( "AES128", EncryptionType.AES128_CTS_HMAC_SHA1_96 );
+    }
+
+
+    @Test
+    @Ignore
+    public void testAes256CtsSha1Perf() throws Exception
+    {
+        if ( !VendorHelper.isCtsSupported() )
+        {
+            return;
+        }
+
+        testPerf( "AES256", EncryptionType.AES256_CTS_HMAC_SHA1_96 );
+    }
+}
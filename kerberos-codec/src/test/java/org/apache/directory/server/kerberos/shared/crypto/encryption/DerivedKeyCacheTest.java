@@ -0,0 +1,83 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.junit.Test;
+
+
+/**
+ * Tests the DerivedKeyCache class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DerivedKeyCacheTest
+{
+    private static final byte[] BASE_KEY = new byte[]
+        { 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08 };
+
+    private static final byte[] USAGE = new byte[]
+        { 0x00, 0x00, 0x00, 0x02, ( byte ) 0xAA };
+
+    private static final byte[] DERIVED_KEY = new byte[]
+        { 0x11, 0x12, 0x13, 0x14 };
+
+
+    @Test
+    public void testGetPut()
+    {
+        DerivedKeyCache cache = new DerivedKeyCache( 10 );
+
+        assertNull( cache.get( EncryptionType.AES128_CTS_HMAC_SHA1_96, BASE_KEY, USAGE ) );
+
+        cache.put( EncryptionType.AES128_CTS_HMAC_SHA1_96, BASE_KEY, USAGE, DERIVED_KEY );
+
+        // The lookup is done on the content of the arrays, not on their reference
+        assertArrayEquals( DERIVED_KEY, cache.get( EncryptionType.AES128_CTS_HMAC_SHA1_96, BASE_KEY.clone(),
+            USAGE.clone() ) );
+
+        // Another encryption type or another usage must not match
+        assertNull( cache.get( EncryptionType.DES3_CBC_SHA1_KD, BASE_KEY, USAGE ) );
+        assertNull( cache.get( EncryptionType.AES128_CTS_HMAC_SHA1_96, BASE_KEY, new byte[]
+            { 0x00, 0x00, 0x00, 0x02, 0x55 } ) );
+    }
+
+
+    @Test
+    public void testMaxSize()
+    {
+        DerivedKeyCache cache = new DerivedKeyCache( 2 );
+
+        cache.put( EncryptionType.AES128_CTS_HMAC_SHA1_96, new byte[]
+            { 0x01 }, USAGE, DERIVED_KEY );
+        cache.put( EncryptionType.AES128_CTS_HMAC_SHA1_96, new byte[]
+            { 0x02 }, USAGE, DERIVED_KEY );
+        assertEquals( 2, cache.size() );
+
+        cache.put( EncryptionType.AES128_CTS_HMAC_SHA1_96, new byte[]
+            { 0x03 }, USAGE, DERIVED_KEY );
+        assertEquals( 1, cache.size() );
+    }
+}
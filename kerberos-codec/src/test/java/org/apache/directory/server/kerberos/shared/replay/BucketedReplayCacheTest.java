@@ -0,0 +1,168 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.replay;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.apache.directory.shared.kerberos.codec.types.PrincipalNameType;
+import org.junit.Test;
+
+
+/**
+ * Test the time bucketed replay cache
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BucketedReplayCacheTest
+{
+    private static final KerberosPrincipal SERVER = new KerberosPrincipal( "server@APACHE.ORG",
+        PrincipalNameType.KRB_NT_PRINCIPAL.getValue() );
+
+    private static final KerberosPrincipal CLIENT = new KerberosPrincipal( "client@APACHE.ORG",
+        PrincipalNameType.KRB_NT_PRINCIPAL.getValue() );
+
+
+    @Test
+    public void testReplay() throws Exception
+    {
+        BucketedReplayCache cache = new BucketedReplayCache( KerberosTime.MINUTE );
+        KerberosTime clientTime = new KerberosTime( System.currentTimeMillis() );
+
+        assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 0 ) );
+
+        cache.save( SERVER, CLIENT, clientTime, 0 );
+
+        assertTrue( cache.isReplay( SERVER, CLIENT, clientTime, 0 ) );
+        assertTrue( cache.isReplay( SERVER, CLIENT, new KerberosTime( clientTime.getTime() ), 0 ) );
+
+        // Any difference is not a replay
+        assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 1 ) );
+        assertFalse( cache.isReplay( CLIENT, SERVER, clientTime, 0 ) );
+        assertFalse( cache.isReplay( SERVER, CLIENT, new KerberosTime( clientTime.getTime() + 1000L ), 0 ) );
+
+        cache.clear();
+
+        assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 0 ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    /**
+     * The authenticators older than the clock skew are dropped. The Kerberos
+     * times are truncated to the second.
+     */
+    @Test
+    public void testExpiration() throws Exception
+    {
+        long clockSkew = 1500L;
+        BucketedReplayCache cache = new BucketedReplayCache( clockSkew );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            cache.save( SERVER, CLIENT, new KerberosTime( System.currentTimeMillis() ), i );
+        }
+
+        assertEquals( 10, cache.size() );
+
+        // An authenticator already outside the clock skew is not kept
+        cache.save( SERVER, CLIENT, new KerberosTime( System.currentTimeMillis() - 2 * clockSkew ), 0 );
+        assertEquals( 10, cache.size() );
+
+        Thread.sleep( 2 * clockSkew + 500L );
+
+        // The old buckets are dropped when a new entry is saved
+        KerberosTime clientTime = new KerberosTime( System.currentTimeMillis() );
+        cache.save( SERVER, CLIENT, clientTime, 0 );
+
+        assertEquals( 1, cache.size() );
+        assertTrue( cache.isReplay( SERVER, CLIENT, clientTime, 0 ) );
+    }
+
+
+    /**
+     * The authenticators saved in the persistence file are still known after a restart
+     */
+    @Test
+    public void testPersistence() throws Exception
+    {
+        File file = File.createTempFile( "replay", ".cache" );
+        file.delete();
+
+        try
+        {
+            KerberosTime clientTime = new KerberosTime( System.currentTimeMillis() );
+
+            BucketedReplayCache cache = new BucketedReplayCache( KerberosTime.MINUTE, file, 16 );
+
+            for ( int i = 0; i < 10; i++ )
+            {
+                cache.save( SERVER, CLIENT, clientTime, i );
+            }
+
+            cache.close();
+
+            cache = new BucketedReplayCache( KerberosTime.MINUTE, file, 16 );
+
+            assertEquals( 10, cache.size() );
+
+            for ( int i = 0; i < 10; i++ )
+            {
+                assertTrue( cache.isReplay( SERVER, CLIENT, clientTime, i ) );
+            }
+
+            assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 10 ) );
+
+            // Fill the file : the oldest entries are overwritten
+            for ( int i = 10; i < 20; i++ )
+            {
+                cache.save( SERVER, CLIENT, clientTime, i );
+            }
+
+            cache.close();
+
+            // A smaller file only keeps the first entries
+            cache = new BucketedReplayCache( KerberosTime.MINUTE, file, 8 );
+            assertEquals( 16, cache.size() );
+            cache.close();
+
+            cache = new BucketedReplayCache( KerberosTime.MINUTE, file, 8 );
+            assertEquals( 8, cache.size() );
+
+            cache.clear();
+            cache.close();
+
+            cache = new BucketedReplayCache( KerberosTime.MINUTE, file, 8 );
+            assertEquals( 0, cache.size() );
+            cache.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -94,6 +94,9 @@ public class MavibotPartition extends AbstractBTreePartition
     /** the entry cache */
     private Cache entryCache;
 
+    /** Tells if the record manager keeps the old revisions of the B-trees */
+    private boolean keepRevisions = false;
+
 
     public MavibotPartition( SchemaManager schemaManager, DnFactory dnFactory )
     {
@@ -154,6 +157,11 @@ public class MavibotPartition extends AbstractBTreePartition
 
             recordMan = new RecordManager( partitionDir.getPath() );
 
+            // The pages copied by a write are freed on commit unless the revisions are
+            // kept : a reader without the read lock could otherwise read a reused page
+            recordMan.setKeepRevisions( keepRevisions );
+            setOptimisticReads( keepRevisions );
+
             // Initialize the indexes
             super.doInit();
 
@@ -163,6 +171,9 @@ public class MavibotPartition extends AbstractBTreePartition
             Cache masterTableCache = cacheService.getCache( suffixDn.getName() );
             master = new MavibotMasterTable( recordMan, schemaManager, "master", masterTableCache.getCacheConfiguration().getMaxElementsInMemory() );
 
+            // The composite indexes are kept in memory : they are filled from the master table
+            buildCompositeIndexes();
+
             // get all index db files first
             File[] allIndexDbFiles = partitionDir.listFiles( DB_FILTER );
 
@@ -428,6 +439,30 @@ public class MavibotPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * Tells the record manager to keep the old revisions of the B-trees, so that the
+     * lookups can be done without the read lock. The file then grows with the writes,
+     * as the kept revisions are never reclaimed. Must be set before the partition is
+     * initialized.
+     *
+     * @param keepRevisions true if the old revisions are kept
+     */
+    public void setKeepRevisions( boolean keepRevisions )
+    {
+        checkInitialized( "keepRevisions" );
+        this.keepRevisions = keepRevisions;
+    }
+
+
+    /**
+     * @return true if the old revisions of the B-trees are kept
+     */
+    public boolean isKeepRevisions()
+    {
+        return keepRevisions;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -452,6 +487,8 @@ public class MavibotPartition extends AbstractBTreePartition
 
         Element el = entryCache.get( id );
 
+        recordEntryCacheAccess( el != null );
+
         if ( el != null )
         {
             return ( Entry ) el.getValue();
@@ -478,6 +515,18 @@ public class MavibotPartition extends AbstractBTreePartition
     }
 
 
+    @Override
+    protected void removeFromCache( String id )
+    {
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        entryCache.remove( id );
+    }
+
+
     @Override
     public void updateCache( OperationContext opCtx )
     {
@@ -0,0 +1,247 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.mavibot;
+
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * Measures the lookup throughput of a MavibotPartition while a writer keeps modifying
+ * its entries, with 1 to N reader threads, when the reads are done under the read lock
+ * and when they are done optimistically.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Ignore
+public class MavibotReadWritePerfTest
+{
+    /** The number of entries in the partition */
+    private static final int NB_ENTRIES = 2000;
+
+    /** The duration of a run, in milliseconds */
+    private static final long DURATION = 5000L;
+
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = MavibotReadWritePerfTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    /**
+     * Reads the entries with some reader threads while a writer modifies them
+     *
+     * @return The number of lookups per second
+     */
+    private long readWhileWriting( final boolean optimistic, int nbReaders ) throws Exception
+    {
+        File wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir.mkdirs();
+
+        final MavibotPartition partition = new MavibotPartition( schemaManager, dnFactory );
+        partition.setKeepRevisions( optimistic );
+        partition.setId( "perf" );
+        partition.setPartitionPath( wkdir.toURI() );
+        partition.setSyncOnWrite( false );
+        partition.setCacheSize( 0 );
+
+        Dn suffixDn = new Dn( schemaManager, "o=perf" );
+        partition.setSuffixDn( suffixDn );
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        try
+        {
+            StoreUtils.injectEntryInStore( partition, new DefaultEntry( schemaManager, suffixDn,
+                "objectClass: organization",
+                "o: perf" ), 1L );
+
+            for ( int i = 0; i < NB_ENTRIES; i++ )
+            {
+                StoreUtils.injectEntryInStore( partition, new DefaultEntry( schemaManager,
+                    "uid=user" + i + ",o=perf",
+                    "objectClass: inetOrgPerson",
+                    "uid: user" + i,
+                    "cn: user" + i,
+                    "sn: user" + i ), i + 2L );
+            }
+
+            final AtomicBoolean stopped = new AtomicBoolean();
+            final AtomicLong lookups = new AtomicLong();
+            final CountDownLatch done = new CountDownLatch( nbReaders + 1 );
+            final Lock writeLock = partition.getReadWriteLock().writeLock();
+            final AttributeType snAt = schemaManager.getAttributeType( SchemaConstants.SN_AT );
+
+            // The writer holds the write lock as the OperationManager does
+            Thread writer = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; !stopped.get(); i++ )
+                        {
+                            Dn dn = new Dn( schemaManager, "uid=user" + ( i % NB_ENTRIES ) + ",o=perf" );
+
+                            writeLock.lock();
+
+                            try
+                            {
+                                partition.modify( dn, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                                    snAt, "modified" + i ) );
+                            }
+                            finally
+                            {
+                                writeLock.unlock();
+                            }
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        e.printStackTrace();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            };
+
+            writer.start();
+
+            for ( int r = 0; r < nbReaders; r++ )
+            {
+                final int reader = r;
+
+                new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            long count = 0;
+
+                            for ( int i = reader; !stopped.get(); i++ )
+                            {
+                                assertNotNull( partition.fetch( Strings.getUUID( ( i % NB_ENTRIES ) + 2L ).toString() ) );
+                                count++;
+                            }
+
+                            lookups.addAndGet( count );
+                        }
+                        catch ( Exception e )
+                        {
+                            e.printStackTrace();
+                        }
+                        finally
+                        {
+                            done.countDown();
+                        }
+                    }
+                }.start();
+            }
+
+            Thread.sleep( DURATION );
+            stopped.set( true );
+            done.await();
+
+            return lookups.get() * 1000L / DURATION;
+        }
+        finally
+        {
+            partition.destroy();
+            FileUtils.deleteDirectory( wkdir );
+        }
+    }
+
+
+    @Test
+    public void testReadThroughput() throws Exception
+    {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        for ( int nbReaders = 1; nbReaders <= cores; nbReaders *= 2 )
+        {
+            long locked = readWhileWriting( false, nbReaders );
+            long optimistic = readWhileWriting( true, nbReaders );
+
+            System.out.println( nbReaders + " readers : " + locked + " lookups/s under the read lock, "
+                + optimistic + " lookups/s optimistic" );
+        }
+    }
+}
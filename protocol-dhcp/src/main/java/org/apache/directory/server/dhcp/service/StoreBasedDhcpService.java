@@ -287,6 +287,8 @@ public class StoreBasedDhcpService extends AbstractDhcpService
             // lease Ok, send ACK
             reply.getOptions().merge( lease.getOptions() );
 
+            reply.setMessageType( MessageType.DHCPACK );
+
             reply.setAssignedClientAddress( lease.getClientAddress() );
             reply.setNextServerAddress( lease.getNextServerAddress() );
 
@@ -116,7 +116,28 @@ public abstract class AbstractDhcpStore implements DhcpStore
 
         if ( null == lease )
         {
-            // FIXME: use selection base to find a lease in a pool.
+            // get an address from the pool of the subnet
+            InetAddress address = allocateAddress( subnet, hardwareAddress, requestedAddress );
+
+            if ( null != address )
+            {
+                Map properties = getProperties( subnet );
+
+                lease = new Lease();
+                lease.setAcquired( System.currentTimeMillis() );
+
+                long leaseTime = determineLeaseTime( requestedLeaseTime, properties );
+
+                lease.setExpires( System.currentTimeMillis() + leaseTime );
+                lease.setHardwareAddress( hardwareAddress );
+                lease.setState( Lease.STATE_NEW );
+                lease.setClientAddress( address );
+
+                // add subnet settings
+                OptionsField o = lease.getOptions();
+                o.add( new SubnetMask( subnet.getNetmask() ) );
+                o.merge( subnet.getOptions() );
+            }
         }
 
         // update the lease state
@@ -331,4 +352,21 @@ public abstract class AbstractDhcpStore implements DhcpStore
      * @return Subnet
      */
     protected abstract Subnet findSubnet( InetAddress clientAddress );
+
+
+    /**
+     * Allocate an address from the pool of a subnet, for a client without an
+     * existing lease nor a designated host. The requested address should be
+     * used if it's available. The default implementation has no pool.
+     * 
+     * @param subnet the subnet of the client
+     * @param hardwareAddress the hardware address of the client
+     * @param requestedAddress the address requested by the client, or <code>null</code>
+     * @return the allocated address, or <code>null</code> if no address is available
+     */
+    protected InetAddress allocateAddress( Subnet subnet, HardwareAddress hardwareAddress,
+        InetAddress requestedAddress )
+    {
+        return null;
+    }
 }
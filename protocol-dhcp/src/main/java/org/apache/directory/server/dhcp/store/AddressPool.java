@@ -0,0 +1,225 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.BitSet;
+
+
+/**
+ * The pool of the IPv4 addresses of a subnet, from its range minimum to its range
+ * maximum, or all the host addresses of the subnet if it has no range. The allocated
+ * addresses are flagged in a bitmap, and the search for a free address starts after
+ * the last allocated one, so the addresses are handed out in turn.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class AddressPool
+{
+    /** The subnet */
+    private final Subnet subnet;
+
+    /** The first address of the pool */
+    private final int first;
+
+    /** The number of addresses in the pool */
+    private final int size;
+
+    /** The allocated addresses, by offset from the first address */
+    private final BitSet allocated;
+
+    /** The number of allocated addresses */
+    private int nbAllocated;
+
+    /** The offset where the search for a free address starts */
+    private int next;
+
+
+    /**
+     * Creates the pool of a subnet.
+     *
+     * @param subnet the IPv4 subnet
+     */
+    AddressPool( Subnet subnet )
+    {
+        this.subnet = subnet;
+
+        int mask = toInt( subnet.getNetmask() );
+        int network = toInt( subnet.getAddress() ) & mask;
+        long min = subnet.getRangeMin() != null ? toLong( subnet.getRangeMin() ) : ( network & 0xFFFFFFFFL ) + 1;
+        long max = subnet.getRangeMax() != null ? toLong( subnet.getRangeMax() )
+            : ( ( network | ~mask ) & 0xFFFFFFFFL ) - 1;
+
+        first = ( int ) min;
+        size = ( int ) Math.max( 0L, Math.min( Integer.MAX_VALUE, max - min + 1 ) );
+        allocated = new BitSet( size );
+    }
+
+
+    /**
+     * @return the subnet of this pool
+     */
+    Subnet getSubnet()
+    {
+        return subnet;
+    }
+
+
+    /**
+     * Allocates an address.
+     *
+     * @param requestedAddress the address to use if it's free, or <code>null</code>
+     * @return the allocated address, or <code>null</code> if the pool is exhausted
+     */
+    synchronized InetAddress allocate( InetAddress requestedAddress )
+    {
+        int offset = getOffset( requestedAddress );
+
+        if ( ( offset < 0 ) || allocated.get( offset ) )
+        {
+            if ( nbAllocated == size )
+            {
+                return null;
+            }
+
+            offset = allocated.nextClearBit( next );
+
+            if ( offset >= size )
+            {
+                offset = allocated.nextClearBit( 0 );
+            }
+        }
+
+        allocated.set( offset );
+        nbAllocated++;
+        next = offset + 1 < size ? offset + 1 : 0;
+
+        return toAddress( offset );
+    }
+
+
+    /**
+     * Flags an address as allocated, when it's used by a lease which has not been
+     * allocated from the pool.
+     *
+     * @param address the address
+     * @return <code>false</code> if the address was already allocated, <code>true</code>
+     * if it's now allocated or if it's not in the pool
+     */
+    synchronized boolean reserve( InetAddress address )
+    {
+        int offset = getOffset( address );
+
+        if ( ( offset < 0 ) || allocated.get( offset ) )
+        {
+            return offset < 0;
+        }
+
+        allocated.set( offset );
+        nbAllocated++;
+
+        return true;
+    }
+
+
+    /**
+     * Releases an address.
+     *
+     * @param address the address
+     */
+    synchronized void release( InetAddress address )
+    {
+        int offset = getOffset( address );
+
+        if ( ( offset >= 0 ) && allocated.get( offset ) )
+        {
+            allocated.clear( offset );
+            nbAllocated--;
+        }
+    }
+
+
+    /**
+     * @return the number of free addresses
+     */
+    synchronized int getFreeCount()
+    {
+        return size - nbAllocated;
+    }
+
+
+    /**
+     * @return the offset of an address in the pool, or -1 if it's not in the pool
+     */
+    private int getOffset( InetAddress address )
+    {
+        if ( !( address instanceof Inet4Address ) )
+        {
+            return -1;
+        }
+
+        long offset = toLong( address ) - ( first & 0xFFFFFFFFL );
+
+        if ( ( offset < 0 ) || ( offset >= size ) )
+        {
+            return -1;
+        }
+
+        return ( int ) offset;
+    }
+
+
+    private InetAddress toAddress( int offset )
+    {
+        int value = first + offset;
+
+        try
+        {
+            return InetAddress.getByAddress( new byte[]
+                { ( byte ) ( value >>> 24 ), ( byte ) ( value >>> 16 ), ( byte ) ( value >>> 8 ), ( byte ) value } );
+        }
+        catch ( UnknownHostException uhe )
+        {
+            // Can't happen with a 4 bytes address
+            throw new IllegalStateException( uhe );
+        }
+    }
+
+
+    /**
+     * @return the value of an IPv4 address
+     */
+    static int toInt( InetAddress address )
+    {
+        byte[] bytes = address.getAddress();
+
+        return ( ( bytes[0] & 0xFF ) << 24 ) | ( ( bytes[1] & 0xFF ) << 16 ) | ( ( bytes[2] & 0xFF ) << 8 )
+            | ( bytes[3] & 0xFF );
+    }
+
+
+    private static long toLong( InetAddress address )
+    {
+        return toInt( address ) & 0xFFFFFFFFL;
+    }
+}
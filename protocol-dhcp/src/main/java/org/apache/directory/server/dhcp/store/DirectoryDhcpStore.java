@@ -0,0 +1,527 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.dhcp.DhcpException;
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.options.OptionsField;
+import org.apache.directory.server.dhcp.options.vendor.SubnetMask;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A DhcpStore using the embedded DirectoryService to find the hosts with a fixed
+ * address, and keeping the leases in memory.
+ * <br>
+ * The addresses of each subnet are allocated from a bitmap. The leases are kept in a
+ * concurrent map, and each change is written in a lease journal when a journal file is
+ * configured, so that the leases are recovered when the store is initialized. The
+ * expired leases are removed by a background task, and their addresses go back to
+ * the pool.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DirectoryDhcpStore extends AbstractDhcpStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger( DirectoryDhcpStore.class );
+
+    /** The default interval between two expiration sweeps, in milliseconds */
+    public static final long DEFAULT_SWEEP_INTERVAL = 60000L;
+
+    /** The filter used to find the host with a hardware address */
+    private static final String HOST_FILTER = "(&(objectClass=ipHost)(objectClass=ieee802Device)(macAddress=%s))";
+
+    /** The session used to search the hosts */
+    private final CoreSession session;
+
+    /** The base of the hosts search */
+    private final Dn searchBaseDn;
+
+    /** The address pools, by netmask and subnet address */
+    private final Map<Long, AddressPool> pools = new ConcurrentHashMap<Long, AddressPool>();
+
+    /** The pools of the subnets, to find the pool of a subnet found by the lookup */
+    private final Map<Subnet, AddressPool> subnetPools = new ConcurrentHashMap<Subnet, AddressPool>();
+
+    /** The netmasks of the subnets, the longest first */
+    private volatile int[] netmasks = new int[0];
+
+    /** The leases, by hardware address */
+    private final ConcurrentMap<HardwareAddress, Lease> leases = new ConcurrentHashMap<HardwareAddress, Lease>();
+
+    /** The lease journal file, if any */
+    private File journalFile;
+
+    /** The lease journal */
+    private LeaseJournal journal;
+
+    /** The interval between two expiration sweeps */
+    private long sweepInterval = DEFAULT_SWEEP_INTERVAL;
+
+    /** The executor running the expiration sweeps */
+    private ScheduledExecutorService sweeper;
+
+
+    /**
+     * Creates a new instance of DirectoryDhcpStore.
+     *
+     * @param session the session used to search the hosts with a fixed address, or
+     * <code>null</code> if there is no such host
+     * @param searchBaseDn the base of the hosts search
+     */
+    public DirectoryDhcpStore( CoreSession session, Dn searchBaseDn )
+    {
+        this.session = session;
+        this.searchBaseDn = searchBaseDn;
+    }
+
+
+    /**
+     * Adds an IPv4 subnet, and creates its address pool. The subnets must be added
+     * before the store is initialized.
+     *
+     * @param subnet the subnet
+     */
+    public synchronized void addSubnet( Subnet subnet )
+    {
+        if ( !( subnet.getAddress() instanceof Inet4Address ) )
+        {
+            throw new IllegalArgumentException( "Only the IPv4 subnets are supported : " + subnet.getAddress() );
+        }
+
+        int netmask = AddressPool.toInt( subnet.getNetmask() );
+        AddressPool pool = new AddressPool( subnet );
+        pools.put( getKey( netmask, AddressPool.toInt( subnet.getAddress() ) ), pool );
+        subnetPools.put( subnet, pool );
+
+        // The longest netmask first, so the most specific subnet is found first
+        TreeSet<Long> sorted = new TreeSet<Long>();
+
+        for ( int existing : netmasks )
+        {
+            sorted.add( -( existing & 0xFFFFFFFFL ) );
+        }
+
+        sorted.add( -( netmask & 0xFFFFFFFFL ) );
+        int[] newNetmasks = new int[sorted.size()];
+        int i = 0;
+
+        for ( long value : sorted )
+        {
+            newNetmasks[i++] = ( int ) -value;
+        }
+
+        netmasks = newNetmasks;
+    }
+
+
+    /**
+     * @param journalFile the lease journal file, or <code>null</code> to keep the leases only in memory
+     */
+    public void setJournalFile( File journalFile )
+    {
+        this.journalFile = journalFile;
+    }
+
+
+    /**
+     * @param sweepInterval the interval between two expiration sweeps, in milliseconds
+     */
+    public void setSweepInterval( long sweepInterval )
+    {
+        this.sweepInterval = sweepInterval;
+    }
+
+
+    /**
+     * Recovers the leases from the journal, and starts the expiration sweeps.
+     *
+     * @throws IOException if the journal can't be read or written
+     */
+    public void init() throws IOException
+    {
+        if ( journalFile != null )
+        {
+            journal = new LeaseJournal( journalFile );
+
+            for ( Lease lease : journal.recover( System.currentTimeMillis() ).values() )
+            {
+                AddressPool pool = findPool( lease.getClientAddress() );
+
+                if ( pool == null )
+                {
+                    LOG.warn( "Dropping the recovered lease {} : its subnet is not configured", lease );
+                    continue;
+                }
+
+                Subnet subnet = pool.getSubnet();
+                pool.reserve( lease.getClientAddress() );
+                OptionsField o = lease.getOptions();
+                o.add( new SubnetMask( subnet.getNetmask() ) );
+                o.merge( getOptions( subnet ) );
+                leases.put( lease.getHardwareAddress(), lease );
+            }
+
+            journal.open( leases.values() );
+            LOG.info( "Recovered {} DHCP leases from {}", leases.size(), journalFile );
+        }
+
+        if ( sweepInterval > 0 )
+        {
+            sweeper = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+            {
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "DhcpLeaseSweeper" );
+                    thread.setDaemon( true );
+
+                    return thread;
+                }
+            } );
+
+            sweeper.scheduleWithFixedDelay( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        expireLeases( System.currentTimeMillis() );
+                    }
+                    catch ( RuntimeException re )
+                    {
+                        LOG.error( "Failed to expire the DHCP leases", re );
+                    }
+                }
+            }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS );
+        }
+    }
+
+
+    /**
+     * Stops the expiration sweeps and closes the journal.
+     *
+     * @throws IOException if the journal can't be closed
+     */
+    public void destroy() throws IOException
+    {
+        if ( sweeper != null )
+        {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+
+        if ( journal != null )
+        {
+            journal.close();
+            journal = null;
+        }
+    }
+
+
+    /**
+     * Expires the leases which are no more valid, and frees their addresses.
+     *
+     * @param now the current time
+     * @return the number of expired leases
+     */
+    public int expireLeases( long now )
+    {
+        int nbExpired = 0;
+
+        for ( Lease lease : leases.values() )
+        {
+            if ( lease.getExpires() < now )
+            {
+                lease.setState( Lease.STATE_EXPIRED );
+                updateLease( lease );
+                nbExpired++;
+            }
+        }
+
+        if ( nbExpired > 0 )
+        {
+            LOG.debug( "{} DHCP leases expired", nbExpired );
+        }
+
+        return nbExpired;
+    }
+
+
+    /**
+     * @return the number of leases
+     */
+    public int getLeaseCount()
+    {
+        return leases.size();
+    }
+
+
+    /**
+     * @param subnet a subnet
+     * @return the number of free addresses of the subnet
+     */
+    public int getFreeAddressCount( Subnet subnet )
+    {
+        AddressPool pool = subnetPools.get( subnet );
+
+        return pool != null ? pool.getFreeCount() : 0;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Lease findExistingLease( HardwareAddress hardwareAddress, Lease existingLease )
+    {
+        Lease lease = leases.get( hardwareAddress );
+
+        return lease != null ? lease : existingLease;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Host findDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException
+    {
+        if ( session == null )
+        {
+            return null;
+        }
+
+        Cursor<Entry> cursor = null;
+
+        try
+        {
+            SearchRequest searchRequest = new SearchRequestImpl();
+            searchRequest.setBase( searchBaseDn );
+            searchRequest.setScope( SearchScope.SUBTREE );
+            searchRequest.setDerefAliases( AliasDerefMode.NEVER_DEREF_ALIASES );
+            searchRequest.setFilter( String.format( HOST_FILTER, hardwareAddress.getNativeRepresentation() ) );
+            searchRequest.addAttributes( SchemaConstants.CN_AT, "ipHostNumber" );
+            searchRequest.setSizeLimit( 1 );
+
+            cursor = session.search( searchRequest );
+
+            if ( cursor.next() )
+            {
+                Entry entry = cursor.get();
+                Attribute ipHostNumber = entry.get( "ipHostNumber" );
+
+                if ( ipHostNumber != null )
+                {
+                    InetAddress clientAddress = InetAddress.getByName( ipHostNumber.getString() );
+                    Attribute cn = entry.get( SchemaConstants.CN_AT );
+
+                    return new Host( cn != null ? cn.getString() : "unknown", clientAddress, hardwareAddress );
+                }
+            }
+
+            return null;
+        }
+        catch ( Exception e )
+        {
+            throw new DhcpException( "Can't lookup lease", e );
+        }
+        finally
+        {
+            if ( cursor != null )
+            {
+                try
+                {
+                    cursor.close();
+                }
+                catch ( Exception e )
+                {
+                    LOG.warn( "Failed to close the host cursor", e );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Subnet findSubnet( InetAddress clientAddress )
+    {
+        AddressPool pool = findPool( clientAddress );
+
+        return pool != null ? pool.getSubnet() : null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected InetAddress allocateAddress( Subnet subnet, HardwareAddress hardwareAddress,
+        InetAddress requestedAddress )
+    {
+        AddressPool pool = subnetPools.get( subnet );
+
+        if ( pool == null )
+        {
+            return null;
+        }
+
+        InetAddress address = pool.allocate( requestedAddress );
+
+        if ( address == null )
+        {
+            LOG.warn( "No more free address in the subnet {}", subnet.getAddress() );
+        }
+
+        return address;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void updateLease( Lease lease )
+    {
+        AddressPool pool = findPool( lease.getClientAddress() );
+
+        switch ( lease.getState() )
+        {
+            case Lease.STATE_RELEASED:
+            case Lease.STATE_EXPIRED:
+                // The address may be reused once the lease is gone
+                if ( leases.remove( lease.getHardwareAddress(), lease ) && ( pool != null ) )
+                {
+                    pool.release( lease.getClientAddress() );
+                }
+
+                break;
+
+            default:
+                Lease previous = leases.put( lease.getHardwareAddress(), lease );
+                InetAddress previousAddress = ( previous != null ) ? previous.getClientAddress() : null;
+                boolean isNewAddress = !lease.getClientAddress().equals( previousAddress );
+
+                if ( ( previousAddress != null ) && isNewAddress )
+                {
+                    // The client has been given another address, its previous one may be reused
+                    AddressPool previousPool = findPool( previousAddress );
+
+                    if ( previousPool != null )
+                    {
+                        previousPool.release( previousAddress );
+                    }
+                }
+
+                if ( isNewAddress && ( pool != null ) && !pool.reserve( lease.getClientAddress() )
+                    && ( lease.getState() != Lease.STATE_OFFERED ) )
+                {
+                    LOG.warn( "The address of the lease {} is already allocated", lease );
+                }
+        }
+
+        if ( journal != null )
+        {
+            try
+            {
+                journal.append( lease );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.error( "Failed to write the lease in the journal", ioe );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected OptionsField getOptions( DhcpConfigElement element )
+    {
+        // we don't have groups, classes, etc. yet.
+        return element.getOptions();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Map getProperties( DhcpConfigElement element )
+    {
+        // we don't have groups, classes, etc. yet.
+        return element.getProperties();
+    }
+
+
+    /**
+     * Finds the pool of the most specific subnet containing an address
+     */
+    private AddressPool findPool( InetAddress address )
+    {
+        if ( !( address instanceof Inet4Address ) )
+        {
+            return null;
+        }
+
+        int value = AddressPool.toInt( address );
+
+        for ( int netmask : netmasks )
+        {
+            AddressPool pool = pools.get( getKey( netmask, value ) );
+
+            if ( pool != null )
+            {
+                return pool;
+            }
+        }
+
+        return null;
+    }
+
+
+    private static Long getKey( int netmask, int address )
+    {
+        return ( ( netmask & 0xFFFFFFFFL ) << 32 ) | ( address & netmask & 0xFFFFFFFFL );
+    }
+}
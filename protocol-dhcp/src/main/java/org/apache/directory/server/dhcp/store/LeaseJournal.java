@@ -0,0 +1,288 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An append-only file where each change of a lease is written, so that the leases
+ * can be recovered when the server is restarted. Each record contains :
+ * <ul>
+ * <li>int : the lease state</li>
+ * <li>long : the acquisition time</li>
+ * <li>long : the expiration time</li>
+ * <li>short, short, int, byte[] : the hardware address type, length, and bytes</li>
+ * <li>int, byte[] : the client address bytes</li>
+ * </ul>
+ * The journal is compacted when it's opened : only the live leases are kept.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class LeaseJournal
+{
+    private static final Logger LOG = LoggerFactory.getLogger( LeaseJournal.class );
+
+    /** The maximum length of an address in a record */
+    private static final int MAX_ADDRESS_LENGTH = 255;
+
+    /** The journal file */
+    private final File file;
+
+    /** The stream used to append the records */
+    private DataOutputStream out;
+
+
+    /**
+     * Creates a journal.
+     *
+     * @param file the journal file
+     */
+    LeaseJournal( File file )
+    {
+        this.file = file;
+    }
+
+
+    /**
+     * Reads the journal, and returns the leases which are still valid.
+     *
+     * @param now the current time
+     * @return the valid leases, by hardware address
+     * @throws IOException if the journal can't be read
+     */
+    Map<HardwareAddress, Lease> recover( long now ) throws IOException
+    {
+        Map<HardwareAddress, Lease> leases = new HashMap<HardwareAddress, Lease>();
+        File journal = file;
+
+        if ( !journal.exists() )
+        {
+            // The server may have stopped after the journal was deleted by a compaction, and
+            // before the compacted journal, which was then complete, was renamed
+            journal = getCompactedFile();
+
+            if ( !journal.exists() )
+            {
+                return leases;
+            }
+
+            LOG.info( "Recovering the leases from the compacted journal {}", journal );
+        }
+
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( journal ) ) );
+        int nbRecords = 0;
+
+        try
+        {
+            while ( true )
+            {
+                Lease lease = readLease( in );
+                leases.put( lease.getHardwareAddress(), lease );
+                nbRecords++;
+            }
+        }
+        catch ( EOFException eofe )
+        {
+            // The end of the journal, or a record partially written when the server stopped
+            LOG.debug( "End of the lease journal : {}", eofe.getMessage() );
+        }
+        finally
+        {
+            in.close();
+        }
+
+        for ( Iterator<Lease> it = leases.values().iterator(); it.hasNext(); )
+        {
+            Lease lease = it.next();
+
+            if ( ( lease.getState() == Lease.STATE_RELEASED ) || ( lease.getState() == Lease.STATE_EXPIRED )
+                || ( lease.getExpires() < now ) )
+            {
+                it.remove();
+            }
+        }
+
+        LOG.debug( "Recovered {} leases from {} records", leases.size(), nbRecords );
+
+        return leases;
+    }
+
+
+    /**
+     * Opens the journal for appending, after having rewritten it with the given leases.
+     *
+     * @param leases the live leases
+     * @throws IOException if the journal can't be written
+     */
+    synchronized void open( Collection<Lease> leases ) throws IOException
+    {
+        File compacted = getCompactedFile();
+        FileOutputStream fos = new FileOutputStream( compacted );
+        DataOutputStream tmp = new DataOutputStream( new BufferedOutputStream( fos ) );
+
+        try
+        {
+            for ( Lease lease : leases )
+            {
+                writeLease( tmp, lease );
+            }
+
+            // The compacted journal must be complete on disk before the journal is deleted
+            tmp.flush();
+            fos.getFD().sync();
+        }
+        finally
+        {
+            tmp.close();
+        }
+
+        if ( file.exists() && !file.delete() )
+        {
+            throw new IOException( "Cannot delete the lease journal " + file );
+        }
+
+        if ( !compacted.renameTo( file ) )
+        {
+            throw new IOException( "Cannot rename the lease journal " + compacted );
+        }
+
+        out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true ) ) );
+    }
+
+
+    /**
+     * @return the file the journal is compacted into before it replaces the journal
+     */
+    private File getCompactedFile()
+    {
+        return new File( file.getPath() + ".tmp" );
+    }
+
+
+    /**
+     * Appends a lease to the journal.
+     *
+     * @param lease the lease
+     * @throws IOException if the lease can't be written
+     */
+    synchronized void append( Lease lease ) throws IOException
+    {
+        if ( out != null )
+        {
+            writeLease( out, lease );
+            out.flush();
+        }
+    }
+
+
+    /**
+     * Closes the journal.
+     *
+     * @throws IOException if the journal can't be closed
+     */
+    synchronized void close() throws IOException
+    {
+        if ( out != null )
+        {
+            out.close();
+            out = null;
+        }
+    }
+
+
+    private static void writeLease( DataOutputStream out, Lease lease ) throws IOException
+    {
+        HardwareAddress hardwareAddress = lease.getHardwareAddress();
+        byte[] clientAddress = lease.getClientAddress().getAddress();
+
+        out.writeInt( lease.getState() );
+        out.writeLong( lease.getAcquired() );
+        out.writeLong( lease.getExpires() );
+        out.writeShort( hardwareAddress.getType() );
+        out.writeShort( hardwareAddress.getLength() );
+        out.writeInt( hardwareAddress.getAddress().length );
+        out.write( hardwareAddress.getAddress() );
+        out.writeInt( clientAddress.length );
+        out.write( clientAddress );
+    }
+
+
+    private static Lease readLease( DataInputStream in ) throws IOException
+    {
+        Lease lease = new Lease();
+
+        lease.setState( in.readInt() );
+        lease.setAcquired( in.readLong() );
+        lease.setExpires( in.readLong() );
+
+        short type = in.readShort();
+        short length = in.readShort();
+        lease.setHardwareAddress( new HardwareAddress( type, length, readBytes( in ) ) );
+
+        byte[] clientAddress = readBytes( in );
+
+        if ( ( clientAddress.length != 4 ) && ( clientAddress.length != 16 ) )
+        {
+            // Neither an IPv4 nor an IPv6 address : a corrupted record
+            throw new EOFException( "Invalid client address length " + clientAddress.length );
+        }
+
+        lease.setClientAddress( InetAddress.getByAddress( clientAddress ) );
+
+        return lease;
+    }
+
+
+    private static byte[] readBytes( DataInputStream in ) throws IOException
+    {
+        int length = in.readInt();
+
+        if ( ( length < 0 ) || ( length > MAX_ADDRESS_LENGTH ) )
+        {
+            // A corrupted record : stop there
+            throw new EOFException( "Invalid address length " + length );
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+
+        return bytes;
+    }
+}
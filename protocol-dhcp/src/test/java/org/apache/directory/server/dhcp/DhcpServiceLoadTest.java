@@ -0,0 +1,196 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.dhcp.messages.DhcpMessage;
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.messages.MessageType;
+import org.apache.directory.server.dhcp.options.dhcp.RequestedIpAddress;
+import org.apache.directory.server.dhcp.service.DhcpService;
+import org.apache.directory.server.dhcp.service.StoreBasedDhcpService;
+import org.apache.directory.server.dhcp.store.DirectoryDhcpStore;
+import org.apache.directory.server.dhcp.store.Subnet;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * Pushes DISCOVER, REQUEST and RELEASE messages at a DhcpService backed by a
+ * DirectoryDhcpStore, from a few client threads, and measures the number of
+ * address assignments per second.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Ignore
+public class DhcpServiceLoadTest
+{
+    /** The number of clients simulated by each thread */
+    private static final int NB_CLIENTS = 1000;
+
+    /** The duration of a run, in milliseconds */
+    private static final long DURATION = 5000L;
+
+
+    private DhcpMessage createMessage( MessageType type, HardwareAddress hardwareAddress, int transactionId,
+        InetAddress relayAgentAddress ) throws Exception
+    {
+        DhcpMessage message = new DhcpMessage();
+        message.setOp( DhcpMessage.OP_BOOTREQUEST );
+        message.setMessageType( type );
+        message.setHardwareAddress( hardwareAddress );
+        message.setTransactionId( transactionId );
+        message.setCurrentClientAddress( InetAddress.getByName( "0.0.0.0" ) );
+        message.setRelayAgentAddress( relayAgentAddress );
+
+        return message;
+    }
+
+
+    /**
+     * Runs the clients against a service
+     *
+     * @return The number of assigned addresses per second
+     */
+    private long run( final DhcpService service, final int nbThreads ) throws Exception
+    {
+        final InetSocketAddress localAddress = new InetSocketAddress( InetAddress.getByName( "10.0.0.1" ), 67 );
+        final InetSocketAddress clientAddress = new InetSocketAddress( InetAddress.getByName( "10.0.0.2" ), 68 );
+        final InetAddress relayAgentAddress = InetAddress.getByName( "10.0.0.254" );
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicLong acks = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch( nbThreads );
+
+        for ( int t = 0; t < nbThreads; t++ )
+        {
+            final int thread = t;
+
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; !stopped.get(); i++ )
+                        {
+                            int client = i % NB_CLIENTS;
+                            HardwareAddress hardwareAddress = new HardwareAddress( ( short ) 1, ( short ) 6,
+                                new byte[]
+                                    { 0, 1, ( byte ) thread, ( byte ) ( client >> 16 ), ( byte ) ( client >> 8 ),
+                                        ( byte ) client } );
+
+                            DhcpMessage offer = service.getReplyFor( localAddress, clientAddress,
+                                createMessage( MessageType.DHCPDISCOVER, hardwareAddress, i, relayAgentAddress ) );
+
+                            if ( ( offer == null ) || ( offer.getMessageType() != MessageType.DHCPOFFER ) )
+                            {
+                                failures.incrementAndGet();
+                                continue;
+                            }
+
+                            DhcpMessage request = createMessage( MessageType.DHCPREQUEST, hardwareAddress, i,
+                                relayAgentAddress );
+                            RequestedIpAddress requestedAddress = new RequestedIpAddress();
+                            requestedAddress.setAddress( offer.getAssignedClientAddress() );
+                            request.getOptions().add( requestedAddress );
+                            DhcpMessage ack = service.getReplyFor( localAddress, clientAddress, request );
+
+                            if ( ( ack == null ) || ( ack.getMessageType() != MessageType.DHCPACK ) )
+                            {
+                                failures.incrementAndGet();
+                                continue;
+                            }
+
+                            acks.incrementAndGet();
+
+                            // Give the address back once in a while
+                            if ( ( i / NB_CLIENTS ) % 2 == 1 )
+                            {
+                                DhcpMessage release = createMessage( MessageType.DHCPRELEASE, hardwareAddress, i,
+                                    relayAgentAddress );
+                                release.setCurrentClientAddress( ack.getAssignedClientAddress() );
+                                service.getReplyFor( localAddress, clientAddress, release );
+                            }
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        e.printStackTrace();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        Thread.sleep( DURATION );
+        stopped.set( true );
+        done.await();
+
+        assertEquals( 0L, failures.get() );
+
+        return acks.get() * 1000L / DURATION;
+    }
+
+
+    @Test
+    public void testLoad() throws Exception
+    {
+        File journalFile = File.createTempFile( "leases", ".journal" );
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        for ( int nbThreads = 1; nbThreads <= cores; nbThreads *= 2 )
+        {
+            journalFile.delete();
+
+            DirectoryDhcpStore store = new DirectoryDhcpStore( null, null );
+            store.addSubnet( new Subnet( InetAddress.getByName( "10.0.0.0" ), InetAddress.getByName( "255.255.0.0" ),
+                null, null ) );
+            store.setJournalFile( journalFile );
+            store.init();
+
+            try
+            {
+                long rate = run( new StoreBasedDhcpService( store ), nbThreads );
+
+                System.out.println( nbThreads + " threads : " + rate + " assignments/s, " + store.getLeaseCount()
+                    + " leases" );
+            }
+            finally
+            {
+                store.destroy();
+            }
+        }
+
+        journalFile.delete();
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.options.OptionsField;
+import org.apache.directory.server.dhcp.options.vendor.SubnetMask;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the address pools, the lease journal and the lease expiration of the
+ * DirectoryDhcpStore. The hosts with a fixed address are not searched.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DirectoryDhcpStoreTest
+{
+    /** The number of addresses in the subnet range */
+    private static final int RANGE_SIZE = 21;
+
+    private Subnet subnet;
+    private InetAddress selectionBase;
+    private File journalFile;
+    private DirectoryDhcpStore store;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        subnet = new Subnet( InetAddress.getByName( "192.168.168.0" ), InetAddress.getByName( "255.255.255.0" ),
+            InetAddress.getByName( "192.168.168.159" ), InetAddress.getByName( "192.168.168.179" ) );
+        selectionBase = InetAddress.getByName( "192.168.168.1" );
+
+        journalFile = File.createTempFile( "leases", ".journal" );
+        journalFile.delete();
+
+        store = createStore();
+    }
+
+
+    @After
+    public void destroy() throws Exception
+    {
+        store.destroy();
+        journalFile.delete();
+        new File( journalFile.getPath() + ".tmp" ).delete();
+    }
+
+
+    private DirectoryDhcpStore createStore() throws Exception
+    {
+        DirectoryDhcpStore dhcpStore = new DirectoryDhcpStore( null, null );
+        dhcpStore.addSubnet( subnet );
+        dhcpStore.setJournalFile( journalFile );
+        dhcpStore.setSweepInterval( 0L );
+        dhcpStore.init();
+
+        return dhcpStore;
+    }
+
+
+    private HardwareAddress getHardwareAddress( int i )
+    {
+        return new HardwareAddress( ( short ) 1, ( short ) 6, new byte[]
+            { 0, 1, 2, 3, ( byte ) ( i >> 8 ), ( byte ) i } );
+    }
+
+
+    private Lease offer( int i, InetAddress requestedAddress ) throws Exception
+    {
+        return store.getLeaseOffer( getHardwareAddress( i ), requestedAddress, selectionBase, -1L,
+            new OptionsField() );
+    }
+
+
+    private Lease request( int i, InetAddress requestedAddress ) throws Exception
+    {
+        return store.getExistingLease( getHardwareAddress( i ), requestedAddress, selectionBase, -1L,
+            new OptionsField() );
+    }
+
+
+    @Test
+    public void testAllocation() throws Exception
+    {
+        Set<InetAddress> addresses = new HashSet<InetAddress>();
+
+        for ( int i = 0; i < RANGE_SIZE; i++ )
+        {
+            Lease lease = offer( i, null );
+
+            assertNotNull( lease );
+            assertEquals( Lease.STATE_OFFERED, lease.getState() );
+            assertTrue( subnet.isInRange( lease.getClientAddress() ) );
+            addresses.add( lease.getClientAddress() );
+        }
+
+        assertEquals( RANGE_SIZE, addresses.size() );
+        assertEquals( 0, store.getFreeAddressCount( subnet ) );
+
+        // The pool is exhausted
+        assertNull( offer( RANGE_SIZE, null ) );
+
+        // An existing lease is offered again
+        assertEquals( offer( 0, null ).getClientAddress(), offer( 0, null ).getClientAddress() );
+    }
+
+
+    @Test
+    public void testRequestedAddress() throws Exception
+    {
+        InetAddress requested = InetAddress.getByName( "192.168.168.170" );
+
+        assertEquals( requested, offer( 0, requested ).getClientAddress() );
+
+        // Already allocated : another address is offered
+        Lease lease = offer( 1, requested );
+        assertTrue( !requested.equals( lease.getClientAddress() ) );
+
+        // Out of the subnet : another address is offered
+        lease = offer( 2, InetAddress.getByName( "10.0.0.1" ) );
+        assertTrue( subnet.isInRange( lease.getClientAddress() ) );
+
+        // A request for another address is refused
+        assertNull( request( 2, requested ) );
+
+        lease = request( 2, lease.getClientAddress() );
+        assertEquals( Lease.STATE_ACTIVE, lease.getState() );
+    }
+
+
+    @Test
+    public void testRelease() throws Exception
+    {
+        Lease lease = request( 0, offer( 0, null ).getClientAddress() );
+
+        assertEquals( 1, store.getLeaseCount() );
+        assertEquals( RANGE_SIZE - 1, store.getFreeAddressCount( subnet ) );
+
+        store.releaseLease( lease );
+
+        assertEquals( 0, store.getLeaseCount() );
+        assertEquals( RANGE_SIZE, store.getFreeAddressCount( subnet ) );
+    }
+
+
+    @Test
+    public void testNewAddress() throws Exception
+    {
+        InetAddress previousAddress = InetAddress.getByName( "192.168.168.170" );
+        InetAddress address = InetAddress.getByName( "192.168.168.171" );
+
+        request( 0, offer( 0, previousAddress ).getClientAddress() );
+        assertEquals( RANGE_SIZE - 1, store.getFreeAddressCount( subnet ) );
+
+        // The client is leased another address
+        Lease lease = new Lease();
+        lease.setHardwareAddress( getHardwareAddress( 0 ) );
+        lease.setClientAddress( address );
+        lease.setState( Lease.STATE_ACTIVE );
+        lease.setAcquired( System.currentTimeMillis() );
+        lease.setExpires( System.currentTimeMillis() + 3600 * 1000L );
+        store.updateLease( lease );
+
+        assertEquals( 1, store.getLeaseCount() );
+        assertEquals( RANGE_SIZE - 1, store.getFreeAddressCount( subnet ) );
+
+        // The previous address can be offered to another client, and the new one can't
+        assertEquals( previousAddress, offer( 1, previousAddress ).getClientAddress() );
+        assertTrue( !address.equals( offer( 2, address ).getClientAddress() ) );
+        assertEquals( RANGE_SIZE - 3, store.getFreeAddressCount( subnet ) );
+    }
+
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            offer( i, null );
+        }
+
+        assertEquals( 0, store.expireLeases( System.currentTimeMillis() ) );
+        assertEquals( 10, store.getLeaseCount() );
+
+        // The leases are valid for an hour
+        assertEquals( 10, store.expireLeases( System.currentTimeMillis() + 2 * 3600 * 1000L ) );
+        assertEquals( 0, store.getLeaseCount() );
+        assertEquals( RANGE_SIZE, store.getFreeAddressCount( subnet ) );
+    }
+
+
+    @Test
+    public void testJournalRecovery() throws Exception
+    {
+        InetAddress[] addresses = new InetAddress[3];
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            addresses[i] = request( i, offer( i, null ).getClientAddress() ).getClientAddress();
+        }
+
+        store.releaseLease( request( 1, addresses[1] ) );
+        store.destroy();
+
+        // Restart
+        store = createStore();
+
+        assertEquals( 2, store.getLeaseCount() );
+        assertEquals( RANGE_SIZE - 2, store.getFreeAddressCount( subnet ) );
+
+        Lease lease = request( 0, addresses[0] );
+        assertNotNull( lease );
+        assertNotNull( lease.getOptions().get( SubnetMask.class ) );
+        assertEquals( addresses[2], offer( 2, null ).getClientAddress() );
+
+        // The released lease is not recovered
+        assertNull( request( 1, addresses[1] ) );
+    }
+
+
+    @Test
+    public void testRecoveryFromCompactedJournal() throws Exception
+    {
+        for ( int i = 0; i < 3; i++ )
+        {
+            request( i, offer( i, null ).getClientAddress() );
+        }
+
+        store.destroy();
+
+        // The server stopped after the journal was deleted, before the compacted one was renamed
+        assertTrue( journalFile.renameTo( new File( journalFile.getPath() + ".tmp" ) ) );
+
+        store = createStore();
+
+        assertEquals( 3, store.getLeaseCount() );
+        assertTrue( journalFile.exists() );
+    }
+
+
+    @Test
+    public void testTornClientAddress() throws Exception
+    {
+        for ( int i = 0; i < 2; i++ )
+        {
+            request( i, offer( i, null ).getClientAddress() );
+        }
+
+        store.destroy();
+
+        // A record with a client address of an invalid length
+        DataOutputStream out = new DataOutputStream( new FileOutputStream( journalFile, true ) );
+
+        try
+        {
+            out.writeInt( Lease.STATE_ACTIVE );
+            out.writeLong( System.currentTimeMillis() );
+            out.writeLong( System.currentTimeMillis() + 3600000L );
+            out.writeShort( 1 );
+            out.writeShort( 6 );
+            out.writeInt( 6 );
+            out.write( new byte[]
+                { 0, 1, 2, 3, 4, 5 } );
+            out.writeInt( 3 );
+            out.write( new byte[]
+                { ( byte ) 192, ( byte ) 168, ( byte ) 168 } );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        store = createStore();
+
+        assertEquals( 2, store.getLeaseCount() );
+    }
+}
@@ -24,6 +24,7 @@ import java.io.IOException;
 
 import org.apache.directory.server.dns.protocol.DnsProtocolHandler;
 import org.apache.directory.server.dns.store.RecordStore;
+import org.apache.directory.server.dns.store.cache.CachingRecordStore;
 import org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.Transport;
@@ -57,6 +58,15 @@ public class DnsServer extends DirectoryBackedService
     /** The default service name. */
     private static final String SERVICE_NAME_DEFAULT = "ApacheDS DNS Service";
 
+    /** Tells if the records are served from memory instead of being searched in the directory */
+    private boolean recordCacheEnabled = false;
+
+    /** The store used to lookup the records. Created when the server starts if not set */
+    private RecordStore store;
+
+    /** Tells if the store has been created by the server, and must be released when it stops */
+    private boolean storeCreated = false;
+
 
     /**
      * Creates a new instance of DnsConfiguration.
@@ -73,7 +83,19 @@ public class DnsServer extends DirectoryBackedService
      */
     public void start() throws IOException
     {
-        RecordStore store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
+        if ( store == null )
+        {
+            if ( recordCacheEnabled )
+            {
+                store = new CachingRecordStore( getSearchBaseDn(), getDirectoryService() );
+            }
+            else
+            {
+                store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
+            }
+
+            storeCreated = true;
+        }
 
         if ( ( transports == null ) || ( transports.size() == 0 ) )
         {
@@ -141,10 +163,64 @@ public class DnsServer extends DirectoryBackedService
             }
         }
 
+        if ( storeCreated )
+        {
+            if ( store instanceof CachingRecordStore )
+            {
+                ( ( CachingRecordStore ) store ).destroy();
+            }
+
+            store = null;
+            storeCreated = false;
+        }
+
         LOG.info( "DNS service stopped." );
     }
 
 
+    /**
+     * @return true if the records are served from memory
+     */
+    public boolean isRecordCacheEnabled()
+    {
+        return recordCacheEnabled;
+    }
+
+
+    /**
+     * Enables or disables the in-memory record cache. When enabled, all the records
+     * are loaded from the directory when the server starts, and kept in sync with the
+     * directory changes, instead of being searched for each question.
+     *
+     * @param recordCacheEnabled true to serve the records from memory
+     */
+    public void setRecordCacheEnabled( boolean recordCacheEnabled )
+    {
+        this.recordCacheEnabled = recordCacheEnabled;
+    }
+
+
+    /**
+     * @return The store used to lookup the records
+     */
+    public RecordStore getRecordStore()
+    {
+        return store;
+    }
+
+
+    /**
+     * Sets the store used to lookup the records. If not set, the store will
+     * be created from the DirectoryService when the server starts.
+     *
+     * @param store The store to use
+     */
+    public void setRecordStore( RecordStore store )
+    {
+        this.store = store;
+    }
+
+
     /**
      * @see Object#toString()
      */
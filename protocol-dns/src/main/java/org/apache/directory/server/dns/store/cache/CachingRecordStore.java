@@ -0,0 +1,420 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.store.cache;
+
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordModifier;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.apache.directory.server.dns.store.RecordStore;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.protocol.shared.ServiceConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A RecordStore serving the resource records from memory. All the records stored
+ * under the search base are loaded once into a {@link ZoneIndex}, so that a question
+ * is answered without any search in the directory. The index is kept up to date by a
+ * listener on the directory changes : each change only replaces the answers of the
+ * modified names. A full reload builds a new index, which replaces the current one
+ * atomically.
+ * <br>
+ * Unlike the {@link org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl},
+ * which returns all the records of the requested type found in the subtree of the
+ * requested name, this store returns the records whose name is exactly the requested one.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CachingRecordStore implements RecordStore
+{
+    /** the LOG for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( CachingRecordStore.class );
+
+    /** The default record class */
+    private static final String DEFAULT_CLASS = "IN";
+
+    /** The default TTL, the SOA minimum */
+    private static final String DEFAULT_TTL = "86400";
+
+    /** The mapping between the record objectClasses and the record types */
+    private static final Map<String, RecordType> OBJECTCLASS_TO_TYPE;
+
+    static
+    {
+        Map<String, RecordType> objectClassToType = new HashMap<String, RecordType>();
+        objectClassToType.put( "apachednsstartofauthorityrecord", RecordType.SOA );
+        objectClassToType.put( "apachednsaddressrecord", RecordType.A );
+        objectClassToType.put( "apachednsnameserverrecord", RecordType.NS );
+        objectClassToType.put( "apachednscanonicalnamerecord", RecordType.CNAME );
+        objectClassToType.put( "apachednspointerrecord", RecordType.PTR );
+        objectClassToType.put( "apachednsmailexchangerecord", RecordType.MX );
+        objectClassToType.put( "apachednsservicerecord", RecordType.SRV );
+        objectClassToType.put( "apachednstextrecord", RecordType.TXT );
+        objectClassToType.put( "apachednsreferralnameserver", RecordType.NS );
+        objectClassToType.put( "apachednsreferraladdress", RecordType.A );
+
+        OBJECTCLASS_TO_TYPE = Collections.unmodifiableMap( objectClassToType );
+    }
+
+    /** The DirectoryService the records are read from */
+    private final DirectoryService directoryService;
+
+    /** The base of the zones */
+    private final Dn zoneDn;
+
+    /** The listener updating the index */
+    private final ZoneListener listener = new ZoneListener();
+
+    /** The current index */
+    private volatile ZoneIndex index = new ZoneIndex();
+
+
+    /**
+     * Creates a new instance of CachingRecordStore, and loads all the records
+     * stored under the search base.
+     *
+     * @param searchBaseDn The base of the zones
+     * @param directoryService The DirectoryService the records are read from
+     */
+    public CachingRecordStore( String searchBaseDn, DirectoryService directoryService )
+    {
+        this.directoryService = directoryService;
+
+        try
+        {
+            zoneDn = new Dn( directoryService.getSchemaManager(), searchBaseDn );
+
+            NotificationCriteria criteria = new NotificationCriteria();
+            criteria.setBase( zoneDn );
+            criteria.setScope( SearchScope.SUBTREE );
+            directoryService.getEventService().addListener( listener, criteria );
+
+            reload();
+        }
+        catch ( Exception e )
+        {
+            throw new ServiceConfigurationException( I18n.err( I18n.ERR_649, searchBaseDn ), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+    {
+        return index.getRecords( question );
+    }
+
+
+    /**
+     * Stops listening to the directory changes.
+     */
+    public void destroy()
+    {
+        directoryService.getEventService().removeListener( listener );
+    }
+
+
+    /**
+     * @return The number of records currently loaded
+     */
+    public int size()
+    {
+        return index.size();
+    }
+
+
+    /**
+     * Reads all the records stored under the zones base, and replaces the current index.
+     *
+     * @throws Exception If the records can't be read
+     */
+    public synchronized void reload() throws Exception
+    {
+        CoreSession session = directoryService.getAdminSession();
+        StringBuilder filter = new StringBuilder( "(|" );
+
+        for ( String objectClass : OBJECTCLASS_TO_TYPE.keySet() )
+        {
+            filter.append( "(objectClass=" ).append( objectClass ).append( ')' );
+        }
+
+        filter.append( ')' );
+
+        Cursor<Entry> cursor = session.search( zoneDn, SearchScope.SUBTREE,
+            FilterParser.parse( directoryService.getSchemaManager(), filter.toString() ),
+            AliasDerefMode.NEVER_DEREF_ALIASES );
+
+        Map<String, ResourceRecord> records = new HashMap<String, ResourceRecord>();
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                Entry entry = cursor.get();
+                ResourceRecord record = getRecord( entry );
+
+                if ( record != null )
+                {
+                    records.put( entry.getDn().getNormName(), record );
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        index = new ZoneIndex( records );
+
+        LOG.debug( "Loaded {} DNS records from {}", records.size(), zoneDn );
+    }
+
+
+    /**
+     * Reads again a single entry and updates the index accordingly.
+     */
+    private synchronized void refresh( Dn dn )
+    {
+        try
+        {
+            Entry entry = null;
+
+            try
+            {
+                entry = directoryService.getAdminSession().lookup( dn );
+            }
+            catch ( LdapNoSuchObjectException lnsoe )
+            {
+                // The entry has been deleted in the meantime
+            }
+
+            ResourceRecord record = ( entry == null ) ? null : getRecord( entry );
+
+            if ( record == null )
+            {
+                index.remove( dn.getNormName() );
+            }
+            else
+            {
+                index.put( dn.getNormName(), record );
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "Failed to refresh the DNS record {}, reloading all the records", dn, e );
+            safeReload();
+        }
+    }
+
+
+    private synchronized void remove( Dn dn )
+    {
+        index.remove( dn.getNormName() );
+    }
+
+
+    private void safeReload()
+    {
+        try
+        {
+            reload();
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "Failed to reload the DNS records from {}", zoneDn, e );
+        }
+    }
+
+
+    /**
+     * Creates a ResourceRecord from an entry.
+     *
+     * @return The record, or null if the entry is not a DNS record
+     */
+    private ResourceRecord getRecord( Entry entry ) throws LdapException
+    {
+        RecordType type = null;
+        Attribute attr = entry.get( DnsAttribute.TYPE );
+
+        if ( attr != null )
+        {
+            type = RecordType.valueOf( attr.getString() );
+        }
+        else
+        {
+            for ( Value<?> objectClass : entry.get( SchemaConstants.OBJECT_CLASS_AT ) )
+            {
+                type = OBJECTCLASS_TO_TYPE.get( Strings.toLowerCase( objectClass.getString() ) );
+
+                if ( type != null )
+                {
+                    break;
+                }
+            }
+        }
+
+        if ( type == null )
+        {
+            return null;
+        }
+
+        ResourceRecordModifier modifier = new ResourceRecordModifier();
+        modifier.setDnsType( type );
+
+        // if no name, transform the domain components of the Dn
+        attr = entry.get( DnsAttribute.NAME );
+
+        if ( attr != null )
+        {
+            modifier.setDnsName( attr.getString() );
+        }
+        else
+        {
+            modifier.setDnsName( getDomainName( entry.getDn() ) );
+        }
+
+        attr = entry.get( DnsAttribute.CLASS );
+        modifier.setDnsClass( RecordClass.valueOf( attr != null ? attr.getString() : DEFAULT_CLASS ) );
+
+        attr = entry.get( DnsAttribute.TTL );
+        modifier.setDnsTtl( Integer.parseInt( attr != null ? attr.getString() : DEFAULT_TTL ) );
+
+        for ( Attribute attribute : entry )
+        {
+            modifier.put( attribute.getAttributeType().getName(), attribute.getString() );
+        }
+
+        return modifier.getEntry();
+    }
+
+
+    /**
+     * Transforms the domain components of a Dn, relative to the zones base, into a domain name
+     * (RFC 2247) : dc=www,dc=example,dc=com becomes www.example.com
+     */
+    private String getDomainName( Dn dn ) throws LdapException
+    {
+        Dn relative = dn.getDescendantOf( zoneDn );
+        StringBuilder sb = new StringBuilder();
+
+        for ( Rdn rdn : relative.getRdns() )
+        {
+            if ( SchemaConstants.DOMAIN_COMPONENT_AT_OID.equals( rdn.getNormType() ) )
+            {
+                if ( sb.length() > 0 )
+                {
+                    sb.append( '.' );
+                }
+
+                sb.append( rdn.getValue().getString() );
+            }
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * The listener keeping the index in sync with the directory.
+     */
+    private class ZoneListener extends DirectoryListenerAdapter
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            refresh( addContext.getDn() );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            remove( deleteContext.getDn() );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            refresh( modifyContext.getDn() );
+        }
+
+
+        // A rename or a move changes the names of all the records below
+        // the entry, we simply read them all again
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            safeReload();
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            safeReload();
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            safeReload();
+        }
+    }
+}
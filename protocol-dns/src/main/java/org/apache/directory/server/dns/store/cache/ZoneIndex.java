@@ -0,0 +1,214 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.store.cache;
+
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+
+
+/**
+ * An index of the resource records of a zone. The records are stored by the
+ * normalized Dn of the entry they have been read from, and the answers are indexed
+ * by (name, type, class). An update only replaces the sets of answers of the names
+ * of the old and new record : each set is immutable, and replaced atomically, so
+ * that readers never see a partially updated set, and are never blocked.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class ZoneIndex
+{
+    /** The records, per normalized entry Dn */
+    private final Map<String, ResourceRecord> records = new ConcurrentHashMap<String, ResourceRecord>();
+
+    /** The answers, per question. The sets are never modified once published */
+    private final Map<QuestionRecord, Set<ResourceRecord>> answers =
+        new ConcurrentHashMap<QuestionRecord, Set<ResourceRecord>>();
+
+
+    /**
+     * Creates a new empty instance of ZoneIndex.
+     */
+    public ZoneIndex()
+    {
+    }
+
+
+    /**
+     * Creates a new instance of ZoneIndex.
+     *
+     * @param records The records, per normalized entry Dn
+     */
+    public ZoneIndex( Map<String, ResourceRecord> records )
+    {
+        this.records.putAll( records );
+
+        for ( ResourceRecord record : records.values() )
+        {
+            QuestionRecord key = getKey( record );
+            Set<ResourceRecord> set = answers.get( key );
+
+            if ( set == null )
+            {
+                set = newSet();
+                answers.put( key, set );
+            }
+
+            set.add( record );
+        }
+
+        for ( Map.Entry<QuestionRecord, Set<ResourceRecord>> entry : answers.entrySet() )
+        {
+            entry.setValue( Collections.unmodifiableSet( entry.getValue() ) );
+        }
+    }
+
+
+    private static QuestionRecord getKey( ResourceRecord record )
+    {
+        return new QuestionRecord( Strings.toLowerCase( record.getDomainName() ), record.getRecordType(),
+            record.getRecordClass() );
+    }
+
+
+    /**
+     * ResourceRecordImpl.equals() only compares the name, type and class, so we use
+     * an identity based set to keep all the records of a RRset
+     */
+    private static Set<ResourceRecord> newSet()
+    {
+        return Collections.newSetFromMap( new IdentityHashMap<ResourceRecord, Boolean>() );
+    }
+
+
+    /**
+     * Gets the records answering a question. The name is case insensitive.
+     *
+     * @param question The question
+     * @return The set of records, empty if there is none. The set must not be modified.
+     */
+    public Set<ResourceRecord> getRecords( QuestionRecord question )
+    {
+        QuestionRecord key = new QuestionRecord( Strings.toLowerCase( question.getDomainName() ),
+            question.getRecordType(), question.getRecordClass() );
+        Set<ResourceRecord> set = answers.get( key );
+
+        if ( set == null )
+        {
+            return Collections.emptySet();
+        }
+
+        return set;
+    }
+
+
+    /**
+     * Adds or replaces a record. Only the answers of its name, and of the name of the
+     * replaced record, are copied.
+     *
+     * @param dn The normalized Dn of the entry the record has been read from
+     * @param record The record
+     */
+    public synchronized void put( String dn, ResourceRecord record )
+    {
+        ResourceRecord oldRecord = records.put( dn, record );
+
+        if ( oldRecord != null )
+        {
+            removeAnswer( oldRecord );
+        }
+
+        QuestionRecord key = getKey( record );
+        Set<ResourceRecord> oldSet = answers.get( key );
+        Set<ResourceRecord> set = newSet();
+
+        if ( oldSet != null )
+        {
+            set.addAll( oldSet );
+        }
+
+        set.add( record );
+        answers.put( key, Collections.unmodifiableSet( set ) );
+    }
+
+
+    /**
+     * Removes the record read from a given entry
+     *
+     * @param dn The normalized Dn of the entry the record has been read from
+     * @return true if the record was present
+     */
+    public synchronized boolean remove( String dn )
+    {
+        ResourceRecord oldRecord = records.remove( dn );
+
+        if ( oldRecord == null )
+        {
+            return false;
+        }
+
+        removeAnswer( oldRecord );
+
+        return true;
+    }
+
+
+    /**
+     * Replaces the set of answers containing a record by a copy without it
+     */
+    private void removeAnswer( ResourceRecord record )
+    {
+        QuestionRecord key = getKey( record );
+        Set<ResourceRecord> oldSet = answers.get( key );
+
+        if ( ( oldSet == null ) || !oldSet.contains( record ) )
+        {
+            return;
+        }
+
+        if ( oldSet.size() == 1 )
+        {
+            answers.remove( key );
+        }
+        else
+        {
+            Set<ResourceRecord> set = newSet();
+            set.addAll( oldSet );
+            set.remove( record );
+            answers.put( key, Collections.unmodifiableSet( set ) );
+        }
+    }
+
+
+    /**
+     * @return The number of records in this index
+     */
+    public int size()
+    {
+        return records.size();
+    }
+}
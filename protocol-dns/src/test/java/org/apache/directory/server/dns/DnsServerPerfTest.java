@@ -0,0 +1,228 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.dns.io.decoder.DnsMessageDecoder;
+import org.apache.directory.server.dns.io.encoder.DnsMessageEncoder;
+import org.apache.directory.server.dns.messages.DnsMessage;
+import org.apache.directory.server.dns.messages.DnsMessageModifier;
+import org.apache.directory.server.dns.messages.MessageType;
+import org.apache.directory.server.dns.messages.OpCode;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordModifier;
+import org.apache.directory.server.dns.messages.ResponseCode;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.apache.directory.server.dns.store.RecordStore;
+import org.apache.directory.server.dns.store.cache.ZoneIndex;
+import org.apache.directory.server.protocol.shared.transport.UdpTransport;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * A local UDP load test for the DnsServer : a few client threads send A queries
+ * to the server and wait for the responses. The records are served from a
+ * {@link ZoneIndex}, like the in-memory record store does, so that the test measures
+ * the protocol path only.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DnsServerPerfTest extends AbstractDnsTestCase
+{
+    /** The number of client threads */
+    private static final int NB_THREADS = 8;
+
+    /** The number of queries sent by each thread */
+    private static final int NB_QUERIES = 50000;
+
+    /** The number of hosts in the zone */
+    private static final int NB_HOSTS = 1000;
+
+
+    private ZoneIndex createZone()
+    {
+        Map<String, ResourceRecord> records = new HashMap<String, ResourceRecord>();
+
+        for ( int i = 0; i < NB_HOSTS; i++ )
+        {
+            ResourceRecordModifier modifier = new ResourceRecordModifier();
+            modifier.setDnsName( "host" + i + ".example.com" );
+            modifier.setDnsType( RecordType.A );
+            modifier.setDnsClass( RecordClass.IN );
+            modifier.setDnsTtl( 3600 );
+            modifier.put( DnsAttribute.IP_ADDRESS, "10.0." + ( i / 256 ) + "." + ( i % 256 ) );
+
+            records.put( "cn=host" + i + ",dc=example,dc=com", modifier.getEntry() );
+        }
+
+        return new ZoneIndex( records );
+    }
+
+
+    private int getFreePort() throws Exception
+    {
+        ServerSocket socket = new ServerSocket( 0 );
+        int port = socket.getLocalPort();
+        socket.close();
+
+        return port;
+    }
+
+
+    @Test
+    @Ignore
+    public void testUdpQueriesPerf() throws Exception
+    {
+        final ZoneIndex zone = createZone();
+        final int port = getFreePort();
+
+        DnsServer dnsServer = new DnsServer();
+        dnsServer.setTransports( new UdpTransport( "localhost", port ) );
+        dnsServer.setRecordStore( new RecordStore()
+        {
+            public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+            {
+                return zone.getRecords( question );
+            }
+        } );
+        dnsServer.start();
+
+        final AtomicLong nbErrors = new AtomicLong();
+        Thread[] threads = new Thread[NB_THREADS];
+
+        for ( int t = 0; t < NB_THREADS; t++ )
+        {
+            final int threadNumber = t;
+
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        DatagramSocket socket = new DatagramSocket();
+                        socket.setSoTimeout( 1000 );
+                        InetAddress address = InetAddress.getByName( "localhost" );
+                        byte[] received = new byte[MINIMUM_DNS_DATAGRAM_SIZE];
+
+                        for ( int i = 0; i < NB_QUERIES; i++ )
+                        {
+                            String host = "host" + ( ( i + threadNumber ) % NB_HOSTS ) + ".example.com";
+                            byte[] query = encodeQuery( host );
+                            socket.send( new DatagramPacket( query, query.length, address, port ) );
+
+                            DatagramPacket response = new DatagramPacket( received, received.length );
+
+                            try
+                            {
+                                socket.receive( response );
+                                DnsMessage reply = new DnsMessageDecoder().decode( IoBuffer.wrap( received, 0,
+                                    response.getLength() ) );
+
+                                if ( reply.getResponseCode() != ResponseCode.NO_ERROR )
+                                {
+                                    nbErrors.incrementAndGet();
+                                }
+                            }
+                            catch ( SocketTimeoutException ste )
+                            {
+                                nbErrors.incrementAndGet();
+                            }
+                        }
+
+                        socket.close();
+                    }
+                    catch ( Exception e )
+                    {
+                        e.printStackTrace();
+                        nbErrors.incrementAndGet();
+                    }
+                }
+            };
+        }
+
+        long t0 = System.currentTimeMillis();
+
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        long t1 = System.currentTimeMillis();
+
+        dnsServer.stop();
+
+        long nbQueries = ( long ) NB_THREADS * NB_QUERIES;
+        System.out.println( "Delta : " + ( t1 - t0 ) + "ms for " + nbQueries + " queries ( "
+            + ( nbQueries * 1000L / ( t1 - t0 ) ) + " per s ), " + nbErrors.get() + " errors" );
+
+        assertEquals( 0, nbErrors.get() );
+    }
+
+
+    private byte[] encodeQuery( String host ) throws Exception
+    {
+        DnsMessageModifier modifier = new DnsMessageModifier();
+        modifier.setTransactionId( host.hashCode() & 0xFFFF );
+        modifier.setMessageType( MessageType.QUERY );
+        modifier.setOpCode( OpCode.QUERY );
+        modifier.setRecursionDesired( true );
+        modifier.setQuestionRecords( Collections.singletonList( new QuestionRecord( host, RecordType.A,
+            RecordClass.IN ) ) );
+        modifier.setResponseCode( ResponseCode.NO_ERROR );
+        modifier.setAnswerRecords( new ArrayList<ResourceRecord>() );
+        modifier.setAuthorityRecords( new ArrayList<ResourceRecord>() );
+        modifier.setAdditionalRecords( new ArrayList<ResourceRecord>() );
+        DnsMessage query = modifier.getDnsMessage();
+
+        IoBuffer buffer = IoBuffer.allocate( MINIMUM_DNS_DATAGRAM_SIZE );
+        new DnsMessageEncoder().encode( buffer, query );
+        buffer.flip();
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+
+        return bytes;
+    }
+}
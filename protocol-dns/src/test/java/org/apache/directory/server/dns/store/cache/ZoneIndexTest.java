@@ -0,0 +1,134 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.store.cache;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordModifier;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.junit.Test;
+
+
+/**
+ * Tests the ZoneIndex class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ZoneIndexTest
+{
+    private static ResourceRecord getRecord( String name, RecordType type, String data )
+    {
+        ResourceRecordModifier modifier = new ResourceRecordModifier();
+        modifier.setDnsName( name );
+        modifier.setDnsType( type );
+        modifier.setDnsClass( RecordClass.IN );
+        modifier.setDnsTtl( 3600 );
+
+        if ( type == RecordType.A )
+        {
+            modifier.put( DnsAttribute.IP_ADDRESS, data );
+        }
+        else
+        {
+            modifier.put( DnsAttribute.DOMAIN_NAME, data );
+        }
+
+        return modifier.getEntry();
+    }
+
+
+    @Test
+    public void testGetRecords()
+    {
+        Map<String, ResourceRecord> records = new HashMap<String, ResourceRecord>();
+        records.put( "cn=www1", getRecord( "www.example.com", RecordType.A, "10.0.0.1" ) );
+        records.put( "cn=www2", getRecord( "www.example.com", RecordType.A, "10.0.0.2" ) );
+        records.put( "cn=mx", getRecord( "example.com", RecordType.MX, "mail.example.com" ) );
+
+        ZoneIndex index = new ZoneIndex( records );
+
+        assertEquals( 3, index.size() );
+
+        Set<ResourceRecord> answers = index.getRecords( new QuestionRecord( "www.example.com", RecordType.A,
+            RecordClass.IN ) );
+        assertEquals( 2, answers.size() );
+
+        // The names are case insensitive
+        answers = index.getRecords( new QuestionRecord( "WWW.Example.COM", RecordType.A, RecordClass.IN ) );
+        assertEquals( 2, answers.size() );
+
+        // The type must match
+        answers = index.getRecords( new QuestionRecord( "www.example.com", RecordType.MX, RecordClass.IN ) );
+        assertTrue( answers.isEmpty() );
+
+        answers = index.getRecords( new QuestionRecord( "example.com", RecordType.MX, RecordClass.IN ) );
+        assertEquals( 1, answers.size() );
+        assertEquals( "mail.example.com", answers.iterator().next().get( DnsAttribute.DOMAIN_NAME ) );
+    }
+
+
+    @Test
+    public void testPutRemove()
+    {
+        QuestionRecord question = new QuestionRecord( "www.example.com", RecordType.A, RecordClass.IN );
+        ZoneIndex index = new ZoneIndex();
+
+        assertEquals( 0, index.size() );
+
+        index.put( "cn=www1", getRecord( "www.example.com", RecordType.A, "10.0.0.1" ) );
+        index.put( "cn=www2", getRecord( "www.example.com", RecordType.A, "10.0.0.2" ) );
+
+        Set<ResourceRecord> answers = index.getRecords( question );
+        assertEquals( 2, answers.size() );
+
+        // Replace a record
+        index.put( "cn=www1", getRecord( "www.example.com", RecordType.A, "10.0.0.9" ) );
+        assertEquals( 2, index.size() );
+        assertEquals( 2, index.getRecords( question ).size() );
+
+        // The previously returned set is not modified
+        assertEquals( 2, answers.size() );
+        assertNotSame( answers, index.getRecords( question ) );
+
+        // Move a record to another name
+        index.put( "cn=www2", getRecord( "ftp.example.com", RecordType.A, "10.0.0.2" ) );
+        assertEquals( 1, index.getRecords( question ).size() );
+        assertEquals( "10.0.0.9", index.getRecords( question ).iterator().next().get( DnsAttribute.IP_ADDRESS ) );
+        assertEquals( 1, index.getRecords( new QuestionRecord( "ftp.example.com", RecordType.A, RecordClass.IN ) )
+            .size() );
+
+        assertTrue( index.remove( "cn=www1" ) );
+        assertTrue( index.getRecords( question ).isEmpty() );
+        assertFalse( index.remove( "cn=unknown" ) );
+        assertEquals( 1, index.size() );
+    }
+}
@@ -20,6 +20,7 @@
 package org.apache.directory.server.kerberos;
 
 
+import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -127,6 +128,9 @@ public class KerberosConfig
 
     private String searchBaseDn;
 
+    /** The file where the replay cache is persisted, or null to keep it in memory */
+    private File replayCacheFile;
+
 
     public KerberosConfig()
     {
@@ -419,6 +423,25 @@ public class KerberosConfig
     }
 
 
+    /**
+     * @return the file where the replay cache is persisted, or null if it's kept in memory
+     */
+    public File getReplayCacheFile()
+    {
+        return replayCacheFile;
+    }
+
+
+    /**
+     * @param replayCacheFile the file where the replay cache is persisted, or null to
+     * keep it in memory
+     */
+    public void setReplayCacheFile( File replayCacheFile )
+    {
+        this.replayCacheFile = replayCacheFile;
+    }
+
+
     public long getMinimumTicketLifetime()
     {
         return minimumTicketLifetime;
@@ -22,15 +22,13 @@ package org.apache.directory.server.kerberos.changepwd;
 
 import java.io.IOException;
 
-import net.sf.ehcache.Cache;
-
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.kerberos.ChangePasswordConfig;
 import org.apache.directory.server.kerberos.changepwd.protocol.ChangePasswordProtocolHandler;
 import org.apache.directory.server.kerberos.kdc.DirectoryPrincipalStore;
+import org.apache.directory.server.kerberos.shared.replay.BucketedReplayCache;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
-import org.apache.directory.server.kerberos.shared.replay.ReplayCacheImpl;
 import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
@@ -68,7 +66,7 @@ public class ChangePasswordServer extends DirectoryBackedService
     private ChangePasswordConfig config;
 
     /** the cache used for storing change password requests */
-    private ReplayCache replayCache;
+    private BucketedReplayCache replayCache;
 
 
     /**
@@ -95,8 +93,15 @@ public class ChangePasswordServer extends DirectoryBackedService
 
         LOG.debug( "initializing the changepassword replay cache" );
 
-        Cache cache = getDirectoryService().getCacheService().getCache( "changePwdReplayCache" );
-        replayCache = new ReplayCacheImpl( cache );
+        if ( config.getReplayCacheFile() != null )
+        {
+            replayCache = new BucketedReplayCache( config.getAllowableClockSkew(), config.getReplayCacheFile(),
+                BucketedReplayCache.DEFAULT_CAPACITY );
+        }
+        else
+        {
+            replayCache = new BucketedReplayCache( config.getAllowableClockSkew() );
+        }
 
         for ( Transport transport : transports )
         {
@@ -143,6 +148,16 @@ public class ChangePasswordServer extends DirectoryBackedService
             }
         }
 
+        // Keep the persisted entries for the next start
+        try
+        {
+            replayCache.close();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot close the replay cache", ioe );
+        }
+
         replayCache.clear();
 
         LOG.info( "ChangePassword service stopped." );
@@ -22,16 +22,14 @@ package org.apache.directory.server.kerberos.kdc;
 
 import java.io.IOException;
 
-import net.sf.ehcache.Cache;
-
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.kerberos.KerberosConfig;
 import org.apache.directory.server.kerberos.changepwd.ChangePasswordServer;
 import org.apache.directory.server.kerberos.protocol.KerberosProtocolHandler;
 import org.apache.directory.server.kerberos.protocol.codec.KerberosProtocolCodecFactory;
+import org.apache.directory.server.kerberos.shared.replay.BucketedReplayCache;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
-import org.apache.directory.server.kerberos.shared.replay.ReplayCacheImpl;
 import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
@@ -61,7 +59,7 @@ public class KdcServer extends DirectoryBackedService
     private static final String SERVICE_NAME = "Keydap Kerberos Service";
 
     /** the cache used for storing AS and TGS requests */
-    private ReplayCache replayCache;
+    private BucketedReplayCache replayCache;
 
     private KerberosConfig config;
 
@@ -111,8 +109,15 @@ public class KdcServer extends DirectoryBackedService
 
         LOG.debug( "initializing the kerberos replay cache" );
 
-        Cache cache = getDirectoryService().getCacheService().getCache( "kdcReplayCache" );
-        replayCache = new ReplayCacheImpl( cache, config.getAllowableClockSkew() );
+        if ( config.getReplayCacheFile() != null )
+        {
+            replayCache = new BucketedReplayCache( config.getAllowableClockSkew(), config.getReplayCacheFile(),
+                BucketedReplayCache.DEFAULT_CAPACITY );
+        }
+        else
+        {
+            replayCache = new BucketedReplayCache( config.getAllowableClockSkew() );
+        }
 
         // Kerberos can use UDP or TCP
         for ( Transport transport : transports )
@@ -174,6 +179,16 @@ public class KdcServer extends DirectoryBackedService
 
         if ( replayCache != null )
         {
+            // Keep the persisted entries for the next start
+            try
+            {
+                replayCache.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot close the replay cache", ioe );
+            }
+
             replayCache.clear();
         }
 
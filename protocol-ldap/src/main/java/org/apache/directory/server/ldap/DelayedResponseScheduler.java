@@ -0,0 +1,241 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sends some responses after a delay, without blocking the thread which has processed
+ * the request. It's used to delay the failed bind responses when the password policy
+ * has a pwdMinDelay : the worker threads are released immediately, and a single timer
+ * thread writes the responses when their delay has expired.
+ * <br>
+ * The number of pending responses per client address is limited, so that a client
+ * opening many connections can't make the server keep an unbounded number of them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DelayedResponseScheduler
+{
+    private static final Logger LOG = LoggerFactory.getLogger( DelayedResponseScheduler.class );
+
+    /** The default maximum number of pending delayed responses per client address */
+    public static final int DEFAULT_MAX_PENDING_PER_ADDRESS = 16;
+
+    /** The key used when the client address is unknown */
+    private static final String UNKNOWN_ADDRESS = "unknown";
+
+    /** The timer */
+    private final ScheduledThreadPoolExecutor timer;
+
+    /** The number of pending responses, per client address */
+    private final ConcurrentMap<Object, AtomicInteger> pendingPerAddress = new ConcurrentHashMap<Object, AtomicInteger>();
+
+    /** The maximum number of pending responses per client address */
+    private final int maxPendingPerAddress;
+
+
+    /**
+     * Creates a new instance of DelayedResponseScheduler, and starts its timer thread.
+     *
+     * @param maxPendingPerAddress The maximum number of pending responses per client address
+     */
+    public DelayedResponseScheduler( int maxPendingPerAddress )
+    {
+        this.maxPendingPerAddress = maxPendingPerAddress;
+
+        timer = new ScheduledThreadPoolExecutor( 1, new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "DelayedResponseScheduler" );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+    }
+
+
+    /**
+     * Schedules a response.
+     *
+     * @param session The session the response will be written to
+     * @param response The task writing the response
+     * @param delay The delay, in milliseconds
+     * @return false if the response can't be scheduled, because there are already too many
+     * pending responses for the client address, or because the scheduler has been stopped
+     */
+    public boolean schedule( IoSession session, final Runnable response, long delay )
+    {
+        final Object address = getAddress( session );
+
+        if ( !acquire( address ) )
+        {
+            LOG.warn( "Too many delayed responses pending for {}", address );
+
+            return false;
+        }
+
+        try
+        {
+            timer.schedule( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        response.run();
+                    }
+                    catch ( Exception e )
+                    {
+                        LOG.warn( "Failed to send a delayed response to {}", address, e );
+                    }
+                    finally
+                    {
+                        release( address );
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS );
+
+            return true;
+        }
+        catch ( RuntimeException re )
+        {
+            // The timer has been stopped
+            release( address );
+
+            return false;
+        }
+    }
+
+
+    /**
+     * @param session A session
+     * @return The number of responses waiting to be sent to the client address of this session
+     */
+    public int getPendingCount( IoSession session )
+    {
+        AtomicInteger counter = pendingPerAddress.get( getAddress( session ) );
+
+        return counter == null ? 0 : Math.max( counter.get(), 0 );
+    }
+
+
+    /**
+     * Stops the timer. The pending responses are dropped : the sessions are closed
+     * when the server stops.
+     */
+    public void shutdown()
+    {
+        timer.shutdownNow();
+        pendingPerAddress.clear();
+    }
+
+
+    private Object getAddress( IoSession session )
+    {
+        SocketAddress remoteAddress = session.getRemoteAddress();
+
+        if ( remoteAddress instanceof InetSocketAddress )
+        {
+            InetAddress address = ( ( InetSocketAddress ) remoteAddress ).getAddress();
+
+            if ( address != null )
+            {
+                return address;
+            }
+        }
+
+        return UNKNOWN_ADDRESS;
+    }
+
+
+    private boolean acquire( Object address )
+    {
+        while ( true )
+        {
+            AtomicInteger counter = pendingPerAddress.get( address );
+
+            if ( counter == null )
+            {
+                AtomicInteger newCounter = new AtomicInteger( 1 );
+
+                if ( pendingPerAddress.putIfAbsent( address, newCounter ) == null )
+                {
+                    return true;
+                }
+
+                continue;
+            }
+
+            int count = counter.get();
+
+            if ( count < 0 )
+            {
+                // This counter is being removed, wait for a new one
+                continue;
+            }
+
+            if ( count >= maxPendingPerAddress )
+            {
+                return false;
+            }
+
+            if ( counter.compareAndSet( count, count + 1 ) )
+            {
+                return true;
+            }
+        }
+    }
+
+
+    private void release( Object address )
+    {
+        AtomicInteger counter = pendingPerAddress.get( address );
+
+        if ( counter == null )
+        {
+            // The scheduler has been stopped
+            return;
+        }
+
+        // Retire the counter once it drops to zero, so that the map does not keep
+        // an entry for each address which has been delayed once
+        if ( ( counter.decrementAndGet() == 0 ) && counter.compareAndSet( 0, -1 ) )
+        {
+            pendingPerAddress.remove( address, counter );
+        }
+    }
+}
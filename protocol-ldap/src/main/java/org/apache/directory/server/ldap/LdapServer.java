@@ -24,6 +24,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.security.KeyStore;
 import java.security.Provider;
+import java.security.SecureRandom;
 import java.security.Security;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -35,6 +36,9 @@ import java.util.Map;
 import java.util.Set;
 
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
 
 import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
 import org.apache.directory.api.ldap.model.constants.Loggers;
@@ -63,7 +67,11 @@ import org.apache.directory.api.ldap.model.message.SearchResultReference;
 import org.apache.directory.api.ldap.model.message.UnbindRequest;
 import org.apache.directory.api.ldap.model.message.extended.NoticeOfDisconnect;
 import org.apache.directory.api.util.Strings;
+import org.apache.directory.ldap.client.api.NoVerificationTrustManager;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.monitor.Gauge;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.security.CoreKeyStoreSpi;
 import org.apache.directory.server.i18n.I18n;
@@ -93,6 +101,8 @@ import org.apache.directory.server.ldap.handlers.response.SearchResultEntryHandl
 import org.apache.directory.server.ldap.handlers.response.SearchResultReferenceHandler;
 import org.apache.directory.server.ldap.handlers.sasl.MechanismHandler;
 import org.apache.directory.server.ldap.handlers.ssl.LdapsInitializer;
+import org.apache.directory.server.ldap.handlers.ssl.TlsHandshakeMetricsFilter;
+import org.apache.directory.server.ldap.replication.SyncReplDelta;
 import org.apache.directory.server.ldap.replication.consumer.PingerThread;
 import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer;
 import org.apache.directory.server.ldap.replication.consumer.ReplicationStatusEnum;
@@ -110,6 +120,7 @@ import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFactory;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
 import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
 import org.apache.mina.handler.demux.MessageHandler;
 import org.apache.mina.transport.socket.AbstractSocketSessionConfig;
@@ -154,6 +165,17 @@ public class LdapServer extends DirectoryBackedService
     /** The default service name. */
     private static final String SERVICE_NAME_DEFAULT = "ApacheDS LDAP Service";
 
+    /** The names of the gauges exposing the network activity */
+    private static final String SESSIONS_GAUGE = "ldap.sessions";
+    private static final String WRITE_QUEUE_GAUGE = "ldap.writeQueue";
+    private static final String TLS_ACTIVE_THREADS_GAUGE = "ldap.tls.activeThreads";
+
+    /** The default number of TLS sessions kept for resumption */
+    public static final int TLS_SESSION_CACHE_SIZE_DEFAULT = 20480;
+
+    /** The default duration a TLS session can be resumed, in seconds */
+    public static final int TLS_SESSION_TIMEOUT_DEFAULT = 86400;
+
     /** the session manager for this LdapServer */
     private LdapSessionManager ldapSessionManager = new LdapSessionManager();
 
@@ -172,9 +194,39 @@ public class LdapServer extends DirectoryBackedService
      */
     private int maxTimeLimit = MAX_TIME_LIMIT_DEFAULT;
 
+    /** The duration, in milliseconds, above which a search is logged with its trace. Disabled if negative */
+    private long slowSearchThreshold = -1L;
+
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The maximum number of failed bind responses delayed at the same time for a client address */
+    private int maxDelayedBindsPerAddress = DelayedResponseScheduler.DEFAULT_MAX_PENDING_PER_ADDRESS;
+
+    /** The scheduler used to send the delayed failed bind responses */
+    private DelayedResponseScheduler delayedResponseScheduler;
+
+    /** The maximum number of read requests processed at the same time on a connection, 0 to disable the pipelining */
+    private int maxPipelinedRequests = 0;
+
+    /** The maximum number of TLS sessions kept for resumption, 0 for no limit */
+    private int tlsSessionCacheSize = TLS_SESSION_CACHE_SIZE_DEFAULT;
+
+    /** The duration a TLS session can be resumed, in seconds, 0 for no limit */
+    private int tlsSessionTimeout = TLS_SESSION_TIMEOUT_DEFAULT;
+
+    /** The number of threads processing the TLS traffic and handshakes. If 0, they run on the IoProcessors */
+    private int tlsThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The SSLContext shared by LDAPS and StartTLS, so that both use the same session cache */
+    private SSLContext sslContext;
+
+    /** The filter running the TLS processing on its own pool of threads */
+    private ExecutorFilter tlsExecutorFilter;
+
+    /** The filter counting the TLS handshakes */
+    private TlsHandshakeMetricsFilter tlsHandshakeMetricsFilter;
+
     /** If LDAPS is activated : the external Keystore file, if defined */
     private String keystoreFile;
 
@@ -416,6 +468,50 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * Creates the SSLContext used by LDAPS and StartTLS, and configures its server
+     * session cache, used to resume the TLS sessions.
+     */
+    private void initSslContext() throws Exception
+    {
+        SSLContext newSslContext = SSLContext.getInstance( "TLS" );
+        newSslContext.init( keyManagerFactory.getKeyManagers(), new TrustManager[]
+            { new NoVerificationTrustManager() }, new SecureRandom() );
+
+        SSLSessionContext sessionContext = newSslContext.getServerSessionContext();
+
+        if ( sessionContext != null )
+        {
+            sessionContext.setSessionCacheSize( tlsSessionCacheSize );
+            sessionContext.setSessionTimeout( tlsSessionTimeout );
+        }
+
+        sslContext = newSslContext;
+    }
+
+
+    /**
+     * Creates the filters added in front of the SslFilter : the TLS traffic, and so the
+     * handshakes, are processed by a dedicated pool of threads, so that a burst of
+     * handshakes does not delay the LDAP requests.
+     */
+    private void initTlsFilters()
+    {
+        if ( tlsThreads > 0 )
+        {
+            // The TLS records of a session must be processed in order
+            tlsExecutorFilter = new ExecutorFilter( new OrderedThreadPoolExecutor( tlsThreads ) );
+        }
+
+        MetricsRegistry metricsRegistry = getDirectoryService().getMetricsRegistry();
+
+        if ( metricsRegistry != null )
+        {
+            tlsHandshakeMetricsFilter = new TlsHandshakeMetricsFilter( metricsRegistry );
+        }
+    }
+
+
     /**
      * reloads the SSL context by replacing the existing SslFilter
      * with a new SslFilter after reloading the keystore.
@@ -432,6 +528,7 @@ public class LdapServer extends DirectoryBackedService
         LOG.info( "reloading SSL context..." );
 
         loadKeyStore();
+        initSslContext();
 
         String sslFilterName = "sslFilter";
 
@@ -483,6 +580,8 @@ public class LdapServer extends DirectoryBackedService
         }
 
         loadKeyStore();
+        initSslContext();
+        initTlsFilters();
 
         /*
          * The server is now initialized, we can
@@ -502,6 +601,8 @@ public class LdapServer extends DirectoryBackedService
 
         nexus.registerSupportedSaslMechanisms( saslMechanismHandlers.keySet() );
 
+        delayedResponseScheduler = new DelayedResponseScheduler( maxDelayedBindsPerAddress );
+
         // Install the replication handler if we have one
         startReplicationProducer();
 
@@ -531,8 +632,17 @@ public class LdapServer extends DirectoryBackedService
             // Now inject an ExecutorFilter for the write operations
             // We use the same number of thread than the number of IoProcessor
             // (NOTE : this has to be double checked)
-            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+            if ( maxPipelinedRequests > 0 )
+            {
+                // The reads of a connection are processed concurrently, the updates in order
+                ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new RequestPipeliningFilter(
+                    new UnorderedThreadPoolExecutor( transport.getNbThreads() ), maxPipelinedRequests ) );
+            }
+            else
+            {
+                ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
+                    new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+            }
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -560,6 +670,8 @@ public class LdapServer extends DirectoryBackedService
         // these should be started only after starting the network see DIRSERVER-1894
         startReplicationConsumers();
 
+        registerNetworkGauges();
+
         started = true;
 
         LOG.info( "Ldap service started." );
@@ -652,11 +764,99 @@ public class LdapServer extends DirectoryBackedService
             LOG.warn( "Failed to sent NoD.", e );
         }
 
+        if ( delayedResponseScheduler != null )
+        {
+            delayedResponseScheduler.shutdown();
+            delayedResponseScheduler = null;
+        }
+
+        if ( tlsExecutorFilter != null )
+        {
+            tlsExecutorFilter.getExecutor().shutdown();
+            tlsExecutorFilter = null;
+        }
+
+        if ( ( getDirectoryService() != null ) && ( getDirectoryService().getMetricsRegistry() != null ) )
+        {
+            MetricsRegistry metricsRegistry = getDirectoryService().getMetricsRegistry();
+            metricsRegistry.unregisterGauge( SESSIONS_GAUGE );
+            metricsRegistry.unregisterGauge( WRITE_QUEUE_GAUGE );
+            metricsRegistry.unregisterGauge( TLS_ACTIVE_THREADS_GAUGE );
+        }
+
         started = false;
         LOG.info( "Ldap service stopped." );
     }
 
 
+    /**
+     * Exposes the number of opened sessions and the number of messages waiting to
+     * be written, over all the TCP transports, if the metrics are collected
+     */
+    private void registerNetworkGauges()
+    {
+        MetricsRegistry metricsRegistry = getDirectoryService().getMetricsRegistry();
+
+        if ( metricsRegistry == null )
+        {
+            return;
+        }
+
+        metricsRegistry.registerGauge( SESSIONS_GAUGE, new Gauge()
+        {
+            public long getValue()
+            {
+                long nbSessions = 0L;
+
+                for ( Transport transport : transports )
+                {
+                    if ( transport instanceof TcpTransport )
+                    {
+                        nbSessions += getSocketAcceptor( transport ).getManagedSessionCount();
+                    }
+                }
+
+                return nbSessions;
+            }
+        } );
+
+        if ( tlsExecutorFilter != null )
+        {
+            final OrderedThreadPoolExecutor tlsExecutor = ( OrderedThreadPoolExecutor ) tlsExecutorFilter
+                .getExecutor();
+
+            metricsRegistry.registerGauge( TLS_ACTIVE_THREADS_GAUGE, new Gauge()
+            {
+                public long getValue()
+                {
+                    return tlsExecutor.getActiveCount();
+                }
+            } );
+        }
+
+        metricsRegistry.registerGauge( WRITE_QUEUE_GAUGE, new Gauge()
+        {
+            public long getValue()
+            {
+                long nbMessages = 0L;
+
+                for ( Transport transport : transports )
+                {
+                    if ( transport instanceof TcpTransport )
+                    {
+                        for ( IoSession session : getSocketAcceptor( transport ).getManagedSessions().values() )
+                        {
+                            nbMessages += session.getScheduledWriteMessages();
+                        }
+                    }
+                }
+
+                return nbMessages;
+            }
+        } );
+    }
+
+
     private void startNetwork( Transport transport, IoFilterChainBuilder chainBuilder ) throws Exception
     {
         if ( transport.getBackLog() < 0 )
@@ -977,6 +1177,181 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * Sets the duration above which a search is logged with its execution trace, in
+     * the SLOW_SEARCH_LOG logger. A negative value disables the slow search log.
+     *
+     * @param slowSearchThreshold the threshold in milliseconds
+     */
+    public void setSlowSearchThreshold( long slowSearchThreshold )
+    {
+        this.slowSearchThreshold = slowSearchThreshold;
+    }
+
+
+    /**
+     * Returns the duration above which a search is logged with its execution trace.
+     *
+     * @return The threshold in milliseconds, negative if the slow search log is disabled
+     */
+    public long getSlowSearchThreshold()
+    {
+        return slowSearchThreshold;
+    }
+
+
+    /**
+     * Sets the maximum number of read requests (searches and compares) processed at the
+     * same time on a connection. When set, the other requests of a connection are processed
+     * one at a time, in the order they have been received, and a connection stops being
+     * read when this number of requests are waiting. It's taken into account when the
+     * server is started.
+     *
+     * @param maxPipelinedRequests the maximum number of requests, 0 to disable the pipelining
+     */
+    public void setMaxPipelinedRequests( int maxPipelinedRequests )
+    {
+        this.maxPipelinedRequests = maxPipelinedRequests;
+    }
+
+
+    /**
+     * @return the maximum number of read requests processed at the same time on a connection
+     */
+    public int getMaxPipelinedRequests()
+    {
+        return maxPipelinedRequests;
+    }
+
+
+    /**
+     * Sets the maximum number of TLS sessions kept in the server session cache, for
+     * resumption. It's taken into account the next time the SSL context is loaded.
+     *
+     * @param tlsSessionCacheSize the maximum number of sessions, 0 for no limit
+     */
+    public void setTlsSessionCacheSize( int tlsSessionCacheSize )
+    {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+
+
+    /**
+     * @return the maximum number of TLS sessions kept in the server session cache
+     */
+    public int getTlsSessionCacheSize()
+    {
+        return tlsSessionCacheSize;
+    }
+
+
+    /**
+     * Sets the duration a TLS session can be resumed. It's taken into account the next
+     * time the SSL context is loaded.
+     *
+     * @param tlsSessionTimeout the duration in seconds, 0 for no limit
+     */
+    public void setTlsSessionTimeout( int tlsSessionTimeout )
+    {
+        this.tlsSessionTimeout = tlsSessionTimeout;
+    }
+
+
+    /**
+     * @return the duration a TLS session can be resumed, in seconds
+     */
+    public int getTlsSessionTimeout()
+    {
+        return tlsSessionTimeout;
+    }
+
+
+    /**
+     * Sets the number of threads processing the TLS traffic, handshakes included. They
+     * are not shared with the threads processing the LDAP requests. If 0, the TLS
+     * traffic is processed by the IoProcessor threads.
+     *
+     * @param tlsThreads the number of threads
+     */
+    public void setTlsThreads( int tlsThreads )
+    {
+        this.tlsThreads = tlsThreads;
+    }
+
+
+    /**
+     * @return the number of threads processing the TLS traffic
+     */
+    public int getTlsThreads()
+    {
+        return tlsThreads;
+    }
+
+
+    /**
+     * @return The SSLContext shared by LDAPS and StartTLS, null if the server is not started
+     */
+    public SSLContext getSslContext()
+    {
+        return sslContext;
+    }
+
+
+    /**
+     * @return The filter to add in front of the SslFilter to process the TLS traffic on
+     * its own threads, or null if the TLS traffic is processed by the IoProcessors
+     */
+    public ExecutorFilter getTlsExecutorFilter()
+    {
+        return tlsExecutorFilter;
+    }
+
+
+    /**
+     * @return The filter to add after the SslFilter to count the handshakes, or null if
+     * the metrics are not collected
+     */
+    public TlsHandshakeMetricsFilter getTlsHandshakeMetricsFilter()
+    {
+        return tlsHandshakeMetricsFilter;
+    }
+
+
+    /**
+     * Sets the maximum number of failed bind responses which can be delayed at the same
+     * time for a client address, when the password policy has a pwdMinDelay. Above this
+     * limit, the connection is closed instead of being answered.
+     *
+     * @param maxDelayedBindsPerAddress the maximum number of delayed responses
+     */
+    public void setMaxDelayedBindsPerAddress( int maxDelayedBindsPerAddress )
+    {
+        this.maxDelayedBindsPerAddress = maxDelayedBindsPerAddress;
+    }
+
+
+    /**
+     * Returns the maximum number of failed bind responses which can be delayed at the same
+     * time for a client address.
+     *
+     * @return The maximum number of delayed responses
+     */
+    public int getMaxDelayedBindsPerAddress()
+    {
+        return maxDelayedBindsPerAddress;
+    }
+
+
+    /**
+     * @return The scheduler used to send the delayed failed bind responses, null if the
+     * server is not started
+     */
+    public DelayedResponseScheduler getDelayedResponseScheduler()
+    {
+        return delayedResponseScheduler;
+    }
+
+
     /**
      * Gets the {@link ExtendedOperationHandler}s.
      *
@@ -1136,6 +1511,12 @@ public class LdapServer extends DirectoryBackedService
         {
             supportedControls.add( itr.next() );
         }
+
+        // The explain control has no value, it does not need a codec
+        supportedControls.add( SearchTrace.EXPLAIN_CONTROL_OID );
+
+        // The delta replication request control has no value either
+        supportedControls.add( SyncReplDelta.DELTA_CONTROL_OID );
     }
 
 
@@ -0,0 +1,249 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequest;
+import org.apache.directory.api.ldap.model.message.CompareRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+
+
+/**
+ * Schedules the requests received on a connection. The read requests (search and
+ * compare) following each other are processed concurrently, up to a limit. Any other
+ * request is processed alone, once all the requests received before have completed,
+ * and before any request received after is started : the updates are applied in the
+ * order they have been sent, and a read request sees the updates sent before it.
+ * <br>
+ * The abandon requests are processed as soon as they are received, so that they can
+ * reach a running request.
+ * <br>
+ * The responses are written by the thread processing each request, with the request
+ * message ID : they can be interleaved, as allowed by RFC 4511.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RequestPipeline
+{
+    /**
+     * The processing of the requests
+     */
+    public interface MessageProcessor
+    {
+        /**
+         * Processes a request.
+         *
+         * @param message The request
+         */
+        void process( Object message );
+
+
+        /**
+         * Called when the number of waiting requests reaches the limit, and when it goes
+         * back under it. The connection should stop reading requests when it's full.
+         *
+         * @param full true if the limit has been reached
+         */
+        void backlogChanged( boolean full );
+    }
+
+    /** The executor running the requests */
+    private final Executor executor;
+
+    /** The maximum number of read requests processed at the same time */
+    private final int maxConcurrentRequests;
+
+    /** The request processing */
+    private final MessageProcessor processor;
+
+    /** The requests waiting to be processed, in the order they have been received */
+    private final Queue<Object> pending = new LinkedList<Object>();
+
+    /** The number of read requests being processed */
+    private int runningReads;
+
+    /** Tells if a request which must run alone is being processed */
+    private boolean exclusiveRunning;
+
+    /** Tells if the number of waiting requests has reached the limit */
+    private boolean backlogFull;
+
+
+    /**
+     * Creates a new instance of RequestPipeline.
+     *
+     * @param executor The executor running the requests
+     * @param maxConcurrentRequests The maximum number of read requests processed at the same time
+     * @param processor The request processing
+     */
+    public RequestPipeline( Executor executor, int maxConcurrentRequests, MessageProcessor processor )
+    {
+        this.executor = executor;
+        this.maxConcurrentRequests = maxConcurrentRequests > 0 ? maxConcurrentRequests : 1;
+        this.processor = processor;
+    }
+
+
+    /**
+     * Tells if a request can be processed concurrently with the other read requests
+     */
+    private static boolean isRead( Object message )
+    {
+        return ( message instanceof SearchRequest ) || ( message instanceof CompareRequest );
+    }
+
+
+    /**
+     * Submits a request. The requests must be submitted in the order they have been received.
+     *
+     * @param message The request
+     */
+    public void submit( final Object message )
+    {
+        if ( message instanceof AbandonRequest )
+        {
+            executor.execute( new Runnable()
+            {
+                public void run()
+                {
+                    processor.process( message );
+                }
+            } );
+
+            return;
+        }
+
+        synchronized ( this )
+        {
+            pending.add( message );
+        }
+
+        drain();
+    }
+
+
+    /**
+     * Starts the waiting requests which can be started
+     */
+    private void drain()
+    {
+        List<Object> started = new ArrayList<Object>();
+
+        synchronized ( this )
+        {
+            while ( !pending.isEmpty() && !exclusiveRunning )
+            {
+                Object message = pending.peek();
+
+                if ( isRead( message ) )
+                {
+                    if ( runningReads >= maxConcurrentRequests )
+                    {
+                        break;
+                    }
+
+                    runningReads++;
+                }
+                else
+                {
+                    if ( runningReads > 0 )
+                    {
+                        break;
+                    }
+
+                    exclusiveRunning = true;
+                }
+
+                started.add( pending.poll() );
+            }
+
+            boolean full = pending.size() >= maxConcurrentRequests;
+
+            if ( full != backlogFull )
+            {
+                backlogFull = full;
+                processor.backlogChanged( full );
+            }
+        }
+
+        for ( final Object message : started )
+        {
+            executor.execute( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        processor.process( message );
+                    }
+                    finally
+                    {
+                        completed( message );
+                    }
+                }
+            } );
+        }
+    }
+
+
+    /**
+     * Called when a request has been processed
+     */
+    private void completed( Object message )
+    {
+        synchronized ( this )
+        {
+            if ( isRead( message ) )
+            {
+                runningReads--;
+            }
+            else
+            {
+                exclusiveRunning = false;
+            }
+        }
+
+        drain();
+    }
+
+
+    /**
+     * @return The number of requests waiting to be processed
+     */
+    public synchronized int getPendingCount()
+    {
+        return pending.size();
+    }
+
+
+    /**
+     * @return The number of read requests being processed
+     */
+    public synchronized int getRunningReads()
+    {
+        return runningReads;
+    }
+}
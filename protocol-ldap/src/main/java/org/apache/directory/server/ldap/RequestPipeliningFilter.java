@@ -0,0 +1,115 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.concurrent.Executor;
+
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+
+
+/**
+ * A filter replacing the ExecutorFilter, which processes the requests of each
+ * connection through a {@link RequestPipeline} : the read requests are processed
+ * concurrently, the other requests in the order they have been received. When too many
+ * requests are waiting, the connection stops reading until some are processed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RequestPipeliningFilter extends IoFilterAdapter
+{
+    /** The pipeline of a session */
+    private static final AttributeKey PIPELINE = new AttributeKey( RequestPipeliningFilter.class, "pipeline" );
+
+    /** The executor running the requests */
+    private final Executor executor;
+
+    /** The maximum number of read requests processed at the same time on a connection */
+    private final int maxConcurrentRequests;
+
+
+    /**
+     * Creates a new instance of RequestPipeliningFilter.
+     *
+     * @param executor The executor running the requests
+     * @param maxConcurrentRequests The maximum number of read requests processed at the same
+     * time on a connection
+     */
+    public RequestPipeliningFilter( Executor executor, int maxConcurrentRequests )
+    {
+        this.executor = executor;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageReceived( final NextFilter nextFilter, final IoSession session, Object message )
+        throws Exception
+    {
+        RequestPipeline pipeline = ( RequestPipeline ) session.getAttribute( PIPELINE );
+
+        if ( pipeline == null )
+        {
+            pipeline = new RequestPipeline( executor, maxConcurrentRequests, new RequestPipeline.MessageProcessor()
+            {
+                public void process( Object request )
+                {
+                    nextFilter.messageReceived( session, request );
+                }
+
+
+                public void backlogChanged( boolean full )
+                {
+                    if ( full )
+                    {
+                        session.suspendRead();
+                    }
+                    else
+                    {
+                        session.resumeRead();
+                    }
+                }
+            } );
+
+            RequestPipeline existing = ( RequestPipeline ) session.setAttributeIfAbsent( PIPELINE, pipeline );
+
+            if ( existing != null )
+            {
+                pipeline = existing;
+            }
+        }
+
+        pipeline.submit( message );
+    }
+
+
+    /**
+     * @return The executor running the requests
+     */
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.extended;
+
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.codec.decorators.ExtendedRequestDecorator;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.message.AddRequest;
+import org.apache.directory.api.ldap.model.message.AddRequestImpl;
+import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.DeleteRequestImpl;
+import org.apache.directory.api.ldap.model.message.ExtendedRequest;
+import org.apache.directory.api.ldap.model.message.ExtendedResponse;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.message.Request;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.ldap.ExtendedOperationHandler;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.LdapSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An handler for the batch extended operation. It applies a list of add, modify and
+ * delete changes through {@link org.apache.directory.server.core.api.CoreSession#batch(List, boolean)},
+ * with the rights of the requester.
+ * <br>
+ * The request value is an UTF-8 string. Its first line is the batch mode, either
+ * <em>atomic</em> or <em>best-effort</em>, and the following lines are the changes,
+ * as LDIF change records. For instance :
+ * <pre>
+ * atomic
+ * dn: cn=test,ou=system
+ * changetype: modify
+ * replace: description
+ * description: test
+ * -
+ * </pre>
+ * The response value is an UTF-8 string with one line per change, in the request order,
+ * containing the result code, a space, and the diagnostic message if any.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BatchHandler implements ExtendedOperationHandler<ExtendedRequest, ExtendedResponse>
+{
+    private static final Logger LOG = LoggerFactory.getLogger( BatchHandler.class );
+
+    /** The batch extended operation OID */
+    public static final String EXTENSION_OID = "1.3.6.1.4.1.18060.0.1.11";
+
+    /** The atomic mode : all or nothing */
+    public static final String ATOMIC_MODE = "atomic";
+
+    /** The best effort mode : every change is tried */
+    public static final String BEST_EFFORT_MODE = "best-effort";
+
+    public static final Set<String> EXTENSION_OIDS;
+
+    static
+    {
+        Set<String> set = new HashSet<String>( 2 );
+        set.add( EXTENSION_OID );
+        EXTENSION_OIDS = Collections.unmodifiableSet( set );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getOid()
+    {
+        return EXTENSION_OID;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void handleExtendedOperation( LdapSession requestor, ExtendedRequest req ) throws Exception
+    {
+        byte[] value = null;
+
+        if ( req instanceof ExtendedRequestDecorator )
+        {
+            value = ( ( ExtendedRequestDecorator<?, ?> ) req ).getRequestValue();
+        }
+
+        String content = Strings.isEmpty( value ) ? "" : Strings.utf8ToString( value );
+        int eol = content.indexOf( '\n' );
+        String mode = ( eol < 0 ? content : content.substring( 0, eol ) ).trim();
+
+        if ( !ATOMIC_MODE.equalsIgnoreCase( mode ) && !BEST_EFFORT_MODE.equalsIgnoreCase( mode ) )
+        {
+            LdapResult result = req.getResultResponse().getLdapResult();
+            result.setResultCode( ResultCodeEnum.PROTOCOL_ERROR );
+            result.setDiagnosticMessage( "The batch request must start with the '" + ATOMIC_MODE + "' or '"
+                + BEST_EFFORT_MODE + "' mode" );
+            requestor.getIoSession().write( req.getResultResponse() );
+
+            return;
+        }
+
+        List<Request> requests = parse( eol < 0 ? "" : content.substring( eol + 1 ) );
+
+        LOG.debug( "Batch of {} changes requested, mode {}", requests.size(), mode );
+
+        List<LdapResult> results = requestor.getCoreSession().batch( requests,
+            ATOMIC_MODE.equalsIgnoreCase( mode ) );
+
+        StringBuilder sb = new StringBuilder();
+
+        for ( LdapResult result : results )
+        {
+            sb.append( result.getResultCode().getResultCode() );
+
+            if ( !Strings.isEmpty( result.getDiagnosticMessage() ) )
+            {
+                sb.append( ' ' ).append( result.getDiagnosticMessage().replace( '\n', ' ' ) );
+            }
+
+            sb.append( '\n' );
+        }
+
+        ExtendedResponse response = LdapApiServiceFactory.getSingleton().newExtendedResponse( EXTENSION_OID,
+            req.getMessageId(), Strings.getBytesUtf8( sb.toString() ) );
+        response.getLdapResult().setResultCode( ResultCodeEnum.SUCCESS );
+
+        // write the response
+        requestor.getIoSession().write( response );
+    }
+
+
+    /**
+     * Converts the LDIF change records into add, modify and delete requests
+     */
+    private List<Request> parse( String ldif ) throws Exception
+    {
+        List<Request> requests = new ArrayList<Request>();
+        LdifReader reader = new LdifReader( new StringReader( ldif ) );
+
+        try
+        {
+            for ( LdifEntry ldifEntry : reader )
+            {
+                if ( ldifEntry.isChangeAdd() || !ldifEntry.isLdifChange() )
+                {
+                    AddRequest addRequest = new AddRequestImpl();
+                    addRequest.setEntry( ldifEntry.getEntry() );
+                    requests.add( addRequest );
+                }
+                else if ( ldifEntry.isChangeModify() )
+                {
+                    ModifyRequest modifyRequest = new ModifyRequestImpl();
+                    modifyRequest.setName( ldifEntry.getDn() );
+
+                    for ( Modification modification : ldifEntry.getModifications() )
+                    {
+                        modifyRequest.addModification( modification );
+                    }
+
+                    requests.add( modifyRequest );
+                }
+                else if ( ldifEntry.isChangeDelete() )
+                {
+                    DeleteRequest deleteRequest = new DeleteRequestImpl();
+                    deleteRequest.setName( ldifEntry.getDn() );
+                    requests.add( deleteRequest );
+                }
+                else
+                {
+                    throw new IllegalArgumentException( "Only add, modify and delete changes can be batched : "
+                        + ldifEntry.getChangeType() );
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return requests;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<String> getExtensionOids()
+    {
+        return EXTENSION_OIDS;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLdapServer( LdapServer ldapServer )
+    {
+    }
+}
@@ -45,9 +45,11 @@ import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.ExtendedOperationHandler;
 import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.handlers.ssl.TlsHandshakeMetricsFilter;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.filter.executor.ExecutorFilter;
 import org.apache.mina.filter.ssl.SslFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,6 +71,12 @@ public class StartTlsHandler implements ExtendedOperationHandler<ExtendedRequest
     /** The SSL Context instance */
     private SSLContext sslContext;
 
+    /** The filter processing the TLS traffic on its own threads, if any */
+    private ExecutorFilter tlsExecutorFilter;
+
+    /** The filter counting the handshakes, if any */
+    private TlsHandshakeMetricsFilter tlsMetricsFilter;
+
     /** The list of enabled ciphers */
     private List<String> cipherSuite;
 
@@ -126,6 +134,20 @@ public class StartTlsHandler implements ExtendedOperationHandler<ExtendedRequest
             sslFilter.setWantClientAuth( wantClientAuth );
 
             chain.addFirst( "sslFilter", sslFilter );
+
+            if ( tlsMetricsFilter != null )
+            {
+                // The handshake starts now, not when the connection was established
+                session.getIoSession().setAttribute( TlsHandshakeMetricsFilter.HANDSHAKE_START,
+                    System.currentTimeMillis() );
+                chain.addAfter( "sslFilter", "tlsMetrics", tlsMetricsFilter );
+            }
+
+            // Process the TLS traffic and the handshake on their own threads
+            if ( tlsExecutorFilter != null )
+            {
+                chain.addFirst( "tlsExecutor", tlsExecutorFilter );
+            }
         }
         else
         {
@@ -175,23 +197,32 @@ public class StartTlsHandler implements ExtendedOperationHandler<ExtendedRequest
         Provider provider = Security.getProvider( "SUN" );
         LOG.debug( "provider = {}", provider );
 
-        try
-        {
-            sslContext = SSLContext.getInstance( "TLS" );
-        }
-        catch ( Exception e )
-        {
-            throw new RuntimeException( I18n.err( I18n.ERR_681 ), e );
-        }
+        tlsExecutorFilter = ldapServer.getTlsExecutorFilter();
+        tlsMetricsFilter = ldapServer.getTlsHandshakeMetricsFilter();
 
-        try
-        {
-            sslContext.init( ldapServer.getKeyManagerFactory().getKeyManagers(), new TrustManager[]
-                { new NoVerificationTrustManager() }, new SecureRandom() );
-        }
-        catch ( Exception e )
+        // Use the SSLContext shared with LDAPS, so that the TLS sessions are resumed from the same cache
+        sslContext = ldapServer.getSslContext();
+
+        if ( sslContext == null )
         {
-            throw new RuntimeException( I18n.err( I18n.ERR_682 ), e );
+            try
+            {
+                sslContext = SSLContext.getInstance( "TLS" );
+            }
+            catch ( Exception e )
+            {
+                throw new RuntimeException( I18n.err( I18n.ERR_681 ), e );
+            }
+
+            try
+            {
+                sslContext.init( ldapServer.getKeyManagerFactory().getKeyManagers(), new TrustManager[]
+                    { new NoVerificationTrustManager() }, new SecureRandom() );
+            }
+            catch ( Exception e )
+            {
+                throw new RuntimeException( I18n.err( I18n.ERR_682 ), e );
+            }
         }
 
         // Get the transport
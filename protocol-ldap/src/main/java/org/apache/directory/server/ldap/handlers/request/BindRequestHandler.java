@@ -45,8 +45,10 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.ldap.DelayedResponseScheduler;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
@@ -67,6 +69,9 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
 {
     private static final Logger LOG = LoggerFactory.getLogger( BindRequestHandler.class );
 
+    /** The counter of the failed binds whose connection was closed instead of delaying the response */
+    private static final String REJECTED_DELAYED_BINDS_COUNTER = "ldap.rejectedDelayedBinds";
+
     /** A Hashed Adapter mapping SASL mechanisms to their handlers. */
     private Map<String, MechanismHandler> handlers;
 
@@ -117,6 +122,9 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
         bindContext.setIoSession( ldapSession.getIoSession() );
         bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
 
+        // The failed bind responses are delayed by the scheduler, not by the interceptors
+        bindContext.setFailureDelayDeferred( ldapServer.getDelayedResponseScheduler() != null );
+
         // Stores the request controls into the operation context
         LdapProtocolUtils.setRequestControls( bindContext, bindRequest );
 
@@ -256,6 +264,22 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
             // Before writing the response, be sure the session is set to anonymous
             ldapSession.setAnonymous();
 
+            if ( bindContext.getFailureDelay() > 0 )
+            {
+                // Only the response is delayed : the session is already anonymous, so
+                // the other requests of the client are processed meanwhile
+                boolean isResponseDelayed = scheduleFailedBindResponse( ldapSession, bindRequest,
+                    bindContext.getFailureDelay() );
+
+                if ( !isResponseDelayed )
+                {
+                    // Too many pending responses for this client
+                    ldapSession.getIoSession().close( true );
+                }
+
+                return;
+            }
+
             // Write the response
             ldapSession.getIoSession().write( bindRequest.getResultResponse() );
         }
@@ -270,6 +294,49 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
     }
 
 
+    /**
+     * Sends a failed bind response after a delay, without blocking the current thread.
+     *
+     * @param ldapSession The associated Session
+     * @param bindRequest The BindRequest which has failed
+     * @param delay The delay, in milliseconds
+     * @return false if the response can't be delayed
+     */
+    private boolean scheduleFailedBindResponse( final LdapSession ldapSession, final BindRequest bindRequest,
+        long delay )
+    {
+        DelayedResponseScheduler scheduler = ldapServer.getDelayedResponseScheduler();
+
+        if ( scheduler == null )
+        {
+            return false;
+        }
+
+        boolean scheduled = scheduler.schedule( ldapSession.getIoSession(), new Runnable()
+        {
+            public void run()
+            {
+                if ( ldapSession.getIoSession().isConnected() )
+                {
+                    ldapSession.getIoSession().write( bindRequest.getResultResponse() );
+                }
+            }
+        }, delay );
+
+        if ( !scheduled )
+        {
+            MetricsRegistry metricsRegistry = ldapServer.getDirectoryService().getMetricsRegistry();
+
+            if ( metricsRegistry != null )
+            {
+                metricsRegistry.getCounter( REJECTED_DELAYED_BINDS_COUNTER ).increment();
+            }
+        }
+
+        return scheduled;
+    }
+
+
     /**
      * Check if the mechanism exists.
      */
@@ -38,6 +38,7 @@ import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoPermissionException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
 import org.apache.directory.api.ldap.model.exception.OperationAbandonedException;
@@ -72,6 +73,7 @@ import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapSession;
@@ -96,6 +98,9 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     private static final Logger LOG = LoggerFactory.getLogger( SearchRequestHandler.class );
 
     private static final Logger SEARCH_TIME_LOG = LoggerFactory.getLogger( "org.apache.directory.server.ldap.handlers.request.SEARCH_TIME_LOG" );
+
+    /** The logger for the searches taking more than the LdapServer slow search threshold, as JSON traces */
+    private static final Logger SLOW_SEARCH_LOG = LoggerFactory.getLogger( "org.apache.directory.server.ldap.handlers.request.SLOW_SEARCH_LOG" );
     
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG.isDebugEnabled();
@@ -152,7 +157,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          */
         if ( !psearch.isChangesOnly() )
         {
-            SearchResultDone done = doSimpleSearch( session, req );
+            SearchResultDone done = doSimpleSearch( session, req, null );
 
             // ok if normal search beforehand failed somehow quickly abandon psearch
             if ( done.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS )
@@ -390,7 +395,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
 
     private void writeResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
-        Cursor<Entry> cursor, long sizeLimit ) throws Exception
+        Cursor<Entry> cursor, long sizeLimit, SearchTrace trace ) throws Exception
     {
         long count = 0;
 
@@ -423,8 +428,15 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
 
             Entry entry = cursor.get();
+            long writeStart = ( trace != null ) ? System.nanoTime() : 0L;
             session.getIoSession().write( generateResponse( session, req, entry ) );
 
+            if ( trace != null )
+            {
+                trace.addStageTime( SearchTrace.WRITE_STAGE, writeStart );
+                trace.incrementReturned();
+            }
+
             if ( IS_DEBUG )
             {
                 LOG.debug( "Sending {}", entry.getDn() );
@@ -676,7 +688,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 try
                 {
                     // And write the entries
-                    writeResults( session, req, ldapResult, cursor, sizeLimit );
+                    writeResults( session, req, ldapResult, cursor, sizeLimit, null );
                 }
                 finally
                 {
@@ -805,10 +817,12 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
      * <br>
      * @param session the LDAP session object for this request
      * @param req the search request
+     * @param trace the search trace, or null if the search is not traced
      * @return the result done
      * @throws Exception if there are failures while processing the request
      */
-    private SearchResultDone doSimpleSearch( LdapSession session, SearchRequest req ) throws Exception
+    private SearchResultDone doSimpleSearch( LdapSession session, SearchRequest req, SearchTrace trace )
+        throws Exception
     {
         LdapResult ldapResult = req.getResultResponse().getLdapResult();
 
@@ -824,7 +838,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         // A normal search
         // Check that we have a cursor or not.
         // No cursor : do a search.
-        Cursor<Entry> cursor = session.getCoreSession().search( req );
+        Cursor<Entry> cursor = session.getCoreSession().search( req, trace );
 
         // register the request in the session
         session.registerSearchRequest( req, cursor );
@@ -854,7 +868,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
             long sizeLimit = min( requestLimit, serverLimit );
 
-            writeResults( session, req, ldapResult, cursor, sizeLimit );
+            writeResults( session, req, ldapResult, cursor, sizeLimit, trace );
         }
         catch ( Exception e )
         {
@@ -1176,7 +1190,14 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 filter = req.getFilter().toString();
             }
             
-            SearchResultDone done = doSimpleSearch( session, req );
+            SearchTrace trace = createTrace( session, req );
+            SearchResultDone done = doSimpleSearch( session, req, trace );
+
+            if ( trace != null )
+            {
+                logTrace( req, done, trace );
+            }
+
             session.getIoSession().write( done );
             
             if ( isLogSearchTime )
@@ -1226,6 +1247,70 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Creates the execution trace of a search, if the explain control is present or if
+     * the slow searches are logged.
+     *
+     * @param session the LdapSession for which this search is conducted
+     * @param req the search request
+     * @return the trace, or null if the search does not have to be traced
+     * @throws LdapException if a non administrator requested the plan with a critical control
+     */
+    private SearchTrace createTrace( LdapSession session, SearchRequest req ) throws LdapException
+    {
+        Control explain = req.getControls().get( SearchTrace.EXPLAIN_CONTROL_OID );
+
+        // The plan discloses the index counts, only the administrators can get it
+        if ( ( explain != null ) && !session.getCoreSession().isAnAdministrator() )
+        {
+            if ( explain.isCritical() )
+            {
+                throw new LdapNoPermissionException( "Only an administrator can request a search plan" );
+            }
+
+            explain = null;
+        }
+
+        if ( ( explain == null ) && ( ldapServer.getSlowSearchThreshold() < 0 ) )
+        {
+            return null;
+        }
+
+        SearchTrace trace = new SearchTrace( explain != null );
+        trace.setRequest( req.getBase().getName(), req.getScope().name(), req.getFilter().toString() );
+
+        return trace;
+    }
+
+
+    /**
+     * Sends the plan back if it was requested, and logs the trace if the search was slow.
+     *
+     * @param req the search request
+     * @param done the search result
+     * @param trace the search trace
+     */
+    private void logTrace( SearchRequest req, SearchResultDone done, SearchTrace trace )
+    {
+        trace.done();
+
+        if ( trace.isExplainOnly() )
+        {
+            // The plan is returned as the diagnostic message of the SearchResultDone
+            done.getLdapResult().setDiagnosticMessage( trace.toJson() );
+
+            return;
+        }
+
+        long threshold = ldapServer.getSlowSearchThreshold();
+
+        if ( ( threshold >= 0 ) && ( ( trace.getDuration() / 1000000L ) >= threshold ) )
+        {
+            SLOW_SEARCH_LOG.warn( trace.toJson() );
+        }
+    }
+
+
     /**
      * Handles processing with referrals without ManageDsaIT decorator.
      */
@@ -33,6 +33,7 @@ import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
 import org.apache.mina.core.filterchain.IoFilterChainBuilder;
+import org.apache.mina.filter.executor.ExecutorFilter;
 import org.apache.mina.filter.ssl.SslFilter;
 
 
@@ -55,18 +56,22 @@ public class LdapsInitializer
      */
     public static IoFilterChainBuilder init( LdapServer ldapServer, TcpTransport transport ) throws LdapException
     {
-        SSLContext sslCtx;
+        // Use the SSLContext shared with StartTLS, so that the TLS sessions are resumed from the same cache
+        SSLContext sslCtx = ldapServer.getSslContext();
 
-        try
+        if ( sslCtx == null )
         {
-            // Initialize the SSLContext to work with our key managers.
-            sslCtx = SSLContext.getInstance( "TLS" );
-            sslCtx.init( ldapServer.getKeyManagerFactory().getKeyManagers(), new TrustManager[]
-                { new NoVerificationTrustManager() }, new SecureRandom() );
-        }
-        catch ( Exception e )
-        {
-            throw new LdapException( I18n.err( I18n.ERR_683 ), e );
+            try
+            {
+                // Initialize the SSLContext to work with our key managers.
+                sslCtx = SSLContext.getInstance( "TLS" );
+                sslCtx.init( ldapServer.getKeyManagerFactory().getKeyManagers(), new TrustManager[]
+                    { new NoVerificationTrustManager() }, new SecureRandom() );
+            }
+            catch ( Exception e )
+            {
+                throw new LdapException( I18n.err( I18n.ERR_683 ), e );
+            }
         }
 
         DefaultIoFilterChainBuilder chain = new DefaultIoFilterChainBuilder();
@@ -98,8 +103,23 @@ public class LdapsInitializer
         sslFilter.setNeedClientAuth( transport.isNeedClientAuth() );
         sslFilter.setWantClientAuth( transport.isWantClientAuth() );
 
+        // Process the TLS traffic and the handshakes on their own threads
+        ExecutorFilter tlsExecutorFilter = ldapServer.getTlsExecutorFilter();
+
+        if ( tlsExecutorFilter != null )
+        {
+            chain.addLast( "tlsExecutor", tlsExecutorFilter );
+        }
+
         chain.addLast( "sslFilter", sslFilter );
 
+        TlsHandshakeMetricsFilter tlsMetricsFilter = ldapServer.getTlsHandshakeMetricsFilter();
+
+        if ( tlsMetricsFilter != null )
+        {
+            chain.addLast( "tlsMetrics", tlsMetricsFilter );
+        }
+
         return chain;
     }
 }
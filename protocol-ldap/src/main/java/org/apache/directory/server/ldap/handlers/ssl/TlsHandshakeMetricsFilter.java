@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.ssl;
+
+
+import javax.net.ssl.SSLSession;
+
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.ssl.SslFilter;
+
+
+/**
+ * A filter placed right after the SslFilter, which counts the TLS handshakes once they
+ * are completed. A handshake is a resumption when the TLS session has been created
+ * before the handshake started : the session comes from the server session cache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TlsHandshakeMetricsFilter extends IoFilterAdapter
+{
+    /** The counter of the full handshakes */
+    public static final String FULL_HANDSHAKES_COUNTER = "ldap.tls.fullHandshakes";
+
+    /** The counter of the handshakes which have resumed a cached TLS session */
+    public static final String RESUMED_HANDSHAKES_COUNTER = "ldap.tls.resumedHandshakes";
+
+    /** The time the handshake has started, when it's not the connection creation time (StartTLS) */
+    public static final AttributeKey HANDSHAKE_START = new AttributeKey( TlsHandshakeMetricsFilter.class,
+        "handshakeStart" );
+
+    /** Set once the handshake has been counted */
+    private static final AttributeKey HANDSHAKE_COUNTED = new AttributeKey( TlsHandshakeMetricsFilter.class,
+        "handshakeCounted" );
+
+    /** The registry the counters are stored in */
+    private final MetricsRegistry metricsRegistry;
+
+
+    /**
+     * Creates a new instance of TlsHandshakeMetricsFilter.
+     *
+     * @param metricsRegistry The registry the counters are stored in
+     */
+    public TlsHandshakeMetricsFilter( MetricsRegistry metricsRegistry )
+    {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messageReceived( NextFilter nextFilter, IoSession session, Object message ) throws Exception
+    {
+        countHandshake( session );
+
+        nextFilter.messageReceived( session, message );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sessionClosed( NextFilter nextFilter, IoSession session ) throws Exception
+    {
+        // The client may have closed the connection without sending any request
+        countHandshake( session );
+
+        nextFilter.sessionClosed( session );
+    }
+
+
+    private void countHandshake( IoSession session )
+    {
+        if ( session.containsAttribute( HANDSHAKE_COUNTED ) )
+        {
+            return;
+        }
+
+        SSLSession sslSession = ( SSLSession ) session.getAttribute( SslFilter.SSL_SESSION );
+
+        if ( sslSession == null )
+        {
+            // The handshake is not completed yet
+            return;
+        }
+
+        session.setAttribute( HANDSHAKE_COUNTED );
+
+        Long start = ( Long ) session.getAttribute( HANDSHAKE_START );
+        long handshakeStart = ( start != null ) ? start : session.getCreationTime();
+
+        if ( sslSession.getCreationTime() < handshakeStart )
+        {
+            metricsRegistry.getCounter( RESUMED_HANDSHAKES_COUNTER ).increment();
+        }
+        else
+        {
+            metricsRegistry.getCounter( FULL_HANDSHAKES_COUNTER ).increment();
+        }
+    }
+}
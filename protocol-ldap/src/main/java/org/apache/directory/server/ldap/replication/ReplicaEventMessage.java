@@ -21,8 +21,11 @@
 package org.apache.directory.server.ldap.replication;
 
 
+import java.util.List;
+
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
@@ -41,14 +44,32 @@ public class ReplicaEventMessage
     /** The entry */
     private Entry entry;
 
+    /** The modifications applied on the entry by a Modify operation, if known */
+    private List<Modification> modifications;
+
     /**
      * Create a new ReplicaEvent instance for a Add/Delete+Modify operation
      * @param changeType The change type
      * @param entry The entry
      */
     public ReplicaEventMessage( ChangeType changeType, Entry entry )
+    {
+        this( changeType, entry, null );
+    }
+
+
+    /**
+     * Create a new ReplicaEvent instance for a Modify operation, storing the modifications
+     * so that they can be sent to the consumers asking for the deltas
+     * 
+     * @param changeType The change type
+     * @param entry The modified entry
+     * @param modifications The modifications applied on the entry
+     */
+    public ReplicaEventMessage( ChangeType changeType, Entry entry, List<Modification> modifications )
     {
         this.changeType = changeType;
+        this.modifications = modifications;
         
         if ( entry instanceof ClonedServerEntry )
         {
@@ -79,6 +100,15 @@ public class ReplicaEventMessage
     }
 
 
+    /**
+     * @return The modifications applied on the entry, or null if they are not known
+     */
+    public List<Modification> getModifications()
+    {
+        return modifications;
+    }
+
+
     /**
      * checks if the event's CSN is older than the given CSN
      *
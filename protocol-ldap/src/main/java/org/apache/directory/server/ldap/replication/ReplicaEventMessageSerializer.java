@@ -26,11 +26,13 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.util.List;
 
 import jdbm.helper.Serializer;
 
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
@@ -44,7 +46,10 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
  * <li>byte : EventType</li>
  * <li>byte[] : the serialized DN</li>
  * <li>byte[] : the serialized entry</li>
+ * <li>boolean : true if the modifications follow</li>
+ * <li>byte[] : the modifications, as serialized by {@link SyncReplDelta#writeModifications}</li>
  * </ul>
+ * The messages written before the modifications were stored end with the entry.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -90,6 +95,19 @@ public class ReplicaEventMessageSerializer implements Serializer
         // The entry
         entry.writeExternal( out );
 
+        // The modifications, if any
+        List<Modification> modifications = replicaEventMessage.getModifications();
+
+        if ( modifications != null )
+        {
+            out.writeBoolean( true );
+            SyncReplDelta.writeModifications( out, modifications );
+        }
+        else
+        {
+            out.writeBoolean( false );
+        }
+
         out.flush();
 
         return baos.toByteArray();
@@ -124,8 +142,16 @@ public class ReplicaEventMessageSerializer implements Serializer
             entry.readExternal( in );
             entry.setDn( entryDn );
 
+            // The modifications, if they have been stored
+            List<Modification> modifications = null;
+
+            if ( ( in.available() > 0 ) && in.readBoolean() )
+            {
+                modifications = SyncReplDelta.readModifications( in, schemaManager );
+            }
+
             // And create a ReplicaEventMessage
-            replicaEventMessage = new ReplicaEventMessage( changeType, entry );
+            replicaEventMessage = new ReplicaEventMessage( changeType, entry, modifications );
         }
         catch ( ClassNotFoundException cnfe )
         {
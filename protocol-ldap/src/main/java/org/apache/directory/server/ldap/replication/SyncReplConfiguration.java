@@ -56,6 +56,8 @@ import org.apache.directory.ldap.client.api.NoVerificationTrustManager;
  *   <li>useTls : the connection uses TLS, defaults to true</li>
  *   <li>strictCertVerification : strictly verify the certificate, defaults to true</li>
  *   <li>trustManager : the trustManager to use, defaults to @link{NoVerificationTrustManager}</li>
+ *   <li>deltaMode : the modifications are replicated instead of the modified entries, defaults to false</li>
+ *   <li>applyThreads : the number of threads applying the received changes, defaults to 1</li>
  *   <li></li>
  * </ul>
  * 
@@ -131,6 +133,12 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     /** flag to indicate if this node is part of a MMR setup, default value is true */
     private boolean mmrMode = true;
 
+    /** flag to indicate if the provider sends the modifications instead of the modified entries, default is false */
+    private boolean deltaMode = false;
+
+    /** the number of threads applying the received changes, default is 1 */
+    private int applyThreads = 1;
+
 
     /**
      * Creates a new instance of SyncreplConfiguration
@@ -572,6 +580,47 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     }
 
 
+    /**
+     * @return true if the provider sends the modifications instead of the modified entries
+     */
+    public boolean isDeltaMode()
+    {
+        return deltaMode;
+    }
+
+
+    /**
+     * enable/disable the delta replication
+     *
+     * @param deltaMode
+     */
+    public void setDeltaMode( boolean deltaMode )
+    {
+        this.deltaMode = deltaMode;
+    }
+
+
+    /**
+     * @return the number of threads applying the received changes
+     */
+    public int getApplyThreads()
+    {
+        return applyThreads;
+    }
+
+
+    /**
+     * Sets the number of threads applying the received changes. The changes on
+     * different entries are applied concurrently when it's above 1.
+     *
+     * @param applyThreads the number of threads
+     */
+    public void setApplyThreads( int applyThreads )
+    {
+        this.applyThreads = applyThreads > 0 ? applyThreads : 1;
+    }
+
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
@@ -625,6 +674,16 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
             sb.append( "MS, " );
         }
 
+        if ( deltaMode )
+        {
+            sb.append( "delta, " );
+        }
+
+        if ( applyThreads > 1 )
+        {
+            sb.append( "apply threads:" ).append( applyThreads ).append( ", " );
+        }
+
         sb.append( "provider:" ).append( producer ).append( ", " );
         sb.append( "user:'" ).append( replUserDn ).append( "', " );
 
@@ -0,0 +1,288 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.codec.api.CodecControl;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+
+
+/**
+ * Helper methods for the delta replication : instead of the whole modified entry, the
+ * provider sends the modifications done on the entry, and the consumer applies them.
+ * <br>
+ * A consumer asks for the deltas by adding a control with the {@link #DELTA_CONTROL_OID}
+ * OID, without value, to its syncrepl search request. The provider then sends a MODIFY
+ * as a SearchResultEntry containing only the entryUUID and entryCSN attributes, with a
+ * control having the same OID, whose value is the serialized modifications.
+ * <br>
+ * The modifications are serialized as :
+ * <ul>
+ * <li>int : the number of modifications</li>
+ * <li>byte[] : each serialized modification</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class SyncReplDelta
+{
+    /** The OID of the control requesting and carrying the deltas */
+    public static final String DELTA_CONTROL_OID = "1.3.6.1.4.1.18060.0.0.1.11";
+
+    /** The attributes which are not replicated by the modifications */
+    private static final String[] IGNORED_AT = new String[]
+        {
+            SchemaConstants.ENTRY_UUID_AT,
+            SchemaConstants.ENTRY_DN_AT,
+            SchemaConstants.CREATE_TIMESTAMP_AT,
+            SchemaConstants.CREATORS_NAME_AT,
+            SchemaConstants.ENTRY_PARENT_ID_AT
+    };
+
+
+    private SyncReplDelta()
+    {
+    }
+
+
+    /**
+     * Tells if the modifications of an attribute are replicated
+     *
+     * @param attributeType The modified attribute
+     * @return true if the modifications are replicated
+     */
+    public static boolean isReplicated( AttributeType attributeType )
+    {
+        if ( attributeType == null )
+        {
+            return true;
+        }
+
+        for ( String ignored : IGNORED_AT )
+        {
+            if ( attributeType.getName().equalsIgnoreCase( ignored ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Keeps the replicated modifications of a modify operation
+     *
+     * @param modifications The modifications of the operation
+     * @return The replicated modifications
+     */
+    public static List<Modification> getReplicatedModifications( List<Modification> modifications )
+    {
+        List<Modification> replicated = new ArrayList<Modification>( modifications.size() );
+
+        for ( Modification modification : modifications )
+        {
+            if ( isReplicated( modification.getAttribute().getAttributeType() ) )
+            {
+                replicated.add( modification );
+            }
+        }
+
+        return replicated;
+    }
+
+
+    /**
+     * Writes a list of modifications
+     *
+     * @param out The stream to write to
+     * @param modifications The modifications
+     * @throws IOException If the modifications can't be written
+     */
+    public static void writeModifications( ObjectOutput out, List<Modification> modifications ) throws IOException
+    {
+        out.writeInt( modifications.size() );
+
+        for ( Modification modification : modifications )
+        {
+            modification.writeExternal( out );
+        }
+    }
+
+
+    /**
+     * Reads a list of modifications, and applies the schema on them
+     *
+     * @param in The stream to read from
+     * @param schemaManager The schema manager
+     * @return The modifications
+     * @throws IOException If the modifications can't be read
+     */
+    public static List<Modification> readModifications( ObjectInput in, SchemaManager schemaManager )
+        throws IOException
+    {
+        int nbModifications = in.readInt();
+        List<Modification> modifications = new ArrayList<Modification>( nbModifications );
+
+        for ( int i = 0; i < nbModifications; i++ )
+        {
+            Modification modification = new DefaultModification();
+
+            try
+            {
+                modification.readExternal( in );
+                modifications.add( new DefaultModification( schemaManager, modification ) );
+            }
+            catch ( IOException ioe )
+            {
+                throw ioe;
+            }
+            catch ( Exception e )
+            {
+                throw new IOException( e.getMessage() );
+            }
+        }
+
+        return modifications;
+    }
+
+
+    /**
+     * Serializes a list of modifications
+     *
+     * @param modifications The modifications
+     * @return The serialized modifications
+     * @throws IOException If the modifications can't be serialized
+     */
+    public static byte[] serialize( List<Modification> modifications ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput out = new ObjectOutputStream( baos );
+
+        writeModifications( out, modifications );
+        out.flush();
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Deserializes a list of modifications
+     *
+     * @param bytes The serialized modifications
+     * @param schemaManager The schema manager
+     * @return The modifications
+     * @throws IOException If the modifications can't be deserialized
+     */
+    public static List<Modification> deserialize( byte[] bytes, SchemaManager schemaManager ) throws IOException
+    {
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
+
+        return readModifications( in, schemaManager );
+    }
+
+
+    /**
+     * Creates the control sent with a MODIFY, carrying the modifications
+     *
+     * @param modifications The modifications
+     * @return The control
+     * @throws IOException If the modifications can't be serialized
+     */
+    public static Control createControl( List<Modification> modifications ) throws IOException
+    {
+        OpaqueControl control = new OpaqueControl( DELTA_CONTROL_OID );
+        control.setEncodedValue( serialize( modifications ) );
+
+        return control;
+    }
+
+
+    /**
+     * Reads the modifications carried by a delta control
+     *
+     * @param control The received control
+     * @param schemaManager The schema manager
+     * @return The modifications, or null if the control has no value
+     * @throws IOException If the modifications can't be deserialized
+     */
+    public static List<Modification> getModifications( Control control, SchemaManager schemaManager )
+        throws IOException
+    {
+        byte[] value = null;
+
+        if ( control instanceof CodecControl<?> )
+        {
+            value = ( ( CodecControl<?> ) control ).getValue();
+        }
+
+        if ( ( value == null ) && ( control instanceof OpaqueControl ) )
+        {
+            value = ( ( OpaqueControl ) control ).getEncodedValue();
+        }
+
+        if ( ( value == null ) || ( value.length == 0 ) )
+        {
+            return null;
+        }
+
+        return deserialize( value, schemaManager );
+    }
+
+
+    /**
+     * Creates the entry sent with a MODIFY : only the entryUUID and the entryCSN are sent,
+     * the modifications are carried by the delta control.
+     *
+     * @param entry The modified entry
+     * @return The entry to send
+     * @throws LdapException If the entry can't be created
+     */
+    public static Entry createDeltaEntry( Entry entry ) throws LdapException
+    {
+        Attribute uuid = entry.get( SchemaConstants.ENTRY_UUID_AT );
+        Attribute csn = entry.get( SchemaConstants.ENTRY_CSN_AT );
+
+        Entry deltaEntry = entry.clone();
+        deltaEntry.clear();
+        deltaEntry.add( uuid, csn );
+
+        return deltaEntry;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Applies the changes received by a consumer with a few worker threads. Each change
+ * is submitted with its keys (the DN of the entry) : the changes sharing a key with a
+ * change not yet applied are queued on the same worker, so they are applied in the order
+ * they have been received, while the other changes are applied concurrently. A change
+ * may also depend on some keys it doesn't own (the DN of the parent for an ADD) : it's
+ * queued after the changes of those keys not yet applied, if any. The adds of siblings
+ * are thus spread over the workers once their parent is applied. A change submitted
+ * without key is a barrier : it's applied once all the previous changes are, before the
+ * next ones.
+ * <br>
+ * The cookies received with the changes are handed to the listener in order, once all
+ * the changes received before them have been applied.
+ * <br>
+ * The changes must be submitted by a single thread.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ApplyPipeline
+{
+    /** Logger for the replication consumer */
+    private static final Logger CONSUMER_LOG = LoggerFactory.getLogger( Loggers.CONSUMER_LOG.getName() );
+
+    /** The default number of changes queued on a worker */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /**
+     * The listener notified of the cookies which can be stored
+     */
+    public interface CookieListener
+    {
+        /**
+         * Called when all the changes received up to a cookie have been applied
+         *
+         * @param cookie The cookie
+         */
+        void applied( byte[] cookie );
+    }
+
+    /**
+     * The state of a key used by some changes not yet applied
+     */
+    private static class KeyState
+    {
+        private final int worker;
+        private int count;
+
+
+        private KeyState( int worker )
+        {
+            this.worker = worker;
+        }
+    }
+
+    /**
+     * A submitted change
+     */
+    private class Task
+    {
+        private final long seq;
+        private final Collection<String> keys;
+        private final Runnable change;
+
+
+        private Task( long seq, Collection<String> keys, Runnable change )
+        {
+            this.seq = seq;
+            this.keys = keys;
+            this.change = change;
+        }
+    }
+
+    /**
+     * A thread applying the changes of its queue
+     */
+    private class Worker extends Thread
+    {
+        private final BlockingQueue<Task> queue;
+
+
+        private Worker( String name, int queueSize )
+        {
+            super( name );
+            queue = new LinkedBlockingQueue<Task>( queueSize );
+            setDaemon( true );
+        }
+
+
+        public void run()
+        {
+            while ( !stopped )
+            {
+                Task task = null;
+
+                try
+                {
+                    task = queue.poll( 1, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException ie )
+                {
+                    break;
+                }
+
+                if ( task == null )
+                {
+                    continue;
+                }
+
+                try
+                {
+                    task.change.run();
+                }
+                catch ( RuntimeException re )
+                {
+                    CONSUMER_LOG.error( "Failed to apply a replicated change", re );
+                }
+                finally
+                {
+                    completed( task );
+                }
+            }
+        }
+    }
+
+    /** The workers */
+    private final Worker[] workers;
+
+    /** The listener notified of the cookies */
+    private final CookieListener listener;
+
+    /** The keys of the changes not yet applied */
+    private final Map<String, KeyState> inFlight = new HashMap<String, KeyState>();
+
+    /** The sequence numbers of the changes not yet applied */
+    private final TreeSet<Long> pending = new TreeSet<Long>();
+
+    /** The cookies received with the changes not yet notified, by sequence number */
+    private final TreeMap<Long, byte[]> cookies = new TreeMap<Long, byte[]>();
+
+    /** The sequence number of the last submitted change */
+    private long lastSeq;
+
+    /** Set when the pipeline is stopped */
+    private volatile boolean stopped;
+
+
+    /**
+     * Creates a new instance of ApplyPipeline, and starts its workers.
+     *
+     * @param name The name of the pipeline, used to name the workers
+     * @param nbWorkers The number of workers
+     * @param queueSize The number of changes queued on a worker before the submission blocks
+     * @param listener The listener notified of the cookies
+     */
+    public ApplyPipeline( String name, int nbWorkers, int queueSize, CookieListener listener )
+    {
+        this.listener = listener;
+        workers = new Worker[Math.max( 1, nbWorkers )];
+
+        for ( int i = 0; i < workers.length; i++ )
+        {
+            workers[i] = new Worker( name + "-apply-" + i, Math.max( 1, queueSize ) );
+            workers[i].start();
+        }
+    }
+
+
+    /**
+     * Submits a change
+     *
+     * @param keys The keys of the change, or null if the change is a barrier
+     * @param cookie The cookie received with the change, if any
+     * @param change The change
+     * @throws InterruptedException If the submission is interrupted
+     */
+    public void submit( Collection<String> keys, byte[] cookie, Runnable change ) throws InterruptedException
+    {
+        submit( keys, null, cookie, change );
+    }
+
+
+    /**
+     * Submits a change which must be applied after the pending changes of some other keys
+     *
+     * @param keys The keys of the change, or null if the change is a barrier
+     * @param dependencies The keys whose pending changes must be applied first, if any
+     * @param cookie The cookie received with the change, if any
+     * @param change The change
+     * @throws InterruptedException If the submission is interrupted
+     */
+    public void submit( Collection<String> keys, Collection<String> dependencies, byte[] cookie, Runnable change )
+        throws InterruptedException
+    {
+        if ( ( keys == null ) || keys.isEmpty() )
+        {
+            applyBarrier( cookie, change );
+
+            return;
+        }
+
+        Worker worker;
+        Task task;
+
+        synchronized ( this )
+        {
+            int workerIndex = getWorker( keys, dependencies );
+
+            while ( ( workerIndex < 0 ) && !stopped )
+            {
+                // The keys are used by changes queued on different workers
+                wait();
+                workerIndex = getWorker( keys, dependencies );
+            }
+
+            if ( stopped )
+            {
+                return;
+            }
+
+            for ( String key : keys )
+            {
+                KeyState state = inFlight.get( key );
+
+                if ( state == null )
+                {
+                    state = new KeyState( workerIndex );
+                    inFlight.put( key, state );
+                }
+
+                state.count++;
+            }
+
+            task = new Task( ++lastSeq, keys, change );
+            pending.add( task.seq );
+
+            if ( cookie != null )
+            {
+                cookies.put( task.seq, cookie );
+            }
+
+            worker = workers[workerIndex];
+        }
+
+        // Only the submitting thread puts the tasks, so they are queued in order
+        while ( !stopped && !worker.queue.offer( task, 1, TimeUnit.SECONDS ) )
+        {
+            continue;
+        }
+    }
+
+
+    /**
+     * Applies a barrier once all the previous changes are applied
+     */
+    private void applyBarrier( byte[] cookie, Runnable change ) throws InterruptedException
+    {
+        drain();
+
+        if ( stopped )
+        {
+            return;
+        }
+
+        change.run();
+
+        if ( cookie != null )
+        {
+            synchronized ( this )
+            {
+                listener.applied( cookie );
+            }
+        }
+    }
+
+
+    /**
+     * Finds the worker to use for a change
+     *
+     * @return The worker index, or -1 if the keys are used on different workers
+     */
+    private int getWorker( Collection<String> keys, Collection<String> dependencies )
+    {
+        List<String> usedKeys = new ArrayList<String>( keys );
+
+        if ( dependencies != null )
+        {
+            usedKeys.addAll( dependencies );
+        }
+
+        int workerIndex = -1;
+
+        for ( String key : usedKeys )
+        {
+            KeyState state = inFlight.get( key );
+
+            if ( state != null )
+            {
+                if ( ( workerIndex >= 0 ) && ( workerIndex != state.worker ) )
+                {
+                    return -1;
+                }
+
+                workerIndex = state.worker;
+            }
+        }
+
+        if ( workerIndex < 0 )
+        {
+            workerIndex = ( keys.iterator().next().hashCode() & 0x7FFFFFFF ) % workers.length;
+        }
+
+        return workerIndex;
+    }
+
+
+    /**
+     * Releases the keys of an applied change, and notifies the listener of the last
+     * cookie whose previous changes are all applied
+     */
+    private synchronized void completed( Task task )
+    {
+        for ( String key : task.keys )
+        {
+            KeyState state = inFlight.get( key );
+
+            if ( ( state != null ) && ( --state.count == 0 ) )
+            {
+                inFlight.remove( key );
+            }
+        }
+
+        pending.remove( task.seq );
+
+        // All the changes up to the watermark are applied
+        long watermark = pending.isEmpty() ? lastSeq : pending.first() - 1;
+        Map.Entry<Long, byte[]> cookie = cookies.floorEntry( watermark );
+
+        if ( cookie != null )
+        {
+            cookies.headMap( watermark, true ).clear();
+
+            try
+            {
+                listener.applied( cookie.getValue() );
+            }
+            catch ( RuntimeException re )
+            {
+                CONSUMER_LOG.error( "Failed to store the replication cookie", re );
+            }
+        }
+
+        notifyAll();
+    }
+
+
+    /**
+     * Waits until all the submitted changes are applied, or the pipeline is stopped
+     *
+     * @throws InterruptedException If the wait is interrupted
+     */
+    public synchronized void drain() throws InterruptedException
+    {
+        while ( !pending.isEmpty() && !stopped )
+        {
+            wait( 1000L );
+        }
+    }
+
+
+    /**
+     * Stops the workers once they are done with the change they are applying. The
+     * queued changes are not applied, and their cookies are not notified.
+     */
+    public void stop()
+    {
+        stopped = true;
+
+        synchronized ( this )
+        {
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * @return The number of changes not yet applied
+     */
+    public synchronized int getPendingCount()
+    {
+        return pending.size();
+    }
+}
@@ -22,6 +22,7 @@ package org.apache.directory.server.ldap.replication.consumer;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +58,7 @@ import org.apache.directory.api.ldap.model.filter.NotNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.IntermediateResponse;
 import org.apache.directory.api.ldap.model.message.Response;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
@@ -67,6 +69,7 @@ import org.apache.directory.api.ldap.model.message.SearchResultEntry;
 import org.apache.directory.api.ldap.model.message.SearchResultReference;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.controls.ManageDsaITImpl;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
 import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.message.controls.SortRequest;
 import org.apache.directory.api.ldap.model.message.controls.SortRequestControlImpl;
@@ -82,6 +85,8 @@ import org.apache.directory.ldap.client.api.future.SearchFuture;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.changelog.ChangeLog;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
@@ -89,9 +94,13 @@ import org.apache.directory.server.core.api.interceptor.context.ModifyOperationC
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
+import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.replication.ReplicationConsumerConfig;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
+import org.apache.directory.server.ldap.replication.SyncReplDelta;
+import org.apache.directory.server.ldap.replication.provider.SyncReplSearchListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -162,6 +171,21 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
     private static final Map<String, Object> uuidLockMap = new LRUMap( 1000 );
 
+    /** The partition loaded directly while the local replica is initially empty, null otherwise */
+    private Partition initialLoadPartition;
+
+    /** The number of entries added during the initial load */
+    private long initialLoadCount;
+
+    /** The time the initial load started */
+    private long initialLoadStart;
+
+    /** Tells if the partition could not be flushed after the initial load : no cookie is stored then */
+    private volatile boolean initialLoadFailed;
+
+    /** The pipeline applying the changes concurrently, if more than one thread is configured */
+    private volatile ApplyPipeline applyPipeline;
+
 
     /**
      * @return the config
@@ -294,6 +318,12 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                 new ManageDsaITImpl() ) );
         }
 
+        if ( config.isDeltaMode() )
+        {
+            // Ask the provider to send the modifications instead of the modified entries
+            searchRequest.addControl( new OpaqueControl( SyncReplDelta.DELTA_CONTROL_OID ) );
+        }
+
         if ( CONSUMER_LOG.isDebugEnabled() )
         {
             MDC.put( "Replica", Integer.toString( config.getReplicaId() ) );
@@ -306,6 +336,9 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     {
         CONSUMER_LOG.debug( "///////////////// handleSearchDone //////////////////" );
 
+        endInitialLoad();
+        drainApplyPipeline();
+
         SyncDoneValue ctrl = ( SyncDoneValue ) searchDone.getControls().get( SyncDoneValue.OID );
 
         if ( ( ctrl != null ) && ( ctrl.getCookie() != null ) )
@@ -331,7 +364,93 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
 
     /**
-     * Process a SearchResultEntry received from a consumer. We have to handle all the
+     * Process a SearchResultEntry received from a consumer. The entry is applied right
+     * away, or submitted to the apply pipeline.
+     * @param syncResult
+     */
+    private void handleSearchResultEntry( final SearchResultEntry syncResult )
+    {
+        SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
+        SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+
+        if ( ( initialLoadPartition != null ) && ( state != SyncStateTypeEnum.ADD ) )
+        {
+            // The initial content has been sent
+            endInitialLoad();
+        }
+
+        ApplyPipeline pipeline = applyPipeline;
+
+        if ( ( pipeline == null ) || ( initialLoadPartition != null ) )
+        {
+            applySearchResultEntry( syncResult, true );
+
+            return;
+        }
+
+        try
+        {
+            Dn dn = getApplyDn( state, syncResult.getObjectName() );
+            List<String> keys = null;
+            List<String> dependencies = null;
+
+            if ( dn != null )
+            {
+                keys = Collections.singletonList( dn.getNormName() );
+
+                if ( state == SyncStateTypeEnum.ADD )
+                {
+                    // The parent must be added first
+                    dependencies = Collections.singletonList( dn.getParent().getNormName() );
+                }
+            }
+
+            pipeline.submit( keys, dependencies, syncStateCtrl.getCookie(),
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        applySearchResultEntry( syncResult, false );
+                    }
+                } );
+        }
+        catch ( InterruptedException ie )
+        {
+            CONSUMER_LOG.warn( "Interrupted while applying the changes received from {}", config.getProducer() );
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Gets the normalized DN of the entry a change is applied on : the changes on the
+     * same entry are applied in the order they have been received, and an ADD is applied
+     * after the pending changes of its parent.
+     *
+     * @return The DN, or null if the change must be applied once all the previous
+     * changes are
+     */
+    private Dn getApplyDn( SyncStateTypeEnum state, Dn dn )
+    {
+        if ( ( state == SyncStateTypeEnum.MODDN ) || ( state == SyncStateTypeEnum.DELETE ) )
+        {
+            // They may move or remove a whole subtree
+            return null;
+        }
+
+        try
+        {
+            return new Dn( schemaManager, dn.getName() );
+        }
+        catch ( LdapException le )
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Apply a SearchResultEntry received from a consumer. We have to handle all the
      * cases :
      * - Add
      * - Modify
@@ -339,8 +458,10 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
      * - Delete
      * - Present
      * @param syncResult
+     * @param inline true if the entry is applied by the thread reading the responses,
+     * which stores the cookie. Otherwise the apply pipeline stores it.
      */
-    private void handleSearchResultEntry( SearchResultEntry syncResult )
+    private void applySearchResultEntry( SearchResultEntry syncResult, boolean inline )
     {
         CONSUMER_LOG.debug( "------------- starting handleSearchResult ------------" );
 
@@ -358,12 +479,18 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
             {
                 int rid = -1;
 
-                if ( syncStateCtrl.getCookie() != null )
+                byte[] cookie = syncStateCtrl.getCookie();
+
+                if ( cookie != null )
                 {
-                    syncCookie = syncStateCtrl.getCookie();
-                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncCookie ) );
-                    CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
-                        Strings.utf8ToString( syncCookie ) );
+                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( cookie ) );
+
+                    if ( inline )
+                    {
+                        syncCookie = cookie;
+                        CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
+                            Strings.utf8ToString( syncCookie ) );
+                    }
                 }
 
                 SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
@@ -381,6 +508,12 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                 switch ( state )
                 {
                     case ADD:
+                        if ( ( initialLoadPartition != null ) && isBulkLoadable( remoteEntry )
+                            && bulkAdd( remoteEntry, rid ) )
+                        {
+                            break;
+                        }
+
                         boolean remoteDnExist = false;
 
                         try
@@ -413,7 +546,16 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
                     case MODIFY:
                         CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
-                        modify( remoteEntry, rid );
+                        Control deltaControl = syncResult.getControl( SyncReplDelta.DELTA_CONTROL_OID );
+
+                        if ( deltaControl != null )
+                        {
+                            applyDelta( remoteEntry, deltaControl, rid );
+                        }
+                        else
+                        {
+                            modify( remoteEntry, rid );
+                        }
 
                         break;
 
@@ -448,7 +590,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                 }
 
                 // store the cookie only if the above operation was successful
-                if ( syncStateCtrl.getCookie() != null )
+                if ( inline && ( cookie != null ) )
                 {
                     storeCookie();
                 }
@@ -479,6 +621,9 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                 return;
             }
 
+            // The previous changes must be applied before the deletions and the new cookie
+            drainApplyPipeline();
+
             SyncInfoValueDecorator decorator = new SyncInfoValueDecorator( directoryService.getLdapCodecService() );
             SyncInfoValue syncInfoValue = ( SyncInfoValue ) decorator.decode( syncInfoBytes );
 
@@ -519,6 +664,11 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
             CONSUMER_LOG.info( "refreshDone: " + syncInfoValue.isRefreshDone() );
 
+            if ( syncInfoValue.isRefreshDone() )
+            {
+                endInitialLoad();
+            }
+
             storeCookie();
         }
         catch ( Exception de )
@@ -745,8 +895,11 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         else
         {
             CONSUMER_LOG.debug( "searching on {} with searchRequest, no cookie", config.getProducer() );
+            startInitialLoad();
         }
 
+        startApplyPipeline();
+
         searchRequest.addControl( syncReq );
 
         // Do the search. We use a searchAsync because we want to get SearchResultDone responses
@@ -758,26 +911,34 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         // Now, process the responses. We loop until we have a connection termination or
         // a SearchResultDone (RefreshOnly mode)
-        while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
+        try
         {
-            if ( resp instanceof SearchResultEntry )
+            while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
             {
-                SearchResultEntry result = ( SearchResultEntry ) resp;
+                if ( resp instanceof SearchResultEntry )
+                {
+                    SearchResultEntry result = ( SearchResultEntry ) resp;
 
-                handleSearchResultEntry( result );
-            }
-            else if ( resp instanceof SearchResultReference )
-            {
-                handleSearchReference( ( SearchResultReference ) resp );
-            }
-            else if ( resp instanceof IntermediateResponse )
-            {
-                handleSyncInfo( ( IntermediateResponse ) resp );
-            }
+                    handleSearchResultEntry( result );
+                }
+                else if ( resp instanceof SearchResultReference )
+                {
+                    handleSearchReference( ( SearchResultReference ) resp );
+                }
+                else if ( resp instanceof IntermediateResponse )
+                {
+                    handleSyncInfo( ( IntermediateResponse ) resp );
+                }
 
-            // Next entry
-            resp = sf.get();
-            CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+                // Next entry
+                resp = sf.get();
+                CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+            }
+        }
+        finally
+        {
+            // The search has been interrupted before the initial content was sent
+            endInitialLoad();
         }
 
         if ( sf.isCancelled() )
@@ -858,6 +1019,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     private void disconnect()
     {
         disconnected = true;
+        stopApplyPipeline();
 
         try
         {
@@ -893,14 +1055,87 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Starts the pipeline applying the changes concurrently, if more than one thread
+     * is configured. The cookies are stored once all the changes received before them
+     * are applied.
+     */
+    private void startApplyPipeline()
+    {
+        if ( ( applyPipeline != null ) || ( config.getApplyThreads() <= 1 ) )
+        {
+            return;
+        }
+
+        applyPipeline = new ApplyPipeline( "consumer-" + config.getReplicaId(), config.getApplyThreads(),
+            ApplyPipeline.DEFAULT_QUEUE_SIZE, new ApplyPipeline.CookieListener()
+            {
+                public void applied( byte[] cookie )
+                {
+                    setAndStoreCookie( cookie );
+                }
+            } );
+    }
+
+
+    /**
+     * Waits until all the changes submitted to the apply pipeline are applied
+     */
+    private void drainApplyPipeline()
+    {
+        ApplyPipeline pipeline = applyPipeline;
+
+        if ( pipeline == null )
+        {
+            return;
+        }
+
+        try
+        {
+            pipeline.drain();
+        }
+        catch ( InterruptedException ie )
+        {
+            CONSUMER_LOG.warn( "Interrupted while waiting for the changes received from {}", config.getProducer() );
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Stops the apply pipeline. The changes not yet applied are dropped : as their cookie
+     * has not been stored, the provider will send them again.
+     */
+    private void stopApplyPipeline()
+    {
+        ApplyPipeline pipeline = applyPipeline;
+        applyPipeline = null;
+
+        if ( pipeline != null )
+        {
+            pipeline.stop();
+        }
+    }
+
+
+    /**
+     * Stores a cookie whose changes have all been applied by the apply pipeline
+     */
+    private synchronized void setAndStoreCookie( byte[] cookie )
+    {
+        syncCookie = cookie;
+        storeCookie();
+    }
+
+
     /**
      * stores the cookie.
      */
-    private void storeCookie()
+    private synchronized void storeCookie()
     {
         CONSUMER_LOG.debug( "Storing the cookie '{}'", Strings.utf8ToString( syncCookie ) );
 
-        if ( syncCookie == null )
+        if ( ( syncCookie == null ) || initialLoadFailed )
         {
             return;
         }
@@ -1128,6 +1363,293 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Starts an initial load if the local replica is empty : the entries of the initial
+     * content have already been normalized and stamped by the provider, so they are
+     * directly added into the partition, without going through the interceptors and
+     * without flushing the partition after each entry.
+     * <br>
+     * As the batch covers the whole partition, the replication base must be the partition
+     * suffix. As the entries are not seen by the event and change log interceptors, the
+     * change log must be disabled and no other consumer may replicate this server content.
+     */
+    private void startInitialLoad()
+    {
+        try
+        {
+            Dn baseDn = new Dn( schemaManager, config.getBaseDn() );
+
+            if ( session.exists( baseDn ) )
+            {
+                return;
+            }
+
+            Partition partition = directoryService.getPartitionNexus().getPartition( baseDn );
+
+            if ( !baseDn.equals( partition.getSuffixDn() ) || isReplicated() )
+            {
+                // The entries will be added one by one
+                CONSUMER_LOG.debug( "No initial load of {} : not a partition suffix, or the content is replicated",
+                    config.getBaseDn() );
+
+                return;
+            }
+
+            initialLoadPartition = partition;
+            initialLoadFailed = false;
+            initialLoadPartition.beginBatch();
+            initialLoadCount = 0;
+            initialLoadStart = System.currentTimeMillis();
+
+            CONSUMER_LOG.info( "The replica {} is empty, loading the entries of {} directly in the {} partition",
+                new Object[]
+                    { config.getReplicaId(), config.getProducer(), initialLoadPartition.getId() } );
+        }
+        catch ( LdapException le )
+        {
+            // The entries will be added one by one
+            CONSUMER_LOG.debug( "Cannot start an initial load of {} : {}", config.getBaseDn(), le.getMessage() );
+            initialLoadPartition = null;
+        }
+    }
+
+
+    /**
+     * Ends the initial load, if any, and flushes the loaded partition. The next entries
+     * are added through the interceptors.
+     */
+    private void endInitialLoad()
+    {
+        if ( initialLoadPartition == null )
+        {
+            return;
+        }
+
+        Partition partition = initialLoadPartition;
+        initialLoadPartition = null;
+
+        try
+        {
+            partition.endBatch();
+        }
+        catch ( Exception e )
+        {
+            // The loaded entries may be lost : the cookie must not tell they are stored
+            initialLoadFailed = true;
+            CONSUMER_LOG.error( "Failed to flush the {} partition after the initial load, the cookie won't be stored",
+                partition.getId(), e );
+        }
+
+        CONSUMER_LOG.info( "Initial load of the replica {} done : {} entries in {}ms", new Object[]
+            { config.getReplicaId(), initialLoadCount, System.currentTimeMillis() - initialLoadStart } );
+    }
+
+
+    /**
+     * Tells if an entry can be added directly in the partition during the initial load.
+     * The subentries, the referrals, the administrative points and the groups are cached
+     * by the interceptors, so they are added through them.
+     */
+    private boolean isBulkLoadable( Entry remoteEntry )
+    {
+        return !remoteEntry.contains( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.SUBENTRY_OC )
+            && !remoteEntry.contains( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.REFERRAL_OC )
+            && !remoteEntry.contains( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.GROUP_OF_NAMES_OC )
+            && !remoteEntry.contains( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.GROUP_OF_UNIQUE_NAMES_OC )
+            && !remoteEntry.containsAttribute( SchemaConstants.ADMINISTRATIVE_ROLE_AT );
+    }
+
+
+    /**
+     * Tells if the changes of this server are journaled : by the change log, or by the
+     * replication provider, for the consumers of this server (the peers of a multi-master
+     * topology included). The provider registers a listener per known consumer, even if
+     * it's not connected.
+     */
+    private boolean isReplicated()
+    {
+        ChangeLog changeLog = directoryService.getChangeLog();
+
+        if ( ( changeLog != null ) && changeLog.isEnabled() )
+        {
+            return true;
+        }
+
+        for ( RegistrationEntry registration : directoryService.getEventService().getRegistrationEntries() )
+        {
+            if ( registration.getListener() instanceof SyncReplSearchListener )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Adds an entry of the initial content directly in the partition. If a consumer of
+     * this server has registered since the load has started, the load is ended, and the
+     * entry is not added.
+     *
+     * @return true if the entry has been added
+     */
+    private boolean bulkAdd( Entry remoteEntry, int rid ) throws LdapException
+    {
+        remoteEntry.getDn().apply( schemaManager );
+
+        AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
+        addContext.setReplEvent( true );
+        addContext.setRid( rid );
+
+        // The same lock as the one held by the add operation
+        OperationManager operationManager = directoryService.getOperationManager();
+        operationManager.lockWrite();
+        boolean replicated;
+
+        try
+        {
+            replicated = isReplicated();
+
+            if ( !replicated )
+            {
+                initialLoadPartition.add( addContext );
+                initialLoadCount++;
+            }
+        }
+        finally
+        {
+            operationManager.unlockWrite();
+        }
+
+        if ( replicated )
+        {
+            // The next entries must be seen by the new consumer
+            CONSUMER_LOG.info( "The content of the replica {} is now replicated, ending the initial load",
+                config.getReplicaId() );
+            endInitialLoad();
+
+            return false;
+        }
+
+        if ( ( initialLoadCount % 100000 ) == 0 )
+        {
+            CONSUMER_LOG.info( "Initial load of the replica {} : {} entries", config.getReplicaId(), initialLoadCount );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Applies the modifications sent by the provider on the local entry, unless the local
+     * entry has been modified after. If the modifications can't be applied, the entry is
+     * read from the provider and replaced.
+     */
+    private void applyDelta( Entry remoteEntry, Control deltaControl, int rid ) throws Exception
+    {
+        Dn dn = remoteEntry.getDn();
+        List<Modification> modifications = SyncReplDelta.getModifications( deltaControl, schemaManager );
+        OperationManager operationManager = directoryService.getOperationManager();
+
+        LookupOperationContext lookupCtx = new LookupOperationContext( session, dn, new String[]
+            { SchemaConstants.ENTRY_CSN_AT } );
+        lookupCtx.setSyncreplLookup( true );
+
+        Entry localEntry = null;
+
+        try
+        {
+            localEntry = operationManager.lookup( lookupCtx );
+        }
+        catch ( LdapNoSuchObjectException lnsoe )
+        {
+            // Missed changes, we will fetch the whole entry
+        }
+
+        if ( ( localEntry != null ) && ( modifications != null ) )
+        {
+            Csn localCsn = new Csn( localEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+            Csn remoteCsn = new Csn( remoteEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+            if ( localCsn.compareTo( remoteCsn ) >= 0 )
+            {
+                CONSUMER_LOG.debug( "local modification is latest, discarding the modifications of dn {}", dn );
+                return;
+            }
+
+            ModifyOperationContext modifyContext = new ModifyOperationContext( session, dn, modifications );
+            modifyContext.setReplEvent( true );
+            modifyContext.setRid( rid );
+
+            try
+            {
+                operationManager.modify( modifyContext );
+                recordModifiedAttributes( modifications.size() );
+
+                return;
+            }
+            catch ( LdapException le )
+            {
+                CONSUMER_LOG.info( "Cannot apply the modifications of the entry {}, reading it from {} : {}",
+                    new Object[]
+                        { dn, config.getProducer(), le.getMessage() } );
+            }
+        }
+
+        refreshEntry( dn, localEntry != null, rid );
+    }
+
+
+    /**
+     * Reads an entry from the provider, and replaces the local entry with it
+     */
+    private void refreshEntry( Dn dn, boolean exists, int rid ) throws Exception
+    {
+        String[] attributes = computeAttributes( config.getAttributes(), SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+        Entry providerEntry = connection.lookup( dn, attributes );
+
+        if ( providerEntry == null )
+        {
+            // The entry has been deleted on the provider, the deletion will follow
+            CONSUMER_LOG.debug( "The entry {} does not exist anymore on {}", dn, config.getProducer() );
+            return;
+        }
+
+        Entry remoteEntry = new DefaultEntry( schemaManager, providerEntry );
+
+        if ( exists )
+        {
+            modify( remoteEntry, rid );
+        }
+        else
+        {
+            AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
+            addContext.setReplEvent( true );
+            addContext.setRid( rid );
+
+            directoryService.getOperationManager().add( addContext );
+        }
+    }
+
+
+    /**
+     * Records the number of attribute modifications applied for a change. Each of them
+     * rewrites the index of the attribute, if any.
+     */
+    private void recordModifiedAttributes( int nbModifications )
+    {
+        MetricsRegistry metricsRegistry = directoryService.getMetricsRegistry();
+
+        if ( metricsRegistry != null )
+        {
+            String prefix = "replication." + config.getReplicaId();
+            metricsRegistry.getCounter( prefix + ".changes" ).increment();
+            metricsRegistry.getCounter( prefix + ".modifiedAttributes" ).add( nbModifications );
+        }
+    }
+
+
     private void modify( Entry remoteEntry, int rid ) throws Exception
     {
         String[] attributes = computeAttributes( config.getAttributes(), SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
@@ -1202,6 +1724,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
         OperationManager operationManager = directoryService.getOperationManager();
         operationManager.modify( modifyContext );
+        recordModifiedAttributes( serverModifications.size() );
     }
 
 
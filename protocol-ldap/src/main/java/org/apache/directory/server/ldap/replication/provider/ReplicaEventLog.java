@@ -30,6 +30,7 @@ import jdbm.recman.TransactionManager;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
@@ -77,6 +78,9 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     /** the csn that was sent to the client during the last sync session*/
     private String lastSentCsn;
 
+    /** The CSN of the last change stored in the journal */
+    private volatile String lastLoggedCsn;
+
     /** the persistent listener */
     private SyncReplSearchListener persistentListener;
 
@@ -166,6 +170,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
             String entryCsn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
             journal.put( entryCsn, message );
             journal.sync();
+            lastLoggedCsn = entryCsn;
         }
         catch ( Exception e )
         {
@@ -365,6 +370,34 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     }
 
 
+    /**
+     * Computes how late the consumer is : the time between the last change stored in the
+     * journal and the last change sent to the consumer. If nothing was sent yet, the time
+     * elapsed since the last change was stored.
+     *
+     * @return The consumer lag, in milliseconds
+     */
+    public long getLag()
+    {
+        String logged = lastLoggedCsn;
+        String sent = lastSentCsn;
+
+        if ( logged == null )
+        {
+            return 0L;
+        }
+
+        long loggedTime = new Csn( logged ).getTimestamp();
+
+        if ( sent == null )
+        {
+            return Math.max( 0L, System.currentTimeMillis() - loggedTime );
+        }
+
+        return Math.max( 0L, loggedTime - new Csn( sent ).getTimestamp() );
+    }
+
+
     /**
      * @return The consumer Hostname
      */
@@ -189,6 +189,11 @@ public class ReplicaEventLogJanitor extends Thread
 
         replicaLogMap.remove( replicaEventLog.getId() );
 
+        if ( directoryService.getMetricsRegistry() != null )
+        {
+            directoryService.getMetricsRegistry().unregisterGauge( "replication.lag." + replicaEventLog.getId() );
+        }
+
         try
         {
             replicaEventLog.stop();
@@ -97,6 +97,8 @@ import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.monitor.Gauge;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
@@ -105,6 +107,7 @@ import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.SyncReplDelta;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -398,7 +401,18 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                         break;
                 }
 
-                sendSearchResultEntry( session, req, entry, syncStateType );
+                List<Modification> modifications = replicaEventMessage.getModifications();
+
+                if ( ( syncStateType == SyncStateTypeEnum.MODIFY ) && ( modifications != null )
+                    && isDeltaRequested( req ) && ( entry.get( SchemaConstants.REF_AT ) == null ) )
+                {
+                    // Only the modifications are sent
+                    sendDeltaEntry( session, req, entry, modifications );
+                }
+                else
+                {
+                    sendSearchResultEntry( session, req, entry, syncStateType );
+                }
 
                 clientMsgLog.setLastSentCsn( lastSentCsn );
 
@@ -628,6 +642,27 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         // add to the map only after storing in the DIT, else the Replica update thread barfs
         replicaLogMap.put( replicaLog.getId(), replicaLog );
+        registerLagGauge( replicaLog );
+    }
+
+
+    /**
+     * Exposes the lag of a consumer in the metrics, if they are collected
+     */
+    private void registerLagGauge( final ReplicaEventLog replicaLog )
+    {
+        MetricsRegistry metricsRegistry = dirService.getMetricsRegistry();
+
+        if ( metricsRegistry != null )
+        {
+            metricsRegistry.registerGauge( "replication.lag." + replicaLog.getId(), new Gauge()
+            {
+                public long getValue()
+                {
+                    return replicaLog.getLag();
+                }
+            } );
+        }
     }
 
 
@@ -774,6 +809,31 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Send the modifications applied on an entry, with the associated SyncState control.
+     */
+    private void sendDeltaEntry( LdapSession session, SearchRequest req, Entry entry,
+        List<Modification> modifications ) throws Exception
+    {
+        Attribute uuid = entry.get( SchemaConstants.ENTRY_UUID_AT );
+
+        // Create the SyncState control
+        SyncStateValue syncStateControl = new SyncStateValueDecorator(
+            ldapServer.getDirectoryService().getLdapCodecService() );
+        syncStateControl.setSyncStateType( SyncStateTypeEnum.MODIFY );
+        syncStateControl.setEntryUUID( Strings.uuidToBytes( uuid.getString() ) );
+
+        SearchResultEntry resp = new SearchResultEntryImpl( req.getMessageId() );
+        resp.setEntry( SyncReplDelta.createDeltaEntry( entry ) );
+        resp.setObjectName( entry.getDn() );
+        resp.addControl( syncStateControl );
+        resp.addControl( SyncReplDelta.createControl( modifications ) );
+
+        PROVIDER_LOG.debug( "Sending the modifications of the entry {}:\n {}", entry.getDn(), modifications );
+        session.getIoSession().write( resp );
+    }
+
+
     /**
      * Build the response to be sent to the client
      */
@@ -1022,6 +1082,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 {
                     PROVIDER_LOG.debug( "initializing the replica log from {}", replica.getId() );
                     replicaLogMap.put( replica.getId(), replica );
+                    registerLagGauge( replica );
                     eventLogNames.add( replica.getName() );
 
                     // update the replicaCount's value to assign a correct value to the new replica(s)
@@ -1170,6 +1231,15 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Tells if the consumer has asked for the modifications instead of the modified entries
+     */
+    private boolean isDeltaRequested( SearchRequest req )
+    {
+        return req.getControls().containsKey( SyncReplDelta.DELTA_CONTROL_OID );
+    }
+
+
     private File[] getAllReplJournalNames()
     {
         File replDir = dirService.getInstanceLayout().getReplDirectory();
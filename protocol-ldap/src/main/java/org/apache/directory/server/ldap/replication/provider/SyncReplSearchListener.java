@@ -20,11 +20,14 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
+import java.util.List;
+
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateTypeEnum;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateValue;
 import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncStateValueDecorator;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
 import org.apache.directory.api.ldap.model.message.AbandonListener;
 import org.apache.directory.api.ldap.model.message.AbandonableRequest;
@@ -49,6 +52,7 @@ import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.SyncReplDelta;
 import org.apache.mina.core.future.WriteFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -311,14 +315,25 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         try
         {
             //System.out.println( "MODIFY Listener : log " + alteredEntry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry ) );
+            List<Modification> modifications = SyncReplDelta.getReplicatedModifications( modifyContext.getModItems() );
+            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry, modifications ) );
             
             if ( pushInRealTime )
             {
 
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
                 resultEntry.setObjectName( modifyContext.getDn() );
-                resultEntry.setEntry( alteredEntry );
+
+                if ( isDeltaRequested() )
+                {
+                    // Only the modifications are sent
+                    resultEntry.setEntry( SyncReplDelta.createDeltaEntry( alteredEntry ) );
+                    resultEntry.addControl( SyncReplDelta.createControl( modifications ) );
+                }
+                else
+                {
+                    resultEntry.setEntry( alteredEntry );
+                }
 
                 SyncStateValue syncModify = createControl( session.getCoreSession().getDirectoryService(), SyncStateTypeEnum.MODIFY, alteredEntry );
 
@@ -486,6 +501,18 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     }
 
 
+    /**
+     * @return true if the consumer has asked for the modifications instead of the
+     * modified entries
+     */
+    private boolean isDeltaRequested()
+    {
+        SearchRequest request = searchRequest;
+
+        return ( request != null ) && ( request.getControl( SyncReplDelta.DELTA_CONTROL_OID ) != null );
+    }
+
+
     /**
      * Get the cookie from the entry
      */
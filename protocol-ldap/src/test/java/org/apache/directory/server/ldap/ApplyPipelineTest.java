@@ -0,0 +1,265 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.ldap.replication.consumer.ApplyPipeline;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests for the ApplyPipeline used by the replication consumer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ApplyPipelineTest
+{
+    /** The cookies notified by the pipeline */
+    private List<String> cookies;
+
+    /** The pipeline */
+    private ApplyPipeline pipeline;
+
+
+    @Before
+    public void init()
+    {
+        cookies = Collections.synchronizedList( new ArrayList<String>() );
+
+        pipeline = new ApplyPipeline( "test", 4, 10, new ApplyPipeline.CookieListener()
+        {
+            public void applied( byte[] cookie )
+            {
+                cookies.add( Strings.utf8ToString( cookie ) );
+            }
+        } );
+    }
+
+
+    @After
+    public void stop()
+    {
+        pipeline.stop();
+    }
+
+
+    /**
+     * A change recording its key once applied
+     */
+    private Runnable record( final List<String> applied, final String value )
+    {
+        return new Runnable()
+        {
+            public void run()
+            {
+                applied.add( value );
+            }
+        };
+    }
+
+
+    @Test
+    public void testOrderIsKeptForTheSameKey() throws Exception
+    {
+        List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+        List<String> expected = new ArrayList<String>();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            pipeline.submit( Arrays.asList( "uid=jdoe" ), null, record( applied, "change" + i ) );
+            expected.add( "change" + i );
+        }
+
+        pipeline.drain();
+
+        assertEquals( expected, applied );
+    }
+
+
+    @Test
+    public void testChildIsAddedAfterParent() throws Exception
+    {
+        final CountDownLatch parentStarted = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+
+        // A slow add of the parent
+        pipeline.submit( Arrays.asList( "ou=people", "" ), null, new Runnable()
+        {
+            public void run()
+            {
+                parentStarted.countDown();
+
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+
+        parentStarted.await();
+
+        pipeline.submit( Arrays.asList( "uid=jdoe,ou=people" ), Arrays.asList( "ou=people" ), null,
+            record( applied, "child" ) );
+
+        // An unrelated change, on another worker, does not wait for the parent
+        pipeline.submit( Arrays.asList( "ou=groups" ), null, record( applied, "other" ) );
+
+        long deadline = System.currentTimeMillis() + 5000L;
+
+        while ( !applied.contains( "other" ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertEquals( Arrays.asList( "other" ), applied );
+
+        release.countDown();
+        pipeline.drain();
+
+        assertEquals( Arrays.asList( "other", "child" ), applied );
+    }
+
+
+    @Test
+    public void testSiblingsAreAddedConcurrently() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch( 1 );
+        List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+
+        // A slow add under a parent which has already been applied
+        pipeline.submit( Arrays.asList( "uid=slow,ou=people" ), Arrays.asList( "ou=people" ), null, new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            pipeline.submit( Arrays.asList( "uid=user" + i + ",ou=people" ), Arrays.asList( "ou=people" ), null,
+                record( applied, "user" + i ) );
+        }
+
+        // The siblings queued on the other workers don't wait for the slow add
+        long deadline = System.currentTimeMillis() + 5000L;
+
+        while ( applied.isEmpty() && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertTrue( !applied.isEmpty() );
+
+        release.countDown();
+        pipeline.drain();
+
+        assertEquals( 10, applied.size() );
+    }
+
+
+    @Test
+    public void testCookieWaitsForPreviousChanges() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        // The first change is slow, the second one is applied by another worker
+        pipeline.submit( Arrays.asList( "uid=slow" ), Strings.getBytesUtf8( "cookie1" ), new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    release.await( 5, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+
+        List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+        pipeline.submit( Arrays.asList( "uid=fast" ), Strings.getBytesUtf8( "cookie2" ), record( applied, "fast" ) );
+
+        long deadline = System.currentTimeMillis() + 5000L;
+
+        while ( applied.isEmpty() && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        // The second change is applied, but its cookie is not notified yet
+        assertEquals( 1, applied.size() );
+        assertTrue( cookies.isEmpty() );
+
+        release.countDown();
+        pipeline.drain();
+
+        // Only the last cookie is needed
+        assertEquals( Arrays.asList( "cookie2" ), cookies );
+    }
+
+
+    @Test
+    public void testBarrier() throws Exception
+    {
+        List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            pipeline.submit( Arrays.asList( "uid=user" + i ), null, record( applied, "before" ) );
+        }
+
+        pipeline.submit( null, Strings.getBytesUtf8( "barrier" ), record( applied, "barrier" ) );
+        pipeline.submit( Arrays.asList( "uid=user0" ), null, record( applied, "after" ) );
+        pipeline.drain();
+
+        assertEquals( 22, applied.size() );
+        assertEquals( "barrier", applied.get( 20 ) );
+        assertEquals( "after", applied.get( 21 ) );
+        assertEquals( Arrays.asList( "barrier" ), cookies );
+    }
+}
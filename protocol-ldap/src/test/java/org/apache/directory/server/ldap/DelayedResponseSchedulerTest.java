@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.session.DummySession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests for the DelayedResponseScheduler.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DelayedResponseSchedulerTest
+{
+    private DelayedResponseScheduler scheduler;
+
+
+    @Before
+    public void init()
+    {
+        scheduler = new DelayedResponseScheduler( 2 );
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        scheduler.shutdown();
+    }
+
+
+    private DummySession createSession( String address, int port )
+    {
+        DummySession session = new DummySession();
+        session.setRemoteAddress( new InetSocketAddress( address, port ) );
+
+        return session;
+    }
+
+
+    @Test
+    public void testResponsesAreDelayed() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        long start = System.currentTimeMillis();
+
+        assertTrue( scheduler.schedule( createSession( "127.0.0.1", 1024 ), new Runnable()
+        {
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, 200L ) );
+
+        assertTrue( latch.await( 5, TimeUnit.SECONDS ) );
+        assertTrue( System.currentTimeMillis() - start >= 200L );
+    }
+
+
+    @Test
+    public void testMaxPendingPerAddress() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch( 2 );
+        Runnable response = new Runnable()
+        {
+            public void run()
+            {
+                latch.countDown();
+            }
+        };
+
+        // Two connections from the same address
+        DummySession session1 = createSession( "127.0.0.1", 1024 );
+        DummySession session2 = createSession( "127.0.0.1", 1025 );
+
+        assertTrue( scheduler.schedule( session1, response, 200L ) );
+        assertTrue( scheduler.schedule( session2, response, 200L ) );
+        assertEquals( 2, scheduler.getPendingCount( session1 ) );
+
+        // The cap is reached for this address, not for another one
+        assertFalse( scheduler.schedule( session1, response, 200L ) );
+        assertTrue( scheduler.schedule( createSession( "127.0.0.2", 1024 ), new Runnable()
+        {
+            public void run()
+            {
+            }
+        }, 200L ) );
+
+        // Once the responses are sent, the address can be delayed again
+        assertTrue( latch.await( 5, TimeUnit.SECONDS ) );
+        Thread.sleep( 100L );
+        assertEquals( 0, scheduler.getPendingCount( session1 ) );
+        assertTrue( scheduler.schedule( session1, response, 10L ) );
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequestImpl;
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests for the RequestPipeline.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RequestPipelineTest
+{
+    private ExecutorService executor;
+
+    /** The message IDs of the started requests, in the order they have been started */
+    private List<Integer> started;
+
+    /** The message IDs of the completed requests, in the order they have been completed */
+    private List<Integer> completed;
+
+    /** Released to let the requests complete */
+    private CountDownLatch release;
+
+    /** The backlog notifications */
+    private List<Boolean> backlog;
+
+    private RequestPipeline pipeline;
+
+
+    @Before
+    public void init()
+    {
+        executor = Executors.newCachedThreadPool();
+        started = Collections.synchronizedList( new ArrayList<Integer>() );
+        completed = Collections.synchronizedList( new ArrayList<Integer>() );
+        backlog = Collections.synchronizedList( new ArrayList<Boolean>() );
+        release = new CountDownLatch( 1 );
+
+        pipeline = new RequestPipeline( executor, 2, new RequestPipeline.MessageProcessor()
+        {
+            public void process( Object message )
+            {
+                int messageId = ( ( Message ) message ).getMessageId();
+                started.add( messageId );
+
+                try
+                {
+                    release.await( 5, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    // Nothing to do
+                }
+
+                completed.add( messageId );
+            }
+
+
+            public void backlogChanged( boolean full )
+            {
+                backlog.add( full );
+            }
+        } );
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+
+    private void waitFor( List<Integer> list, int size ) throws Exception
+    {
+        for ( int i = 0; ( i < 500 ) && ( list.size() < size ); i++ )
+        {
+            Thread.sleep( 10L );
+        }
+    }
+
+
+    private SearchRequestImpl search( int messageId )
+    {
+        SearchRequestImpl request = new SearchRequestImpl();
+        request.setMessageId( messageId );
+
+        return request;
+    }
+
+
+    private ModifyRequestImpl modify( int messageId )
+    {
+        ModifyRequestImpl request = new ModifyRequestImpl();
+        request.setMessageId( messageId );
+
+        return request;
+    }
+
+
+    @Test
+    public void testReadsAreConcurrent() throws Exception
+    {
+        pipeline.submit( search( 1 ) );
+        pipeline.submit( search( 2 ) );
+        pipeline.submit( search( 3 ) );
+
+        // Only two reads can run at the same time
+        waitFor( started, 2 );
+        Thread.sleep( 50L );
+        assertEquals( 2, pipeline.getRunningReads() );
+        assertEquals( 1, pipeline.getPendingCount() );
+        assertTrue( completed.isEmpty() );
+
+        release.countDown();
+        waitFor( completed, 3 );
+        assertEquals( 3, completed.size() );
+        assertEquals( 0, pipeline.getRunningReads() );
+    }
+
+
+    @Test
+    public void testUpdatesAreOrdered() throws Exception
+    {
+        pipeline.submit( search( 1 ) );
+        pipeline.submit( modify( 2 ) );
+        pipeline.submit( search( 3 ) );
+
+        // The modify waits for the search, and the next search waits for the modify
+        waitFor( started, 1 );
+        Thread.sleep( 50L );
+        assertEquals( 1, started.size() );
+
+        release.countDown();
+        waitFor( completed, 3 );
+        assertEquals( 3, completed.size() );
+        assertEquals( Integer.valueOf( 1 ), completed.get( 0 ) );
+        assertEquals( Integer.valueOf( 2 ), completed.get( 1 ) );
+        assertEquals( Integer.valueOf( 3 ), completed.get( 2 ) );
+    }
+
+
+    @Test
+    public void testAbandonIsNotDelayed() throws Exception
+    {
+        pipeline.submit( modify( 1 ) );
+        pipeline.submit( search( 2 ) );
+        pipeline.submit( new AbandonRequestImpl( 2 ) );
+
+        waitFor( started, 2 );
+        // The abandon request runs while the modify is running and the search is waiting
+        assertEquals( 2, started.size() );
+        assertTrue( started.contains( 1 ) );
+        assertFalse( started.contains( 2 ) );
+    }
+
+
+    @Test
+    public void testBacklog() throws Exception
+    {
+        pipeline.submit( modify( 1 ) );
+        pipeline.submit( search( 2 ) );
+        assertTrue( backlog.isEmpty() );
+
+        // Two requests are waiting : the connection should stop reading
+        pipeline.submit( search( 3 ) );
+        assertEquals( 1, backlog.size() );
+        assertTrue( backlog.get( 0 ) );
+
+        release.countDown();
+        waitFor( completed, 3 );
+        assertEquals( 2, backlog.size() );
+        assertFalse( backlog.get( 1 ) );
+    }
+}
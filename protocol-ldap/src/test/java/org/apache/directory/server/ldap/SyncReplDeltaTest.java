@@ -0,0 +1,228 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.apache.directory.server.ldap.replication.SyncReplDelta;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the serialization of the modifications sent by the delta replication.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SyncReplDeltaTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+
+    /**
+     * Load the SchemaManager
+     * @throws Exception
+     */
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SyncReplDeltaTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+    }
+
+
+    private Entry createEntry( String csn ) throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, "uid=jdoe,ou=people,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "uid: jdoe",
+            "cn: John Doe",
+            "sn: Doe",
+            "givenName: John",
+            "mail: jdoe@example.com",
+            "telephoneNumber: +1 555 0100",
+            "description: A user with a few attributes, as most of the replicated entries",
+            "entryUUID: 8c5a6e52-3f7f-4c52-9a2c-1c1d6f1d2a3b",
+            "creatorsName: uid=admin,ou=system",
+            "createTimestamp: 20140101000000.000Z" );
+
+        entry.add( SchemaConstants.ENTRY_CSN_AT, csn );
+
+        return entry;
+    }
+
+
+    private List<Modification> createModifications( String csn ) throws Exception
+    {
+        List<Modification> modifications = new ArrayList<Modification>();
+
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            schemaManager.getAttributeType( "telephoneNumber" ), "+1 555 0199" ) );
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            schemaManager.getAttributeType( SchemaConstants.ENTRY_CSN_AT ), csn ) );
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            schemaManager.getAttributeType( SchemaConstants.ENTRY_DN_AT ), "uid=jdoe,ou=people,dc=example,dc=com" ) );
+
+        return modifications;
+    }
+
+
+    @Test
+    public void testReplicatedModifications() throws Exception
+    {
+        List<Modification> modifications = SyncReplDelta.getReplicatedModifications( createModifications( csnFactory
+            .newInstance().toString() ) );
+
+        // The entryDN is computed by each server
+        assertEquals( 2, modifications.size() );
+        assertEquals( "telephoneNumber", modifications.get( 0 ).getAttribute().getUpId() );
+    }
+
+
+    @Test
+    public void testJournalRoundTrip() throws Exception
+    {
+        String csn = csnFactory.newInstance().toString();
+        List<Modification> modifications = SyncReplDelta.getReplicatedModifications( createModifications( csn ) );
+        ReplicaEventMessageSerializer serializer = new ReplicaEventMessageSerializer( schemaManager );
+
+        byte[] bytes = serializer.serialize( new ReplicaEventMessage( ChangeType.MODIFY, createEntry( csn ),
+            modifications ) );
+        ReplicaEventMessage message = ( ReplicaEventMessage ) serializer.deserialize( bytes );
+
+        assertEquals( ChangeType.MODIFY, message.getChangeType() );
+        assertEquals( createEntry( csn ), message.getEntry() );
+        assertEquals( modifications, message.getModifications() );
+    }
+
+
+    @Test
+    public void testJournalWithoutModifications() throws Exception
+    {
+        String csn = csnFactory.newInstance().toString();
+        Entry entry = createEntry( csn );
+
+        // A message journaled before the modifications were stored
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput out = new ObjectOutputStream( baos );
+        out.writeByte( ChangeType.MODIFY.getValue() );
+        entry.getDn().writeExternal( out );
+        entry.writeExternal( out );
+        out.flush();
+
+        ReplicaEventMessageSerializer serializer = new ReplicaEventMessageSerializer( schemaManager );
+        byte[] bytes = baos.toByteArray();
+        ReplicaEventMessage message = ( ReplicaEventMessage ) serializer.deserialize( bytes );
+
+        assertEquals( entry, message.getEntry() );
+        assertNull( message.getModifications() );
+
+        // An ADD has no modifications
+        bytes = serializer.serialize( new ReplicaEventMessage( ChangeType.ADD, entry ) );
+        message = ( ReplicaEventMessage ) serializer.deserialize( bytes );
+
+        assertEquals( ChangeType.ADD, message.getChangeType() );
+        assertNull( message.getModifications() );
+    }
+
+
+    @Test
+    public void testDeltaIsSmallerThanEntry() throws Exception
+    {
+        String csn = csnFactory.newInstance().toString();
+        Entry entry = createEntry( csn );
+        List<Modification> modifications = SyncReplDelta.getReplicatedModifications( createModifications( csn ) );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutput out = new ObjectOutputStream( baos );
+        entry.writeExternal( out );
+        out.flush();
+        int entrySize = baos.size();
+
+        Entry deltaEntry = SyncReplDelta.createDeltaEntry( entry );
+        Control control = SyncReplDelta.createControl( modifications );
+
+        baos = new ByteArrayOutputStream();
+        out = new ObjectOutputStream( baos );
+        deltaEntry.writeExternal( out );
+        out.flush();
+        int deltaSize = baos.size() + SyncReplDelta.serialize( modifications ).length;
+
+        assertEquals( 2, deltaEntry.size() );
+        assertEquals( modifications, SyncReplDelta.getModifications( control, schemaManager ) );
+        assertTrue( "delta : " + deltaSize + " bytes, entry : " + entrySize + " bytes", deltaSize < entrySize );
+    }
+}
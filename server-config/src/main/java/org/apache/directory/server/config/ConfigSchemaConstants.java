@@ -173,6 +173,8 @@ public enum ConfigSchemaConstants
 
     ADS_JDBM_PARTITION_OPTIMIZER_ENABLED("ads-jdbmPartitionOptimizerEnabled", ""),
 
+    ADS_JDBM_RECORD_CACHE_SIZE("ads-jdbmRecordCacheSize", ""),
+
     ADS_PARTITION_SYNCONWRITE("ads-partitionSyncOnWrite", ""),
 
     ADS_PARTITION_INDEXED_ATTRIBUTES("ads-partitionIndexedAttributes", ""),
@@ -265,6 +267,10 @@ public enum ConfigSchemaConstants
 
     //ADS_REPL_USE_TLS( "ads-replUseTls", "" ),
 
+    ADS_REPL_USE_DELTA("ads-replUseDelta", ""),
+
+    ADS_REPL_APPLY_THREADS("ads-replApplyThreads", ""),
+
     ADS_LDAP_SERVER_SASL_MECH_NAME("ads-ldapServerSaslMechName", ""),
 
     ADS_LDAP_SERVER_SASL_MECH_CLASS_NAME("ads-ldapServerSaslMechClassName", ""),
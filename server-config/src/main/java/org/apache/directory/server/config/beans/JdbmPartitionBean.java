@@ -38,6 +38,10 @@ public class JdbmPartitionBean extends PartitionBean
     @ConfigurationElement(attributeType = "ads-jdbmPartitionOptimizerEnabled", isOptional = true, defaultValue = "true")
     private boolean jdbmPartitionOptimizerEnabled = true;
 
+    /** The number of bytes this partition adds to the record cache shared by the JDBM partitions */
+    @ConfigurationElement(attributeType = "ads-jdbmRecordCacheSize", isOptional = true, defaultValue = "16777216")
+    private long jdbmRecordCacheSize = 16777216L;
+
 
     /**
      * Create a new JdbmPartitionBean instance
@@ -91,6 +95,28 @@ public class JdbmPartitionBean extends PartitionBean
     }
 
 
+    /**
+     * @return the number of bytes this partition adds to the record cache shared by
+     * the JDBM partitions
+     */
+    public long getJdbmRecordCacheSize()
+    {
+        return jdbmRecordCacheSize;
+    }
+
+
+    /**
+     * Sets the number of bytes this partition adds to the record cache shared by the
+     * JDBM partitions. 0 gives each table a private cache of a fixed number of records.
+     *
+     * @param jdbmRecordCacheSize the number of bytes
+     */
+    public void setJdbmRecordCacheSize( long jdbmRecordCacheSize )
+    {
+        this.jdbmRecordCacheSize = jdbmRecordCacheSize;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -102,6 +128,7 @@ public class JdbmPartitionBean extends PartitionBean
         sb.append( super.toString( tabs ) );
         sb.append( tabs ).append( "  partition cache size : " ).append( partitionCacheSize ).append( '\n' );
         sb.append( toString( tabs, "  jdbm partition optimizer enabled", jdbmPartitionOptimizerEnabled ) );
+        sb.append( tabs ).append( "  jdbm record cache size : " ).append( jdbmRecordCacheSize ).append( '\n' );
 
         return sb.toString();
     }
@@ -98,6 +98,14 @@ public class ReplConsumerBean extends AdsBaseBean
     @ConfigurationElement(attributeType = SchemaConstants.ADS_REPL_USE_TLS, isOptional = true)
     private boolean replUseTls;
 
+    /** Tells if the provider should send the modifications instead of the modified entries */
+    @ConfigurationElement(attributeType = "ads-replUseDelta", isOptional = true)
+    private boolean replUseDelta;
+
+    /** The number of threads applying the received changes */
+    @ConfigurationElement(attributeType = "ads-replApplyThreads", isOptional = true, defaultValue = "1")
+    private int replApplyThreads = 1;
+
     /** Tells if the certificate validation should be strict or not */
     @ConfigurationElement(attributeType = SchemaConstants.ADS_REPL_STRICT_CERT_VALIDATION, isOptional = true)
     private boolean replStrictCertValidation;
@@ -419,6 +427,42 @@ public class ReplConsumerBean extends AdsBaseBean
     }
 
 
+    /**
+     * @return the replUseDelta
+     */
+    public boolean isReplUseDelta()
+    {
+        return replUseDelta;
+    }
+
+
+    /**
+     * @param replUseDelta the replUseDelta to set
+     */
+    public void setReplUseDelta( boolean replUseDelta )
+    {
+        this.replUseDelta = replUseDelta;
+    }
+
+
+    /**
+     * @return the replApplyThreads
+     */
+    public int getReplApplyThreads()
+    {
+        return replApplyThreads;
+    }
+
+
+    /**
+     * @param replApplyThreads the replApplyThreads to set
+     */
+    public void setReplApplyThreads( int replApplyThreads )
+    {
+        this.replApplyThreads = replApplyThreads;
+    }
+
+
     /**
      * @return the replStrictCertValidation
      */
@@ -484,6 +528,8 @@ public class ReplConsumerBean extends AdsBaseBean
 
         sb.append( toString( tabs, "  struct certivicate validation", replStrictCertValidation ) );
         sb.append( toString( tabs, "  use TLS", replUseTls ) );
+        sb.append( toString( tabs, "  use delta", replUseDelta ) );
+        sb.append( toString( tabs, "  apply threads", replApplyThreads ) );
 
         return sb.toString();
     }
@@ -1233,6 +1233,44 @@ public class PasswordPolicyIT extends AbstractLdapTestUnit
     }
 
 
+    /**
+     * Check that the pwdLastSuccess attribute is written in the background, and that
+     * successive binds are coalesced
+     */
+    @Test
+    public void testPwdLastSuccessCheckpoint() throws Exception
+    {
+        policyConfig.setPwdMaxIdle( 60 );
+
+        Dn userDn = new Dn( "cn=userLastSuccess,ou=system" );
+        LdapConnection adminConnection = getAdminNetworkConnection( getLdapServer() );
+
+        addUser( adminConnection, "userLastSuccess", "12345" );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            checkBindSuccess( userDn, "12345" );
+        }
+
+        // Force the pending updates to be written
+        AuthenticationInterceptor authenticationInterceptor = ( AuthenticationInterceptor ) getService()
+            .getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+        authenticationInterceptor.shutdownPwdStateCheckpointer();
+
+        assertFalse( authenticationInterceptor.hasPendingLastSuccess( userDn ) );
+
+        Entry userEntry = adminConnection.lookup( userDn, "+" );
+        Attribute pwdLastSuccess = userEntry.get( PasswordPolicySchemaConstants.PWD_LAST_SUCCESS_AT );
+        assertNotNull( pwdLastSuccess );
+        assertEquals( 1, pwdLastSuccess.size() );
+
+        // The user can still bind
+        checkBindSuccess( userDn, "12345" );
+
+        adminConnection.close();
+    }
+
+
     /**
      * Check the pwdAllowUserChange
      */
@@ -0,0 +1,138 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ssl;
+
+
+import static org.junit.Assert.assertTrue;
+
+import java.security.SecureRandom;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.ldap.handlers.ssl.TlsHandshakeMetricsFilter;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Measures a reconnect storm on LDAPS : clients which keep their TLS session resume it,
+ * and skip the key exchange, while clients which don't do a full handshake each time.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(allowAnonAccess = true, name = "TlsReconnectPerfIT-class")
+@CreateLdapServer(
+    transports =
+        {
+            @CreateTransport(protocol = "LDAPS")
+    })
+public class TlsReconnectPerfIT extends AbstractLdapTestUnit
+{
+    private static final int NB_CONNECTIONS = 500;
+
+
+    private SSLContext createClientContext() throws Exception
+    {
+        SSLContext sslContext = SSLContext.getInstance( "TLS" );
+        sslContext.init( null, BogusTrustManagerFactory.X509_MANAGERS, new SecureRandom() );
+
+        return sslContext;
+    }
+
+
+    /**
+     * Opens a LDAPS connection, completes the handshake and closes the connection
+     */
+    private void connect( SSLContext sslContext ) throws Exception
+    {
+        SSLSocket socket = ( SSLSocket ) sslContext.getSocketFactory().createSocket( "localhost",
+            getLdapServer().getPortSSL() );
+
+        try
+        {
+            socket.setEnabledProtocols( new String[]
+                { "TLSv1.2" } );
+            socket.startHandshake();
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+
+    @Test
+    @Ignore
+    public void testReconnectStorm() throws Exception
+    {
+        MetricsRegistry metricsRegistry = getService().getMetricsRegistry();
+
+        // Warm up
+        SSLContext sharedContext = createClientContext();
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            connect( sharedContext );
+            connect( createClientContext() );
+        }
+
+        long fullBefore = metricsRegistry.getCounter( TlsHandshakeMetricsFilter.FULL_HANDSHAKES_COUNTER ).get();
+
+        long t0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < NB_CONNECTIONS; i++ )
+        {
+            connect( createClientContext() );
+        }
+
+        long t1 = System.currentTimeMillis();
+
+        long resumedBefore = metricsRegistry.getCounter( TlsHandshakeMetricsFilter.RESUMED_HANDSHAKES_COUNTER )
+            .get();
+
+        for ( int i = 0; i < NB_CONNECTIONS; i++ )
+        {
+            connect( sharedContext );
+        }
+
+        long t2 = System.currentTimeMillis();
+
+        // The server counts the handshake when the connection is closed : the last ones may be missing
+        long full = metricsRegistry.getCounter( TlsHandshakeMetricsFilter.FULL_HANDSHAKES_COUNTER ).get()
+            - fullBefore;
+        long resumed = metricsRegistry.getCounter( TlsHandshakeMetricsFilter.RESUMED_HANDSHAKES_COUNTER ).get()
+            - resumedBefore;
+
+        System.out.println( NB_CONNECTIONS + " connections with full handshakes : " + ( t1 - t0 ) + "ms" );
+        System.out.println( NB_CONNECTIONS + " connections resuming the TLS session : " + ( t2 - t1 ) + "ms" );
+        System.out.println( "Full handshakes : " + full + ", resumed handshakes : " + resumed );
+
+        assertTrue( resumed > 0 );
+    }
+}
@@ -93,6 +93,7 @@ import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
 import org.apache.directory.server.core.changelog.DefaultChangeLog;
 import org.apache.directory.server.core.journal.DefaultJournal;
 import org.apache.directory.server.core.journal.DefaultJournalStore;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmDnIndex;
 import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmIndex;
 import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmPartition;
@@ -120,6 +121,7 @@ import org.apache.directory.server.ntp.NtpServer;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.directory.server.protocol.shared.transport.UdpTransport;
+import org.apache.directory.server.xdbm.CompositeIndex;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
 import org.slf4j.Logger;
@@ -1176,6 +1178,8 @@ public class ServiceBuilder
 
                 config.setUseTls( replBean.isReplUseTls() );
                 config.setStrictCertVerification( replBean.isReplStrictCertValidation() );
+                config.setDeltaMode( replBean.isReplUseDelta() );
+                config.setApplyThreads( replBean.getReplApplyThreads() );
 
                 config.setConfigEntryDn( replBean.getDn() );
 
@@ -1275,7 +1279,8 @@ public class ServiceBuilder
 
         for ( IndexBean indexBean : indexesBeans )
         {
-            if ( indexBean.isEnabled() && ( indexBean instanceof JdbmIndexBean ) )
+            if ( indexBean.isEnabled() && ( indexBean instanceof JdbmIndexBean )
+                && !CompositeIndex.isComposite( indexBean.getIndexAttributeId() ) )
             {
                 indexes.add( createJdbmIndex( partition, ( JdbmIndexBean ) indexBean, directoryService ) );
             }
@@ -1285,6 +1290,22 @@ public class ServiceBuilder
     }
 
 
+    /**
+     * Adds the composite indexes declared in the configuration : the indexes on several
+     * attributes separated by a '+', like "objectClass+o+uid"
+     */
+    private static void addCompositeIndexes( AbstractBTreePartition partition, List<IndexBean> indexesBeans )
+    {
+        for ( IndexBean indexBean : indexesBeans )
+        {
+            if ( indexBean.isEnabled() && CompositeIndex.isComposite( indexBean.getIndexAttributeId() ) )
+            {
+                partition.addCompositeIndex( new CompositeIndex( indexBean.getIndexAttributeId() ) );
+            }
+        }
+    }
+
+
     /**
      * Create a new instance of a JdbmPartition
      * 
@@ -1307,6 +1328,7 @@ public class ServiceBuilder
         jdbmPartition.setCacheSize( jdbmPartitionBean.getPartitionCacheSize() );
         jdbmPartition.setId( jdbmPartitionBean.getPartitionId() );
         jdbmPartition.setOptimizerEnabled( jdbmPartitionBean.isJdbmPartitionOptimizerEnabled() );
+        jdbmPartition.setRecordCacheSize( jdbmPartitionBean.getJdbmRecordCacheSize() );
         File partitionPath = new File( directoryService.getInstanceLayout().getPartitionsDirectory(),
             jdbmPartitionBean.getPartitionId() );
         jdbmPartition.setPartitionPath( partitionPath.toURI() );
@@ -1325,6 +1347,7 @@ public class ServiceBuilder
         jdbmPartition.setSyncOnWrite( jdbmPartitionBean.isPartitionSyncOnWrite() );
         jdbmPartition.setIndexedAttributes( createJdbmIndexes( jdbmPartition, jdbmPartitionBean.getIndexes(),
             directoryService ) );
+        addCompositeIndexes( jdbmPartition, jdbmPartitionBean.getIndexes() );
 
         setContextEntry( jdbmPartitionBean, jdbmPartition );
 
@@ -1520,6 +1543,7 @@ public class ServiceBuilder
         mvbtPartition.setSyncOnWrite( mvbtPartitionBean.isPartitionSyncOnWrite() );
         mvbtPartition.setIndexedAttributes( createMavibotIndexes( mvbtPartition, mvbtPartitionBean.getIndexes(),
             directoryService ) );
+        addCompositeIndexes( mvbtPartition, mvbtPartitionBean.getIndexes() );
 
         setContextEntry( mvbtPartitionBean, mvbtPartition );
 
@@ -1538,7 +1562,8 @@ public class ServiceBuilder
 
         for ( IndexBean indexBean : indexesBeans )
         {
-            if ( indexBean.isEnabled() && ( indexBean instanceof MavibotIndexBean ) )
+            if ( indexBean.isEnabled() && ( indexBean instanceof MavibotIndexBean )
+                && !CompositeIndex.isComposite( indexBean.getIndexAttributeId() ) )
             {
                 indexes.add( createMavibotIndex( partition, ( MavibotIndexBean ) indexBean, directoryService ) );
             }
@@ -107,6 +107,7 @@ public class AvlPartition extends AbstractBTreePartition
             master = new AvlMasterTable( id, UuidComparator.INSTANCE, null, false );
 
             super.doInit();
+            buildCompositeIndexes();
         }
     }
 
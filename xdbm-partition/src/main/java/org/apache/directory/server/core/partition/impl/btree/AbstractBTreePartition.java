@@ -23,14 +23,24 @@ package org.apache.directory.server.core.partition.impl.btree;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -41,6 +51,7 @@ import net.sf.ehcache.store.LruPolicy;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.BinaryValue;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -69,6 +80,7 @@ import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.entry.ClonedServerEntrySearch;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -82,18 +94,25 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.monitor.HitRatio;
+import org.apache.directory.server.core.api.monitor.StripedCounter;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.CompositeIndex;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexWriteBatch;
 import org.apache.directory.server.xdbm.MasterTable;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -132,6 +151,20 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** true if we sync disks on every write operation */
     protected AtomicBoolean isSyncOnWrite = new AtomicBoolean( true );
 
+    /**
+     * The number of pending batches of the current thread, and the number of writes
+     * it has done in these batches. No sync is done on the writes of a thread while
+     * the first one is above 0
+     */
+    private final ThreadLocal<int[]> batchDepth = new ThreadLocal<int[]>()
+    {
+        @Override
+        protected int[] initialValue()
+        {
+            return new int[2];
+        }
+    };
+
     /** The suffix UUID */
     private volatile String suffixId;
 
@@ -150,6 +183,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** a map of attributeType numeric UUID to system userIndices */
     protected Map<String, Index<?, String>> systemIndices = new HashMap<String, Index<?, String>>();
 
+    /** the composite indexes */
+    protected List<CompositeIndex> compositeIndices = new CopyOnWriteArrayList<CompositeIndex>();
+
+    /** Tells if the composite indexes kept in memory are built when the partition is initialized */
+    private boolean buildCompositeIndexes = true;
+
     /** the relative distinguished name index */
     protected Index<ParentIdAndRdn, String> rdnIdx;
 
@@ -197,6 +236,80 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
+
+    /** The entry cache hit ratio, created when the first access is recorded */
+    private volatile HitRatio entryCacheHitRatio;
+
+    /** The number of candidates read from the indexes while searching, created on demand */
+    private volatile StripedCounter indexScanCounter;
+
+    /** The number of threads writing the indexes of an entry, 0 to write them from the caller thread */
+    private int indexWriterThreads = 0;
+
+    /** The executor writing the indexes of an entry concurrently */
+    private ExecutorService indexWriterExecutor;
+
+    /** The user indexes being built, per attribute OID. They are not used by the searches */
+    private final Map<String, IndexBuilder> indexBuilders = new ConcurrentHashMap<String, IndexBuilder>();
+
+    /** Held by the writes while indexes are built, and exclusively by the index builders */
+    private final ReadWriteLock indexBuildLock = new ReentrantReadWriteLock();
+
+    /** The thread building the indexes */
+    private Thread indexBuildThread;
+
+    /** Tells if the reads are done without the read lock, and validated against the writes */
+    private boolean optimisticReads = false;
+
+    /** The number of writes in progress */
+    private final AtomicInteger activeWrites = new AtomicInteger();
+
+    /** The number of writes done since the partition was started */
+    private final AtomicLong completedWrites = new AtomicLong();
+
+    /** The number of optimistic reads done again under the read lock, created on demand */
+    private volatile StripedCounter optimisticReadRetries;
+
+    /**
+     * A read of the master table or of the indexes, done either under the read lock, or
+     * optimistically. An optimistic read may see a partially written partition, and fail or
+     * return an inconsistent result : it's then done again under the read lock.
+     *
+     * @param <T> The type of the read result
+     */
+    protected abstract static class PartitionRead<T>
+    {
+        /**
+         * Reads the partition. Nothing must be stored in a cache when the read is optimistic.
+         *
+         * @param locked true if the read lock is held, false if the read is optimistic
+         * @return The read result
+         * @throws Exception If the read failed
+         */
+        protected abstract T read( boolean locked ) throws Exception;
+
+
+        /**
+         * Stores the result of a consistent read in the caches. Does nothing by default.
+         *
+         * @param result The read result
+         * @throws Exception If the result can't be cached
+         */
+        protected void cache( T result ) throws Exception
+        {
+        }
+
+
+        /**
+         * Removes a cached result which has been outdated by a concurrent write. Does
+         * nothing by default.
+         *
+         * @param result The read result
+         */
+        protected void uncache( T result )
+        {
+        }
+    }
     
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -262,6 +375,30 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return the number of threads writing the indexes of an added, modified or deleted entry
+     */
+    public int getIndexWriterThreads()
+    {
+        return indexWriterThreads;
+    }
+
+
+    /**
+     * Sets the number of threads writing the indexes of an added, modified or deleted
+     * entry. Each index is written by a single thread, and the operation completes once
+     * all the indexes are written. If 0, the indexes are written one after the other
+     * by the thread processing the operation.
+     *
+     * @param indexWriterThreads the number of threads
+     */
+    public void setIndexWriterThreads( int indexWriterThreads )
+    {
+        checkInitialized( "indexWriterThreads" );
+        this.indexWriterThreads = indexWriterThreads;
+    }
+
+
     /**
      * Used to specify the entry cache size for a Partition.  Various Partition
      * implementations may interpret this value in different ways: i.e. total cache
@@ -295,6 +432,30 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return true if the composite indexes kept in memory are built when the partition is initialized
+     */
+    public boolean isBuildCompositeIndexes()
+    {
+        return buildCompositeIndexes;
+    }
+
+
+    /**
+     * Tells if the composite indexes which are not persisted are built when the partition
+     * is initialized. Building them needs a full scan of the master table : when disabled,
+     * those composite indexes are ignored. The persisted composite indexes are always
+     * built once.
+     *
+     * @param buildCompositeIndexes The flag
+     */
+    public void setBuildCompositeIndexes( boolean buildCompositeIndexes )
+    {
+        checkInitialized( "buildCompositeIndexes" );
+        this.buildCompositeIndexes = buildCompositeIndexes;
+    }
+
+
     /**
      * Sets the path in which this Partition stores data. This may be an URL to
      * a file or directory, or an JDBC URL.
@@ -327,6 +488,67 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return true if the partition must be flushed after a write operation
+     */
+    private boolean isSyncNeeded()
+    {
+        if ( !isSyncOnWrite.get() )
+        {
+            return false;
+        }
+
+        int[] depth = batchDepth.get();
+
+        if ( depth[0] > 0 )
+        {
+            // The sync is deferred to the end of the batch
+            depth[1]++;
+
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beginBatch()
+    {
+        batchDepth.get()[0]++;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void endBatch() throws Exception
+    {
+        int[] depth = batchDepth.get();
+
+        if ( depth[0] == 0 )
+        {
+            return;
+        }
+
+        if ( --depth[0] == 0 )
+        {
+            int writes = depth[1];
+            depth[1] = 0;
+
+            // Nothing to flush if the thread has not written anything in this partition
+            if ( ( writes > 0 ) && isSyncOnWrite.get() && isInitialized() )
+            {
+                sync();
+            }
+        }
+    }
+
+
     /**
      * Sets up the system indices.
      */
@@ -384,64 +606,453 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             addIndex( index );
         }
 
-        if ( getAdministrativeRoleIndex() == null )
-        {
-            Index<String, String> index = createSystemIndex( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID,
-                partitionPath,
-                NO_REVERSE );
-            addIndex( index );
-        }
+        if ( getAdministrativeRoleIndex() == null )
+        {
+            Index<String, String> index = createSystemIndex( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID,
+                partitionPath,
+                NO_REVERSE );
+            addIndex( index );
+        }
+
+        // convert and initialize system indices
+        for ( String oid : systemIndices.keySet() )
+        {
+            Index<?, String> index = systemIndices.get( oid );
+            index = convertAndInit( index );
+            systemIndices.put( oid, index );
+        }
+
+        // set index shortcuts
+        rdnIdx = ( Index<ParentIdAndRdn, String> ) systemIndices
+            .get( ApacheSchemaConstants.APACHE_RDN_AT_OID );
+        presenceIdx = ( Index<String, String> ) systemIndices.get( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID );
+        aliasIdx = ( Index<Dn, String> ) systemIndices.get( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+        oneAliasIdx = ( Index<String, String> ) systemIndices
+            .get( ApacheSchemaConstants.APACHE_ONE_ALIAS_AT_OID );
+        subAliasIdx = ( Index<String, String> ) systemIndices
+            .get( ApacheSchemaConstants.APACHE_SUB_ALIAS_AT_OID );
+        objectClassIdx = ( Index<String, String> ) systemIndices.get( SchemaConstants.OBJECT_CLASS_AT_OID );
+        entryCsnIdx = ( Index<String, String> ) systemIndices.get( SchemaConstants.ENTRY_CSN_AT_OID );
+        adminRoleIdx = ( Index<String, String> ) systemIndices.get( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID );
+    }
+
+
+    /**
+     * Sets up the user indices.
+     */
+    protected void setupUserIndices() throws Exception
+    {
+        // convert and initialize system indices
+        Map<String, Index<?, String>> tmp = new HashMap<String, Index<?, String>>();
+
+        for ( String oid : userIndices.keySet() )
+        {
+            // check that the attributeType has an EQUALITY matchingRule
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+            MatchingRule mr = attributeType.getEquality();
+
+            if ( mr != null )
+            {
+                Index<?, String> index = userIndices.get( oid );
+                index = convertAndInit( index );
+                tmp.put( oid, index );
+            }
+            else
+            {
+                LOG.error( I18n.err( I18n.ERR_4, attributeType.getName() ) );
+            }
+        }
+
+        userIndices = tmp;
+    }
+
+
+    /**
+     * Sets up the composite indexes. An index which can't be initialized is logged and
+     * ignored, as are the indexes kept in memory when they must not be built.
+     */
+    protected void setupCompositeIndexes() throws Exception
+    {
+        for ( CompositeIndex compositeIndex : compositeIndices )
+        {
+            if ( !buildCompositeIndexes && !hasPersistentCompositeIndexes() )
+            {
+                LOG.info( "The composite index {} of the {} partition is not built, it's ignored",
+                    compositeIndex.getName(), getId() );
+                compositeIndices.remove( compositeIndex );
+
+                continue;
+            }
+
+            try
+            {
+                compositeIndex.init( schemaManager );
+            }
+            catch ( LdapException le )
+            {
+                LOG.error( "Cannot initialize the composite index {} : {}", compositeIndex.getName(),
+                    le.getMessage() );
+                compositeIndices.remove( compositeIndex );
+
+                continue;
+            }
+
+            compositeIndex.setIndex( createCompositeIndex( compositeIndex ) );
+        }
+    }
+
+
+    /**
+     * Tells if the composite indexes are persisted. When they are not, they are filled
+     * with a full scan of the master table each time the partition is initialized.
+     *
+     * @return true if the indexes created by {@link #createCompositeIndex(CompositeIndex)} are persisted
+     */
+    protected boolean hasPersistentCompositeIndexes()
+    {
+        return false;
+    }
+
+
+    /**
+     * Creates the index storing the tuples of a composite index. The index is kept in
+     * memory, and filled when the partition is initialized.
+     *
+     * @param compositeIndex The composite index
+     * @return The initialized index
+     * @throws Exception If the index can't be created
+     */
+    protected Index<byte[], String> createCompositeIndex( CompositeIndex compositeIndex ) throws Exception
+    {
+        AvlIndex<byte[]> index = new AvlIndex<byte[]>( CompositeIndex.KEY_ATTRIBUTE_OID, false );
+        index.init( schemaManager, CompositeIndex.createKeyAttributeType( schemaManager ) );
+
+        return index;
+    }
+
+
+    /**
+     * Fills the composite indexes which are not built yet from the master table. It's
+     * called once the master table is opened, before the partition is used : the
+     * composite indexes are then used by the searches.
+     *
+     * @throws Exception If the master table can't be read, or an index can't be written
+     */
+    protected void buildCompositeIndexes() throws Exception
+    {
+        for ( CompositeIndex compositeIndex : compositeIndices )
+        {
+            if ( compositeIndex.isBuilt() )
+            {
+                continue;
+            }
+
+            long startTime = System.currentTimeMillis();
+            long nbEntries = 0L;
+            Index<byte[], String> index = compositeIndex.getIndex();
+            Cursor<Tuple<String, Entry>> cursor = master.cursor();
+
+            try
+            {
+                cursor.beforeFirst();
+
+                while ( cursor.next() )
+                {
+                    Tuple<String, Entry> tuple = cursor.get();
+
+                    for ( byte[] key : compositeIndex.getKeys( tuple.getValue() ) )
+                    {
+                        index.add( key, tuple.getKey() );
+                    }
+
+                    nbEntries++;
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            compositeIndexBuilt( compositeIndex );
+            compositeIndex.setBuilt( true );
+
+            LOG.info( "The {} composite index of the {} partition has been built from {} entries in {}ms",
+                new Object[]
+                    { compositeIndex.getName(), getId(), nbEntries, System.currentTimeMillis() - startTime } );
+        }
+    }
+
+
+    /**
+     * Called when a composite index has been built, before it's used by the searches.
+     *
+     * @param compositeIndex The built index
+     * @throws Exception If the index can't be marked as built
+     */
+    protected void compositeIndexBuilt( CompositeIndex compositeIndex ) throws Exception
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * Builds some user indexes in the background. The indexes must be initialized, and
+     * empty : they are updated by the writes, but they are not used by the searches
+     * before they are built. The indexes are built one after the other, by a single
+     * thread, so that the master table is read by only one builder at a time.
+     *
+     * @param oids The OIDs of the indexed attributes
+     * @throws Exception If the master table can't be read
+     */
+    protected void buildUserIndexes( List<String> oids ) throws Exception
+    {
+        if ( oids.isEmpty() )
+        {
+            return;
+        }
+
+        if ( master.count() == 0 )
+        {
+            // Nothing to index
+            for ( String oid : oids )
+            {
+                if ( userIndices.containsKey( oid ) )
+                {
+                    indexBuilt( userIndices.get( oid ) );
+                }
+            }
+
+            return;
+        }
+
+        final List<IndexBuilder> builders = new ArrayList<IndexBuilder>( oids.size() );
+
+        for ( String oid : oids )
+        {
+            Index<?, String> index = userIndices.get( oid );
+
+            if ( index != null )
+            {
+                // An interrupted build may have left some presence tuples
+                dropPresenceTuples( oid );
+
+                IndexBuilder builder = new IndexBuilder( this, index );
+                builders.add( builder );
+                indexBuilders.put( oid, builder );
+            }
+        }
+
+        indexBuildThread = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                for ( IndexBuilder builder : builders )
+                {
+                    builder.run();
+                }
+            }
+        }, "IndexBuilder-" + getId() );
+
+        indexBuildThread.setDaemon( true );
+        indexBuildThread.start();
+    }
+
+
+    /**
+     * Called when a user index has been built, and is about to be used by the searches.
+     * The writes are held while this method runs.
+     *
+     * @param index The built index
+     * @throws Exception If the index can't be marked as built
+     */
+    protected void indexBuilt( Index<?, String> index ) throws Exception
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * Marks an index as built, and lets the searches use it
+     */
+    void markIndexBuilt( IndexBuilder builder ) throws Exception
+    {
+        Index<?, String> index = builder.getIndex();
+
+        indexBuilt( index );
+
+        indexBuilders.remove( index.getAttribute().getOid() );
+    }
+
+
+    /**
+     * Stops the index builds, waiting for the current batch to be written
+     */
+    private void stopIndexBuilds()
+    {
+        for ( IndexBuilder builder : indexBuilders.values() )
+        {
+            builder.stop();
+        }
+
+        if ( indexBuildThread != null )
+        {
+            try
+            {
+                indexBuildThread.join( 60000L );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            indexBuildThread = null;
+        }
+
+        indexBuilders.clear();
+    }
+
+
+    /**
+     * @return The builders of the user indexes being built, per attribute OID
+     */
+    public Map<String, IndexBuilder> getIndexBuilders()
+    {
+        return Collections.unmodifiableMap( indexBuilders );
+    }
+
+
+    /**
+     * Takes the lock shared by the writes, if some indexes are being built. The indexes
+     * builders can only be registered while the partition is initialized, so when
+     * there is none, there is no need for a lock.
+     *
+     * @return true if the lock has been taken
+     */
+    private boolean lockIndexBuildWrite()
+    {
+        if ( indexBuilders.isEmpty() )
+        {
+            return false;
+        }
+
+        indexBuildLock.readLock().lock();
+
+        return true;
+    }
+
+
+    /**
+     * Releases the lock taken by lockIndexBuildWrite()
+     */
+    private void unlockIndexBuildWrite( boolean locked )
+    {
+        if ( locked )
+        {
+            indexBuildLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Records that an entry is written while some indexes are built
+     */
+    private void entryWritten( boolean indexBuild, String id )
+    {
+        if ( indexBuild )
+        {
+            for ( IndexBuilder builder : indexBuilders.values() )
+            {
+                builder.entryWritten( id );
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the presence index tuples of an attribute
+     */
+    private void dropPresenceTuples( String oid ) throws Exception
+    {
+        List<String> ids = new ArrayList<String>();
+        Cursor<String> cursor = presenceIdx.forwardValueCursor( oid );
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                ids.add( cursor.get() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        for ( String id : ids )
+        {
+            presenceIdx.drop( oid, id );
+        }
+
+        if ( !ids.isEmpty() )
+        {
+            LOG.info( "Removed {} presence tuples of the index {} left by an interrupted build", ids.size(), oid );
+        }
+    }
+
+
+    /**
+     * Holds the writes while an index builder writes into the index
+     */
+    void lockIndexBuilds()
+    {
+        indexBuildLock.writeLock().lock();
+    }
+
+
+    /**
+     * Releases the writes
+     */
+    void unlockIndexBuilds()
+    {
+        indexBuildLock.writeLock().unlock();
+    }
+
 
-        // convert and initialize system indices
-        for ( String oid : systemIndices.keySet() )
+    /**
+     * Holds the operations and the writes while an index builder reads a chunk of the
+     * master table : only the copy-on-write backends can be read while they are modified.
+     * The operations lock is taken first, as the writers do.
+     *
+     * @return The operations lock which has been taken, if any
+     */
+    ReadWriteLock lockMasterScan()
+    {
+        ReadWriteLock lock = rwLock;
+
+        if ( lock != null )
         {
-            Index<?, String> index = systemIndices.get( oid );
-            index = convertAndInit( index );
-            systemIndices.put( oid, index );
+            lock.readLock().lock();
         }
 
-        // set index shortcuts
-        rdnIdx = ( Index<ParentIdAndRdn, String> ) systemIndices
-            .get( ApacheSchemaConstants.APACHE_RDN_AT_OID );
-        presenceIdx = ( Index<String, String> ) systemIndices.get( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID );
-        aliasIdx = ( Index<Dn, String> ) systemIndices.get( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
-        oneAliasIdx = ( Index<String, String> ) systemIndices
-            .get( ApacheSchemaConstants.APACHE_ONE_ALIAS_AT_OID );
-        subAliasIdx = ( Index<String, String> ) systemIndices
-            .get( ApacheSchemaConstants.APACHE_SUB_ALIAS_AT_OID );
-        objectClassIdx = ( Index<String, String> ) systemIndices.get( SchemaConstants.OBJECT_CLASS_AT_OID );
-        entryCsnIdx = ( Index<String, String> ) systemIndices.get( SchemaConstants.ENTRY_CSN_AT_OID );
-        adminRoleIdx = ( Index<String, String> ) systemIndices.get( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID );
+        indexBuildLock.writeLock().lock();
+
+        return lock;
     }
 
 
     /**
-     * Sets up the user indices.
+     * Releases the locks taken by {@link #lockMasterScan()}
+     *
+     * @param lock The operations lock returned by lockMasterScan
      */
-    protected void setupUserIndices() throws Exception
+    void unlockMasterScan( ReadWriteLock lock )
     {
-        // convert and initialize system indices
-        Map<String, Index<?, String>> tmp = new HashMap<String, Index<?, String>>();
+        indexBuildLock.writeLock().unlock();
 
-        for ( String oid : userIndices.keySet() )
+        if ( lock != null )
         {
-            // check that the attributeType has an EQUALITY matchingRule
-            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
-            MatchingRule mr = attributeType.getEquality();
-
-            if ( mr != null )
-            {
-                Index<?, String> index = userIndices.get( oid );
-                index = convertAndInit( index );
-                tmp.put( oid, index );
-            }
-            else
-            {
-                LOG.error( I18n.err( I18n.ERR_4, attributeType.getName() ) );
-            }
+            lock.readLock().unlock();
         }
-
-        userIndices = tmp;
     }
 
 
@@ -500,7 +1111,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         initialized = false;
 
         entryDnCache.removeAll();
-        
+
+        stopIndexBuilds();
+
+        if ( indexWriterExecutor != null )
+        {
+            indexWriterExecutor.shutdown();
+            indexWriterExecutor = null;
+        }
+
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
         for ( Index<?, String> index : userIndices.values() )
@@ -531,6 +1150,26 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             }
         }
 
+        for ( CompositeIndex compositeIndex : compositeIndices )
+        {
+            if ( compositeIndex.getIndex() == null )
+            {
+                continue;
+            }
+
+            try
+            {
+                compositeIndex.getIndex().close();
+                compositeIndex.setBuilt( false );
+                LOG.debug( "Closed {} composite index for {} partition.", compositeIndex.getName(), suffixDn );
+            }
+            catch ( Throwable t )
+            {
+                LOG.error( I18n.err( I18n.ERR_124 ), t );
+                errors.addThrowable( t );
+            }
+        }
+
         try
         {
             master.close();
@@ -566,6 +1205,25 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Now, initialize the configured index
         setupSystemIndices();
         setupUserIndices();
+        setupCompositeIndexes();
+
+        if ( indexWriterThreads > 0 )
+        {
+            indexWriterExecutor = Executors.newFixedThreadPool( indexWriterThreads, new ThreadFactory()
+            {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "IndexWriter-" + getId() + "-"
+                        + threadNumber.incrementAndGet() );
+                    thread.setDaemon( true );
+
+                    return thread;
+                }
+            } );
+        }
 
         if ( cacheService != null )
         {
@@ -670,6 +1328,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public void add( AddOperationContext addContext ) throws LdapException
     {
+        boolean indexBuild = lockIndexBuildWrite();
+        beginWrite();
+
         try
         {
             setRWLock( addContext );
@@ -747,6 +1408,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 id = entryUUID.getString();
             }
 
+            entryWritten( indexBuild, id );
+
             // Update the ObjectClass index
             Attribute objectClass = entry.get( OBJECT_CLASS_AT );
 
@@ -759,6 +1422,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 throw e;
             }
 
+            // The index writes are gathered, and applied at once
+            IndexWriteBatch indexWrites = new IndexWriteBatch( id );
+
             for ( Value<?> value : objectClass )
             {
                 String valueStr = ( String ) value.getNormValue();
@@ -768,13 +1434,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     continue;
                 }
 
-                objectClassIdx.add( valueStr, id );
+                indexWrites.add( objectClassIdx, valueStr );
             }
 
+            Dn aliasTarget = null;
+
             if ( objectClass.contains( SchemaConstants.ALIAS_OC ) )
             {
                 Attribute aliasAttr = entry.get( ALIASED_OBJECT_NAME_AT );
-                addAliasIndices( id, entryDn, new Dn( schemaManager, aliasAttr.getString() ) );
+                aliasTarget = new Dn( schemaManager, aliasAttr.getString() );
+                addAliasIndices( indexWrites, id, entryDn, aliasTarget );
             }
 
             // Update the EntryCsn index
@@ -786,7 +1455,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 throw new LdapSchemaViolationException( ResultCodeEnum.OBJECT_CLASS_VIOLATION, msg );
             }
 
-            entryCsnIdx.add( entryCsn.getString(), id );
+            indexWrites.add( entryCsnIdx, entryCsn.getString() );
 
             // Update the AdministrativeRole index, if needed
             if ( entry.containsAttribute( ADMINISTRATIVE_ROLE_AT ) )
@@ -796,11 +1465,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                 for ( Value<?> value : adminRoles )
                 {
-                    adminRoleIdx.add( ( String ) value.getNormValue(), id );
+                    indexWrites.add( adminRoleIdx, ( String ) value.getNormValue() );
                 }
 
                 // Adds only those attributes that are indexed
-                presenceIdx.add( ADMINISTRATIVE_ROLE_AT.getOid(), id );
+                indexWrites.add( presenceIdx, ADMINISTRATIVE_ROLE_AT.getOid() );
             }
 
             // Now work on the user defined userIndices
@@ -809,7 +1478,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 AttributeType attributeType = attribute.getAttributeType();
                 String attributeOid = attributeType.getOid();
 
-                if ( hasUserIndexOn( attributeType ) )
+                if ( isUserIndexWritten( attributeType ) )
                 {
                     Index<Object, String> idx = ( Index<Object, String> ) getUserIndex( attributeType );
 
@@ -818,28 +1487,41 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                     for ( Value<?> value : attribute )
                     {
-                        idx.add( value.getNormValue(), id );
+                        indexWrites.add( idx, value.getNormValue() );
                     }
 
                     // Adds only those attributes that are indexed
-                    presenceIdx.add( attributeOid, id );
+                    indexWrites.add( presenceIdx, attributeOid );
                 }
             }
 
+            for ( CompositeIndex compositeIndex : compositeIndices )
+            {
+                compositeIndex.add( indexWrites, entry );
+            }
+
+            // Write the indexes. If it fails, they are left untouched
+            indexWrites.apply( indexWriterExecutor );
+
             // Add the parentId in the entry
             entry.put( SchemaConstants.ENTRY_PARENT_ID_AT, parentId );
 
             lockWrite();
 
+            boolean rdnAdded = false;
+            boolean parentUpdated = false;
+
             try
             {
                 // Update the RDN index
                 rdnIdx.add( key, id );
+                rdnAdded = true;
 
                 // Update the parent's nbChildren and nbDescendants values
                 if ( parentId != Partition.ROOT_ID )
                 {
                     updateRdnIdx( parentId, ADD_CHILD, 0 );
+                    parentUpdated = true;
                 }
 
                 // Remove the EntryDN attribute
@@ -851,12 +1533,41 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 // And finally add the entry into the master table
                 master.put( id, entry );
             }
+            catch ( Exception e )
+            {
+                // Leave the indexes as they were
+                try
+                {
+                    if ( parentUpdated )
+                    {
+                        updateRdnIdx( parentId, REMOVE_CHILD, 0 );
+                    }
+
+                    if ( rdnAdded )
+                    {
+                        rdnIdx.drop( key, id );
+                    }
+                }
+                catch ( Exception ue )
+                {
+                    LOG.error( "Cannot undo the RDN index update of the entry {}", entryDn, ue );
+                }
+
+                indexWrites.undo();
+
+                throw e;
+            }
             finally
             {
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
+            if ( aliasTarget != null )
+            {
+                cacheAlias( id, aliasTarget );
+            }
+
+            if ( isSyncNeeded() )
             {
                 sync();
             }
@@ -870,6 +1581,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             e.printStackTrace();
             throw new LdapException( e );
         }
+        finally
+        {
+            endWrite();
+            unlockIndexBuildWrite( indexBuild );
+        }
     }
 
 
@@ -986,8 +1702,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public Entry delete( String id ) throws LdapException
     {
+        boolean indexBuild = lockIndexBuildWrite();
+        beginWrite();
+
         try
         {
+            entryWritten( indexBuild, id );
+
             // First get the entry
             Entry entry = null;
 
@@ -1010,9 +1731,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             Attribute objectClass = entry.get( OBJECT_CLASS_AT );
 
+            // The index writes are gathered, and applied at once
+            IndexWriteBatch indexWrites = new IndexWriteBatch( id );
+
             if ( objectClass.contains( SchemaConstants.ALIAS_OC ) )
             {
-                dropAliasIndices( id );
+                dropAliasIndices( indexWrites, id );
             }
 
             // Update the ObjectClass index
@@ -1025,15 +1749,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     continue;
                 }
                 
-                objectClassIdx.drop( valueStr, id );
+                indexWrites.drop( objectClassIdx, valueStr );
             }
 
-            // Update the parent's nbChildren and nbDescendants values
-            ParentIdAndRdn parent = rdnIdx.reverseLookup( id );
-            updateRdnIdx( parent.getParentId(), REMOVE_CHILD, 0 );
-
             // Update the rdn, oneLevel, subLevel, and entryCsn indexes
-            entryCsnIdx.drop( entry.get( ENTRY_CSN_AT ).getString(), id );
+            indexWrites.drop( entryCsnIdx, entry.get( ENTRY_CSN_AT ).getString() );
 
             // Update the AdministrativeRole index, if needed
             if ( entry.containsAttribute( ADMINISTRATIVE_ROLE_AT ) )
@@ -1043,11 +1763,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                 for ( Value<?> value : adminRoles )
                 {
-                    adminRoleIdx.drop( ( String ) value.getNormValue(), id );
+                    indexWrites.drop( adminRoleIdx, ( String ) value.getNormValue() );
                 }
 
                 // Deletes only those attributes that are indexed
-                presenceIdx.drop( ADMINISTRATIVE_ROLE_AT.getOid(), id );
+                indexWrites.drop( presenceIdx, ADMINISTRATIVE_ROLE_AT.getOid() );
             }
 
             // Update the user indexes
@@ -1056,7 +1776,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 AttributeType attributeType = attribute.getAttributeType();
                 String attributeOid = attributeType.getOid();
 
-                if ( hasUserIndexOn( attributeType ) )
+                if ( isUserIndexWritten( attributeType ) )
                 {
                     Index<?, String> index = getUserIndex( attributeType );
 
@@ -1064,18 +1784,36 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     // the entry via the enumeration - it's in there as is for sure
                     for ( Value<?> value : attribute )
                     {
-                        ( ( Index ) index ).drop( value.getValue(), id );
+                        indexWrites.drop( ( Index ) index, value.getValue() );
                     }
 
-                    presenceIdx.drop( attributeOid, id );
+                    indexWrites.drop( presenceIdx, attributeOid );
                 }
             }
 
+            for ( CompositeIndex compositeIndex : compositeIndices )
+            {
+                compositeIndex.drop( indexWrites, entry );
+            }
+
+            // Write the indexes. If it fails, they are left untouched
+            indexWrites.apply( indexWriterExecutor );
+
+            ParentIdAndRdn parent = null;
+            boolean parentUpdated = false;
+            boolean rdnDropped = false;
+
             lockWrite();
 
             try
             {
+                // Update the parent's nbChildren and nbDescendants values
+                parent = rdnIdx.reverseLookup( id );
+                updateRdnIdx( parent.getParentId(), REMOVE_CHILD, 0 );
+                parentUpdated = true;
+
                 rdnIdx.drop( id );
+                rdnDropped = true;
 
                 dumpRdnIdx();
 
@@ -1090,12 +1828,41 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                 master.remove( id );
             }
+            catch ( Exception e )
+            {
+                // Leave the indexes as they were
+                try
+                {
+                    if ( rdnDropped )
+                    {
+                        rdnIdx.add( parent, id );
+                    }
+
+                    if ( parentUpdated )
+                    {
+                        updateRdnIdx( parent.getParentId(), ADD_CHILD, 0 );
+                    }
+                }
+                catch ( Exception ue )
+                {
+                    LOG.error( "Cannot undo the RDN index update of the entry {}", id, ue );
+                }
+
+                indexWrites.undo();
+
+                throw e;
+            }
             finally
             {
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
+            if ( ( aliasCache != null ) && objectClass.contains( SchemaConstants.ALIAS_OC ) )
+            {
+                aliasCache.remove( id );
+            }
+
+            if ( isSyncNeeded() )
             {
                 sync();
             }
@@ -1106,6 +1873,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
         }
+        finally
+        {
+            endWrite();
+            unlockIndexBuildWrite( indexBuild );
+        }
     }
 
 
@@ -1140,7 +1912,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             PartitionSearchResult searchResult = searchEngine.computeResult( schemaManager, searchContext );
 
-            Cursor<Entry> result = new EntryCursorAdaptor( this, searchResult );
+            Cursor<Entry> result = new EntryCursorAdaptor( this, searchResult, searchContext.getTrace() );
 
             return new EntryFilteringCursorImpl( result, searchContext, schemaManager );
         }
@@ -1203,23 +1975,39 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * @throws Exception If the lookup failed for any reason (except a not found entry)
      */
     public Entry fetch( String id ) throws LdapException
+    {
+        return fetch( id, ( SearchTrace ) null );
+    }
+
+
+    /**
+     * Get back an entry knowing its UUID, recording in a search trace if the entry
+     * has been found in the cache or read from the master table
+     *
+     * @param id The Entry UUID we want to get back
+     * @param trace The search trace, or null if the search is not traced
+     * @return The found Entry, or null if not found
+     * @throws Exception If the lookup failed for any reason (except a not found entry)
+     */
+    public Entry fetch( final String id, final SearchTrace trace ) throws LdapException
     {
         try
         {
-            rwLock.readLock().lock();
-
-            Dn dn = buildEntryDn( id );
+            // The Dn and the entry must be read from the same state of the partition
+            return read( new PartitionRead<Entry>()
+            {
+                protected Entry read( boolean locked ) throws Exception
+                {
+                    Dn dn = buildEntryDn( id );
 
-            return fetch( id, dn );
+                    return fetch( id, dn, trace );
+                }
+            } );
         }
         catch ( Exception e )
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
         }
-        finally
-        {
-            rwLock.readLock().unlock();
-        }
     }
 
 
@@ -1231,6 +2019,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * @throws Exception If the lookup failed for any reason (except a not found entry)
      */
     public Entry fetch( String id, Dn dn ) throws LdapException
+    {
+        return fetch( id, dn, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry fetch( final String id, final Dn dn, SearchTrace trace ) throws LdapException
     {
         try
         {
@@ -1238,9 +2035,14 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             if ( entry != null )
             {
+                if ( trace != null )
+                {
+                    trace.recordFetch( true );
+                }
+
                 entry.setDn( dn );
 
-                entry = new ClonedServerEntry( entry );
+                entry = new ClonedServerEntrySearch( entry );
 
                 // Replace the entry's DN with the provided one
                 Attribute entryDnAt = entry.get( ENTRY_DN_AT );
@@ -1258,25 +2060,44 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 return entry;
             }
 
-            try
-            {
-                rwLock.readLock().lock();
-                entry = master.get( id );
-            }
-            finally
+            entry = read( new PartitionRead<Entry>()
             {
-                rwLock.readLock().unlock();
-            }
+                protected Entry read( boolean locked ) throws Exception
+                {
+                    return master.get( id );
+                }
+
+
+                protected void cache( Entry result )
+                {
+                    if ( result != null )
+                    {
+                        // We have to store the DN in this entry
+                        result.setDn( dn );
+
+                        // always store original entry in the cache
+                        addToCache( id, result );
+                    }
+                }
+
+
+                protected void uncache( Entry result )
+                {
+                    if ( result != null )
+                    {
+                        removeFromCache( id );
+                    }
+                }
+            } );
 
             if ( entry != null )
             {
-                // We have to store the DN in this entry
-                entry.setDn( dn );
-
-                // always store original entry in the cache
-                addToCache( id, entry );
+                if ( trace != null )
+                {
+                    trace.recordFetch( false );
+                }
 
-                entry = new ClonedServerEntry( entry );
+                entry = new ClonedServerEntrySearch( entry );
 
                 if ( !entry.containsAttribute( ENTRY_DN_AT ) )
                 {
@@ -1330,44 +2151,127 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         String id = getEntryId( dn );
         Entry entry = master.get( id );
 
-        for ( Modification mod : mods )
+        boolean indexBuild = lockIndexBuildWrite();
+        beginWrite();
+
+        try
         {
-            Attribute attrMods = mod.getAttribute();
+            entryWritten( indexBuild, id );
+
+            // The index writes are gathered, and applied at once
+            IndexWriteBatch indexWrites = new IndexWriteBatch( id );
+            List<List<byte[]>> compositeKeys = getCompositeKeys( entry );
+            Attribute oldCsn = entry.get( ENTRY_CSN_AT );
+            boolean aliasModified = false;
+
+            for ( Modification mod : mods )
+            {
+                Attribute attrMods = mod.getAttribute();
+                aliasModified |= ALIASED_OBJECT_NAME_AT.equals( attrMods.getAttributeType() );
+
+                switch ( mod.getOperation() )
+                {
+                    case ADD_ATTRIBUTE:
+                        modifyAdd( id, entry, attrMods, indexWrites );
+                        break;
+
+                    case REMOVE_ATTRIBUTE:
+                        modifyRemove( id, entry, attrMods, indexWrites );
+                        break;
+
+                    case REPLACE_ATTRIBUTE:
+                        modifyReplace( id, entry, attrMods, indexWrites );
+                        break;
+
+                    default:
+                        throw new LdapException( I18n.err( I18n.ERR_221 ) );
+                }
+            }
+
+            updateCompositeIndexes( compositeKeys, entry, indexWrites );
+
+            // Update the EntryCsn index
+            String entryCsn = entry.get( ENTRY_CSN_AT ).getString();
+
+            if ( ( oldCsn == null ) || !entryCsn.equals( oldCsn.getString() ) )
+            {
+                if ( oldCsn != null )
+                {
+                    indexWrites.drop( entryCsnIdx, oldCsn.getString() );
+                }
+
+                indexWrites.add( entryCsnIdx, entryCsn );
+            }
 
-            switch ( mod.getOperation() )
+            // Write the indexes. If it fails, they are left untouched
+            indexWrites.apply( indexWriterExecutor );
+
+            // Remove the EntryDN
+            entry.removeAttributes( ENTRY_DN_AT );
+
+            setContextCsn( entryCsn );
+
+            try
+            {
+                master.put( id, entry );
+            }
+            catch ( Exception e )
             {
-                case ADD_ATTRIBUTE:
-                    modifyAdd( id, entry, attrMods );
-                    break;
+                indexWrites.undo();
 
-                case REMOVE_ATTRIBUTE:
-                    modifyRemove( id, entry, attrMods );
-                    break;
+                throw e;
+            }
 
-                case REPLACE_ATTRIBUTE:
-                    modifyReplace( id, entry, attrMods );
-                    break;
+            if ( aliasModified && ( aliasCache != null ) )
+            {
+                aliasCache.remove( id );
 
-                default:
-                    throw new LdapException( I18n.err( I18n.ERR_221 ) );
+                if ( entry.containsAttribute( ALIASED_OBJECT_NAME_AT ) )
+                {
+                    cacheAlias( id, new Dn( schemaManager, entry.get( ALIASED_OBJECT_NAME_AT ).getString() ) );
+                }
             }
         }
+        finally
+        {
+            endWrite();
+            unlockIndexBuildWrite( indexBuild );
+        }
 
-        updateCsnIndex( entry, id );
+        if ( isSyncNeeded() )
+        {
+            sync();
+        }
 
-        // Remove the EntryDN
-        entry.removeAttributes( ENTRY_DN_AT );
+        return entry;
+    }
+
+
+    /**
+     * Gets the keys an entry is indexed under in each composite index, before it's modified
+     */
+    private List<List<byte[]>> getCompositeKeys( Entry entry )
+    {
+        List<List<byte[]>> compositeKeys = new ArrayList<List<byte[]>>( compositeIndices.size() );
+
+        for ( CompositeIndex compositeIndex : compositeIndices )
+        {
+            compositeKeys.add( compositeIndex.getKeys( entry ) );
+        }
+
+        return compositeKeys;
+    }
 
-        setContextCsn( entry.get( ENTRY_CSN_AT ).getString() );
-        
-        master.put( id, entry );
 
-        if ( isSyncOnWrite.get() )
+    /**
+     * Adds the composite indexes writes for a modified entry
+     */
+    private void updateCompositeIndexes( List<List<byte[]>> compositeKeys, Entry entry, IndexWriteBatch indexWrites )
+    {
+        for ( int i = 0; i < compositeKeys.size(); i++ )
         {
-            sync();
+            compositeIndices.get( i ).update( indexWrites, compositeKeys.get( i ), entry );
         }
-
-        return entry;
     }
 
 
@@ -1379,10 +2283,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * @param id the primary key of the entry
      * @param entry the entry to alter
      * @param mods the attribute and values to add
+     * @param indexWrites the index writes
      * @throws Exception if index alteration or attribute addition fails
      */
     @SuppressWarnings("unchecked")
-    private void modifyAdd( String id, Entry entry, Attribute mods ) throws Exception
+    private void modifyAdd( String id, Entry entry, Attribute mods, IndexWriteBatch indexWrites )
+        throws Exception
     {
         if ( entry instanceof ClonedServerEntry )
         {
@@ -1404,10 +2310,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     continue;
                 }
                 
-                objectClassIdx.add( valueStr, id );
+                indexWrites.add( objectClassIdx, valueStr );
             }
         }
-        else if ( hasUserIndexOn( attributeType ) )
+        else if ( isUserIndexWritten( attributeType ) )
         {
             Index<?, String> index = getUserIndex( attributeType );
 
@@ -1415,19 +2321,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 for ( Value<?> value : mods )
                 {
-                    ( ( Index ) index ).add( value.getNormValue(), id );
+                    indexWrites.add( ( Index ) index, value.getNormValue() );
                 }
             }
             else
             {
                 // Special case when we have null values
-                ( ( Index ) index ).add( null, id );
+                indexWrites.add( ( Index ) index, null );
             }
 
             // If the attr didn't exist for this id add it to presence index
-            if ( !presenceIdx.forward( modsOid, id ) )
+            if ( !entry.containsAttribute( attributeType ) )
             {
-                presenceIdx.add( modsOid, id );
+                indexWrites.add( presenceIdx, modsOid );
             }
         }
         // Special case for the AdministrativeRole index
@@ -1436,13 +2342,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             // We may have more than one role 
             for ( Value<?> value : mods )
             {
-                adminRoleIdx.add( ( String ) value.getNormValue(), id );
+                indexWrites.add( adminRoleIdx, ( String ) value.getNormValue() );
             }
 
             // If the attr didn't exist for this id add it to presence index
-            if ( !presenceIdx.forward( modsOid, id ) )
+            if ( !entry.containsAttribute( attributeType ) )
             {
-                presenceIdx.add( modsOid, id );
+                indexWrites.add( presenceIdx, modsOid );
             }
         }
 
@@ -1470,7 +2376,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         if ( modsOid.equals( SchemaConstants.ALIASED_OBJECT_NAME_AT_OID ) )
         {
             Dn ndn = getEntryDn( id );
-            addAliasIndices( id, ndn, new Dn( schemaManager, mods.getString() ) );
+            addAliasIndices( indexWrites, id, ndn, new Dn( schemaManager, mods.getString() ) );
         }
     }
 
@@ -1484,11 +2390,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * @param id the primary key of the entry
      * @param entry the entry to alter
      * @param mods the replacement attribute and values
+     * @param indexWrites the index writes
      * @throws Exception if index alteration or attribute modification
      * fails.
      */
     @SuppressWarnings("unchecked")
-    private void modifyReplace( String id, Entry entry, Attribute mods ) throws Exception
+    private void modifyReplace( String id, Entry entry, Attribute mods, IndexWriteBatch indexWrites )
+        throws Exception
     {
         if ( entry instanceof ClonedServerEntry )
         {
@@ -1512,7 +2420,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     continue;
                 }
 
-                objectClassIdx.drop( valueStr, id );
+                indexWrites.drop( objectClassIdx, valueStr );
             }
 
             for ( Value<?> value : mods )
@@ -1524,10 +2432,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     continue;
                 }
 
-                objectClassIdx.add( valueStr, id );
+                indexWrites.add( objectClassIdx, valueStr );
             }
         }
-        else if ( hasUserIndexOn( attributeType ) )
+        else if ( isUserIndexWritten( attributeType ) )
         {
             Index<?, String> index = getUserIndex( attributeType );
 
@@ -1538,60 +2446,56 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 for ( Value<?> value : oldAttribute )
                 {
-                    ( ( Index<Object, String> ) index ).drop( value.getNormValue(), id );
+                    indexWrites.drop( ( Index<Object, String> ) index, value.getNormValue() );
                 }
             }
 
             // And add the new ones
             for ( Value<?> value : mods )
             {
-                ( ( Index<Object, String> ) index ).add( value.getNormValue(), id );
+                indexWrites.add( ( Index<Object, String> ) index, value.getNormValue() );
             }
 
             /*
-             * If we have no new value, we have to drop the AT fro the presence index
+             * If we have no new value, we have to drop the AT from the presence index,
+             * and add it if the attribute did not exist
              */
-            if ( mods.size() == 0 )
-            {
-                presenceIdx.drop( modsOid, id );
-            }
+            updatePresence( indexWrites, modsOid, oldAttribute != null, mods.size() > 0 );
         }
         // Special case for the AdministrativeRole index
         else if ( attributeType.equals( ADMINISTRATIVE_ROLE_AT ) )
         {
+            Attribute oldAttribute = entry.get( ADMINISTRATIVE_ROLE_AT );
+
             // Remove the previous values
-            for ( Value<?> value : entry.get( ADMINISTRATIVE_ROLE_AT ) )
+            if ( oldAttribute != null )
             {
-                String valueStr = ( String ) value.getNormValue();
-
-                if ( valueStr.equals( SchemaConstants.TOP_OC ) )
+                for ( Value<?> value : oldAttribute )
                 {
-                    continue;
+                    indexWrites.drop( adminRoleIdx, ( String ) value.getNormValue() );
                 }
-                
-                objectClassIdx.drop( valueStr, id );
             }
 
             // And add the new ones 
             for ( Value<?> value : mods )
             {
-                String valueStr = ( String ) value.getNormValue();
-
-                if ( valueStr.equals( SchemaConstants.TOP_OC ) )
-                {
-                    continue;
-                }
-                
-                adminRoleIdx.add( valueStr, id );
+                indexWrites.add( adminRoleIdx, ( String ) value.getNormValue() );
             }
+
+            updatePresence( indexWrites, modsOid, oldAttribute != null, mods.size() > 0 );
         }
 
         String aliasAttributeOid = schemaManager.getAttributeTypeRegistry().getOidByName(
             SchemaConstants.ALIASED_OBJECT_NAME_AT );
 
-        if ( mods.getAttributeType().equals( ALIASED_OBJECT_NAME_AT ) )
+        // Nothing to do for the alias indexes if the target does not change
+        Attribute oldAlias = entry.get( ALIASED_OBJECT_NAME_AT );
+        boolean aliasChanged = mods.getAttributeType().equals( ALIASED_OBJECT_NAME_AT )
+            && !( ( oldAlias != null ) && ( mods.size() == 1 ) && oldAlias.contains( mods.get() ) );
+
+        if ( aliasChanged && ( oldAlias != null ) )
         {
-            dropAliasIndices( id );
+            dropAliasIndices( indexWrites, id );
         }
 
         // replaces old attributes with new modified ones if they exist
@@ -1605,10 +2509,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             entry.remove( mods );
         }
 
-        if ( modsOid.equals( aliasAttributeOid ) && mods.size() > 0 )
+        if ( aliasChanged && modsOid.equals( aliasAttributeOid ) && mods.size() > 0 )
         {
             Dn entryDn = getEntryDn( id );
-            addAliasIndices( id, entryDn, new Dn( schemaManager, mods.getString() ) );
+            addAliasIndices( indexWrites, id, entryDn, new Dn( schemaManager, mods.getString() ) );
         }
     }
 
@@ -1624,10 +2528,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * @param id the primary key of the entry
      * @param entry the entry to alter
      * @param mods the attribute and its values to delete
+     * @param indexWrites the index writes
      * @throws Exception if index alteration or attribute modification fails.
      */
     @SuppressWarnings("unchecked")
-    private void modifyRemove( String id, Entry entry, Attribute mods ) throws Exception
+    private void modifyRemove( String id, Entry entry, Attribute mods, IndexWriteBatch indexWrites )
+        throws Exception
     {
         if ( entry instanceof ClonedServerEntry )
         {
@@ -1656,7 +2562,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                         continue;
                     }
 
-                    objectClassIdx.drop( valueStr, id );
+                    indexWrites.drop( objectClassIdx, valueStr );
                 }
             }
             else
@@ -1670,11 +2576,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                         continue;
                     }
 
-                    objectClassIdx.drop( valueStr, id );
+                    indexWrites.drop( objectClassIdx, valueStr );
                 }
             }
         }
-        else if ( hasUserIndexOn( attributeType ) )
+        else if ( isUserIndexWritten( attributeType ) )
         {
             Index<?, String> index = getUserIndex( attributeType );
 
@@ -1693,20 +2599,24 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
              */
             if ( mods.size() == 0 )
             {
-                ( ( Index ) index ).drop( id );
+                for ( Value<?> value : attribute )
+                {
+                    indexWrites.drop( ( Index ) index, value.getNormValue() );
+                }
+
                 nbValues = 0;
             }
             else
             {
                 for ( Value<?> value : mods )
                 {
+                    // Only the existing values are in the index
                     if ( attribute.contains( value ) )
                     {
                         nbValues--;
                         attribute.remove( value );
+                        indexWrites.drop( ( Index ) index, value.getNormValue() );
                     }
-
-                    ( ( Index ) index ).drop( value.getNormValue(), id );
                 }
             }
 
@@ -1716,25 +2626,44 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
              */
             if ( nbValues == 0 )
             {
-                presenceIdx.drop( modsOid, id );
+                indexWrites.drop( presenceIdx, modsOid );
             }
         }
         // Special case for the AdministrativeRole index
         else if ( modsOid.equals( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID ) )
         {
+            Attribute attribute = entry.get( attributeType ).clone();
+
             // We may have more than one role 
-            for ( Value<?> value : mods )
+            if ( mods.size() == 0 )
+            {
+                for ( Value<?> value : attribute )
+                {
+                    indexWrites.drop( adminRoleIdx, ( String ) value.getNormValue() );
+                }
+
+                attribute.clear();
+            }
+            else
             {
-                adminRoleIdx.drop( ( String ) value.getNormValue(), id );
+                for ( Value<?> value : mods )
+                {
+                    // Only the existing values are in the index
+                    if ( attribute.contains( value ) )
+                    {
+                        attribute.remove( value );
+                        indexWrites.drop( adminRoleIdx, ( String ) value.getNormValue() );
+                    }
+                }
             }
 
             /*
              * If no attribute values exist for this entryId in the index then
              * we remove the presence index entry for the removed attribute.
              */
-            if ( null == adminRoleIdx.reverseLookup( id ) )
+            if ( attribute.size() == 0 )
             {
-                presenceIdx.drop( modsOid, id );
+                indexWrites.drop( presenceIdx, modsOid );
             }
         }
 
@@ -1767,7 +2696,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Aliases->single valued comp/partial attr removal is not relevant here
         if ( mods.getAttributeType().equals( ALIASED_OBJECT_NAME_AT ) )
         {
-            dropAliasIndices( id );
+            dropAliasIndices( indexWrites, id );
         }
     }
 
@@ -1810,98 +2739,107 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public synchronized final void move( Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
         throws Exception
     {
-        // Check that the parent Dn exists
-        String newParentId = getEntryId( newSuperiorDn );
+        beginWrite();
 
-        if ( newParentId == null )
+        try
         {
-            // This is not allowed : the parent must exist
-            LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn.getName() ) );
-            throw ne;
-        }
+            // Check that the parent Dn exists
+            String newParentId = getEntryId( newSuperiorDn );
 
-        // Now check that the new entry does not exist
-        String newId = getEntryId( newDn );
+            if ( newParentId == null )
+            {
+                // This is not allowed : the parent must exist
+                LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn.getName() ) );
+                throw ne;
+            }
 
-        if ( newId != null )
-        {
-            // This is not allowed : we should not be able to move an entry
-            // to an existing position
-            LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
-            throw ne;
-        }
+            // Now check that the new entry does not exist
+            String newId = getEntryId( newDn );
 
-        // Get the entry and the old parent IDs
-        String entryId = getEntryId( oldDn );
-        String oldParentId = getParentId( entryId );
+            if ( newId != null )
+            {
+                // This is not allowed : we should not be able to move an entry
+                // to an existing position
+                LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
+                throw ne;
+            }
 
-        /*
-         * All aliases including and below oldChildDn, will be affected by
-         * the move operation with respect to one and subtree userIndices since
-         * their relationship to ancestors above oldChildDn will be
-         * destroyed.  For each alias below and including oldChildDn we will
-         * drop the index tuples mapping ancestor ids above oldChildDn to the
-         * respective target ids of the aliases.
-         */
-        dropMovedAliasIndices( oldDn );
+            // Get the entry and the old parent IDs
+            String entryId = getEntryId( oldDn );
+            String oldParentId = getParentId( entryId );
 
-        // Update the Rdn index
-        // First drop the old entry
-        ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( entryId );
+            /*
+             * All aliases including and below oldChildDn, will be affected by
+             * the move operation with respect to one and subtree userIndices since
+             * their relationship to ancestors above oldChildDn will be
+             * destroyed.  For each alias below and including oldChildDn we will
+             * drop the index tuples mapping ancestor ids above oldChildDn to the
+             * respective target ids of the aliases.
+             */
+            dropMovedAliasIndices( oldDn );
 
-        updateRdnIdx( oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
+            // Update the Rdn index
+            // First drop the old entry
+            ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( entryId );
 
-        rdnIdx.drop( entryId );
+            updateRdnIdx( oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
 
-        // Now, add the new entry at the right position
-        movedEntry.setParentId( newParentId );
-        rdnIdx.add( movedEntry, entryId );
+            rdnIdx.drop( entryId );
 
-        updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
+            // Now, add the new entry at the right position
+            movedEntry.setParentId( newParentId );
+            rdnIdx.add( movedEntry, entryId );
 
-        /*
-         * Read Alias Index Tuples
-         *
-         * If this is a name change due to a move operation then the one and
-         * subtree userIndices for aliases were purged before the aliases were
-         * moved.  Now we must add them for each alias entry we have moved.
-         *
-         * aliasTarget is used as a marker to tell us if we're moving an
-         * alias.  If it is null then the moved entry is not an alias.
-         */
-        Dn aliasTarget = aliasIdx.reverseLookup( entryId );
+            updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
-        if ( null != aliasTarget )
-        {
-            aliasTarget.apply( schemaManager );
-            addAliasIndices( entryId, buildEntryDn( entryId ), aliasTarget );
-        }
+            /*
+             * Read Alias Index Tuples
+             *
+             * If this is a name change due to a move operation then the one and
+             * subtree userIndices for aliases were purged before the aliases were
+             * moved.  Now we must add them for each alias entry we have moved.
+             *
+             * aliasTarget is used as a marker to tell us if we're moving an
+             * alias.  If it is null then the moved entry is not an alias.
+             */
+            Dn aliasTarget = aliasIdx.reverseLookup( entryId );
 
-        // the below case arises only when the move( Dn oldDn, Dn newSuperiorDn, Dn newDn  ) is called
-        // directly using the Store API, in this case the value of modified entry will be null
-        // we need to lookup the entry to update the parent UUID
-        if ( modifiedEntry == null )
-        {
-            modifiedEntry = fetch( entryId );
-        }
+            if ( null != aliasTarget )
+            {
+                aliasTarget.apply( schemaManager );
+                addAliasIndices( entryId, buildEntryDn( entryId ), aliasTarget );
+            }
+
+            // the below case arises only when the move( Dn oldDn, Dn newSuperiorDn, Dn newDn  ) is called
+            // directly using the Store API, in this case the value of modified entry will be null
+            // we need to lookup the entry to update the parent UUID
+            if ( modifiedEntry == null )
+            {
+                modifiedEntry = fetch( entryId );
+            }
 
-        // Update the master table with the modified entry
-        modifiedEntry.put( SchemaConstants.ENTRY_PARENT_ID_AT, newParentId );
+            // Update the master table with the modified entry
+            modifiedEntry.put( SchemaConstants.ENTRY_PARENT_ID_AT, newParentId );
 
-        // Remove the EntryDN
-        modifiedEntry.removeAttributes( ENTRY_DN_AT );
+            // Remove the EntryDN
+            modifiedEntry.removeAttributes( ENTRY_DN_AT );
 
-        entryDnCache.removeAll();
-        
-        setContextCsn( modifiedEntry.get( ENTRY_CSN_AT ).getString() );
+            entryDnCache.removeAll();
 
-        master.put( entryId, modifiedEntry );
+            setContextCsn( modifiedEntry.get( ENTRY_CSN_AT ).getString() );
 
-        if ( isSyncOnWrite.get() )
+            master.put( entryId, modifiedEntry );
+
+            if ( isSyncNeeded() )
+            {
+                sync();
+            }
+        }
+        finally
         {
-            sync();
+            endWrite();
         }
     }
 
@@ -1952,57 +2890,66 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         Entry modifiedEntry,
         boolean deleteOldRdn ) throws Exception
     {
-        // Check that the old entry exists
-        String oldId = getEntryId( oldDn );
+        beginWrite();
 
-        if ( oldId == null )
+        try
         {
-            // This is not allowed : the old entry must exist
-            LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
-                I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, oldDn ) );
-            throw nse;
-        }
+            // Check that the old entry exists
+            String oldId = getEntryId( oldDn );
 
-        // Check that the new superior exist
-        String newSuperiorId = getEntryId( newSuperiorDn );
+            if ( oldId == null )
+            {
+                // This is not allowed : the old entry must exist
+                LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
+                    I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, oldDn ) );
+                throw nse;
+            }
 
-        if ( newSuperiorId == null )
-        {
-            // This is not allowed : the new superior must exist
-            LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
-                I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn ) );
-            throw nse;
-        }
+            // Check that the new superior exist
+            String newSuperiorId = getEntryId( newSuperiorDn );
 
-        Dn newDn = newSuperiorDn.add( newRdn );
+            if ( newSuperiorId == null )
+            {
+                // This is not allowed : the new superior must exist
+                LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
+                    I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn ) );
+                throw nse;
+            }
 
-        // Now check that the new entry does not exist
-        String newId = getEntryId( newDn );
+            Dn newDn = newSuperiorDn.add( newRdn );
 
-        if ( newId != null )
-        {
-            // This is not allowed : we should not be able to move an entry
-            // to an existing position
-            LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
-            throw ne;
-        }
+            // Now check that the new entry does not exist
+            String newId = getEntryId( newDn );
 
-        // First, rename
-        // Get the old UUID
-        if ( modifiedEntry == null )
-        {
-            modifiedEntry = master.get( oldId );
-        }
+            if ( newId != null )
+            {
+                // This is not allowed : we should not be able to move an entry
+                // to an existing position
+                LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
+                throw ne;
+            }
 
-        rename( oldId, newRdn, deleteOldRdn, modifiedEntry );
-        moveAndRename( oldDn, oldId, newSuperiorDn, newRdn, modifiedEntry );
+            // First, rename
+            // Get the old UUID
+            if ( modifiedEntry == null )
+            {
+                modifiedEntry = master.get( oldId );
+            }
 
-        entryDnCache.removeAll();
-        
-        if ( isSyncOnWrite.get() )
+            rename( oldId, newRdn, deleteOldRdn, modifiedEntry );
+            moveAndRename( oldDn, oldId, newSuperiorDn, newRdn, modifiedEntry );
+
+            entryDnCache.removeAll();
+
+            if ( isSyncNeeded() )
+            {
+                sync();
+            }
+        }
+        finally
         {
-            sync();
+            endWrite();
         }
     }
 
@@ -2115,6 +3062,22 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
 
     private void rename( String oldId, Rdn newRdn, boolean deleteOldRdn, Entry entry ) throws Exception
+    {
+        boolean indexBuild = lockIndexBuildWrite();
+
+        try
+        {
+            entryWritten( indexBuild, oldId );
+            renameEntry( oldId, newRdn, deleteOldRdn, entry );
+        }
+        finally
+        {
+            unlockIndexBuildWrite( indexBuild );
+        }
+    }
+
+
+    private void renameEntry( String oldId, Rdn newRdn, boolean deleteOldRdn, Entry entry ) throws Exception
     {
         if ( entry == null )
         {
@@ -2122,6 +3085,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         }
 
         Dn updn = entry.getDn();
+        List<List<byte[]>> compositeKeys = getCompositeKeys( entry );
 
         newRdn.apply( schemaManager );
 
@@ -2142,7 +3106,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             entry.add( newRdnAttrType, newAtav.getValue() );
 
-            if ( hasUserIndexOn( newRdnAttrType ) )
+            if ( isUserIndexWritten( newRdnAttrType ) )
             {
                 Index<?, String> index = getUserIndex( newRdnAttrType );
                 ( ( Index ) index ).add( newNormValue, oldId );
@@ -2198,7 +3162,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     AttributeType oldRdnAttrType = schemaManager.lookupAttributeTypeRegistry( oldNormType );
                     entry.remove( oldRdnAttrType, oldNormValue );
 
-                    if ( hasUserIndexOn( oldRdnAttrType ) )
+                    if ( isUserIndexWritten( oldRdnAttrType ) )
                     {
                         Index<?, String> index = getUserIndex( oldRdnAttrType );
                         ( ( Index ) index ).drop( oldNormValue, id );
@@ -2216,6 +3180,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             }
         }
 
+        // Update the composite indexes if the RDN attributes are indexed
+        IndexWriteBatch indexWrites = new IndexWriteBatch( oldId );
+        updateCompositeIndexes( compositeKeys, entry, indexWrites );
+        indexWrites.apply( indexWriterExecutor );
+
         // Remove the EntryDN
         entry.removeAttributes( ENTRY_DN_AT );
 
@@ -2232,35 +3201,44 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     @SuppressWarnings("unchecked")
     public synchronized final void rename( Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) throws Exception
     {
-        String oldId = getEntryId( dn );
+        beginWrite();
 
-        rename( oldId, newRdn, deleteOldRdn, entry );
+        try
+        {
+            String oldId = getEntryId( dn );
 
-        /*
-         * H A N D L E   D N   C H A N G E
-         * ====================================================================
-         * We only need to update the Rdn index.
-         * No need to calculate the new Dn.
-         */
-        String parentId = getParentId( oldId );
+            rename( oldId, newRdn, deleteOldRdn, entry );
+
+            /*
+             * H A N D L E   D N   C H A N G E
+             * ====================================================================
+             * We only need to update the Rdn index.
+             * No need to calculate the new Dn.
+             */
+            String parentId = getParentId( oldId );
 
-        // Get the old parentIdAndRdn to get the nb of children and descendant
-        ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( oldId );
+            // Get the old parentIdAndRdn to get the nb of children and descendant
+            ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( oldId );
 
-        // Now we can drop it
-        rdnIdx.drop( oldId );
+            // Now we can drop it
+            rdnIdx.drop( oldId );
 
-        // Update the descendants
-        parentIdAndRdn.setParentId( parentId );
-        parentIdAndRdn.setRdns( newRdn );
+            // Update the descendants
+            parentIdAndRdn.setParentId( parentId );
+            parentIdAndRdn.setRdns( newRdn );
 
-        rdnIdx.add( parentIdAndRdn, oldId );
+            rdnIdx.add( parentIdAndRdn, oldId );
 
-        entryDnCache.removeAll();
-        
-        if ( isSyncOnWrite.get() )
+            entryDnCache.removeAll();
+
+            if ( isSyncNeeded() )
+            {
+                sync();
+            }
+        }
+        finally
         {
-            sync();
+            endWrite();
         }
     }
 
@@ -2305,17 +3283,24 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     // Helper methods
     //---------------------------------------------------------------------------------------------
     /**
-     * updates the CSN index
+     * Adds the presence index write for an attribute whose values are replaced
      *
-     * @param entry the entry having entryCSN attribute
-     * @param id UUID of the entry
-     * @throws Exception
+     * @param indexWrites The index writes
+     * @param attributeOid The attribute OID
+     * @param wasPresent true if the entry had the attribute before the modification
+     * @param isPresent true if the entry has the attribute after the modification
      */
-    private void updateCsnIndex( Entry entry, String id ) throws Exception
+    private void updatePresence( IndexWriteBatch indexWrites, String attributeOid, boolean wasPresent,
+        boolean isPresent )
     {
-        String entryCsn = entry.get( SchemaConstants.ENTRY_CSN_AT ).getString();
-        entryCsnIdx.drop( id );
-        entryCsnIdx.add( entryCsn, id );
+        if ( wasPresent && !isPresent )
+        {
+            indexWrites.drop( presenceIdx, attributeOid );
+        }
+        else if ( !wasPresent && isPresent )
+        {
+            indexWrites.add( presenceIdx, attributeOid );
+        }
     }
 
 
@@ -2329,7 +3314,45 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * @return the normalized Dn of the entry
      * @throws Exception
      */
-    protected Dn buildEntryDn( String id ) throws Exception
+    protected Dn buildEntryDn( final String id ) throws Exception
+    {
+        return read( new PartitionRead<Dn>()
+        {
+            protected Dn read( boolean locked ) throws Exception
+            {
+                return readEntryDn( id, locked );
+            }
+
+
+            protected void cache( Dn result )
+            {
+                if ( result != null )
+                {
+                    entryDnCache.put( new Element( id, result ) );
+                }
+            }
+
+
+            protected void uncache( Dn result )
+            {
+                if ( result != null )
+                {
+                    entryDnCache.remove( id );
+                }
+            }
+        } );
+    }
+
+
+    /**
+     * Reads the Dn of the entry identified by the given id from the Rdn index
+     *
+     * @param id the entry's id
+     * @param locked true if the read lock is held : the ParentIdAndRdns are then cached
+     * @return the normalized Dn of the entry
+     * @throws Exception
+     */
+    private Dn readEntryDn( String id, boolean locked ) throws Exception
     {
         String parentId = id;
         String rootId = Partition.ROOT_ID;
@@ -2338,81 +3361,70 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         Rdn[] rdnArray = new Rdn[10];
         int pos = 0;
 
-        Dn dn = null;
-        
-        try
+        Element el = entryDnCache.get( id );
+
+        if ( el != null )
+        {
+            return ( Dn ) el.getValue();
+        }
+
+        do
         {
-            rwLock.readLock().lock();
+            ParentIdAndRdn cur = null;
 
-            Element el = entryDnCache.get( id );
-            
-            if ( el != null )
-            {
-                return ( Dn ) el.getValue();
-            }
-            
-            do
+            if ( piarCache != null )
             {
-                ParentIdAndRdn cur = null;
-            
-                if ( piarCache != null )
+                Element piar = piarCache.get( parentId );
+
+                if ( piar != null )
                 {
-                    Element piar = piarCache.get( parentId );
-                    
-                    if ( piar != null )
-                    {
-                        cur = (ParentIdAndRdn)piar.getValue();
-                    }
-                    else
-                    {
-                        cur = rdnIdx.reverseLookup( parentId );
-                        
-                        if ( cur == null )
-                        {
-                            return null;
-                        }
-                        
-                        piarCache.put( new Element( parentId, cur) );
-                    }
+                    cur = ( ParentIdAndRdn ) piar.getValue();
                 }
                 else
                 {
                     cur = rdnIdx.reverseLookup( parentId );
-                    
+
                     if ( cur == null )
                     {
                         return null;
                     }
-                }
 
-                Rdn[] rdns = cur.getRdns();
-
-                for ( Rdn rdn : rdns )
-                {
-                    if ( ( pos > 0 ) && ( pos % 10 == 0 ) )
+                    if ( locked )
                     {
-                        // extend the array
-                        Rdn[] newRdnArray = new Rdn[pos + 10];
-                        System.arraycopy( rdnArray, 0, newRdnArray, 0, pos );
-                        rdnArray = newRdnArray;
+                        piarCache.put( new Element( parentId, cur ) );
                     }
+                }
+            }
+            else
+            {
+                cur = rdnIdx.reverseLookup( parentId );
+
+                if ( cur == null )
+                {
+                    return null;
+                }
+            }
 
-                    rdnArray[pos++] = rdn;
+            Rdn[] rdns = cur.getRdns();
+
+            for ( Rdn rdn : rdns )
+            {
+                if ( ( pos > 0 ) && ( pos % 10 == 0 ) )
+                {
+                    // extend the array
+                    Rdn[] newRdnArray = new Rdn[pos + 10];
+                    System.arraycopy( rdnArray, 0, newRdnArray, 0, pos );
+                    rdnArray = newRdnArray;
                 }
 
-                parentId = cur.getParentId();
+                rdnArray[pos++] = rdn;
             }
-            while ( !parentId.equals( rootId ) );
-            
-            dn = new Dn( schemaManager, Arrays.copyOf( rdnArray, pos ) );
-            
-            entryDnCache.put( new Element( id, dn ) );
-            return dn;
-        }
-        finally
-        {
-            rwLock.readLock().unlock();
+
+            parentId = cur.getParentId();
         }
+        while ( !parentId.equals( rootId ) );
+
+        return new Dn( schemaManager, Arrays.copyOf( rdnArray, pos ) );
     }
 
 
@@ -2455,7 +3467,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /**
      * {@inheritDoc}
      */
-    public final String getEntryId( Dn dn ) throws LdapException
+    public final String getEntryId( final Dn dn ) throws LdapException
     {
         try
         {
@@ -2464,32 +3476,30 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 return Partition.ROOT_ID;
             }
 
-            ParentIdAndRdn suffixKey = new ParentIdAndRdn( Partition.ROOT_ID, suffixDn.getRdns() );
+            final ParentIdAndRdn suffixKey = new ParentIdAndRdn( Partition.ROOT_ID, suffixDn.getRdns() );
 
             // Check into the Rdn index, starting with the partition Suffix
-            try
+            return read( new PartitionRead<String>()
             {
-                rwLock.readLock().lock();
-                String currentId = rdnIdx.forwardLookup( suffixKey );
-
-                for ( int i = dn.size() - suffixDn.size(); i > 0; i-- )
+                protected String read( boolean locked ) throws Exception
                 {
-                    Rdn rdn = dn.getRdn( i - 1 );
-                    ParentIdAndRdn currentRdn = new ParentIdAndRdn( currentId, rdn );
-                    currentId = rdnIdx.forwardLookup( currentRdn );
+                    String currentId = rdnIdx.forwardLookup( suffixKey );
 
-                    if ( currentId == null )
+                    for ( int i = dn.size() - suffixDn.size(); i > 0; i-- )
                     {
-                        break;
-                    }
-                }
+                        Rdn rdn = dn.getRdn( i - 1 );
+                        ParentIdAndRdn currentRdn = new ParentIdAndRdn( currentId, rdn );
+                        currentId = rdnIdx.forwardLookup( currentRdn );
 
-                return currentId;
-            }
-            finally
-            {
-                rwLock.readLock().unlock();
-            }
+                        if ( currentId == null )
+                        {
+                            break;
+                        }
+                    }
+
+                    return currentId;
+                }
+            } );
         }
         catch ( Exception e )
         {
@@ -2501,24 +3511,22 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /**
      * {@inheritDoc}
      */
-    public String getParentId( String childId ) throws Exception
+    public String getParentId( final String childId ) throws Exception
     {
-        try
+        return read( new PartitionRead<String>()
         {
-            rwLock.readLock().lock();
-            ParentIdAndRdn key = rdnIdx.reverseLookup( childId );
-
-            if ( key == null )
+            protected String read( boolean locked ) throws Exception
             {
-                return null;
-            }
+                ParentIdAndRdn key = rdnIdx.reverseLookup( childId );
 
-            return key.getParentId();
-        }
-        finally
-        {
-            rwLock.readLock().unlock();
-        }
+                if ( key == null )
+                {
+                    return null;
+                }
+
+                return key.getParentId();
+            }
+        } );
     }
 
 
@@ -2529,17 +3537,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( suffixId == null )
         {
-            ParentIdAndRdn key = new ParentIdAndRdn( Partition.ROOT_ID, suffixDn.getRdns() );
+            final ParentIdAndRdn key = new ParentIdAndRdn( Partition.ROOT_ID, suffixDn.getRdns() );
 
-            try
+            suffixId = read( new PartitionRead<String>()
             {
-                rwLock.readLock().lock();
-                suffixId = rdnIdx.forwardLookup( key );
-            }
-            finally
-            {
-                rwLock.readLock().unlock();
-            }
+                protected String read( boolean locked ) throws Exception
+                {
+                    return rdnIdx.forwardLookup( key );
+                }
+            } );
         }
 
         return suffixId;
@@ -2587,6 +3593,42 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 userIndices.put( oid, index );
             }
         }
+
+        // The cached plans have been computed without this index
+        if ( optimizer instanceof DefaultOptimizer )
+        {
+            ( ( DefaultOptimizer<?> ) optimizer ).clearPlanCache();
+        }
+    }
+
+
+    /**
+     * Adds a composite index. It must be done before the partition is initialized.
+     *
+     * @param compositeIndex The composite index to add
+     */
+    public void addCompositeIndex( CompositeIndex compositeIndex )
+    {
+        checkInitialized( "addCompositeIndex" );
+
+        for ( CompositeIndex existing : compositeIndices )
+        {
+            if ( existing.getName().equalsIgnoreCase( compositeIndex.getName() ) )
+            {
+                return;
+            }
+        }
+
+        compositeIndices.add( compositeIndex );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<CompositeIndex> getCompositeIndexes()
+    {
+        return Collections.unmodifiableList( compositeIndices );
     }
 
 
@@ -2787,6 +3829,18 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     public boolean hasUserIndexOn( AttributeType attributeType ) throws LdapException
+    {
+        String oid = attributeType.getOid();
+
+        return userIndices.containsKey( oid ) && !indexBuilders.containsKey( oid );
+    }
+
+
+    /**
+     * Tells if the writes must update a user index on an attribute. An index being built
+     * is updated, even if it's not used by the searches yet.
+     */
+    private boolean isUserIndexWritten( AttributeType attributeType )
     {
         return userIndices.containsKey( attributeType.getOid() );
     }
@@ -2825,6 +3879,29 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * @throws Exception if the wrappedCursor btrees cannot be altered
      */
     protected void addAliasIndices( String aliasId, Dn aliasDn, Dn aliasTarget ) throws Exception
+    {
+        IndexWriteBatch indexWrites = new IndexWriteBatch( aliasId );
+        addAliasIndices( indexWrites, aliasId, aliasDn, aliasTarget );
+        indexWrites.apply( null );
+
+        cacheAlias( aliasId, aliasTarget );
+    }
+
+
+    /**
+     * Gathers the alias indexes writes for an alias entry, while checking for
+     * constrained alias constructs like alias cycles and chaining. The alias
+     * cache has to be updated once the writes are applied.
+     *
+     * @param indexWrites The index writes
+     * @param aliasId the id of alias entry to add
+     * @param aliasDn normalized distinguished name for the alias entry
+     * @param aliasTarget the user provided aliased entry dn as a string
+     * @throws LdapException if the alias is not allowed due to chaining or cycle formation
+     * @throws Exception if the indexes cannot be read
+     */
+    private void addAliasIndices( IndexWriteBatch indexWrites, String aliasId, Dn aliasDn, Dn aliasTarget )
+        throws Exception
     {
         String targetId; // Id of the aliasedObjectName
         Dn ancestorDn; // Name of an alias entry relative
@@ -2883,12 +3960,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         }
 
         // Add the alias to the simple alias index
-        aliasIdx.add( aliasTarget, aliasId );
-        
-        if ( aliasCache != null )
-        {
-            aliasCache.put(  new Element( aliasId, aliasTarget ) );
-        }
+        indexWrites.add( aliasIdx, aliasTarget, aliasId );
 
         /*
          * Handle One Level Scope Alias Index
@@ -2903,9 +3975,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // check if alias parent and aliased entry are the same
         Dn normalizedAliasTargetParentDn = aliasTarget.getParent();
 
-        if ( !aliasDn.isDescendantOf( normalizedAliasTargetParentDn ) )
+        if ( !aliasDn.isDescendantOf( normalizedAliasTargetParentDn )
+            && !oneAliasIdx.forward( ancestorId, targetId ) )
         {
-            oneAliasIdx.add( ancestorId, targetId );
+            indexWrites.add( oneAliasIdx, ancestorId, targetId );
         }
 
         /*
@@ -2920,9 +3993,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
          */
         while ( !ancestorDn.equals( suffixDn ) && null != ancestorId )
         {
-            if ( !aliasTarget.isDescendantOf( ancestorDn ) )
+            if ( !aliasTarget.isDescendantOf( ancestorDn ) && !subAliasIdx.forward( ancestorId, targetId ) )
             {
-                subAliasIdx.add( ancestorId, targetId );
+                indexWrites.add( subAliasIdx, ancestorId, targetId );
             }
 
             ancestorDn = ancestorDn.getParent();
@@ -2931,6 +4004,18 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Stores the target of an alias in the alias cache, if any
+     */
+    private void cacheAlias( String aliasId, Dn aliasTarget )
+    {
+        if ( aliasCache != null )
+        {
+            aliasCache.put( new Element( aliasId, aliasTarget ) );
+        }
+    }
+
+
     /**
      * Removes the index entries for an alias before the entry is deleted from
      * the master table.
@@ -2941,6 +4026,27 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * @throws Exception if we cannot delete index values in the database
      */
     protected void dropAliasIndices( String aliasId ) throws Exception
+    {
+        IndexWriteBatch indexWrites = new IndexWriteBatch( aliasId );
+        dropAliasIndices( indexWrites, aliasId );
+        indexWrites.apply( null );
+
+        if ( aliasCache != null )
+        {
+            aliasCache.remove( aliasId );
+        }
+    }
+
+
+    /**
+     * Gathers the writes removing the index entries of an alias. The alias cache has
+     * to be updated once the writes are applied.
+     *
+     * @param indexWrites The index writes
+     * @param aliasId the id of the alias entry in the master table
+     * @throws Exception if the indexes cannot be read
+     */
+    private void dropAliasIndices( IndexWriteBatch indexWrites, String aliasId ) throws Exception
     {
         Dn targetDn = aliasIdx.reverseLookup( aliasId );
         targetDn.apply( schemaManager );
@@ -2969,24 +4075,29 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
          * subtree scope alias.  We only need to do this for the direct parent
          * of the alias on the one level subtree.
          */
-        oneAliasIdx.drop( ancestorId, targetId );
-        subAliasIdx.drop( ancestorId, targetId );
+        if ( oneAliasIdx.forward( ancestorId, targetId ) )
+        {
+            indexWrites.drop( oneAliasIdx, ancestorId, targetId );
+        }
+
+        if ( subAliasIdx.forward( ancestorId, targetId ) )
+        {
+            indexWrites.drop( subAliasIdx, ancestorId, targetId );
+        }
 
         while ( !ancestorDn.equals( suffixDn ) && ancestorDn.size() > suffixDn.size() )
         {
             ancestorDn = ancestorDn.getParent();
             ancestorId = getEntryId( ancestorDn );
 
-            subAliasIdx.drop( ancestorId, targetId );
+            if ( subAliasIdx.forward( ancestorId, targetId ) )
+            {
+                indexWrites.drop( subAliasIdx, ancestorId, targetId );
+            }
         }
 
-        // Drops all alias tuples pointing to the id of the alias to be deleted
-        aliasIdx.drop( aliasId );
-
-        if ( aliasCache != null )
-        {
-            aliasCache.remove( aliasId );
-        }
+        // Drops the alias tuple pointing to the id of the alias to be deleted
+        indexWrites.drop( aliasIdx, targetDn, aliasId );
     }
 
 
@@ -3163,6 +4274,193 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Tells if the reads are done without the read lock. The reads are then validated
+     * against the writes done meanwhile, and done again under the read lock if a write
+     * has been done. It requires a backend whose readers never see a corrupted page, like
+     * a copy-on-write B-tree which doesn't reuse the pages of the old revisions : a reader
+     * only risks to see a partially written partition.
+     *
+     * @param optimisticReads true if the reads are done without the read lock
+     */
+    protected void setOptimisticReads( boolean optimisticReads )
+    {
+        this.optimisticReads = optimisticReads;
+    }
+
+
+    /**
+     * @return true if the reads are done without the read lock
+     */
+    public boolean isOptimisticReads()
+    {
+        return optimisticReads;
+    }
+
+
+    /**
+     * Records the start of a write. Must be followed by a call to endWrite().
+     */
+    private void beginWrite()
+    {
+        activeWrites.incrementAndGet();
+    }
+
+
+    /**
+     * Records the end of a write
+     */
+    private void endWrite()
+    {
+        completedWrites.incrementAndGet();
+        activeWrites.decrementAndGet();
+    }
+
+
+    /**
+     * Starts an optimistic read
+     *
+     * @return The number of completed writes, to be checked once the read is done, or -1
+     * if the read has to be done under the read lock
+     */
+    private long beginOptimisticRead()
+    {
+        if ( !optimisticReads )
+        {
+            return -1L;
+        }
+
+        long version = completedWrites.get();
+
+        if ( activeWrites.get() > 0 )
+        {
+            return -1L;
+        }
+
+        return version;
+    }
+
+
+    /**
+     * Tells if no write has been done since an optimistic read started
+     *
+     * @param version The number of completed writes when the read started
+     * @return true if the read is consistent
+     */
+    private boolean isReadValid( long version )
+    {
+        return ( activeWrites.get() == 0 ) && ( completedWrites.get() == version );
+    }
+
+
+    /**
+     * Reads the partition, optimistically if the reads are done without the read lock,
+     * and under the read lock otherwise, or if a write has been done during the optimistic
+     * read.
+     *
+     * @param read The read to do
+     * @return The read result
+     * @throws Exception If the read failed
+     */
+    protected <T> T read( PartitionRead<T> read ) throws Exception
+    {
+        long version = beginOptimisticRead();
+
+        if ( version >= 0 )
+        {
+            T result = null;
+            boolean done = false;
+
+            try
+            {
+                result = read.read( false );
+                done = true;
+            }
+            catch ( Exception e )
+            {
+                // The failure may be caused by a concurrent write
+                if ( isReadValid( version ) )
+                {
+                    throw e;
+                }
+            }
+            catch ( StackOverflowError soe )
+            {
+                // A page being written may be read as a garbage structure
+                if ( isReadValid( version ) )
+                {
+                    throw soe;
+                }
+            }
+            catch ( OutOfMemoryError oome )
+            {
+                // or as a garbage size
+                if ( isReadValid( version ) )
+                {
+                    throw oome;
+                }
+            }
+
+            if ( done && isReadValid( version ) )
+            {
+                read.cache( result );
+
+                // A write may have been done before the result was cached
+                if ( !isReadValid( version ) )
+                {
+                    read.uncache( result );
+                }
+
+                return result;
+            }
+
+            StripedCounter retries = getOptimisticReadRetries();
+
+            if ( retries != null )
+            {
+                retries.increment();
+            }
+        }
+
+        rwLock.readLock().lock();
+
+        try
+        {
+            T result = read.read( true );
+            read.cache( result );
+
+            return result;
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return The counter of the optimistic reads done again under the read lock,
+     * or null if we don't have a metrics registry
+     */
+    public StripedCounter getOptimisticReadRetries()
+    {
+        if ( metricsRegistry == null )
+        {
+            return null;
+        }
+
+        StripedCounter counter = optimisticReadRetries;
+
+        if ( counter == null )
+        {
+            counter = metricsRegistry.getCounter( "optimisticReadRetries." + id );
+            optimisticReadRetries = counter;
+        }
+
+        return counter;
+    }
+
+
     /**
      * updates the cache based on the type of OperationContext
      * 
@@ -3200,6 +4498,71 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * removes the entry with the given ID from the cache
+     *
+     * @param id ID of the entry
+     */
+    protected void removeFromCache( String id )
+    {
+    }
+
+
+    /**
+     * Records a hit or a miss in the entry cache, if we have a metrics registry.
+     * Partitions having an entry cache call it from their lookupCache() method.
+     *
+     * @param hit true if the entry was found in the cache
+     */
+    protected void recordEntryCacheAccess( boolean hit )
+    {
+        if ( metricsRegistry == null )
+        {
+            return;
+        }
+
+        HitRatio hitRatio = entryCacheHitRatio;
+
+        if ( hitRatio == null )
+        {
+            hitRatio = metricsRegistry.getHitRatio( "entryCache." + id );
+            entryCacheHitRatio = hitRatio;
+        }
+
+        if ( hit )
+        {
+            hitRatio.hit();
+        }
+        else
+        {
+            hitRatio.miss();
+        }
+    }
+
+
+    /**
+     * @return The counter of the candidates read from the indexes while searching,
+     * or null if we don't have a metrics registry
+     */
+    public StripedCounter getIndexScanCounter()
+    {
+        if ( metricsRegistry == null )
+        {
+            return null;
+        }
+
+        StripedCounter counter = indexScanCounter;
+
+        if ( counter == null )
+        {
+            counter = metricsRegistry.getCounter( "indexScans." + id );
+            indexScanCounter = counter;
+        }
+
+        return counter;
+    }
+
+
     /**
      * @return the optimizer
      */
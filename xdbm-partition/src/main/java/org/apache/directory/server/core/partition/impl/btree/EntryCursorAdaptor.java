@@ -28,6 +28,8 @@ import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
+import org.apache.directory.server.core.api.monitor.StripedCounter;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
@@ -51,16 +53,34 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** The counter of evaluated candidates, if metrics are collected */
+    private final StripedCounter scanCounter;
+
+    /** The partition, used to fetch the candidates when the search is traced */
+    private final AbstractBTreePartition db;
+
+    /** The search trace, if the search is traced */
+    private final SearchTrace trace;
+
 
     public EntryCursorAdaptor( AbstractBTreePartition db, PartitionSearchResult searchResult )
+    {
+        this( db, searchResult, null );
+    }
+
+
+    public EntryCursorAdaptor( AbstractBTreePartition db, PartitionSearchResult searchResult, SearchTrace trace )
     {
         if ( IS_DEBUG )
         {
             LOG_CURSOR.debug( "Creating EntryCursorAdaptor {}", this );
         }
 
+        this.db = db;
+        this.trace = trace;
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
+        scanCounter = db.getIndexScanCounter();
     }
 
 
@@ -162,8 +182,27 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     {
         IndexEntry<String, String> indexEntry = indexCursor.get();
 
+        if ( scanCounter != null )
+        {
+            scanCounter.increment();
+        }
+
+        long start = 0L;
+
         try
         {
+            if ( trace != null )
+            {
+                start = System.nanoTime();
+
+                // Fetch the candidate ourselves, so that we know where it comes from.
+                // The evaluators will use it instead of fetching it again.
+                if ( indexEntry.getEntry() == null )
+                {
+                    indexEntry.setEntry( db.fetch( indexEntry.getId(), trace ) );
+                }
+            }
+
             if ( evaluator.evaluate( indexEntry ) )
             {
                 Entry entry = indexEntry.getEntry();
@@ -182,6 +221,13 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         {
             throw new CursorException( e.getMessage(), e );
         }
+        finally
+        {
+            if ( trace != null )
+            {
+                trace.addStageTime( SearchTrace.FETCH_STAGE, start );
+            }
+        }
     }
 
 
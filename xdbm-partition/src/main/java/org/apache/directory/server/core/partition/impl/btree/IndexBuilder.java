@@ -0,0 +1,494 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.server.core.api.monitor.Gauge;
+import org.apache.directory.server.core.api.monitor.MetricsRegistry;
+import org.apache.directory.server.xdbm.Index;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Builds a new user index while the partition keeps serving requests. The master table
+ * is scanned, and the (value, id) tuples are inserted by batches, sorted by value so
+ * that the B-tree pages are written in order.
+ * <br>
+ * While the index is built, the partition writes keep updating it, and record the IDs
+ * of the entries they have written : the tuples read from the master table for those
+ * entries may be outdated, so they are skipped, and the entries are indexed again from
+ * the master table once the scan is done. The partition writes are held while a chunk
+ * of the master table is read, while a batch is inserted and while the written entries
+ * are indexed again.
+ * <br>
+ * The index is not used to evaluate the searches until it's built.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexBuilder implements Runnable
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( IndexBuilder.class );
+
+    /** The number of tuples sorted and inserted at once */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    /** The partition */
+    private final AbstractBTreePartition partition;
+
+    /** The index to build */
+    private final Index<Object, String> index;
+
+    /** The indexed attribute */
+    private final AttributeType attributeType;
+
+    /** The IDs of the entries written while the index is built */
+    private final Set<String> writtenIds = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+
+    /** The number of tuples sorted and inserted at once */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** The number of entries in the master table when the build started */
+    private volatile long total;
+
+    /** The number of entries read so far */
+    private volatile long scanned;
+
+    /** The time the build started */
+    private volatile long startTime;
+
+    /** Set to stop the build */
+    private volatile boolean stopped;
+
+    /** Set when the index is built */
+    private volatile boolean built;
+
+    /**
+     * A tuple to insert
+     */
+    private static class IndexTuple
+    {
+        private final Object key;
+        private final String id;
+
+
+        private IndexTuple( Object key, String id )
+        {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of IndexBuilder.
+     *
+     * @param partition The partition
+     * @param index The index to build, already initialized
+     */
+    @SuppressWarnings("unchecked")
+    public IndexBuilder( AbstractBTreePartition partition, Index<?, String> index )
+    {
+        this.partition = partition;
+        this.index = ( Index<Object, String> ) index;
+        this.attributeType = index.getAttribute();
+    }
+
+
+    /**
+     * Builds the index. Once done, the index is marked as ready in the partition.
+     */
+    public void run()
+    {
+        String indexName = partition.getId() + "." + attributeType.getName();
+        String progressGauge = "indexBuild." + indexName + ".progress";
+        String etaGauge = "indexBuild." + indexName + ".eta";
+        MetricsRegistry metricsRegistry = partition.metricsRegistry;
+
+        if ( metricsRegistry != null )
+        {
+            metricsRegistry.registerGauge( progressGauge, new Gauge()
+            {
+                public long getValue()
+                {
+                    return getProgress();
+                }
+            } );
+
+            metricsRegistry.registerGauge( etaGauge, new Gauge()
+            {
+                public long getValue()
+                {
+                    return getEta();
+                }
+            } );
+        }
+
+        try
+        {
+            startTime = System.currentTimeMillis();
+            total = partition.master.count();
+
+            LOG.info( "Building the {} index of the {} partition, {} entries to read", attributeType.getName(),
+                partition.getId(), total );
+
+            scan();
+
+            if ( stopped )
+            {
+                LOG.info( "The build of the {} index of the {} partition has been stopped", attributeType.getName(),
+                    partition.getId() );
+
+                return;
+            }
+
+            partition.lockIndexBuilds();
+
+            try
+            {
+                reindexWrittenEntries();
+                built = true;
+                partition.markIndexBuilt( this );
+            }
+            finally
+            {
+                partition.unlockIndexBuilds();
+            }
+
+            LOG.info( "The {} index of the {} partition has been built in {}ms", attributeType.getName(),
+                partition.getId(), System.currentTimeMillis() - startTime );
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "Failed to build the {} index of the {} partition, it won't be used", attributeType.getName(),
+                partition.getId() );
+            LOG.error( "", e );
+        }
+        finally
+        {
+            if ( metricsRegistry != null )
+            {
+                metricsRegistry.unregisterGauge( progressGauge );
+                metricsRegistry.unregisterGauge( etaGauge );
+            }
+        }
+    }
+
+
+    /**
+     * Reads the master table, and inserts the tuples by sorted batches
+     */
+    private void scan() throws Exception
+    {
+        List<IndexTuple> batch = new ArrayList<IndexTuple>( batchSize );
+        List<String> presentIds = new ArrayList<String>();
+        String lastId = null;
+        boolean done = false;
+
+        // The master table is read by chunks, each one while the writes are held, and
+        // the cursor is positioned after the last key read for the next chunk. The
+        // entries added before that key in the meantime have been recorded as written.
+        while ( !stopped && !done )
+        {
+            done = true;
+            ReadWriteLock lock = partition.lockMasterScan();
+
+            try
+            {
+                Cursor<Tuple<String, Entry>> cursor = partition.master.cursor();
+
+                try
+                {
+                    if ( lastId == null )
+                    {
+                        cursor.beforeFirst();
+                    }
+                    else
+                    {
+                        cursor.after( new Tuple<String, Entry>( lastId, null ) );
+                    }
+
+                    int read = 0;
+
+                    while ( !stopped && cursor.next() )
+                    {
+                        Tuple<String, Entry> tuple = cursor.get();
+                        String id = tuple.getKey();
+                        Attribute attribute = tuple.getValue().get( attributeType );
+                        lastId = id;
+                        scanned++;
+
+                        if ( attribute != null )
+                        {
+                            for ( Value<?> value : attribute )
+                            {
+                                batch.add( new IndexTuple( value.getNormValue(), id ) );
+                            }
+
+                            presentIds.add( id );
+                        }
+
+                        if ( ( scanned % 100000 ) == 0 )
+                        {
+                            LOG.info( "{} index of the {} partition : {} entries read, {}%", new Object[]
+                                { attributeType.getName(), partition.getId(), scanned, getProgress() } );
+                        }
+
+                        if ( ( ++read >= batchSize ) || ( batch.size() >= batchSize ) )
+                        {
+                            done = false;
+                            break;
+                        }
+                    }
+                }
+                finally
+                {
+                    cursor.close();
+                }
+            }
+            finally
+            {
+                partition.unlockMasterScan( lock );
+            }
+
+            if ( !stopped && ( batch.size() >= batchSize ) )
+            {
+                insert( batch, presentIds );
+            }
+        }
+
+        if ( !stopped )
+        {
+            insert( batch, presentIds );
+        }
+    }
+
+
+    /**
+     * Inserts a batch of tuples, sorted by key, while the partition writes are held
+     */
+    private void insert( List<IndexTuple> batch, List<String> presentIds ) throws Exception
+    {
+        sort( batch );
+
+        partition.lockIndexBuilds();
+
+        try
+        {
+            for ( IndexTuple tuple : batch )
+            {
+                if ( !writtenIds.contains( tuple.id ) )
+                {
+                    index.add( tuple.key, tuple.id );
+                }
+            }
+
+            String oid = attributeType.getOid();
+
+            for ( String id : presentIds )
+            {
+                if ( !writtenIds.contains( id ) )
+                {
+                    partition.presenceIdx.add( oid, id );
+                }
+            }
+        }
+        finally
+        {
+            partition.unlockIndexBuilds();
+        }
+
+        batch.clear();
+        presentIds.clear();
+    }
+
+
+    /**
+     * Sorts the tuples using the index comparator
+     */
+    @SuppressWarnings("unchecked")
+    private void sort( List<IndexTuple> batch )
+    {
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( mr == null )
+        {
+            mr = attributeType.getOrdering();
+        }
+
+        if ( ( mr == null ) || ( mr.getLdapComparator() == null ) )
+        {
+            return;
+        }
+
+        final Comparator<Object> comparator = ( Comparator<Object> ) mr.getLdapComparator();
+
+        try
+        {
+            Collections.sort( batch, new Comparator<IndexTuple>()
+            {
+                public int compare( IndexTuple tuple1, IndexTuple tuple2 )
+                {
+                    return comparator.compare( tuple1.key, tuple2.key );
+                }
+            } );
+        }
+        catch ( RuntimeException re )
+        {
+            // The order only matters for speed
+            LOG.debug( "Cannot sort the {} index tuples", attributeType.getName(), re );
+        }
+    }
+
+
+    /**
+     * Indexes again the entries written while the index was built, from the master table.
+     * The partition writes must be held.
+     */
+    private void reindexWrittenEntries() throws Exception
+    {
+        String oid = attributeType.getOid();
+
+        for ( String id : writtenIds )
+        {
+            index.drop( id );
+
+            Entry entry = partition.master.get( id );
+            Attribute attribute = ( entry != null ) ? entry.get( attributeType ) : null;
+
+            if ( attribute != null )
+            {
+                for ( Value<?> value : attribute )
+                {
+                    index.add( value.getNormValue(), id );
+                }
+
+                partition.presenceIdx.add( oid, id );
+            }
+            else if ( partition.presenceIdx.forward( oid, id ) )
+            {
+                partition.presenceIdx.drop( oid, id );
+            }
+        }
+
+        writtenIds.clear();
+    }
+
+
+    /**
+     * Records that an entry has been written while the index is built
+     *
+     * @param id The entry ID
+     */
+    void entryWritten( String id )
+    {
+        writtenIds.add( id );
+    }
+
+
+    /**
+     * Stops the build. The index will not be used.
+     */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+
+    /**
+     * @return The built index
+     */
+    public Index<?, String> getIndex()
+    {
+        return index;
+    }
+
+
+    /**
+     * @return true if the index is built
+     */
+    public boolean isBuilt()
+    {
+        return built;
+    }
+
+
+    /**
+     * Sets the number of tuples sorted and inserted at once
+     *
+     * @param batchSize The number of tuples
+     */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize > 0 ? batchSize : 1;
+    }
+
+
+    /**
+     * @return The percentage of the master table read so far
+     */
+    public long getProgress()
+    {
+        long currentTotal = total;
+
+        if ( currentTotal <= 0 )
+        {
+            return built ? 100 : 0;
+        }
+
+        return Math.min( 100L, scanned * 100L / currentTotal );
+    }
+
+
+    /**
+     * @return The estimated number of seconds before the master table is read, or -1 if
+     * it's not known yet
+     */
+    public long getEta()
+    {
+        long currentScanned = scanned;
+
+        if ( currentScanned == 0 )
+        {
+            return -1L;
+        }
+
+        long elapsed = System.currentTimeMillis() - startTime;
+        long remaining = Math.max( 0L, total - currentScanned );
+
+        return elapsed * remaining / currentScanned / 1000L;
+    }
+}
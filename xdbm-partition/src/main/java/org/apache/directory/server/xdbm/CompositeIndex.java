@@ -0,0 +1,509 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.MutableAttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * An index on the tuple of the normalized values of a few attributes, in a given
+ * order : (objectClass, o, uid) for instance. An entry is indexed under the tuple of
+ * each leading part of the attributes : (objectClass), (objectClass, o) and
+ * (objectClass, o, uid), so that a filter with equality assertions on the first
+ * attributes only can also be resolved with a single lookup. A multi-valued attribute
+ * gives one tuple per value, and an entry is only indexed up to its first missing
+ * attribute.
+ * <br>
+ * The number of keys of an entry is the product of the number of values of its
+ * attributes : it's capped by {@link #getMaxKeys()}. When a level would exceed it, the
+ * entry is only indexed under the tuples of the previous levels, and a marker key of
+ * the level is added instead. As long as an entry is marked, the lookups don't use the
+ * levels starting at the marked one : they use the longest unmarked prefix, which
+ * gives more candidates, but never misses an entry.
+ * <br>
+ * The tuples are stored in an index over a dedicated key attribute, which is not part
+ * of the schema : the keys are compared byte per byte with the octetStringMatch
+ * comparator, and not normalized again. Each value is written as its length followed
+ * by its bytes, so that two distinct tuples can't have the same key.
+ * <br>
+ * Only the JDBM partition persists the tuples. The AVL and Mavibot partitions keep
+ * them in memory, and fill them with a full scan of the master table when they are
+ * initialized, unless they are told not to, in which case their composite indexes
+ * are ignored.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompositeIndex
+{
+    /** The separator of the attributes in a composite index declaration */
+    public static final String ATTRIBUTE_SEPARATOR = "+";
+
+    /** The OID of the key attribute of the index storing the tuples */
+    public static final String KEY_ATTRIBUTE_OID = "1.3.6.1.4.1.18060.0.4.1.2.900";
+
+    /** The name of the key attribute of the index storing the tuples */
+    public static final String KEY_ATTRIBUTE_NAME = "compositeIndexKey";
+
+    /** The default maximum number of keys an entry is indexed under */
+    public static final int DEFAULT_MAX_KEYS = 1000;
+
+    /** The first bytes of the marker keys : a value length can't be negative */
+    private static final byte[] TRUNCATED_MARKER =
+        { ( byte ) 0xFF, ( byte ) 0xFF, ( byte ) 0xFF, ( byte ) 0xFF };
+
+    /** The index name */
+    private final String name;
+
+    /** The indexed attributes, in order */
+    private final String[] attributeIds;
+
+    /** The indexed attribute types, once initialized */
+    private AttributeType[] attributeTypes;
+
+    /** The index storing the tuples */
+    private Index<byte[], String> index;
+
+    /** Tells if the index contains all the entries, and can be used by the searches */
+    private volatile boolean built;
+
+    /** The maximum number of keys an entry is indexed under */
+    private int maxKeys = DEFAULT_MAX_KEYS;
+
+
+    /**
+     * Creates a new instance of CompositeIndex from its declaration, the indexed
+     * attributes separated by a '+' : "objectClass+o+uid" for instance. The
+     * declaration is the index name.
+     *
+     * @param declaration The indexed attributes
+     */
+    public CompositeIndex( String declaration )
+    {
+        this( declaration, declaration.split( "\\" + ATTRIBUTE_SEPARATOR ) );
+    }
+
+
+    /**
+     * Creates a new instance of CompositeIndex.
+     *
+     * @param name The index name
+     * @param attributeIds The indexed attributes, in order
+     */
+    public CompositeIndex( String name, String... attributeIds )
+    {
+        if ( attributeIds.length < 2 )
+        {
+            throw new IllegalArgumentException( "A composite index needs at least two attributes : " + name );
+        }
+
+        this.name = name;
+        this.attributeIds = new String[attributeIds.length];
+
+        for ( int i = 0; i < attributeIds.length; i++ )
+        {
+            this.attributeIds[i] = Strings.trim( attributeIds[i] );
+        }
+    }
+
+
+    /**
+     * Tells if an attribute declaration is a composite index declaration
+     *
+     * @param attributeId The declared index attribute
+     * @return true if it contains several attributes
+     */
+    public static boolean isComposite( String attributeId )
+    {
+        return ( attributeId != null ) && ( attributeId.indexOf( ATTRIBUTE_SEPARATOR ) > 0 );
+    }
+
+
+    /**
+     * Initializes the index, resolving the indexed attributes.
+     *
+     * @param schemaManager The schema manager
+     * @throws LdapException If an indexed attribute does not exist, or has no equality matching rule
+     */
+    public void init( SchemaManager schemaManager ) throws LdapException
+    {
+        AttributeType[] types = new AttributeType[attributeIds.length];
+
+        for ( int i = 0; i < attributeIds.length; i++ )
+        {
+            types[i] = schemaManager.lookupAttributeTypeRegistry( attributeIds[i] );
+
+            if ( types[i].getEquality() == null )
+            {
+                throw new LdapException( "The attribute " + attributeIds[i] + " of the composite index " + name
+                    + " has no equality matching rule" );
+            }
+        }
+
+        attributeTypes = types;
+    }
+
+
+    /**
+     * Creates the key attribute of the index storing the tuples. It's not registered
+     * in the schema : it only gives the index its octet string comparator and
+     * serializer.
+     *
+     * @param schemaManager The schema manager
+     * @return The key attribute
+     * @throws LdapException If the octetStringMatch matching rule does not exist
+     */
+    public static AttributeType createKeyAttributeType( SchemaManager schemaManager ) throws LdapException
+    {
+        MatchingRule equality = schemaManager.lookupMatchingRuleRegistry( SchemaConstants.OCTET_STRING_MATCH_MR_OID );
+
+        MutableAttributeType attributeType = new MutableAttributeType( KEY_ATTRIBUTE_OID );
+        attributeType.addName( KEY_ATTRIBUTE_NAME );
+        attributeType.setEquality( equality );
+        attributeType.setSyntax( equality.getSyntax() );
+
+        return attributeType;
+    }
+
+
+    /**
+     * @return The index name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * @return The indexed attributes, in order
+     */
+    public String[] getAttributeIds()
+    {
+        return attributeIds;
+    }
+
+
+    /**
+     * @return The index storing the tuples
+     */
+    public Index<byte[], String> getIndex()
+    {
+        return index;
+    }
+
+
+    /**
+     * @param index The index storing the tuples, initialized
+     */
+    public void setIndex( Index<byte[], String> index )
+    {
+        this.index = index;
+    }
+
+
+    /**
+     * @return true if the index contains all the entries
+     */
+    public boolean isBuilt()
+    {
+        return built;
+    }
+
+
+    /**
+     * @param built Tells if the index contains all the entries
+     */
+    public void setBuilt( boolean built )
+    {
+        this.built = built;
+    }
+
+
+    /**
+     * @return The maximum number of keys an entry is indexed under
+     */
+    public int getMaxKeys()
+    {
+        return maxKeys;
+    }
+
+
+    /**
+     * Sets the maximum number of keys an entry is indexed under. It must be set before
+     * the index is built : the keys of the existing entries are not computed again.
+     *
+     * @param maxKeys The maximum number of keys, at least the number of attributes
+     */
+    public void setMaxKeys( int maxKeys )
+    {
+        if ( maxKeys < attributeIds.length )
+        {
+            throw new IllegalArgumentException( "The maximum number of keys of the composite index " + name
+                + " must be at least " + attributeIds.length );
+        }
+
+        this.maxKeys = maxKeys;
+    }
+
+
+    /**
+     * Gets the number of leading attributes for which a value is given.
+     *
+     * @param values The values, by attribute type OID
+     * @return The number of leading attributes having a value
+     */
+    public int getPrefixLength( Map<String, Value<?>> values )
+    {
+        int length = 0;
+
+        while ( ( length < attributeTypes.length ) && values.containsKey( attributeTypes[length].getOid() ) )
+        {
+            length++;
+        }
+
+        return length;
+    }
+
+
+    /**
+     * Gets the key of the tuple made of the values of the leading attributes. The
+     * levels at which an entry has been truncated are not used, so that the lookup
+     * does not miss it.
+     *
+     * @param values The values, by attribute type OID
+     * @return The key, or null if there is no value for the first attribute, or if
+     * an entry has too many values for it
+     * @throws Exception If the index can't be read
+     */
+    public byte[] getKey( Map<String, Value<?>> values ) throws Exception
+    {
+        int length = getPrefixLength( values );
+
+        for ( int i = 0; i < length; i++ )
+        {
+            if ( index.forward( getTruncatedKey( i ) ) )
+            {
+                length = i;
+            }
+        }
+
+        if ( length == 0 )
+        {
+            return null;
+        }
+
+        byte[] key = new byte[0];
+
+        for ( int i = 0; i < length; i++ )
+        {
+            key = append( key, values.get( attributeTypes[i].getOid() ) );
+        }
+
+        return key;
+    }
+
+
+    /**
+     * Gets the keys an entry is indexed under. If a level would exceed the maximum
+     * number of keys, the entry is indexed under the marker key of the level instead
+     * of its tuples, and the next levels are skipped.
+     *
+     * @param entry The entry
+     * @return The keys, one per tuple of each leading part of the attributes
+     */
+    public List<byte[]> getKeys( Entry entry )
+    {
+        List<byte[]> keys = new ArrayList<byte[]>();
+        List<byte[]> prefixes = new ArrayList<byte[]>();
+        prefixes.add( new byte[0] );
+
+        for ( int level = 0; level < attributeTypes.length; level++ )
+        {
+            Attribute attribute = entry.get( attributeTypes[level] );
+
+            if ( ( attribute == null ) || ( attribute.size() == 0 ) )
+            {
+                break;
+            }
+
+            if ( keys.size() + ( long ) prefixes.size() * attribute.size() > maxKeys )
+            {
+                keys.add( getTruncatedKey( level ) );
+
+                break;
+            }
+
+            List<byte[]> tuples = new ArrayList<byte[]>( prefixes.size() * attribute.size() );
+
+            for ( byte[] prefix : prefixes )
+            {
+                for ( Value<?> value : attribute )
+                {
+                    tuples.add( append( prefix, value ) );
+                }
+            }
+
+            keys.addAll( tuples );
+            prefixes = tuples;
+        }
+
+        return keys;
+    }
+
+
+    /**
+     * Adds the writes needed to index an entry
+     *
+     * @param indexWrites The index writes
+     * @param entry The added entry
+     */
+    public void add( IndexWriteBatch indexWrites, Entry entry )
+    {
+        for ( byte[] key : getKeys( entry ) )
+        {
+            indexWrites.add( index, key );
+        }
+    }
+
+
+    /**
+     * Adds the writes needed to remove an entry from the index
+     *
+     * @param indexWrites The index writes
+     * @param entry The deleted entry
+     */
+    public void drop( IndexWriteBatch indexWrites, Entry entry )
+    {
+        for ( byte[] key : getKeys( entry ) )
+        {
+            indexWrites.drop( index, key );
+        }
+    }
+
+
+    /**
+     * Adds the writes needed when an entry is modified : the keys which are not used
+     * anymore are dropped, and the new ones are added.
+     *
+     * @param indexWrites The index writes
+     * @param oldKeys The keys of the entry before its modification
+     * @param entry The modified entry
+     */
+    public void update( IndexWriteBatch indexWrites, List<byte[]> oldKeys, Entry entry )
+    {
+        List<byte[]> newKeys = getKeys( entry );
+        Set<ByteBuffer> oldSet = new HashSet<ByteBuffer>();
+        Set<ByteBuffer> newSet = new HashSet<ByteBuffer>();
+
+        for ( byte[] key : oldKeys )
+        {
+            oldSet.add( ByteBuffer.wrap( key ) );
+        }
+
+        for ( byte[] key : newKeys )
+        {
+            newSet.add( ByteBuffer.wrap( key ) );
+        }
+
+        for ( byte[] key : oldKeys )
+        {
+            if ( !newSet.contains( ByteBuffer.wrap( key ) ) )
+            {
+                indexWrites.drop( index, key );
+            }
+        }
+
+        for ( byte[] key : newKeys )
+        {
+            if ( !oldSet.contains( ByteBuffer.wrap( key ) ) )
+            {
+                indexWrites.add( index, key );
+            }
+        }
+    }
+
+
+    /**
+     * Gets the marker key of the entries which are not indexed from a given level
+     */
+    private static byte[] getTruncatedKey( int level )
+    {
+        byte[] key = new byte[TRUNCATED_MARKER.length + 1];
+        System.arraycopy( TRUNCATED_MARKER, 0, key, 0, TRUNCATED_MARKER.length );
+        key[TRUNCATED_MARKER.length] = ( byte ) level;
+
+        return key;
+    }
+
+
+    /**
+     * Appends a value to a key : its length, on 4 bytes, and its normalized bytes
+     */
+    private static byte[] append( byte[] prefix, Value<?> value )
+    {
+        Object normValue = value.getNormValue();
+        byte[] bytes;
+
+        if ( normValue instanceof byte[] )
+        {
+            bytes = ( byte[] ) normValue;
+        }
+        else
+        {
+            bytes = Strings.getBytesUtf8( String.valueOf( normValue ) );
+        }
+
+        byte[] key = new byte[prefix.length + 4 + bytes.length];
+        System.arraycopy( prefix, 0, key, 0, prefix.length );
+        key[prefix.length] = ( byte ) ( bytes.length >>> 24 );
+        key[prefix.length + 1] = ( byte ) ( bytes.length >>> 16 );
+        key[prefix.length + 2] = ( byte ) ( bytes.length >>> 8 );
+        key[prefix.length + 3] = ( byte ) bytes.length;
+        System.arraycopy( bytes, 0, key, prefix.length + 4, bytes.length );
+
+        return key;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return "CompositeIndex<" + name + ">";
+    }
+}
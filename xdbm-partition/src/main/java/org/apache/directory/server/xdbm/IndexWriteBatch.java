@@ -0,0 +1,367 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The index writes of an operation, gathered before being applied. The writes are
+ * grouped per index, and each index is written by a single thread, in the order the
+ * writes have been added : the indices are updated concurrently, and the operation
+ * completes when all of them are up to date.
+ * <br>
+ * If a write fails, the writes already applied are undone, on all the indices, before
+ * the failure is reported : the indices are left as they were, consistent with the
+ * master table which has not been updated yet. The writes are expected to match the
+ * stored entry : a tuple is added only if it does not exist yet, and dropped only if
+ * it exists. If the operation fails after the batch has been applied, {@link #undo()}
+ * reverts all the writes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexWriteBatch
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( IndexWriteBatch.class );
+
+    /** The writes, per index */
+    private final Map<Index<?, String>, IndexWriter> writers = new IdentityHashMap<Index<?, String>, IndexWriter>();
+
+    /** The writers, in the order the indices have been first written */
+    private final List<IndexWriter> orderedWriters = new ArrayList<IndexWriter>();
+
+    /** The entry ID */
+    private final String id;
+
+    /** The number of writes */
+    private int size;
+
+    /**
+     * A write in an index
+     */
+    private static class IndexWrite
+    {
+        /** The key */
+        private final Object key;
+
+        /** The ID the key is associated with */
+        private final String id;
+
+        /** true for an addition, false for a removal */
+        private final boolean add;
+
+
+        private IndexWrite( Object key, String id, boolean add )
+        {
+            this.key = key;
+            this.id = id;
+            this.add = add;
+        }
+    }
+
+    /**
+     * Applies the writes of a single index
+     */
+    private static class IndexWriter implements Runnable
+    {
+        /** The written index */
+        private final Index<Object, String> index;
+
+        /** The writes, in order */
+        private final List<IndexWrite> writes = new ArrayList<IndexWrite>();
+
+        /** The number of writes applied so far */
+        private int applied;
+
+        /** The failure, if any */
+        private Exception failure;
+
+
+        @SuppressWarnings("unchecked")
+        private IndexWriter( Index<?, String> index )
+        {
+            this.index = ( Index<Object, String> ) index;
+        }
+
+
+        public void run()
+        {
+            try
+            {
+                for ( IndexWrite write : writes )
+                {
+                    if ( write.add )
+                    {
+                        index.add( write.key, write.id );
+                    }
+                    else
+                    {
+                        index.drop( write.key, write.id );
+                    }
+
+                    applied++;
+                }
+            }
+            catch ( Exception e )
+            {
+                failure = e;
+            }
+        }
+
+
+        /**
+         * Undoes the applied writes, in reverse order
+         */
+        private void undo()
+        {
+            for ( int i = applied - 1; i >= 0; i-- )
+            {
+                IndexWrite write = writes.get( i );
+
+                try
+                {
+                    if ( write.add )
+                    {
+                        index.drop( write.key, write.id );
+                    }
+                    else
+                    {
+                        index.add( write.key, write.id );
+                    }
+                }
+                catch ( Exception e )
+                {
+                    LOG.error( "Cannot undo a write in the {} index for the entry {}", index.getAttributeId(),
+                        write.id );
+                    LOG.error( "", e );
+                }
+            }
+
+            applied = 0;
+        }
+    }
+
+    /**
+     * Creates a new instance of IndexWriteBatch.
+     *
+     * @param id The ID of the entry the writes are done for
+     */
+    public IndexWriteBatch( String id )
+    {
+        this.id = id;
+    }
+
+
+    private IndexWriter getWriter( Index<?, String> index )
+    {
+        IndexWriter writer = writers.get( index );
+
+        if ( writer == null )
+        {
+            writer = new IndexWriter( index );
+            writers.put( index, writer );
+            orderedWriters.add( writer );
+        }
+
+        return writer;
+    }
+
+
+    /**
+     * Adds a tuple in an index
+     *
+     * @param index The index
+     * @param key The key to add
+     */
+    public <K> void add( Index<K, String> index, K key )
+    {
+        add( index, key, id );
+    }
+
+
+    /**
+     * Adds a tuple in an index, for another ID than the entry one : the alias
+     * indexes associate the target of an alias to its ancestors, for instance.
+     *
+     * @param index The index
+     * @param key The key to add
+     * @param value The ID associated with the key
+     */
+    public <K> void add( Index<K, String> index, K key, String value )
+    {
+        getWriter( index ).writes.add( new IndexWrite( key, value, true ) );
+        size++;
+    }
+
+
+    /**
+     * Drops a tuple from an index
+     *
+     * @param index The index
+     * @param key The key to drop
+     */
+    public <K> void drop( Index<K, String> index, K key )
+    {
+        drop( index, key, id );
+    }
+
+
+    /**
+     * Drops a tuple from an index, for another ID than the entry one
+     *
+     * @param index The index
+     * @param key The key to drop
+     * @param value The ID associated with the key
+     */
+    public <K> void drop( Index<K, String> index, K key, String value )
+    {
+        getWriter( index ).writes.add( new IndexWrite( key, value, false ) );
+        size++;
+    }
+
+
+    /**
+     * @return The number of writes
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The number of written indices
+     */
+    public int getIndexCount()
+    {
+        return orderedWriters.size();
+    }
+
+
+    /**
+     * Applies the writes. Each index is written by a task run by the executor, but one
+     * which is run by the caller thread.
+     *
+     * @param executor The executor writing the indices, or null to write them all from
+     * the caller thread
+     * @throws Exception If a write has failed. The writes have then been undone.
+     */
+    public void apply( Executor executor ) throws Exception
+    {
+        if ( ( executor == null ) || ( orderedWriters.size() < 2 ) )
+        {
+            for ( IndexWriter writer : orderedWriters )
+            {
+                writer.run();
+
+                if ( writer.failure != null )
+                {
+                    rollback( writer.failure );
+                }
+            }
+
+            return;
+        }
+
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>( orderedWriters.size() - 1 );
+
+        for ( int i = 1; i < orderedWriters.size(); i++ )
+        {
+            FutureTask<Void> task = new FutureTask<Void>( orderedWriters.get( i ), null );
+            tasks.add( task );
+
+            try
+            {
+                executor.execute( task );
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                task.run();
+            }
+        }
+
+        IndexWriter first = orderedWriters.get( 0 );
+        first.run();
+
+        Exception failure = first.failure;
+
+        for ( int i = 0; i < tasks.size(); i++ )
+        {
+            try
+            {
+                tasks.get( i ).get();
+            }
+            catch ( ExecutionException ee )
+            {
+                // Can't happen : the writer catches its exceptions
+                orderedWriters.get( i + 1 ).failure = new Exception( ee.getCause() );
+            }
+
+            if ( failure == null )
+            {
+                failure = orderedWriters.get( i + 1 ).failure;
+            }
+        }
+
+        if ( failure != null )
+        {
+            rollback( failure );
+        }
+    }
+
+
+    /**
+     * Undoes all the applied writes, when the operation fails after the batch has been
+     * applied. The failures are logged : the writes which can be undone are.
+     */
+    public void undo()
+    {
+        for ( int i = orderedWriters.size() - 1; i >= 0; i-- )
+        {
+            orderedWriters.get( i ).undo();
+        }
+    }
+
+
+    /**
+     * Undoes all the applied writes, and throws the failure
+     */
+    private void rollback( Exception failure ) throws Exception
+    {
+        for ( IndexWriter writer : orderedWriters )
+        {
+            writer.undo();
+        }
+
+        throw failure;
+    }
+}
@@ -25,6 +25,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
@@ -38,6 +39,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
 
 
 /**
@@ -164,6 +166,12 @@ public interface Store
     void addIndex( Index<?, String> index ) throws Exception;
 
 
+    /**
+     * @return The composite indexes of this store
+     */
+    List<CompositeIndex> getCompositeIndexes();
+
+
     //------------------------------------------------------------------------
     // System index
     //------------------------------------------------------------------------
@@ -348,6 +356,19 @@ public interface Store
     Entry fetch( String id, Dn dn ) throws LdapException;
 
 
+    /**
+     * Get back an entry knowing its UUID, recording in a search trace if the entry
+     * has been found in the cache or read from the master table
+     *
+     * @param id The Entry UUID we want to get back
+     * @param dn The entry DN when we have it
+     * @param trace The search trace, or null if the search is not traced
+     * @return The found Entry, or null if not found
+     * @throws Exception If the lookup failed for any reason (except a not found entry)
+     */
+    Entry fetch( String id, Dn dn, SearchTrace trace ) throws LdapException;
+
+
     /**
      * Gets the count of immediate children of the given entry UUID.
      *
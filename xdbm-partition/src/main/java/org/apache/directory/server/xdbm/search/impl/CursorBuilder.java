@@ -775,6 +775,15 @@ public class CursorBuilder
             }
         }
 
+        // A composite index lookup is used if it's at least as selective as the best child
+        DefaultOptimizer.CompositeScan compositeScan = ( DefaultOptimizer.CompositeScan ) node
+            .get( DefaultOptimizer.COMPOSITE_ANNOTATION_KEY );
+
+        if ( ( compositeScan != null ) && ( compositeScan.count <= minValue ) )
+        {
+            return computeComposite( compositeScan, searchResult );
+        }
+
         // Once found we return the number of candidates for this child
         ExprNode minChild = children.get( minIndex );
         long nbResults = build( minChild, searchResult );
@@ -783,6 +792,44 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Computes the set of candidates of a conjunction from the composite index lookup
+     * chosen by the optimizer.
+     */
+    private long computeComposite( DefaultOptimizer.CompositeScan compositeScan, PartitionSearchResult searchResult )
+        throws Exception
+    {
+        Set<String> uuidSet = searchResult.getCandidateSet();
+
+        if ( compositeScan.candidates != null )
+        {
+            uuidSet.addAll( compositeScan.candidates );
+
+            return compositeScan.candidates.size();
+        }
+
+        Cursor<String> cursor = compositeScan.compositeIndex.getIndex().forwardValueCursor( compositeScan.key );
+        int nbResults = 0;
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                if ( uuidSet.add( cursor.get() ) )
+                {
+                    nbResults++;
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return nbResults;
+    }
+
+
     /**
      * Creates an AndCursor over a conjunction expression branch node.
      *
@@ -20,13 +20,18 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.ApproximateNode;
 import org.apache.directory.api.ldap.model.filter.AssertionNode;
@@ -43,9 +48,11 @@ import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.CompositeIndex;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
@@ -53,6 +60,24 @@ import org.apache.directory.server.xdbm.search.Optimizer;
 
 /**
  * Optimizer that annotates the filter using scan counts.
+ * <br>
+ * The scan counts of a filter are kept in a bounded cache, keyed by the template of
+ * the normalized filter, without its values (see {@link FilterKey}). The count of a
+ * leaf is computed by gathering its candidates, up to {@link #MAX_CANDIDATES} of them :
+ * a smaller count comes with the candidates, which are used to build the cursor, so it
+ * is always computed again. A larger count is the only result of an index count,
+ * which is the costly part of the annotation, so it is reused by the next searches
+ * using the same template, whatever their values : it only drives the choice of the
+ * index used to get the candidates, so a stale count doesn't change the result. The
+ * counts of a template are computed again every {@link #REFRESH_INTERVAL} uses, so
+ * that they follow the modifications of the partition. A schema or an index
+ * modification changes the key of the templates using the modified attribute or index,
+ * so that their counts are computed again.
+ * <br>
+ * The equality children of a conjunction are also matched against the leading
+ * attributes of the composite indexes : when the tuple of their values has less
+ * candidates than the best child, the conjunction is annotated with the composite
+ * index lookup, which is then used to get the candidates.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -60,10 +85,106 @@ public class DefaultOptimizer<E> implements Optimizer
 {
     static final String CANDIDATES_ANNOTATION_KEY = "candidates";
 
+    /** The annotation of a conjunction resolved with a composite index */
+    static final String COMPOSITE_ANNOTATION_KEY = "composite";
+
+    /** The default number of filter templates kept in the plan cache */
+    public static final int DEFAULT_PLAN_CACHE_SIZE = 256;
+
+    /** The number of uses of a cached plan before its counts are computed again */
+    static final int REFRESH_INTERVAL = 64;
+
+    /**
+     * The number of candidates gathered for a leaf. Under this count, the candidates are
+     * stored in the node, and the count is not cached. Above, the count is read from the
+     * index, and can be reused.
+     */
+    static final int MAX_CANDIDATES = 100;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
 
+    /** The scan counts of the filter templates, by template */
+    private final Map<FilterKey, Plan> planCache;
+
+    /** The count of a leaf above which a cached count is reused */
+    private long reuseThreshold = MAX_CANDIDATES;
+
+    /**
+     * The scan counts of the leaves of a filter template, in the filter order.
+     */
+    private static class Plan
+    {
+        private final long[] counts;
+        private int uses;
+
+
+        private Plan( long[] counts )
+        {
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * A lookup in a composite index, giving the candidates of a conjunction
+     */
+    static class CompositeScan
+    {
+        /** The composite index */
+        final CompositeIndex compositeIndex;
+
+        /** The key of the tuple of the asserted values */
+        final byte[] key;
+
+        /** The number of candidates */
+        final long count;
+
+        /** The candidates, if there are less than 100 of them, or null */
+        final Set<String> candidates;
+
+
+        private CompositeScan( CompositeIndex compositeIndex, byte[] key, long count, Set<String> candidates )
+        {
+            this.compositeIndex = compositeIndex;
+            this.key = key;
+            this.count = count;
+            this.candidates = candidates;
+        }
+    }
+
+    /**
+     * The state of the annotation of a filter
+     */
+    private static class PlanContext
+    {
+        /** The leaves of the filter, with their position in the template */
+        private final Map<ExprNode, Integer> leaves = new IdentityHashMap<ExprNode, Integer>();
+
+        /** The counts of the cached plan, or null */
+        private final long[] cachedCounts;
+
+        /** The counts computed for this filter, -1 if not computed */
+        private final long[] counts;
+
+
+        private PlanContext( List<ExprNode> leafList, long[] cachedCounts )
+        {
+            for ( int i = 0; i < leafList.size(); i++ )
+            {
+                leaves.put( leafList.get( i ), i );
+            }
+
+            this.cachedCounts = cachedCounts;
+            counts = new long[leafList.size()];
+
+            for ( int i = 0; i < counts.length; i++ )
+            {
+                counts[i] = -1L;
+            }
+        }
+    }
+
 
     /**
      * Creates an optimizer on a database.
@@ -71,8 +192,38 @@ public class DefaultOptimizer<E> implements Optimizer
      * @param db the database this optimizer works for.
      */
     public DefaultOptimizer( Store db ) throws Exception
+    {
+        this( db, DEFAULT_PLAN_CACHE_SIZE );
+    }
+
+
+    /**
+     * Creates an optimizer on a database, with a plan cache of a given size.
+     *
+     * @param db the database this optimizer works for.
+     * @param planCacheSize the number of filter templates kept in the plan cache, 0 to disable it
+     */
+    public DefaultOptimizer( Store db, final int planCacheSize ) throws Exception
     {
         this.db = db;
+
+        if ( planCacheSize > 0 )
+        {
+            planCache = new LinkedHashMap<FilterKey, Plan>( 16, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+
+                protected boolean removeEldestEntry( Map.Entry<FilterKey, Plan> eldest )
+                {
+                    return size() > planCacheSize;
+                }
+            };
+        }
+        else
+        {
+            planCache = null;
+        }
     }
 
 
@@ -109,8 +260,142 @@ public class DefaultOptimizer<E> implements Optimizer
      *
      * @see org.apache.directory.server.xdbm.search.Optimizer#annotate(ExprNode)
      */
-    @SuppressWarnings("unchecked")
     public Long annotate( ExprNode node ) throws Exception
+    {
+        if ( planCache == null )
+        {
+            return annotate( node, null );
+        }
+
+        FilterKey key = FilterKey.create( node, db );
+
+        if ( key == null )
+        {
+            return annotate( node, null );
+        }
+
+        long[] cachedCounts = null;
+
+        synchronized ( planCache )
+        {
+            Plan plan = planCache.get( key );
+
+            if ( ( plan != null ) && ( ++plan.uses % REFRESH_INTERVAL != 0 ) )
+            {
+                cachedCounts = plan.counts;
+            }
+        }
+
+        PlanContext context = new PlanContext( FilterKey.getLeaves( node ), cachedCounts );
+        Long count = annotate( node, context );
+
+        if ( cachedCounts == null )
+        {
+            synchronized ( planCache )
+            {
+                planCache.put( key, new Plan( context.counts ) );
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Clears the plan cache. The plans of the templates using a modified schema element
+     * or index are not used anymore, this frees them.
+     */
+    public void clearPlanCache()
+    {
+        if ( planCache != null )
+        {
+            synchronized ( planCache )
+            {
+                planCache.clear();
+            }
+        }
+    }
+
+
+    /**
+     * @return the number of filter templates in the plan cache
+     */
+    public int getPlanCacheSize()
+    {
+        if ( planCache == null )
+        {
+            return 0;
+        }
+
+        synchronized ( planCache )
+        {
+            return planCache.size();
+        }
+    }
+
+
+    /**
+     * Sets the count of a leaf above which a cached count is reused (used by the tests).
+     */
+    void setReuseThreshold( long reuseThreshold )
+    {
+        this.reuseThreshold = reuseThreshold;
+    }
+
+
+    /**
+     * Gets the cached count of a leaf, if it can be reused
+     *
+     * @return the cached count, or -1 if the count has to be computed
+     */
+    private long getCachedCount( ExprNode node, PlanContext context ) throws Exception
+    {
+        if ( ( context == null ) || ( context.cachedCounts == null ) )
+        {
+            return -1L;
+        }
+
+        Integer index = context.leaves.get( node );
+
+        if ( index == null )
+        {
+            return -1L;
+        }
+
+        long count = context.cachedCounts[index];
+
+        // Small counts carry the candidates, and unindexed leaves are not counted
+        if ( ( count < reuseThreshold ) || ( count == Long.MAX_VALUE ) )
+        {
+            return -1L;
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Stores the count computed for a leaf
+     */
+    private void setComputedCount( ExprNode node, PlanContext context, long count )
+    {
+        if ( context != null )
+        {
+            Integer index = context.leaves.get( node );
+
+            if ( index != null )
+            {
+                context.counts[index] = count;
+            }
+        }
+    }
+
+
+    /**
+     * Annotates a node of the filter, reusing the counts of the cached plan if any.
+     */
+    @SuppressWarnings("unchecked")
+    private Long annotate( ExprNode node, PlanContext context ) throws Exception
     {
         // Start off with the worst case unless scan count says otherwise.
         Long count = Long.MAX_VALUE;
@@ -128,7 +413,19 @@ public class DefaultOptimizer<E> implements Optimizer
          * Comments on each node type explain how each scan count is arrived at.
          */
 
-        if ( node instanceof ScopeNode )
+        long cachedCount = getCachedCount( node, context );
+
+        if ( cachedCount >= 0L )
+        {
+            count = cachedCount;
+
+            if ( node instanceof SimpleNode )
+            {
+                // Don't keep the candidates of a previous search on this node
+                node.set( CANDIDATES_ANNOTATION_KEY, null );
+            }
+        }
+        else if ( node instanceof ScopeNode )
         {
             count = getScopeScan( ( ScopeNode ) node );
         }
@@ -187,15 +484,15 @@ public class DefaultOptimizer<E> implements Optimizer
         {
             if ( node instanceof AndNode )
             {
-                count = getConjunctionScan( ( AndNode ) node );
+                count = getConjunctionScan( ( AndNode ) node, context );
             }
             else if ( node instanceof OrNode )
             {
-                count = getDisjunctionScan( ( OrNode ) node );
+                count = getDisjunctionScan( ( OrNode ) node, context );
             }
             else if ( node instanceof NotNode )
             {
-                annotate( ( ( NotNode ) node ).getFirstChild() );
+                annotate( ( ( NotNode ) node ).getFirstChild(), context );
 
                 /*
                  * A negation filter is always worst case since we will have
@@ -219,6 +516,11 @@ public class DefaultOptimizer<E> implements Optimizer
 
         node.set( "count", count );
 
+        if ( cachedCount < 0L )
+        {
+            setComputedCount( node, context, count );
+        }
+
         return count;
     }
 
@@ -228,13 +530,15 @@ public class DefaultOptimizer<E> implements Optimizer
      * This is the best that a conjunction can do and should be used rather than
      * the worst case. Notice that we annotate the child node with a recursive 
      * call before accessing its count parameter making the chain recursion 
-     * depth first.
+     * depth first. A composite index lookup is used instead if it gives less
+     * candidates.
      *
      * @param node a AND (Conjunction) BranchNode
+     * @param context the annotation context
      * @return the calculated scan count
      * @throws Exception if there is an error
      */
-    private long getConjunctionScan( BranchNode node ) throws Exception
+    private long getConjunctionScan( BranchNode node, PlanContext context ) throws Exception
     {
         long count = Long.MAX_VALUE;
         List<ExprNode> children = node.getChildren();
@@ -247,7 +551,7 @@ public class DefaultOptimizer<E> implements Optimizer
                 break;
             }
 
-            annotate( child );
+            annotate( child, context );
             count = Math.min( ( ( Long ) child.get( "count" ) ), count );
 
             if ( count == 0 )
@@ -257,27 +561,137 @@ public class DefaultOptimizer<E> implements Optimizer
             }
         }
 
+        // Don't keep the composite index lookup of a previous search on this node
+        node.set( COMPOSITE_ANNOTATION_KEY, null );
+
+        if ( count > 0 )
+        {
+            count = getCompositeScan( node, count );
+        }
+
         return count;
     }
 
 
+    /**
+     * Looks for the composite index whose leading attributes are asserted by the
+     * equality children of a conjunction, and which has the smallest number of
+     * candidates for the tuple of the asserted values. The conjunction is annotated
+     * with the lookup if it gives less candidates than its best child.
+     *
+     * @param node the AND node
+     * @param count the count of the best child
+     * @return the count of the conjunction
+     * @throws Exception if there is an error accessing an index
+     */
+    private long getCompositeScan( BranchNode node, long count ) throws Exception
+    {
+        List<CompositeIndex> compositeIndexes = db.getCompositeIndexes();
+
+        if ( compositeIndexes.isEmpty() )
+        {
+            return count;
+        }
+
+        // The asserted values, by attribute. Only the first assertion on an attribute is used
+        Map<String, Value<?>> values = new HashMap<String, Value<?>>();
+
+        for ( ExprNode child : node.getChildren() )
+        {
+            if ( child instanceof EqualityNode )
+            {
+                EqualityNode<?> equalityNode = ( EqualityNode<?> ) child;
+                AttributeType attributeType = equalityNode.getAttributeType();
+
+                if ( ( attributeType != null ) && !values.containsKey( attributeType.getOid() ) )
+                {
+                    values.put( attributeType.getOid(), equalityNode.getValue() );
+                }
+            }
+        }
+
+        if ( values.isEmpty() )
+        {
+            return count;
+        }
+
+        CompositeIndex bestIndex = null;
+        byte[] bestKey = null;
+        long bestCount = count;
+
+        for ( CompositeIndex compositeIndex : compositeIndexes )
+        {
+            if ( !compositeIndex.isBuilt() )
+            {
+                continue;
+            }
+
+            byte[] key = compositeIndex.getKey( values );
+
+            if ( key == null )
+            {
+                continue;
+            }
+
+            long keyCount = compositeIndex.getIndex().count( key );
+
+            if ( keyCount < bestCount )
+            {
+                bestIndex = compositeIndex;
+                bestKey = key;
+                bestCount = keyCount;
+            }
+        }
+
+        if ( bestIndex == null )
+        {
+            return count;
+        }
+
+        Set<String> candidates = null;
+
+        if ( bestCount < MAX_CANDIDATES )
+        {
+            candidates = new HashSet<String>();
+            Cursor<String> result = bestIndex.getIndex().forwardValueCursor( bestKey );
+
+            try
+            {
+                for ( String id : result )
+                {
+                    candidates.add( id );
+                }
+            }
+            finally
+            {
+                result.close();
+            }
+        }
+
+        node.set( COMPOSITE_ANNOTATION_KEY, new CompositeScan( bestIndex, bestKey, bestCount, candidates ) );
+
+        return bestCount;
+    }
+
+
     /**
      * Disjunctions (OR) are the union of candidates across all subexpressions 
      * so we add all the counts of the child nodes. Notice that we annotate the 
      * child node with a recursive call.
      *
      * @param node the OR branch node
+     * @param context the annotation context
      * @return the scan count on the OR node
      * @throws Exception if there is an error
      */
-    private long getDisjunctionScan( BranchNode node ) throws Exception
+    private long getDisjunctionScan( BranchNode node, PlanContext context ) throws Exception
     {
         List<ExprNode> children = node.getChildren();
         long total = 0L;
 
         for ( ExprNode child : children )
         {
-            annotate( child );
+            annotate( child, context );
             total += ( Long ) child.get( "count" );
 
             if ( total == Long.MAX_VALUE )
@@ -316,7 +730,7 @@ public class DefaultOptimizer<E> implements Optimizer
                 nbFound++;
 
                 // Arbitrary stop gathering the candidates if we have more than 100
-                if ( nbFound == 100 )
+                if ( nbFound == MAX_CANDIDATES )
                 {
                     break;
                 }
@@ -324,7 +738,7 @@ public class DefaultOptimizer<E> implements Optimizer
 
             result.close();
 
-            if ( nbFound < 100 )
+            if ( nbFound < MAX_CANDIDATES )
             {
                 // Store the found candidates in the node
                 node.set( CANDIDATES_ANNOTATION_KEY, values );
@@ -21,6 +21,7 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import net.sf.ehcache.Element;
@@ -30,13 +31,16 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
 import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.monitor.SearchTrace;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
@@ -118,6 +122,7 @@ public class DefaultSearchEngine implements SearchEngine
         Dn baseDn = searchContext.getDn();
         AliasDerefMode aliasDerefMode = searchContext.getAliasDerefMode();
         ExprNode filter = searchContext.getFilter();
+        SearchTrace trace = searchContext.getTrace();
 
         // Compute the UUID of the baseDN entry
         String baseId = db.getEntryId( baseDn );
@@ -185,9 +190,6 @@ public class DefaultSearchEngine implements SearchEngine
             IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
             indexEntry.setId( effectiveBaseId );
 
-            // Fetch the entry, as we have only one
-            Entry entry = db.fetch( indexEntry.getId(), effectiveBase );
-
             Evaluator<? extends ExprNode> evaluator = null;
 
             if ( filter instanceof ObjectClassNode )
@@ -197,7 +199,14 @@ public class DefaultSearchEngine implements SearchEngine
             }
             else
             {
+                long start = System.nanoTime();
                 optimizer.annotate( filter );
+
+                if ( trace != null )
+                {
+                    trace.addStageTime( SearchTrace.ANNOTATE_STAGE, start );
+                }
+
                 evaluator = evaluatorBuilder.build( filter );
 
                 // Special case if the filter selects no candidate
@@ -208,6 +217,24 @@ public class DefaultSearchEngine implements SearchEngine
                 }
             }
 
+            if ( trace != null )
+            {
+                trace.setPlan( filter.toString() );
+                trace.setDrivingIndex( "base entry" );
+                trace.setCandidates( 1L );
+
+                if ( trace.isExplainOnly() )
+                {
+                    searchResult.setEvaluator( evaluator );
+                    searchResult.setResultSet( resultSet );
+
+                    return searchResult;
+                }
+            }
+
+            // Fetch the entry, as we have only one
+            Entry entry = db.fetch( indexEntry.getId(), effectiveBase, trace );
+
             indexEntry.setEntry( entry );
             resultSet.add( indexEntry );
 
@@ -235,7 +262,17 @@ public class DefaultSearchEngine implements SearchEngine
         }
 
         // Annotate the node with the optimizer and return search enumeration.
+        long start = System.nanoTime();
         optimizer.annotate( root );
+
+        if ( trace != null )
+        {
+            trace.addStageTime( SearchTrace.ANNOTATE_STAGE, start );
+            trace.setPlan( root.toString() );
+            trace.setDrivingIndex( getDrivingNode( root ) );
+            start = System.nanoTime();
+        }
+
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( root );
 
         Set<String> uuidSet = new HashSet<String>();
@@ -246,6 +283,21 @@ public class DefaultSearchEngine implements SearchEngine
 
         LOG.debug( "Nb results : {} for filter : {}", nbResults, root );
 
+        if ( trace != null )
+        {
+            trace.setCandidates( nbResults < Long.MAX_VALUE ? uuidSet.size() : db.count() );
+
+            if ( trace.isExplainOnly() )
+            {
+                // Don't read anything else, we just want the plan
+                trace.addStageTime( SearchTrace.CANDIDATES_STAGE, start );
+                searchResult.setEvaluator( evaluator );
+                searchResult.setResultSet( resultSet );
+
+                return searchResult;
+            }
+        }
+
         if ( nbResults < Long.MAX_VALUE )
         {
             for ( String uuid : uuidSet )
@@ -274,6 +326,11 @@ public class DefaultSearchEngine implements SearchEngine
             }
         }
 
+        if ( trace != null )
+        {
+            trace.addStageTime( SearchTrace.CANDIDATES_STAGE, start );
+        }
+
         searchResult.setEvaluator( evaluator );
         searchResult.setResultSet( resultSet );
 
@@ -281,6 +338,86 @@ public class DefaultSearchEngine implements SearchEngine
     }
 
 
+    /**
+     * Describes the node the CursorBuilder will use to gather the candidates : the
+     * child with the smallest count for a AND node, all the children for a OR node.
+     *
+     * @param node The annotated filter
+     * @return The driving node description
+     */
+    private String getDrivingNode( ExprNode node )
+    {
+        Object count = node.get( "count" );
+
+        if ( ( count != null ) && ( ( Long ) count == Long.MAX_VALUE ) )
+        {
+            return "full scan";
+        }
+
+        if ( node instanceof AndNode )
+        {
+            List<ExprNode> children = ( ( AndNode ) node ).getChildren();
+            ExprNode minChild = children.get( 0 );
+            long minValue = Long.MAX_VALUE;
+
+            for ( ExprNode child : children )
+            {
+                Object childCount = child.get( "count" );
+
+                if ( ( childCount != null ) && ( ( Long ) childCount < minValue ) )
+                {
+                    minValue = ( Long ) childCount;
+                    minChild = child;
+                }
+            }
+
+            DefaultOptimizer.CompositeScan compositeScan = ( DefaultOptimizer.CompositeScan ) node
+                .get( DefaultOptimizer.COMPOSITE_ANNOTATION_KEY );
+
+            if ( ( compositeScan != null ) && ( compositeScan.count <= minValue ) )
+            {
+                return compositeScan.compositeIndex.getName() + " composite index";
+            }
+
+            return getDrivingNode( minChild );
+        }
+
+        if ( node instanceof OrNode )
+        {
+            StringBuilder sb = new StringBuilder( "or(" );
+            boolean isFirst = true;
+
+            for ( ExprNode child : ( ( OrNode ) node ).getChildren() )
+            {
+                if ( isFirst )
+                {
+                    isFirst = false;
+                }
+                else
+                {
+                    sb.append( ", " );
+                }
+
+                sb.append( getDrivingNode( child ) );
+            }
+
+            return sb.append( ')' ).toString();
+        }
+
+        if ( node instanceof ScopeNode )
+        {
+            return ( ( ScopeNode ) node ).getScope().name().toLowerCase() + " scope";
+        }
+
+        if ( node instanceof LeafNode )
+        {
+            return ( ( LeafNode ) node ).getAttribute() + " index";
+        }
+
+        return node.getAssertionType().name().toLowerCase();
+    }
+
+
     /**
      * @see SearchEngine#evaluator(ExprNode)
      */
@@ -0,0 +1,259 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.filter.SimpleNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.Store;
+
+
+/**
+ * The key of a normalized filter in the plan cache of the optimizer : the template of
+ * the filter, made of its structure, its attributes and its scope, without the asserted
+ * values nor the search base. The filters differing only by their values share their
+ * plan. The attribute types and the indexes of its leaves are also part of the key,
+ * compared by identity : a plan built before a schema or an index modification is not
+ * found anymore, and is eventually evicted from the cache.
+ * <br>
+ * The key doesn't keep the nodes of the filter it has been created from.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class FilterKey
+{
+    /** The filter template */
+    private final String filter;
+
+    /** The attribute types of the leaves, or null for the scope nodes */
+    private final AttributeType[] attributeTypes;
+
+    /** The indexes of the attributes of the leaves, or null if there is no index */
+    private final Index<?, ?>[] indexes;
+
+
+    private FilterKey( String filter, AttributeType[] attributeTypes, Index<?, ?>[] indexes )
+    {
+        this.filter = filter;
+        this.attributeTypes = attributeTypes;
+        this.indexes = indexes;
+    }
+
+
+    /**
+     * Creates the key of a filter
+     *
+     * @param node The normalized filter
+     * @param db The partition
+     * @return The key, or null if the filter contains a node which can't be cached
+     * @throws Exception If an index can't be read
+     */
+    static FilterKey create( ExprNode node, Store db ) throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        List<ExprNode> leaves = new ArrayList<ExprNode>();
+
+        if ( !append( node, sb, leaves ) )
+        {
+            return null;
+        }
+
+        AttributeType[] attributeTypes = new AttributeType[leaves.size()];
+        Index<?, ?>[] indexes = new Index<?, ?>[leaves.size()];
+
+        for ( int i = 0; i < leaves.size(); i++ )
+        {
+            ExprNode leaf = leaves.get( i );
+
+            if ( leaf instanceof LeafNode )
+            {
+                AttributeType attributeType = ( ( LeafNode ) leaf ).getAttributeType();
+                attributeTypes[i] = attributeType;
+
+                if ( db.hasIndexOn( attributeType ) )
+                {
+                    indexes[i] = db.getIndex( attributeType );
+                }
+            }
+        }
+
+        return new FilterKey( sb.toString(), attributeTypes, indexes );
+    }
+
+
+    /**
+     * Gets the leaves of a filter whose key has been created, in the order of the key
+     *
+     * @param node The filter
+     * @return The leaves of the filter
+     */
+    static List<ExprNode> getLeaves( ExprNode node )
+    {
+        List<ExprNode> leaves = new ArrayList<ExprNode>();
+        gatherLeaves( node, leaves );
+
+        return leaves;
+    }
+
+
+    /**
+     * Gathers the leaves of a filter, in the order of the key
+     */
+    private static void gatherLeaves( ExprNode node, List<ExprNode> leaves )
+    {
+        if ( node instanceof BranchNode )
+        {
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                gatherLeaves( child, leaves );
+            }
+        }
+        else
+        {
+            leaves.add( node );
+        }
+    }
+
+
+    /**
+     * Appends the template of a node to the key, and gathers its leaves
+     *
+     * @return false if the node can't be cached
+     */
+    private static boolean append( ExprNode node, StringBuilder sb, List<ExprNode> leaves )
+    {
+        sb.append( '(' );
+
+        if ( ( node instanceof AndNode ) || ( node instanceof OrNode ) || ( node instanceof NotNode ) )
+        {
+            sb.append( node instanceof AndNode ? '&' : ( node instanceof OrNode ? '|' : '!' ) );
+
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                if ( !append( child, sb, leaves ) )
+                {
+                    return false;
+                }
+            }
+        }
+        else if ( node instanceof ScopeNode )
+        {
+            ScopeNode scopeNode = ( ScopeNode ) node;
+            sb.append( scopeNode.getScope() ).append( ':' ).append( scopeNode.getDerefAliases() );
+            leaves.add( node );
+        }
+        else if ( ( node instanceof LeafNode ) && ( ( ( LeafNode ) node ).getAttributeType() != null ) )
+        {
+            sb.append( node.getAssertionType() ).append( ':' );
+            sb.append( ( ( LeafNode ) node ).getAttributeType().getOid() );
+
+            if ( node instanceof SubstringNode )
+            {
+                // The parts of the pattern used, not their values
+                SubstringNode substringNode = ( SubstringNode ) node;
+                sb.append( ':' ).append( substringNode.getInitial() != null ? 'i' : '-' );
+                sb.append( substringNode.getAny() != null ? substringNode.getAny().size() : 0 );
+                sb.append( substringNode.getFinal() != null ? 'f' : '-' );
+            }
+            else if ( !( node instanceof SimpleNode ) && !( node instanceof PresenceNode ) )
+            {
+                // The extensible match and the other leaves are not cached
+                return false;
+            }
+
+            leaves.add( node );
+        }
+        else
+        {
+            // The assertion nodes and the undefined attributes are not cached
+            return false;
+        }
+
+        sb.append( ')' );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode()
+    {
+        return filter.hashCode();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals( Object o )
+    {
+        if ( this == o )
+        {
+            return true;
+        }
+
+        if ( !( o instanceof FilterKey ) )
+        {
+            return false;
+        }
+
+        FilterKey that = ( FilterKey ) o;
+
+        if ( !filter.equals( that.filter ) || ( attributeTypes.length != that.attributeTypes.length ) )
+        {
+            return false;
+        }
+
+        // A schema or an index modification creates new instances
+        for ( int i = 0; i < attributeTypes.length; i++ )
+        {
+            if ( ( attributeTypes[i] != that.attributeTypes[i] ) || ( indexes[i] != that.indexes[i] ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return filter;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests for the IndexWriteBatch.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexWriteBatchTest
+{
+    private static SchemaManager schemaManager;
+
+    private static final String ID = Strings.getUUID( 1L ).toString();
+
+    private ExecutorService executor;
+    private AvlIndex<String> ouIndex;
+    private AvlIndex<String> cnIndex;
+    private AvlIndex<String> failingIndex;
+
+    /**
+     * An index which fails to add the "fail" key
+     */
+    private static class FailingIndex extends AvlIndex<String>
+    {
+        private FailingIndex( String attributeId )
+        {
+            super( attributeId );
+        }
+
+
+        public void add( String attrVal, String id ) throws Exception
+        {
+            if ( "fail".equals( attrVal ) )
+            {
+                throw new Exception( "Cannot add " + attrVal );
+            }
+
+            super.add( attrVal, id );
+        }
+    }
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = IndexWriteBatchTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+    }
+
+
+    private static <T extends AvlIndex<String>> T init( T index, String oid ) throws Exception
+    {
+        index.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( oid ) );
+
+        return index;
+    }
+
+
+    @Before
+    public void createIndexes() throws Exception
+    {
+        executor = Executors.newFixedThreadPool( 2 );
+        ouIndex = init( new AvlIndex<String>( SchemaConstants.OU_AT_OID ), SchemaConstants.OU_AT_OID );
+        cnIndex = init( new AvlIndex<String>( SchemaConstants.CN_AT_OID ), SchemaConstants.CN_AT_OID );
+        failingIndex = init( new FailingIndex( SchemaConstants.SN_AT_OID ), SchemaConstants.SN_AT_OID );
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void testApply() throws Exception
+    {
+        ouIndex.add( "old", ID );
+
+        IndexWriteBatch batch = new IndexWriteBatch( ID );
+        batch.drop( ouIndex, "old" );
+        batch.add( ouIndex, "new" );
+        batch.add( cnIndex, "a" );
+        batch.add( cnIndex, "b" );
+        batch.add( failingIndex, "c" );
+
+        assertEquals( 5, batch.size() );
+        assertEquals( 3, batch.getIndexCount() );
+
+        batch.apply( executor );
+
+        assertFalse( ouIndex.forward( "old", ID ) );
+        assertTrue( ouIndex.forward( "new", ID ) );
+        assertTrue( cnIndex.forward( "a", ID ) );
+        assertTrue( cnIndex.forward( "b", ID ) );
+        assertTrue( failingIndex.forward( "c", ID ) );
+    }
+
+
+    @Test
+    public void testUndo() throws Exception
+    {
+        String otherId = Strings.getUUID( 2L ).toString();
+        ouIndex.add( "old", ID );
+
+        IndexWriteBatch batch = new IndexWriteBatch( ID );
+        batch.drop( ouIndex, "old" );
+        batch.add( ouIndex, "new" );
+        batch.add( cnIndex, "a", otherId );
+        batch.apply( executor );
+
+        assertTrue( cnIndex.forward( "a", otherId ) );
+        assertFalse( cnIndex.forward( "a", ID ) );
+
+        // The operation has failed after the batch was applied
+        batch.undo();
+
+        assertTrue( ouIndex.forward( "old", ID ) );
+        assertFalse( ouIndex.forward( "new", ID ) );
+        assertEquals( 1, ouIndex.count() );
+        assertEquals( 0, cnIndex.count() );
+    }
+
+
+    private void checkRollback( ExecutorService executor ) throws Exception
+    {
+        ouIndex.add( "old", ID );
+
+        IndexWriteBatch batch = new IndexWriteBatch( ID );
+        batch.drop( ouIndex, "old" );
+        batch.add( ouIndex, "new" );
+        batch.add( cnIndex, "a" );
+        batch.add( failingIndex, "c" );
+        batch.add( failingIndex, "fail" );
+
+        try
+        {
+            batch.apply( executor );
+            fail();
+        }
+        catch ( Exception e )
+        {
+            // Expected
+        }
+
+        // The indexes are left as they were
+        assertTrue( ouIndex.forward( "old", ID ) );
+        assertFalse( ouIndex.forward( "new", ID ) );
+        assertFalse( cnIndex.forward( "a", ID ) );
+        assertFalse( failingIndex.forward( "c", ID ) );
+        assertEquals( 1, ouIndex.count() );
+        assertEquals( 0, cnIndex.count() );
+        assertEquals( 0, failingIndex.count() );
+    }
+
+
+    @Test
+    public void testRollbackWithExecutor() throws Exception
+    {
+        checkRollback( executor );
+    }
+
+
+    @Test
+    public void testRollbackWithoutExecutor() throws Exception
+    {
+        checkRollback( null );
+    }
+}
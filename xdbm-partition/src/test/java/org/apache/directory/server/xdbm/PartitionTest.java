@@ -29,7 +29,9 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import net.sf.ehcache.store.AbstractStore;
 
@@ -88,6 +90,28 @@ public class PartitionTest
 
     private static CacheService cacheService;
 
+    /**
+     * An index which fails to add the "fail" key, to check the writes are rolled back
+     */
+    private static class FailingIndex extends AvlIndex<String>
+    {
+        private FailingIndex( String attributeId )
+        {
+            super( attributeId );
+        }
+
+
+        public void add( String attrVal, String id ) throws Exception
+        {
+            if ( "fail".equals( attrVal ) )
+            {
+                throw new Exception( "Cannot add " + attrVal );
+            }
+
+            super.add( attrVal, id );
+        }
+    }
+
 
     @BeforeClass
     public static void setup() throws Exception
@@ -134,7 +158,7 @@ public class PartitionTest
 
         partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
         partition.addIndex( new AvlIndex<String>( SchemaConstants.UID_AT_OID ) );
-        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        partition.addIndex( new FailingIndex( SchemaConstants.CN_AT_OID ) );
         partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
 
         partition.setCacheService( cacheService );
@@ -401,6 +425,110 @@ public class PartitionTest
     }
 
 
+    /**
+     * @return the number of tuples of all the indexes, by index attribute
+     */
+    private Map<String, Long> countIndexes() throws Exception
+    {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        Iterator<String> systemIndices = partition.getSystemIndices();
+
+        while ( systemIndices.hasNext() )
+        {
+            String oid = systemIndices.next();
+            counts.put( oid, partition.getSystemIndex( schemaManager.getAttributeType( oid ) ).count() );
+        }
+
+        Iterator<String> userIndices = partition.getUserIndices();
+
+        while ( userIndices.hasNext() )
+        {
+            String oid = userIndices.next();
+            counts.put( oid, partition.getUserIndex( schemaManager.getAttributeType( oid ) ).count() );
+        }
+
+        return counts;
+    }
+
+
+    /**
+     * An add failing while the indexes are written leaves all of them untouched
+     */
+    @Test
+    public void testAddRollback() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=fail,ou=Sales,o=Good Times Co." );
+
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "ou: Sales",
+            "administrativeRole: autonomousArea",
+            "cn: fail",
+            "sn: fail sn" );
+
+        Map<String, Long> counts = countIndexes();
+
+        try
+        {
+            StoreUtils.injectEntryInStore( partition, entry, 12 );
+            fail();
+        }
+        catch ( Exception e )
+        {
+            // Expected
+        }
+
+        assertNull( partition.getEntryId( dn ) );
+        assertEquals( counts, countIndexes() );
+    }
+
+
+    /**
+     * A modify failing while the indexes are written leaves all of them untouched
+     */
+    @Test
+    public void testModifyRollback() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String entryId = partition.getEntryId( dn );
+
+        Modification[] mods = new Modification[]
+            {
+                new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+                    schemaManager.getAttributeType( SchemaConstants.OBJECT_CLASS_AT ), "uidObject" ),
+                new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+                    schemaManager.getAttributeType( SchemaConstants.ADMINISTRATIVE_ROLE_AT ), "autonomousArea" ),
+                new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, OU_AT, "Engineering" ),
+                new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, UID_AT, "johnny" ),
+                new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, CN_AT, "fail" ) };
+
+        Map<String, Long> counts = countIndexes();
+
+        try
+        {
+            partition.modify( dn, mods );
+            fail();
+        }
+        catch ( Exception e )
+        {
+            // Expected
+        }
+
+        assertEquals( counts, countIndexes() );
+        assertFalse( partition.getObjectClassIndex().forward( "uidObject", entryId ) );
+        assertNull( partition.getAdministrativeRoleIndex().reverseLookup( entryId ) );
+        assertFalse( partition.getPresenceIndex().forward( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID, entryId ) );
+        assertFalse( partition.getPresenceIndex().forward( SchemaConstants.UID_AT_OID, entryId ) );
+        assertTrue( partition.getPresenceIndex().forward( SchemaConstants.OU_AT_OID, entryId ) );
+
+        Index<String, String> ouIndex = ( Index<String, String> ) partition.getUserIndex( OU_AT );
+        assertTrue( ouIndex.forward( "sales", entryId ) );
+        assertFalse( ouIndex.forward( "engineering", entryId ) );
+    }
+
+
     private Entry verifyParentId( Dn dn ) throws Exception
     {
         String entryId = partition.getEntryId( dn );
@@ -0,0 +1,320 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.xdbm.CompositeIndex;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Tests the searches using a composite index on (objectClass, ou, cn).
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompositeIndexTest extends AbstractCursorTest
+{
+    private static final Logger LOG = LoggerFactory.getLogger( CompositeIndexTest.class );
+
+    File wkdir;
+    static SchemaManager schemaManager = null;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = CompositeIndexTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( loader.getSchema( "collective" ) );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        // initialize the store
+        AvlPartition partition = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        partition.setId( "example" );
+        partition.setCacheSize( 10 );
+        partition.setPartitionPath( wkdir.toURI() );
+        partition.setSyncOnWrite( false );
+
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        partition.addCompositeIndex( new CompositeIndex( "objectClass+ou+cn" ) );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        store = partition;
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        evaluatorBuilder = new EvaluatorBuilder( store, schemaManager );
+        cursorBuilder = new CursorBuilder( store, evaluatorBuilder );
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+
+        LOG.debug( "Created new store" );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy();
+        }
+
+        store = null;
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    private ExprNode annotate( String filter ) throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, filter );
+        new DefaultOptimizer<Entry>( store ).annotate( exprNode );
+
+        return exprNode;
+    }
+
+
+    /**
+     * @return the cn of the entries matching the annotated filter
+     */
+    private Set<String> search( ExprNode exprNode ) throws Exception
+    {
+        Set<String> names = new HashSet<String>();
+        Cursor<Entry> cursor = buildCursor( exprNode );
+        cursor.beforeFirst();
+
+        while ( cursor.next() )
+        {
+            names.add( cursor.get().get( SchemaConstants.CN_AT ).getString() );
+        }
+
+        cursor.close();
+
+        return names;
+    }
+
+
+    @Test
+    public void testFullTuple() throws Exception
+    {
+        ExprNode exprNode = annotate( "(&(objectClass=person)(ou=Sales)(cn=JIM BEAN))" );
+        DefaultOptimizer.CompositeScan compositeScan = ( DefaultOptimizer.CompositeScan ) exprNode
+            .get( DefaultOptimizer.COMPOSITE_ANNOTATION_KEY );
+
+        assertNotNull( compositeScan );
+        assertEquals( 1L, compositeScan.count );
+        assertEquals( 1L, exprNode.get( "count" ) );
+
+        Set<String> names = search( exprNode );
+        assertEquals( 1, names.size() );
+        assertTrue( names.contains( "JIM BEAN" ) );
+    }
+
+
+    @Test
+    public void testPrefix() throws Exception
+    {
+        // The children order does not matter
+        ExprNode exprNode = annotate( "(&(ou=Sales)(objectClass=person))" );
+        DefaultOptimizer.CompositeScan compositeScan = ( DefaultOptimizer.CompositeScan ) exprNode
+            .get( DefaultOptimizer.COMPOSITE_ANNOTATION_KEY );
+
+        assertNotNull( compositeScan );
+        assertEquals( 2L, compositeScan.count );
+
+        Set<String> names = search( exprNode );
+        assertEquals( 2, names.size() );
+        assertTrue( names.contains( "JOhnny WAlkeR" ) );
+        assertTrue( names.contains( "JIM BEAN" ) );
+
+        // The first attribute is not asserted : the composite index can't be used
+        exprNode = annotate( "(&(ou=Sales)(cn=JIM BEAN))" );
+        assertNull( exprNode.get( DefaultOptimizer.COMPOSITE_ANNOTATION_KEY ) );
+        assertEquals( 1, search( exprNode ).size() );
+    }
+
+
+    @Test
+    public void testNoMatch() throws Exception
+    {
+        ExprNode exprNode = annotate( "(&(objectClass=person)(ou=Sales)(cn=Jack Daniels))" );
+
+        assertEquals( 0L, exprNode.get( "count" ) );
+        assertEquals( 0, search( exprNode ).size() );
+    }
+
+
+    @Test
+    public void testWrites() throws Exception
+    {
+        AbstractBTreePartition partition = ( AbstractBTreePartition ) store;
+        Dn johnny = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        Dn jack = new Dn( schemaManager, "cn=Jack Daniels,ou=Engineering,o=Good Times Co." );
+
+        partition.modify( johnny, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OU_AT ),
+                "Engineering" ) ) );
+
+        Set<String> names = search( annotate( "(&(objectClass=person)(ou=Sales))" ) );
+        assertEquals( 1, names.size() );
+        assertTrue( names.contains( "JIM BEAN" ) );
+
+        names = search( annotate( "(&(objectClass=person)(ou=Engineering))" ) );
+        assertEquals( 2, names.size() );
+        assertTrue( names.contains( "JOhnny WAlkeR" ) );
+        assertTrue( names.contains( "Jack Daniels" ) );
+
+        partition.delete( partition.getEntryId( jack ) );
+
+        names = search( annotate( "(&(objectClass=person)(ou=Engineering))" ) );
+        assertEquals( 1, names.size() );
+        assertTrue( names.contains( "JOhnny WAlkeR" ) );
+
+        ExprNode exprNode = annotate( "(&(objectClass=person)(ou=Engineering)(cn=Jack Daniels))" );
+        assertEquals( 0L, exprNode.get( "count" ) );
+    }
+
+
+    @Test
+    public void testMaxKeys() throws Exception
+    {
+        AbstractBTreePartition partition = ( AbstractBTreePartition ) store;
+        Dn johnny = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String filter = "(&(objectClass=person)(ou=Sales)(cn=JOhnny WAlkeR))";
+
+        // 3 objectClass values : 9 keys, 12 with a second cn value
+        partition.getCompositeIndexes().get( 0 ).setMaxKeys( 10 );
+
+        partition.modify( johnny, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CN_AT ), "John" ) ) );
+
+        // The (objectClass, ou, cn) tuples of the entry are not indexed : the lookups use (objectClass, ou)
+        ExprNode exprNode = annotate( filter );
+        assertEquals( 1L, exprNode.get( "count" ) );
+
+        Set<String> names = search( exprNode );
+        assertEquals( 1, names.size() );
+        assertTrue( names.contains( "JOhnny WAlkeR" ) );
+
+        names = search( annotate( "(&(objectClass=person)(ou=Sales)(cn=JIM BEAN))" ) );
+        assertEquals( 1, names.size() );
+        assertTrue( names.contains( "JIM BEAN" ) );
+
+        // Once the entry is fully indexed again, the whole tuple is used
+        partition.modify( johnny, new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CN_AT ), "John" ) ) );
+
+        exprNode = annotate( filter );
+        DefaultOptimizer.CompositeScan compositeScan = ( DefaultOptimizer.CompositeScan ) exprNode
+            .get( DefaultOptimizer.COMPOSITE_ANNOTATION_KEY );
+
+        assertNotNull( compositeScan );
+        assertEquals( 1L, compositeScan.count );
+        assertEquals( 1, search( exprNode ).size() );
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * Measures the time spent by the DefaultOptimizer to annotate a search filter, with and
+ * without the plan cache, on a partition where the objectClass index holds a lot of
+ * entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Ignore
+public class DefaultOptimizerPerfTest
+{
+    /** The number of entries in the partition */
+    private static final int NB_ENTRIES = 20000;
+
+    /** The number of annotated filters */
+    private static final int NB_SEARCHES = 200000;
+
+    private static SchemaManager schemaManager;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = DefaultOptimizerPerfTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+    }
+
+
+    /**
+     * Annotates some (&(objectClass=inetOrgPerson)(uid=userN)) filters
+     *
+     * @return The average time spent in the optimizer, in nanoseconds
+     */
+    private long annotate( DefaultOptimizer<Entry> optimizer ) throws Exception
+    {
+        long time = 0L;
+
+        for ( int i = 0; i < NB_SEARCHES; i++ )
+        {
+            String filter = "(&(objectClass=inetOrgPerson)(uid=user" + ( i % NB_ENTRIES ) + "))";
+
+            // The parsing is not part of the planning
+            ExprNode node = FilterParser.parse( schemaManager, filter );
+
+            long t0 = System.nanoTime();
+            optimizer.annotate( node );
+            time += System.nanoTime() - t0;
+        }
+
+        return time / NB_SEARCHES;
+    }
+
+
+    @Test
+    public void testPlanningOverhead() throws Exception
+    {
+        File wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir.mkdirs();
+
+        MockDirectoryService directoryService = new MockDirectoryService();
+        AvlPartition partition = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        partition.setId( "perf" );
+        partition.setPartitionPath( wkdir.toURI() );
+        partition.setSyncOnWrite( false );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.UID_AT_OID ) );
+
+        Dn suffixDn = new Dn( schemaManager, "o=perf" );
+        partition.setSuffixDn( suffixDn );
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        try
+        {
+            StoreUtils.injectEntryInStore( partition, new DefaultEntry( schemaManager, suffixDn,
+                "objectClass: organization",
+                "o: perf" ), 1L );
+
+            for ( int i = 0; i < NB_ENTRIES; i++ )
+            {
+                StoreUtils.injectEntryInStore( partition, new DefaultEntry( schemaManager,
+                    "uid=user" + i + ",o=perf",
+                    "objectClass: inetOrgPerson",
+                    "uid: user" + i,
+                    "cn: user" + i,
+                    "sn: user" + i ), i + 2L );
+            }
+
+            DefaultOptimizer<Entry> uncached = new DefaultOptimizer<Entry>( partition, 0 );
+            DefaultOptimizer<Entry> cached = new DefaultOptimizer<Entry>( partition );
+
+            // Warm up
+            annotate( uncached );
+            annotate( cached );
+
+            System.out.println( "Planning without cache : " + annotate( uncached ) + " ns/search, with cache : "
+                + annotate( cached ) + " ns/search" );
+        }
+        finally
+        {
+            partition.destroy();
+            FileUtils.deleteDirectory( wkdir );
+        }
+    }
+}
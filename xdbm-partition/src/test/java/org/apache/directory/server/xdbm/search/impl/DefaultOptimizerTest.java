@@ -0,0 +1,299 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Tests the plan cache of the DefaultOptimizer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DefaultOptimizerTest extends AbstractCursorTest
+{
+    private static final Logger LOG = LoggerFactory.getLogger( DefaultOptimizerTest.class );
+
+    File wkdir;
+    static SchemaManager schemaManager = null;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = DefaultOptimizerTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( loader.getSchema( "collective" ) );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        ( ( Partition ) store ).setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        ( ( Partition ) store ).setCacheService( cacheService );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        evaluatorBuilder = new EvaluatorBuilder( store, schemaManager );
+        cursorBuilder = new CursorBuilder( store, evaluatorBuilder );
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+
+        LOG.debug( "Created new store" );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy();
+        }
+
+        store = null;
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    private ExprNode annotate( DefaultOptimizer<Entry> optimizer, String filter ) throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, filter );
+        optimizer.annotate( exprNode );
+
+        return exprNode;
+    }
+
+
+    @Test
+    public void testPlanIsCachedByTemplate() throws Exception
+    {
+        DefaultOptimizer<Entry> optimizer = new DefaultOptimizer<Entry>( store );
+
+        annotate( optimizer, "(&(ou=Sales)(cn=JOhnny WAlkeR))" );
+        annotate( optimizer, "(&(ou=Engineering)(cn=Jack Daniels))" );
+        assertEquals( 1, optimizer.getPlanCacheSize() );
+
+        annotate( optimizer, "(|(ou=Sales)(cn=JOhnny WAlkeR))" );
+        annotate( optimizer, "(&(cn=JOhnny WAlkeR)(ou=Sales))" );
+        assertEquals( 3, optimizer.getPlanCacheSize() );
+
+        optimizer.clearPlanCache();
+        assertEquals( 0, optimizer.getPlanCacheSize() );
+
+        // A disabled cache
+        optimizer = new DefaultOptimizer<Entry>( store, 0 );
+        annotate( optimizer, "(ou=Sales)" );
+        assertEquals( 0, optimizer.getPlanCacheSize() );
+    }
+
+
+    @Test
+    public void testSmallCountsAreComputed() throws Exception
+    {
+        DefaultOptimizer<Entry> optimizer = new DefaultOptimizer<Entry>( store );
+
+        ExprNode sales = annotate( optimizer, "(ou=Sales)" );
+        ExprNode board = annotate( optimizer, "(ou=Board of Directors)" );
+
+        assertEquals( 3L, sales.get( "count" ) );
+        assertEquals( 1L, board.get( "count" ) );
+        assertNotNull( board.get( DefaultOptimizer.CANDIDATES_ANNOTATION_KEY ) );
+    }
+
+
+    @Test
+    public void testLargeCountsAreReused() throws Exception
+    {
+        DefaultOptimizer<Entry> optimizer = new DefaultOptimizer<Entry>( store );
+        optimizer.setReuseThreshold( 2L );
+
+        annotate( optimizer, "(ou=Sales)" );
+        ExprNode board = annotate( optimizer, "(ou=Board of Directors)" );
+
+        // The count of the previous search is reused, without the candidates
+        assertEquals( 3L, board.get( "count" ) );
+        assertNull( board.get( DefaultOptimizer.CANDIDATES_ANNOTATION_KEY ) );
+
+        // The search still returns the right entry
+        Cursor<Entry> cursor = buildCursor( board );
+        cursor.beforeFirst();
+        assertTrue( cursor.next() );
+        assertEquals( Strings.getUUID( 3L ), cursor.get().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+        assertFalse( cursor.next() );
+        cursor.close();
+
+        // The counts are computed again once the cache is cleared
+        optimizer.clearPlanCache();
+        board = annotate( optimizer, "(ou=Board of Directors)" );
+        assertEquals( 1L, board.get( "count" ) );
+    }
+
+
+    @Test
+    public void testCountsAreRefreshed() throws Exception
+    {
+        DefaultOptimizer<Entry> optimizer = new DefaultOptimizer<Entry>( store );
+        optimizer.setReuseThreshold( 2L );
+
+        annotate( optimizer, "(ou=Sales)" );
+        boolean refreshed = false;
+
+        for ( int i = 0; i < DefaultOptimizer.REFRESH_INTERVAL; i++ )
+        {
+            ExprNode board = annotate( optimizer, "(ou=Board of Directors)" );
+
+            if ( ( Long ) board.get( "count" ) == 1L )
+            {
+                refreshed = true;
+
+                break;
+            }
+        }
+
+        assertTrue( refreshed );
+
+        // The refreshed count is cached
+        ExprNode board = annotate( optimizer, "(ou=Board of Directors)" );
+        Set<?> candidates = ( Set<?> ) board.get( DefaultOptimizer.CANDIDATES_ANNOTATION_KEY );
+        assertEquals( 1L, board.get( "count" ) );
+        assertEquals( 1, candidates.size() );
+    }
+
+
+    @Test
+    public void testKeyDependsOnIndexes() throws Exception
+    {
+        FilterKey key = FilterKey.create( FilterParser.parse( schemaManager, "(ou=Sales)" ), store );
+
+        // The values are not part of the key
+        assertEquals( key, FilterKey.create( FilterParser.parse( schemaManager, "(ou=Engineering)" ), store ) );
+        assertFalse( key.equals( FilterKey.create( FilterParser.parse( schemaManager, "(ou>=Sales)" ), store ) ) );
+
+        // The same filter on a partition without the ou index
+        AvlPartition other = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        other.setId( "other" );
+        other.setCacheSize( 10 );
+        other.setSyncOnWrite( false );
+        other.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        other.setCacheService( cacheService );
+        other.initialize();
+
+        try
+        {
+            assertFalse( key.equals( FilterKey.create( FilterParser.parse( schemaManager, "(ou=Sales)" ), other ) ) );
+        }
+        finally
+        {
+            other.destroy();
+        }
+    }
+}